@@ -27,6 +27,7 @@ import gaiasky.assets.SGLoader.SGLoaderParameter;
 import gaiasky.data.AssetBean;
 import gaiasky.data.StreamingOctreeLoader;
 import gaiasky.data.util.PointCloudData;
+import gaiasky.desktop.concurrent.ThreadPoolManager;
 import gaiasky.desktop.util.CrashReporter;
 import gaiasky.desktop.util.SysUtils;
 import gaiasky.event.EventManager;
@@ -282,6 +283,9 @@ public class GaiaSky implements ApplicationListener, IObserver, IMainRenderer {
         if (debugMode)
             logger.debug("Logging level set to DEBUG");
 
+        // Event dispatch statistics, logged at exit
+        EventManager.instance.setStatistics(debugMode);
+
         // Init graphics and window
         graphics = (Lwjgl3Graphics) Gdx.graphics;
         window = graphics.getWindow();
@@ -352,6 +356,10 @@ public class GaiaSky implements ApplicationListener, IObserver, IMainRenderer {
         // Initialise dataset updater
         DatasetUpdater.initialize();
 
+        // Initialise the pool of the parallel scene graph update
+        if (GlobalConf.performance.PARALLEL_UPDATE())
+            ThreadPoolManager.initialize(GlobalConf.performance.NUMBER_THREADS());
+
         // Bookmarks
         BookmarksManager.initialize();
 
@@ -627,8 +635,11 @@ public class GaiaSky implements ApplicationListener, IObserver, IMainRenderer {
                 EventManager.instance.post(Events.DEBUG_RAM, MemInfo.getUsedMemory(), MemInfo.getFreeMemory(), MemInfo.getTotalMemory(), MemInfo.getMaxMemory());
                 // Observed objects
                 EventManager.instance.post(Events.DEBUG_OBJECTS, OctreeNode.nObjectsObserved, StreamingOctreeLoader.getNLoadedStars());
+                // Scene graph update
+                if (sg != null)
+                    EventManager.instance.post(Events.DEBUG_UPDATE, sg.getUpdateMs(), GlobalConf.performance.PARALLEL_UPDATE() && ThreadPoolManager.pool != null ? ThreadPoolManager.pool.getCorePoolSize() : 0);
                 // Observed octants
-                EventManager.instance.post(Events.DEBUG_QUEUE, OctreeNode.nOctantsObserved, StreamingOctreeLoader.getLoadQueueSize());
+                EventManager.instance.post(Events.DEBUG_QUEUE, OctreeNode.nOctantsObserved, StreamingOctreeLoader.getLoadQueueSize(), StreamingOctreeLoader.getLoadedMemoryMB(), StreamingOctreeLoader.getMemoryBudgetMB());
                 // VRAM
                 EventManager.instance.post(Events.DEBUG_VRAM, VMemInfo.getUsedMemory(), VMemInfo.getTotalMemory());
             }
@@ -771,6 +782,8 @@ public class GaiaSky implements ApplicationListener, IObserver, IMainRenderer {
                 gui.dispose();
 
         EventManager.instance.post(Events.DISPOSE);
+        if (EventManager.instance.isStatistics())
+            logger.debug(EventManager.instance.getStatisticsReport(20));
         if (sg != null) {
             sg.dispose();
         }
@@ -779,6 +792,9 @@ public class GaiaSky implements ApplicationListener, IObserver, IMainRenderer {
         // Shutdown dataset updater thread pool
         DatasetUpdater.shutDownThreadPool();
 
+        // Shutdown the pool of the parallel scene graph update
+        ThreadPoolManager.shutDownThreadPool();
+
         // Scripting
         ScriptingServer.dispose();
 
@@ -818,6 +834,8 @@ public class GaiaSky implements ApplicationListener, IObserver, IMainRenderer {
             /*
              * UPDATE
              */
+            if (SlaveManager.instance != null)
+                SlaveManager.instance.presentFrame();
             update(graphics.getDeltaTime());
 
             /*
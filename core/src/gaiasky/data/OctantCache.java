@@ -0,0 +1,175 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.data;
+
+import gaiasky.util.tree.OctreeNode;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Keeps track of the loaded octants in least recently used order, together with the memory
+ * they take, in bytes. Octants are keyed by page id, and touching, adding and removing them
+ * are O(1) operations. The memory is accounted as the sum of the main memory (heap) and the
+ * graphics memory (VBO) of the octant.
+ * There is a soft and a hard budget. Over the soft budget, the least recently used octants
+ * are evicted in the background. Over the hard budget, no new octants should be loaded until
+ * enough memory has been released.
+ *
+ * @author tsagrista
+ */
+public class OctantCache {
+
+    private static class Entry {
+        final OctreeNode octant;
+        long cpuBytes, gpuBytes;
+        int nObjects;
+
+        Entry(OctreeNode octant) {
+            this.octant = octant;
+        }
+
+        long bytes() {
+            return cpuBytes + gpuBytes;
+        }
+    }
+
+    /** Entries in access order, least recently used first **/
+    private final LinkedHashMap<Long, Entry> entries;
+    private final long softBudget, hardBudget;
+    private long cpuBytes, gpuBytes;
+    private int nObjects;
+
+    /**
+     * Creates a new cache with the given budgets.
+     *
+     * @param softBudget The soft budget in bytes
+     * @param hardBudget The hard budget in bytes
+     */
+    public OctantCache(long softBudget, long hardBudget) {
+        this.entries = new LinkedHashMap<>(256, 0.75f, true);
+        this.softBudget = softBudget;
+        this.hardBudget = Math.max(softBudget, hardBudget);
+    }
+
+    /**
+     * Adds the octant to the cache, as the most recently used one, or updates its size if
+     * it is already in.
+     *
+     * @param octant   The octant
+     * @param cpuBytes The main memory it takes, in bytes
+     * @param gpuBytes The graphics memory it takes, in bytes
+     * @param nObjects The number of objects (stars) in it
+     */
+    public synchronized void put(OctreeNode octant, long cpuBytes, long gpuBytes, int nObjects) {
+        Entry entry = entries.get(octant.pageId);
+        if (entry == null) {
+            entry = new Entry(octant);
+            entries.put(octant.pageId, entry);
+        } else {
+            subtract(entry);
+        }
+        entry.cpuBytes = cpuBytes;
+        entry.gpuBytes = gpuBytes;
+        entry.nObjects = nObjects;
+        add(entry);
+    }
+
+    /**
+     * Marks the octant as the most recently used one. Does nothing if the
+     * octant is not in the cache.
+     *
+     * @param octant The octant
+     */
+    public synchronized void touch(OctreeNode octant) {
+        // Access order, get() moves it to the end
+        entries.get(octant.pageId);
+    }
+
+    /**
+     * Removes the octant from the cache.
+     *
+     * @param octant The octant
+     */
+    public synchronized void remove(OctreeNode octant) {
+        Entry entry = entries.remove(octant.pageId);
+        if (entry != null) {
+            subtract(entry);
+        }
+    }
+
+    /**
+     * Removes the least recently used octants, skipping the pinned ones, until the used memory
+     * is below the given target and the number of objects is below the given maximum.
+     * The removed octants are added to the output list, and must be unloaded by the caller.
+     *
+     * @param targetBytes The target memory, in bytes
+     * @param maxObjects  The maximum number of objects
+     * @param pinned      Octants which must not be evicted
+     * @param out         The list where the evicted octants are added
+     * @return The number of evicted octants
+     */
+    public synchronized int evict(long targetBytes, long maxObjects, Predicate<OctreeNode> pinned, List<OctreeNode> out) {
+        int n = 0;
+        Iterator<Entry> it = entries.values().iterator();
+        while ((cpuBytes + gpuBytes > targetBytes || nObjects > maxObjects) && it.hasNext()) {
+            Entry entry = it.next();
+            if (!pinned.test(entry.octant)) {
+                it.remove();
+                subtract(entry);
+                out.add(entry.octant);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private void add(Entry entry) {
+        cpuBytes += entry.cpuBytes;
+        gpuBytes += entry.gpuBytes;
+        nObjects += entry.nObjects;
+    }
+
+    private void subtract(Entry entry) {
+        cpuBytes -= entry.cpuBytes;
+        gpuBytes -= entry.gpuBytes;
+        nObjects -= entry.nObjects;
+    }
+
+    public synchronized long getBytes() {
+        return cpuBytes + gpuBytes;
+    }
+
+    public synchronized long getCpuBytes() {
+        return cpuBytes;
+    }
+
+    public synchronized long getGpuBytes() {
+        return gpuBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getSoftBudget() {
+        return softBudget;
+    }
+
+    public long getHardBudget() {
+        return hardBudget;
+    }
+
+    public synchronized boolean overSoftBudget() {
+        return cpuBytes + gpuBytes > softBudget;
+    }
+
+    public synchronized boolean overHardBudget() {
+        return cpuBytes + gpuBytes > hardBudget;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.data;
+
+import gaiasky.util.tree.OctreeNode;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Bounded load queue of octants, ordered by {@link OctreeNode#loadPriority}. Priorities
+ * change every frame, so the order is not kept in a heap. Instead, the octant with the
+ * highest priority is looked up when polling. The queue is small, so this is cheap, and the
+ * queue is always re-prioritised in place with the latest values.
+ * When the queue is full, the octant with the lowest priority is dropped.
+ *
+ * @author tsagrista
+ */
+public class OctantLoadQueue {
+    private final OctreeNode[] octants;
+    private int size;
+
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+
+    public OctantLoadQueue(int capacity) {
+        this.octants = new OctreeNode[capacity];
+        this.size = 0;
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+    }
+
+    /**
+     * Adds the octant to the queue. If the queue is full, the octant with the lowest priority,
+     * which may be the given one, is dropped and returned.
+     *
+     * @param octant The octant to add
+     * @return The dropped octant, or null if no octant was dropped
+     */
+    public OctreeNode add(OctreeNode octant) {
+        lock.lock();
+        try {
+            OctreeNode dropped = null;
+            if (size == octants.length) {
+                int min = lowest();
+                if (octants[min].loadPriority >= octant.loadPriority) {
+                    return octant;
+                }
+                dropped = octants[min];
+                removeAt(min);
+            }
+            octants[size++] = octant;
+            notEmpty.signal();
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the octant with the highest priority, waiting up to the given time
+     * if the queue is empty. Ties are resolved in favour of the shallowest octant.
+     *
+     * @param timeout The time to wait
+     * @param unit    The unit of the time
+     * @return The octant, or null if the queue is still empty after the time has passed
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public OctreeNode poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            int max = highest();
+            OctreeNode octant = octants[max];
+            removeAt(max);
+            return octant;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the octants which match the filter.
+     *
+     * @param filter  The filter
+     * @param removed Collection where the removed octants are added
+     * @return The number of removed octants
+     */
+    public int removeIf(Predicate<OctreeNode> filter, Collection<OctreeNode> removed) {
+        lock.lock();
+        try {
+            int n = 0;
+            for (int i = size - 1; i >= 0; i--) {
+                if (filter.test(octants[i])) {
+                    removed.add(octants[i]);
+                    removeAt(i);
+                    n++;
+                }
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all octants from the queue.
+     *
+     * @param removed Collection where the removed octants are added
+     * @return The number of removed octants
+     */
+    public int drainTo(Collection<OctreeNode> removed) {
+        return removeIf(octant -> true, removed);
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private int highest() {
+        int best = 0;
+        for (int i = 1; i < size; i++) {
+            OctreeNode o = octants[i], b = octants[best];
+            if (o.loadPriority > b.loadPriority || (o.loadPriority == b.loadPriority && o.depth < b.depth))
+                best = i;
+        }
+        return best;
+    }
+
+    private int lowest() {
+        int worst = 0;
+        for (int i = 1; i < size; i++) {
+            if (octants[i].loadPriority < octants[worst].loadPriority)
+                worst = i;
+        }
+        return worst;
+    }
+
+    private void removeAt(int i) {
+        // Order is irrelevant, move the last one here
+        octants[i] = octants[--size];
+        octants[size] = null;
+    }
+}
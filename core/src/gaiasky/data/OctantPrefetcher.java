@@ -0,0 +1,297 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.data;
+
+import com.badlogic.gdx.utils.TimeUtils;
+import gaiasky.scenegraph.camera.ICamera;
+import gaiasky.util.GlobalConf;
+import gaiasky.util.math.MathUtilsd;
+import gaiasky.util.math.Vector3d;
+import gaiasky.util.tree.LoadStatus;
+import gaiasky.util.tree.OctreeNode;
+import net.jafama.FastMath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Predicts which octants will become visible in the near future and queues them for loading
+ * before they are observed. The future camera positions come from, in order of preference:
+ * <ul>
+ *     <li>the camera path being played, if any (see {@link #setPath(double[], double[], double)}),</li>
+ *     <li>the destination of the current camera transition, if any (see {@link #setTarget(Vector3d, long)}),</li>
+ *     <li>the extrapolation of the current camera velocity.</li>
+ * </ul>
+ * Prefetched octants go to their own queue, which is only served when the regular load queue is
+ * empty, and within a budget of octants per second, so that prefetching never delays the loading
+ * of octants which are already visible. A prefetched octant which becomes visible before it is
+ * served is moved to the regular queue (see {@link #promote(OctreeNode, OctantLoadQueue)}).
+ *
+ * @author tsagrista
+ */
+public class OctantPrefetcher {
+    /** Minimum time between two predictions **/
+    private static final long UPDATE_INTERVAL_MS = 250;
+    /** Number of future positions sampled within the horizon **/
+    private static final int N_SAMPLES = 4;
+    /** Capacity of the prefetch queue **/
+    private static final int QUEUE_MAX_SIZE = 50;
+
+    private final OctreeNode root;
+    private final OctantLoadQueue queue;
+    private final Vector3d aux1, aux2, aux3;
+
+    /** Time horizon in seconds **/
+    private final double horizon;
+    /** Budget in octants per second **/
+    private final int budget;
+    private double tokens;
+    private long lastRefillMs;
+    private long lastUpdateMs;
+
+    /** Camera path, positions and directions, 3 components per frame **/
+    private double[] pathPositions, pathDirections;
+    private double pathFrameRate;
+    private int pathFrame;
+
+    /** Destination of the current transition **/
+    private final Vector3d target;
+    private long targetUntilMs;
+
+    /** Number of octants queued, served and moved to the load queue by the prefetcher **/
+    private final AtomicLong nQueued, nServed, nPromoted;
+
+    public OctantPrefetcher(OctreeNode root, double horizon, int budget) {
+        this.root = root;
+        this.horizon = horizon;
+        this.budget = Math.max(1, budget);
+        this.queue = new OctantLoadQueue(QUEUE_MAX_SIZE);
+        this.aux1 = new Vector3d();
+        this.aux2 = new Vector3d();
+        this.aux3 = new Vector3d();
+        this.target = new Vector3d();
+        this.tokens = this.budget;
+        this.lastRefillMs = TimeUtils.millis();
+        this.nQueued = new AtomicLong(0);
+        this.nServed = new AtomicLong(0);
+        this.nPromoted = new AtomicLong(0);
+    }
+
+    /**
+     * Sets the camera path which is about to be played, one position per frame.
+     *
+     * @param positions  The positions, 3 components per frame
+     * @param directions The view directions, 3 components per frame, or null
+     * @param frameRate  The number of frames per second
+     */
+    public synchronized void setPath(double[] positions, double[] directions, double frameRate) {
+        this.pathPositions = positions;
+        this.pathDirections = directions;
+        this.pathFrameRate = Math.max(1, frameRate);
+        this.pathFrame = 0;
+    }
+
+    /**
+     * Informs about the frame of the path being played currently
+     *
+     * @param frame The frame
+     */
+    public synchronized void setPathFrame(int frame) {
+        this.pathFrame = frame;
+    }
+
+    /**
+     * Sets the destination of the current camera transition.
+     *
+     * @param target    The destination
+     * @param timeoutMs Time after which the destination is discarded
+     */
+    public synchronized void setTarget(Vector3d target, long timeoutMs) {
+        this.target.set(target);
+        this.targetUntilMs = TimeUtils.millis() + timeoutMs;
+    }
+
+    /**
+     * Drops the current path and destination, and the octants queued so far
+     */
+    public synchronized void clear() {
+        this.pathPositions = null;
+        this.pathDirections = null;
+        this.targetUntilMs = 0;
+        List<OctreeNode> removed = new ArrayList<>();
+        queue.drainTo(removed);
+        for (OctreeNode octant : removed) {
+            if (octant.getStatus() == LoadStatus.QUEUED)
+                octant.setStatus(LoadStatus.NOT_LOADED);
+        }
+    }
+
+    /**
+     * Predicts the octants which will be observed within the horizon and queues them. Runs
+     * in the main thread, right after the octree update, but only every {@link #UPDATE_INTERVAL_MS}.
+     *
+     * @param camera The camera
+     */
+    public synchronized void update(ICamera camera) {
+        long now = TimeUtils.millis();
+        if (horizon <= 0 || now - lastUpdateMs < UPDATE_INTERVAL_MS)
+            return;
+        lastUpdateMs = now;
+
+        float cf = MathUtilsd.clamp(camera.getFovFactor() * 2.5f, 0.15f, 1f);
+        double th0 = GlobalConf.scene.OCTANT_THRESHOLD_0 * cf;
+        double halfFov = Math.toRadians(camera.getCamera().fieldOfView / 2d);
+
+        if (pathPositions != null) {
+            // Walk the known path
+            int nFrames = pathPositions.length / 3;
+            int horizonFrames = (int) (horizon * pathFrameRate);
+            int step = Math.max(1, horizonFrames / N_SAMPLES);
+            for (int k = 1; k <= N_SAMPLES; k++) {
+                int frame = pathFrame + k * step;
+                if (frame >= nFrames)
+                    break;
+                Vector3d pos = aux1.set(pathPositions[frame * 3], pathPositions[frame * 3 + 1], pathPositions[frame * 3 + 2]);
+                Vector3d dir = pathDirections != null ? aux2.set(pathDirections[frame * 3], pathDirections[frame * 3 + 1], pathDirections[frame * 3 + 2]).nor() : null;
+                prefetch(root, pos, dir, (k * step) / pathFrameRate, th0, halfFov, now);
+            }
+        } else if (now < targetUntilMs) {
+            // Sample the segment to the destination, the view direction is unknown
+            Vector3d from = camera.getPos();
+            for (int k = 1; k <= N_SAMPLES; k++) {
+                double t = (double) k / N_SAMPLES;
+                Vector3d pos = aux1.set(target).sub(from).scl(t).add(from);
+                prefetch(root, pos, null, t * horizon, th0, halfFov, now);
+            }
+        } else {
+            // Extrapolate the velocity
+            Vector3d vel = camera.getVelocity();
+            if (vel != null && !vel.isZero()) {
+                Vector3d dir = aux2.set(vel).nor();
+                for (int k = 1; k <= N_SAMPLES; k++) {
+                    double t = horizon * k / N_SAMPLES;
+                    Vector3d pos = aux1.set(vel).scl(t).add(camera.getPos());
+                    prefetch(root, pos, dir, t, th0, halfFov, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues the octants below the given one which would be observed from the given position.
+     *
+     * @param octant  The octant
+     * @param pos     The future camera position
+     * @param dir     The future camera direction, or null if unknown
+     * @param t       The time until the camera is there, in seconds
+     * @param th0     The view angle threshold, in radians
+     * @param halfFov Half the field of view, in radians
+     * @param now     The current time in ms
+     */
+    private void prefetch(OctreeNode octant, Vector3d pos, Vector3d dir, double t, double th0, double halfFov, long now) {
+        Vector3d toCentre = octant.getCentre(aux3).sub(pos);
+        double dist = toCentre.len();
+        double radius = octant.getRadius();
+        double angularRadius = FastMath.atan(radius / dist);
+        double viewAngle = angularRadius * 2;
+        if (viewAngle < th0)
+            return;
+        if (dir != null && dist > radius && Math.toRadians(dir.angle(toCentre)) > halfFov + angularRadius)
+            return;
+
+        if (octant.getStatus() == LoadStatus.NOT_LOADED && octant.numObjects > 0) {
+            // Sooner is more urgent
+            queue(octant, viewAngle / (1 + t), now + (long) ((t + 1) * 1000));
+        }
+        for (int i = 0; i < 8; i++) {
+            OctreeNode child = octant.children[i];
+            if (child != null)
+                prefetch(child, pos, dir, t, th0, halfFov, now);
+        }
+    }
+
+    /**
+     * Queues the given octant for prefetching. If the queue is full, the octant with the
+     * lowest priority is dropped.
+     *
+     * @param octant      The octant
+     * @param priority    The load priority
+     * @param keepUntilMs Time until which the octant is not unloaded once loaded
+     */
+    public void queue(OctreeNode octant, double priority, long keepUntilMs) {
+        octant.loadPriority = priority;
+        octant.prefetchUntilMs = keepUntilMs;
+        octant.setStatus(LoadStatus.QUEUED);
+        OctreeNode out = queue.add(octant);
+        if (out != null)
+            out.setStatus(LoadStatus.NOT_LOADED);
+        if (out != octant)
+            nQueued.incrementAndGet();
+    }
+
+    /**
+     * Moves the given octant from the prefetch queue to the given load queue, if it is in
+     * the prefetch queue. Called when a prefetched octant is observed before it is served,
+     * so that it is loaded as any other observed octant, and not within the prefetch budget.
+     *
+     * @param octant    The octant
+     * @param loadQueue The regular load queue
+     * @return Whether the octant was in the prefetch queue
+     */
+    public boolean promote(OctreeNode octant, OctantLoadQueue loadQueue) {
+        if (queue.removeIf(o -> o == octant, new ArrayList<>(1)) == 0)
+            return false;
+        nPromoted.incrementAndGet();
+        OctreeNode out = loadQueue.add(octant);
+        if (out != null)
+            out.setStatus(LoadStatus.NOT_LOADED);
+        return true;
+    }
+
+    /**
+     * Gets the next octant to prefetch, if the budget allows it. Called by the loader thread
+     * when the regular load queue is empty.
+     *
+     * @return The octant, or null if there is none or the budget is exhausted
+     */
+    public OctreeNode next() {
+        long now = TimeUtils.millis();
+        synchronized (queue) {
+            tokens = Math.min(budget, tokens + budget * (now - lastRefillMs) / 1000d);
+            lastRefillMs = now;
+            if (tokens < 1 || queue.isEmpty())
+                return null;
+            try {
+                OctreeNode octant = queue.poll(0, TimeUnit.MILLISECONDS);
+                if (octant != null) {
+                    tokens -= 1;
+                    nServed.incrementAndGet();
+                }
+                return octant;
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+    }
+
+    public int queueSize() {
+        return queue.size();
+    }
+
+    public long getNQueued() {
+        return nQueued.get();
+    }
+
+    public long getNServed() {
+        return nServed.get();
+    }
+
+    public long getNPromoted() {
+        return nPromoted.get();
+    }
+}
@@ -7,6 +7,7 @@ package gaiasky.data;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3Files;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.TimeUtils;
 import com.beust.jcommander.JCommander;
@@ -20,8 +21,10 @@ import gaiasky.data.octreegen.MetadataBinaryIO;
 import gaiasky.data.octreegen.StarBrightnessComparator;
 import gaiasky.data.octreegen.StarGroupBinaryIO;
 import gaiasky.data.octreegen.generator.IOctreeGenerator;
+import gaiasky.data.octreegen.generator.OctreeGeneratorExternal;
 import gaiasky.data.octreegen.generator.OctreeGeneratorMag;
 import gaiasky.data.octreegen.generator.OctreeGeneratorParams;
+import gaiasky.data.octreegen.generator.OctreeUpdater;
 import gaiasky.data.util.HipNames;
 import gaiasky.desktop.format.DesktopDateFormatFactory;
 import gaiasky.desktop.format.DesktopNumberFormatFactory;
@@ -30,6 +33,7 @@ import gaiasky.interafce.ConsoleLogger;
 import gaiasky.interafce.MessageBean;
 import gaiasky.interafce.NotificationsInterface;
 import gaiasky.scenegraph.particle.IParticleRecord;
+import gaiasky.scenegraph.particle.ParticleColumns;
 import gaiasky.scenegraph.particle.ParticleRecord;
 import gaiasky.util.*;
 import gaiasky.util.Logger.Log;
@@ -38,6 +42,7 @@ import gaiasky.util.format.DateFormatFactory;
 import gaiasky.util.format.NumberFormatFactory;
 import gaiasky.util.math.Vector3d;
 import gaiasky.util.parse.Parser;
+import gaiasky.util.tree.OctreeNameIndex;
 import gaiasky.util.tree.OctreeNode;
 
 import java.io.*;
@@ -50,6 +55,7 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.*;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Generates an octree of star groups.
@@ -115,7 +121,13 @@ public class OctreeGeneratorRun {
 
     @Parameter(names = "--parallelism", description = "The ForkJoinPool parallelism setting. Set <=0 to use the system default. Set to 1 to disable parallelism") private int parallelism = -1;
 
-    @Parameter(names = "--outputversion", description = "The output format version. By default, the newest version is used") private int outputVersion = -1;
+    @Parameter(names = "--outputversion", description = "The output format version. By default, version 2 is used. Use 3 to write columnar pages, which load faster and without per-star allocations") private int outputVersion = -1;
+
+    @Parameter(names = "--memorybudget", description = "Memory budget in MB for the stars buffered during the generation. If set, the catalog is loaded file by file, spilled to sorted runs in temporary files in the output folder, and the pages are written as the octree is generated, so that catalogs larger than the heap can be processed. Set <=0 (default) to generate the octree in memory") private long memoryBudget = -1;
+
+    @Parameter(names = "--update", description = "Insert the loaded stars into the existing octree in the output folder instead of generating a new one. Only the pages of the octants which change and the metadata are rewritten. Meant for small supplementary catalogs") private boolean update = false;
+
+    @Parameter(names = "--idindex", description = "Add the source_id of every star to the name index written next to the metadata, so that stars can also be found by source_id before their octants are loaded. Takes 16 bytes per star on disk, and as much memory during the generation. Names and HIP numbers are always indexed") private boolean idIndex = false;
 
     @Parameter(names = { "-h", "--help" }, help = true) private boolean help = false;
 
@@ -170,6 +182,8 @@ public class OctreeGeneratorRun {
             OctreeNode root = generateOctree();
 
             if (root != null) {
+                writeNameIndex(root);
+
                 // Save arguments and structure
                 StringBuffer argStr = new StringBuffer();
                 for (int i = 0; i < arguments.length; i++) {
@@ -190,6 +204,9 @@ public class OctreeGeneratorRun {
     }
 
     private OctreeNode generateOctree() throws IOException, InstantiationException, IllegalAccessException, ClassNotFoundException, NoSuchMethodException, InvocationTargetException {
+        if (memoryBudget > 0 && !update)
+            return generateOctreeExternal();
+
         long startMs = TimeUtils.millis();
 
         OctreeGeneratorParams ogp = new OctreeGeneratorParams(maxPart, postprocess, childCount, parentCount);
@@ -203,28 +220,9 @@ public class OctreeGeneratorRun {
         // GAIA
         //
         if (loaderClass != null) {
-            String fullLoaderClass = "gaiasky.data.group." + loaderClass;
-            IStarGroupDataProvider loader = (IStarGroupDataProvider) Class.forName(fullLoaderClass).getDeclaredConstructor().newInstance();
-            loader.setOutputFormatVersion(outputVersion);
-            loader.setColumns(columns);
-            loader.setParallaxErrorFactorFaint(plxerrfaint);
-            loader.setParallaxErrorFactorBright(plxerrbright);
-            loader.setParallaxZeroPoint(plxzeropoint);
-            loader.setFileNumberCap(fileNumCap);
-            loader.setStarNumberCap(starNumCap);
-            loader.setDistanceCap(distPcCap);
-            loader.setAdditionalFiles(additionalFiles);
-            loader.setRUWECap(ruwe);
+            IStarGroupDataProvider loader = createLoader();
             countsPerMagGaia = loader.getCountsPerMag();
-
-            if (hip != null && xmatchFile != null && !xmatchFile.isEmpty()) {
-                // Load xmatchTable
-                xmatchTable = readXmatchTable(xmatchFile);
-                if (!xmatchTable.isEmpty()) {
-                    // IDs which must be loaded regardless (we need them to update x-matched HIP stars)
-                    loader.setMustLoadIds(new HashSet<>(xmatchTable.keySet()));
-                }
-            }
+            xmatchTable = setUpXmatch(loader);
 
             /* LOAD CATALOG */
             listLoader = loader.loadData(input);
@@ -234,119 +232,15 @@ public class OctreeGeneratorRun {
         // HIPPARCOS
         //
         if (hip != null) {
-            STILDataProvider stil = new STILDataProvider();
-
-            // All hip stars for which we have a Gaia star, bypass plx >= 0 condition in STILDataProvider
-            if (xmatchTable != null && !xmatchTable.isEmpty()) {
-                Set<Long> mustLoad = new HashSet<>();
-                for (int hipNumber : xmatchTable.values()) {
-                    mustLoad.add(Long.valueOf(hipNumber));
-                }
-                stil.setMustLoadIds(mustLoad);
-            }
-
-            List<IParticleRecord> listHip = stil.loadData(hip);
-
-            // Update HIP names using external source, if needed
-            if (hipNamesDir != null) {
-                HipNames hipNames = new HipNames();
-                hipNames.load(Paths.get(hipNamesDir));
-
-                Map<Integer, Array<String>> hn = hipNames.getHipNames();
-                for (IParticleRecord pb : listHip) {
-                    IParticleRecord star = pb;
-                    if (hn.containsKey(star.hip())) {
-                        Array<String> names = hn.get(star.hip());
-                        for (String name : names)
-                            star.addName(name);
-                    }
-                }
-            }
-
-            // Combine counts per magnitude
-            long[] countsPerMagHip = stil.getCountsPerMag();
-            combineCountsPerMag(countsPerMagGaia, countsPerMagHip);
+            List<IParticleRecord> listHip = loadHip(xmatchTable, countsPerMagGaia);
 
             // Create HIP map
-            Map<Integer, IParticleRecord> hipMap = new HashMap<>();
-            for (IParticleRecord star : listHip) {
-                hipMap.put(star.hip(), star);
-            }
+            Map<Integer, IParticleRecord> hipMap = createHipMap(listHip);
 
-            // Check x-match file
-            int hipnum = listHip.size();
-            int starhits = 0;
-            int notFoundHipStars = 0;
-
-            Vector3d aux1 = new Vector3d();
-            Vector3d aux2 = new Vector3d();
             if (listLoader != null) {
-                for (IParticleRecord pb : listLoader) {
-                    IParticleRecord gaiaStar = pb;
-                    // Check if star is also in HIP catalog
-                    if (xmatchTable == null || !xmatchTable.containsKey(gaiaStar.id())) {
-                        // No hit, add to main list
-                        listHip.add(gaiaStar);
-                    } else {
-                        // Update hipStar using gaiaStar data, only when:
-                        int hipId = xmatchTable.get(gaiaStar.id());
-                        if (hipMap.containsKey(hipId)) {
-                            // Hip Star
-                            IParticleRecord hipStar = hipMap.get(hipId);
-
-                            // Check parallax errors
-                            Double gaiaPllxErr = gaiaStar.getExtra("pllx_err");
-                            Double hipPllxErr = hipStar.getExtra("e_plx");
-
-                            if (gaiaPllxErr <= hipPllxErr) {
-                                // SIZE
-                                float size = gaiaStar.size();
-                                // POSITION
-                                double x = gaiaStar.x(), y = gaiaStar.y(), z = gaiaStar.z();
-                                aux1.set(x, y, z);
-                                boolean negativeGaiaDistance = Math.abs(aux1.len() - AbstractStarGroupDataProvider.NEGATIVE_DIST) < 1e-10;
-                                if (negativeGaiaDistance) {
-                                    // Negative distance in Gaia star!
-                                    // Use Gaia position, HIP distance and name(s)
-
-                                    // Fetch Gaia RA/DEC
-                                    Coordinates.cartesianToSpherical(aux1, aux2);
-                                    double gaiaRA = aux2.x;
-                                    double gaiaDEC = aux2.y;
-
-                                    // Fetch HIP distance
-                                    aux1.set(hipStar.x(), hipStar.y(), hipStar.z());
-                                    Coordinates.cartesianToSpherical(aux1, aux2);
-                                    double hipDIST = aux2.z;
-
-                                    // Compute new cartesian position
-                                    aux1.set(gaiaRA, gaiaDEC, hipDIST);
-                                    Coordinates.sphericalToCartesian(aux1, aux2);
-                                    x = aux2.x;
-                                    y = aux2.y;
-                                    z = aux2.z;
-
-                                    size = hipStar.size();
-                                }
-
-                                hipStar.setId(gaiaStar.id());
-                                hipStar.setPos(x, y, z);
-                                hipStar.setVelocityVector(gaiaStar.pmx(), gaiaStar.pmy(), gaiaStar.pmz());
-
-                                hipStar.setProperMotion(gaiaStar.mualpha(), gaiaStar.mudelta(), gaiaStar.radvel());
-                                hipStar.setMag(gaiaStar.appmag(), gaiaStar.absmag());
-                                hipStar.setCol(gaiaStar.col());
-                                hipStar.setSize(size);
-
-                                hipStar.addNames(gaiaStar.names());
-                                starhits++;
-                            }
-                        } else {
-                            notFoundHipStars++;
-                        }
-                    }
-                }
-                logger.info(starhits + " of " + hipnum + " HIP stars' data updated due to being matched to a Gaia star (" + notFoundHipStars + " not found - negative parallax?)");
+                int hipnum = listHip.size();
+                int[] hits = crossMatch(listLoader, listHip, xmatchTable, hipMap);
+                logger.info(hits[0] + " of " + hipnum + " HIP stars' data updated due to being matched to a Gaia star (" + hits[1] + " not found - negative parallax?)");
                 // Free up some memory
                 listLoader.clear();
             }
@@ -369,20 +263,14 @@ public class OctreeGeneratorRun {
         logger.info("Generating octree with " + list.size() + " actual stars");
 
         // Pre-processing (sorting, removing too distant stars)
-        Vector3d pos0 = new Vector3d();
-        Iterator<IParticleRecord> it = list.iterator();
-        while (it.hasNext()) {
-            IParticleRecord s = it.next();
-            double dist = pos0.set(s.x(), s.y(), s.z()).len();
-            if (dist * Constants.U_TO_PC > distPcCap) {
-                // Remove star
-                it.remove();
-            }
-        }
+        removeDistant(list);
         logger.info("Sorting list by magnitude with " + list.size() + " objects");
         list.sort(new StarBrightnessComparator());
         logger.info("Catalog sorting done");
 
+        if (update)
+            return updateOctree(list, countsPerMagGaia, loadingSecs);
+
         OctreeNode octree = og.generateOctree(list);
 
         PrintStream out = new PrintStream(System.out, true, StandardCharsets.UTF_8);
@@ -397,28 +285,428 @@ public class OctreeGeneratorRun {
         logger.info(og.getDiscarded() + " particles have been discarded due to density");
 
         /** CLEAN CURRENT OUT DIR **/
+        File particlesFolder = cleanOutput();
+
+        /** WRITE METADATA **/
+        writeMetadata(octree);
+
+        /** WRITE PARTICLES **/
+        particlesFolder.mkdirs();
+        int version = getOutputVersion();
+        logger.info("Using output format version " + version);
+        writeParticlesToFiles(octree, version);
+
+        long writingMs = TimeUtils.millis();
+        double writingSecs = (writingMs - generatingMs) / 1000.0;
+
+        logStats(octree, list.size(), countsPerMagGaia, loadingSecs, generatingSecs, writingSecs);
+
+        return octree;
+    }
+
+    /**
+     * Generates the octree with a bounded amount of memory, see {@link OctreeGeneratorExternal}. The input files
+     * are loaded one by one and spilled to sorted runs, and the pages are written during the generation.
+     */
+    private OctreeNode generateOctreeExternal() throws IOException, InstantiationException, IllegalAccessException, ClassNotFoundException, NoSuchMethodException, InvocationTargetException {
+        long startMs = TimeUtils.millis();
+
+        /** CLEAN CURRENT OUT DIR **/
+        File particlesFolder = cleanOutput();
+        particlesFolder.mkdirs();
+        Path tmpDir = Files.createTempDirectory(Path.of(outFolder), "octreegen-");
+        int version = getOutputVersion();
+        logger.info("External-memory generation with a budget of " + memoryBudget + " MB, temporary files in " + tmpDir);
+        logger.info("Using output format version " + version);
+
+        OctreeGeneratorParams ogp = new OctreeGeneratorParams(maxPart, postprocess, childCount, parentCount);
+        OctreeGeneratorExternal og = new OctreeGeneratorExternal(ogp, memoryBudget * 1024L * 1024L, tmpDir, particlesFolder.toPath(), version);
+
+        try {
+            long[] countsPerMagGaia = null;
+            IStarGroupDataProvider loader = null;
+            Map<Long, Integer> xmatchTable = null;
+            if (loaderClass != null) {
+                loader = createLoader();
+                countsPerMagGaia = loader.getCountsPerMag();
+                xmatchTable = setUpXmatch(loader);
+            }
+
+            // HIP is loaded first, to cross-match each Gaia file
+            List<IParticleRecord> listHip = null;
+            Map<Integer, IParticleRecord> hipMap = null;
+            if (hip != null) {
+                listHip = loadHip(xmatchTable, countsPerMagGaia);
+                hipMap = createHipMap(listHip);
+            }
+
+            //
+            // GAIA, file by file
+            //
+            if (loader != null) {
+                int[] hits = new int[2];
+                List<String> files = listInputFiles(input);
+                int fn = 0;
+                for (String file : files) {
+                    logger.info("Loading file " + (++fn) + "/" + files.size() + ": " + file);
+                    List<IParticleRecord> batch = loader.loadData(file);
+                    if (batch == null)
+                        continue;
+                    if (listHip != null) {
+                        List<IParticleRecord> unmatched = new ArrayList<>(batch.size());
+                        int[] h = crossMatch(batch, unmatched, xmatchTable, hipMap);
+                        hits[0] += h[0];
+                        hits[1] += h[1];
+                        batch = unmatched;
+                    }
+                    removeDistant(batch);
+                    og.add(batch, false);
+                    batch.clear();
+                }
+                if (listHip != null)
+                    logger.info(hits[0] + " of " + listHip.size() + " HIP stars' data updated due to being matched to a Gaia star (" + hits[1] + " not found - negative parallax?)");
+            }
+            if (listHip != null) {
+                // HIP stars go first, as in memory
+                removeDistant(listHip);
+                og.add(listHip, true);
+            }
+
+            if (og.size() == 0) {
+                logger.info("No stars were loaded, please check out the parameters");
+                return null;
+            }
+            long nStars = og.size();
+
+            long loadingMs = TimeUtils.millis();
+            double loadingSecs = ((loadingMs - startMs) / 1000.0);
+            logger.info("TIME STATS: Data loaded and sorted in runs in " + loadingSecs + " seconds");
+
+            logger.info("Generating octree with " + nStars + " actual stars");
+            OctreeNode octree = og.generate();
+
+            PrintStream out = new PrintStream(System.out, true, StandardCharsets.UTF_8);
+            out.println(octree.toString(true));
+
+            long generatingMs = TimeUtils.millis();
+            double generatingSecs = ((generatingMs - loadingMs) / 1000.0);
+            logger.info("TIME STATS: Octree generated and particles written in " + generatingSecs + " seconds");
+            logger.info("Octree generated with " + octree.numNodesRec() + " octants and " + octree.numObjectsRec + " particles");
+
+            /** WRITE METADATA **/
+            writeMetadata(octree);
+
+            double writingSecs = (TimeUtils.millis() - generatingMs) / 1000.0;
+            logStats(octree, nStars, countsPerMagGaia, loadingSecs, generatingSecs, writingSecs);
+
+            return octree;
+        } finally {
+            og.cleanup();
+            Files.deleteIfExists(tmpDir);
+        }
+    }
+
+    /**
+     * Inserts the stars into the octree in the output folder, see {@link OctreeUpdater}. Only the pages
+     * which change and the metadata are written.
+     */
+    private OctreeNode updateOctree(List<IParticleRecord> list, long[] countsPerMagGaia, double loadingSecs) throws IOException {
+        long startMs = TimeUtils.millis();
+        File metadataFile = new File(outFolder, "metadata.bin");
+        if (!metadataFile.exists()) {
+            logger.error("No octree to update, metadata file does not exist: " + metadataFile.getAbsolutePath());
+            return null;
+        }
+        OctreeNode octree;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(metadataFile))) {
+            octree = new MetadataBinaryIO().readMetadata(in);
+        }
+        if (octree == null)
+            return null;
+        int version = getOutputVersion();
+        logger.info("Updating octree with " + octree.numNodesRec() + " octants and " + octree.numObjectsRec + " particles with " + list.size() + " new stars");
+        logger.info("Using output format version " + version);
+
+        OctreeGeneratorParams ogp = new OctreeGeneratorParams(maxPart, postprocess, childCount, parentCount);
+        OctreeUpdater updater = new OctreeUpdater(ogp, new File(outFolder, "particles/").toPath(), version);
+        int pages = updater.update(octree, list);
+
+        long generatingMs = TimeUtils.millis();
+        double generatingSecs = (generatingMs - startMs) / 1000.0;
+        logger.info("TIME STATS: Octree updated and " + pages + " pages written in " + generatingSecs + " seconds");
+        logger.info(updater.getDiscarded() + " particles have been discarded");
+
+        /** WRITE METADATA **/
+        writeMetadata(octree);
+
+        double writingSecs = (TimeUtils.millis() - generatingMs) / 1000.0;
+        logStats(octree, octree.numObjectsRec, countsPerMagGaia, loadingSecs, generatingSecs, writingSecs);
+
+        return octree;
+    }
+
+    private IStarGroupDataProvider createLoader() throws InstantiationException, IllegalAccessException, ClassNotFoundException, NoSuchMethodException, InvocationTargetException {
+        String fullLoaderClass = "gaiasky.data.group." + loaderClass;
+        IStarGroupDataProvider loader = (IStarGroupDataProvider) Class.forName(fullLoaderClass).getDeclaredConstructor().newInstance();
+        loader.setOutputFormatVersion(outputVersion);
+        loader.setColumns(columns);
+        loader.setParallaxErrorFactorFaint(plxerrfaint);
+        loader.setParallaxErrorFactorBright(plxerrbright);
+        loader.setParallaxZeroPoint(plxzeropoint);
+        loader.setFileNumberCap(fileNumCap);
+        loader.setStarNumberCap(starNumCap);
+        loader.setDistanceCap(distPcCap);
+        loader.setAdditionalFiles(additionalFiles);
+        loader.setRUWECap(ruwe);
+        return loader;
+    }
+
+    /**
+     * Reads the cross-match table if needed, and sets the Gaia stars which must be loaded
+     *
+     * @return The cross-match table, or null
+     */
+    private Map<Long, Integer> setUpXmatch(IStarGroupDataProvider loader) {
+        Map<Long, Integer> xmatchTable = null;
+        if (hip != null && xmatchFile != null && !xmatchFile.isEmpty()) {
+            // Load xmatchTable
+            xmatchTable = readXmatchTable(xmatchFile);
+            if (!xmatchTable.isEmpty()) {
+                // IDs which must be loaded regardless (we need them to update x-matched HIP stars)
+                loader.setMustLoadIds(new HashSet<>(xmatchTable.keySet()));
+            }
+        }
+        return xmatchTable;
+    }
+
+    /**
+     * Input files, in the order the loaders use: the files of the input directory sorted by name,
+     * up to the file number cap, or the input file
+     */
+    private List<String> listInputFiles(String file) {
+        List<String> files = new ArrayList<>();
+        FileHandle f = GlobalConf.data.dataFileHandle(file);
+        if (f.isDirectory()) {
+            FileHandle[] children = f.list();
+            Arrays.sort(children, Comparator.comparing(FileHandle::name));
+            for (FileHandle child : children) {
+                if (fileNumCap > 0 && files.size() >= fileNumCap)
+                    break;
+                files.add(child.path());
+            }
+        } else {
+            files.add(f.path());
+        }
+        return files;
+    }
+
+    private List<IParticleRecord> loadHip(Map<Long, Integer> xmatchTable, long[] countsPerMagGaia) {
+        STILDataProvider stil = new STILDataProvider();
+
+        // All hip stars for which we have a Gaia star, bypass plx >= 0 condition in STILDataProvider
+        if (xmatchTable != null && !xmatchTable.isEmpty()) {
+            Set<Long> mustLoad = new HashSet<>();
+            for (int hipNumber : xmatchTable.values()) {
+                mustLoad.add(Long.valueOf(hipNumber));
+            }
+            stil.setMustLoadIds(mustLoad);
+        }
+
+        List<IParticleRecord> listHip = stil.loadData(hip);
+
+        // Update HIP names using external source, if needed
+        if (hipNamesDir != null) {
+            HipNames hipNames = new HipNames();
+            hipNames.load(Paths.get(hipNamesDir));
+
+            Map<Integer, Array<String>> hn = hipNames.getHipNames();
+            for (IParticleRecord pb : listHip) {
+                IParticleRecord star = pb;
+                if (hn.containsKey(star.hip())) {
+                    Array<String> names = hn.get(star.hip());
+                    for (String name : names)
+                        star.addName(name);
+                }
+            }
+        }
+
+        // Combine counts per magnitude
+        long[] countsPerMagHip = stil.getCountsPerMag();
+        combineCountsPerMag(countsPerMagGaia, countsPerMagHip);
+        return listHip;
+    }
+
+    private Map<Integer, IParticleRecord> createHipMap(List<IParticleRecord> listHip) {
+        Map<Integer, IParticleRecord> hipMap = new HashMap<>();
+        for (IParticleRecord star : listHip) {
+            hipMap.put(star.hip(), star);
+        }
+        return hipMap;
+    }
+
+    /**
+     * Cross-matches Gaia stars with HIP stars. HIP stars matched to a Gaia star with a better parallax are
+     * updated with the Gaia data. Gaia stars which are not in the cross-match table are added to the output list.
+     *
+     * @param gaia        The Gaia stars
+     * @param out         The list to add the Gaia stars which are not in the cross-match table to
+     * @param xmatchTable The cross-match table, or null
+     * @param hipMap      The HIP stars by HIP number
+     * @return The number of HIP stars updated and the number of cross-matched HIP stars not found
+     */
+    private int[] crossMatch(List<IParticleRecord> gaia, List<IParticleRecord> out, Map<Long, Integer> xmatchTable, Map<Integer, IParticleRecord> hipMap) {
+        int starhits = 0;
+        int notFoundHipStars = 0;
+
+        Vector3d aux1 = new Vector3d();
+        Vector3d aux2 = new Vector3d();
+        for (IParticleRecord pb : gaia) {
+            IParticleRecord gaiaStar = pb;
+            // Check if star is also in HIP catalog
+            if (xmatchTable == null || !xmatchTable.containsKey(gaiaStar.id())) {
+                // No hit, add to main list
+                out.add(gaiaStar);
+            } else {
+                // Update hipStar using gaiaStar data, only when:
+                int hipId = xmatchTable.get(gaiaStar.id());
+                if (hipMap.containsKey(hipId)) {
+                    // Hip Star
+                    IParticleRecord hipStar = hipMap.get(hipId);
+
+                    // Check parallax errors
+                    Double gaiaPllxErr = gaiaStar.getExtra("pllx_err");
+                    Double hipPllxErr = hipStar.getExtra("e_plx");
+
+                    if (gaiaPllxErr <= hipPllxErr) {
+                        // SIZE
+                        float size = gaiaStar.size();
+                        // POSITION
+                        double x = gaiaStar.x(), y = gaiaStar.y(), z = gaiaStar.z();
+                        aux1.set(x, y, z);
+                        boolean negativeGaiaDistance = Math.abs(aux1.len() - AbstractStarGroupDataProvider.NEGATIVE_DIST) < 1e-10;
+                        if (negativeGaiaDistance) {
+                            // Negative distance in Gaia star!
+                            // Use Gaia position, HIP distance and name(s)
+
+                            // Fetch Gaia RA/DEC
+                            Coordinates.cartesianToSpherical(aux1, aux2);
+                            double gaiaRA = aux2.x;
+                            double gaiaDEC = aux2.y;
+
+                            // Fetch HIP distance
+                            aux1.set(hipStar.x(), hipStar.y(), hipStar.z());
+                            Coordinates.cartesianToSpherical(aux1, aux2);
+                            double hipDIST = aux2.z;
+
+                            // Compute new cartesian position
+                            aux1.set(gaiaRA, gaiaDEC, hipDIST);
+                            Coordinates.sphericalToCartesian(aux1, aux2);
+                            x = aux2.x;
+                            y = aux2.y;
+                            z = aux2.z;
+
+                            size = hipStar.size();
+                        }
+
+                        hipStar.setId(gaiaStar.id());
+                        hipStar.setPos(x, y, z);
+                        hipStar.setVelocityVector(gaiaStar.pmx(), gaiaStar.pmy(), gaiaStar.pmz());
+
+                        hipStar.setProperMotion(gaiaStar.mualpha(), gaiaStar.mudelta(), gaiaStar.radvel());
+                        hipStar.setMag(gaiaStar.appmag(), gaiaStar.absmag());
+                        hipStar.setCol(gaiaStar.col());
+                        hipStar.setSize(size);
+
+                        hipStar.addNames(gaiaStar.names());
+                        starhits++;
+                    }
+                } else {
+                    notFoundHipStars++;
+                }
+            }
+        }
+        return new int[] { starhits, notFoundHipStars };
+    }
+
+    /**
+     * Removes the stars beyond the distance cap
+     */
+    private void removeDistant(List<IParticleRecord> list) {
+        Vector3d pos0 = new Vector3d();
+        Iterator<IParticleRecord> it = list.iterator();
+        while (it.hasNext()) {
+            IParticleRecord s = it.next();
+            double dist = pos0.set(s.x(), s.y(), s.z()).len();
+            if (dist * Constants.U_TO_PC > distPcCap) {
+                // Remove star
+                it.remove();
+            }
+        }
+    }
+
+    private int getOutputVersion() {
+        return outputVersion < BinaryDataProvider.MIN_OUTPUT_VERSION || outputVersion > BinaryDataProvider.MAX_OUTPUT_VERSION ? BinaryDataProvider.DEFAULT_OUTPUT_VERSION : outputVersion;
+    }
+
+    /**
+     * Deletes the metadata and the particles of the output folder
+     *
+     * @return The particles folder
+     */
+    private File cleanOutput() {
         File metadataFile = new File(outFolder, "metadata.bin");
         delete(metadataFile);
+        delete(new File(outFolder, OctreeNameIndex.FILE_NAME));
         File particlesFolder = new File(outFolder, "particles/");
         delete(particlesFolder);
+        return particlesFolder;
+    }
 
-        /** WRITE METADATA **/
+    private void writeMetadata(OctreeNode octree) throws IOException {
+        File metadataFile = new File(outFolder, "metadata.bin");
         metadataFile.createNewFile();
 
         logger.info("Writing metadata (" + octree.numNodesRec() + " nodes): " + metadataFile.getAbsolutePath());
 
         MetadataBinaryIO metadataWriter = new MetadataBinaryIO();
         metadataWriter.writeMetadata(octree, new FileOutputStream(metadataFile));
+    }
 
-        /** WRITE PARTICLES **/
-        IStarGroupIO particleWriter = new StarGroupBinaryIO();
-        particlesFolder.mkdirs();
-        int version = outputVersion < BinaryDataProvider.MIN_OUTPUT_VERSION || outputVersion > BinaryDataProvider.MAX_OUTPUT_VERSION ? BinaryDataProvider.DEFAULT_OUTPUT_VERSION : outputVersion;
-        logger.info("Using output format version " + version);
-        writeParticlesToFiles(particleWriter, octree, version);
+    /**
+     * Writes the index of the names, HIP numbers and, with --idindex, source ids of all the stars
+     * to their octant and position, see {@link OctreeNameIndex}. The names are read back from the
+     * written pages, so that the index is the same for all the generation modes.
+     */
+    private void writeNameIndex(OctreeNode root) throws IOException {
+        List<OctreeNode> nodes = new ArrayList<>();
+        collectNodes(root, nodes);
+        long start = System.nanoTime();
+        BinaryDataProvider reader = new BinaryDataProvider();
+        OctreeNameIndex.Writer writer = new OctreeNameIndex.Writer();
+        for (OctreeNode node : nodes) {
+            File file = new File(outFolder + "/particles/", "particles_" + String.format("%06d", node.pageId) + ".bin");
+            if (!file.exists())
+                continue;
+            ParticleColumns columns = reader.decodeColumns(reader.mapData(file.getAbsolutePath()), 1.0, 1);
+            int pageId = (int) node.pageId;
+            for (int i = 0; i < columns.n; i++) {
+                // Unnamed stars go by their source id
+                if (columns.namesConcat(i) != null) {
+                    for (String name : columns.names(i))
+                        writer.addName(name, pageId, i);
+                }
+                if (columns.hip[i] > 0)
+                    writer.addName("hip " + columns.hip[i], pageId, i);
+                if (idIndex)
+                    writer.addId(columns.id[i], pageId, i);
+            }
+        }
+        File indexFile = new File(outFolder, OctreeNameIndex.FILE_NAME);
+        writer.write(indexFile.toPath());
+        logger.info("Name index written in " + String.format("%.2f", (System.nanoTime() - start) * 1e-9) + " s (" + writer.nNames() + " names, " + writer.nIds() + " source ids): " + indexFile.getAbsolutePath());
+    }
 
-        long writingMs = TimeUtils.millis();
-        double writingSecs = (writingMs - generatingMs) / 1000.0;
+    private void logStats(OctreeNode octree, long nParticles, long[] countsPerMagGaia, double loadingSecs, double generatingSecs, double writingSecs) {
         double totalSecs = loadingSecs + generatingSecs + writingSecs;
 
         int[][] stats = octree.stats();
@@ -428,7 +716,7 @@ public class OctreeGeneratorRun {
             logger.info("STAR COUNTS PER MAGNITUDE");
             logger.info("=========================");
             for (int level = 0; level < countsPerMagGaia.length; level++) {
-                logger.info("Magnitude " + level + ": " + countsPerMagGaia[level] + " stars (" + formatter.format((double) countsPerMagGaia[level] * 100d / (double) list.size()) + "%)");
+                logger.info("Magnitude " + level + ": " + countsPerMagGaia[level] + " stars (" + formatter.format((double) countsPerMagGaia[level] * 100d / (double) nParticles) + "%)");
             }
             logger.info();
         }
@@ -437,11 +725,11 @@ public class OctreeGeneratorRun {
         logger.info("OCTREE STATS");
         logger.info("============");
         logger.info("Octants: " + octree.numNodesRec());
-        logger.info("Particles: " + list.size());
+        logger.info("Particles: " + nParticles);
         logger.info("Depth: " + octree.getMaxDepth());
         int level = 0;
         for (int[] levelinfo : stats) {
-            logger.info("   Level " + level + ": " + levelinfo[0] + " octants, " + levelinfo[1] + " stars (" + formatter.format((double) levelinfo[1] * 100d / (double) list.size()) + "%)");
+            logger.info("   Level " + level + ": " + levelinfo[0] + " octants, " + levelinfo[1] + " stars (" + formatter.format((double) levelinfo[1] * 100d / (double) nParticles) + "%)");
             level++;
         }
 
@@ -453,8 +741,6 @@ public class OctreeGeneratorRun {
         logger.info("Generating: " + generatingSecs + " secs (" + formatTimeSecs((long) generatingSecs) + ")");
         logger.info("Writing: " + writingSecs + " secs (" + formatTimeSecs((long) writingSecs) + ")");
         logger.info("Total: " + totalSecs + " secs (" + formatTimeSecs((long) totalSecs) + ")");
-
-        return octree;
     }
 
     private String formatTimeSecs(long secs) {
@@ -477,23 +763,53 @@ public class OctreeGeneratorRun {
         return cpm1;
     }
 
-    private void writeParticlesToFiles(IStarGroupIO particleWriter, OctreeNode current) throws IOException {
-        writeParticlesToFiles(particleWriter, current, 2);
-    }
-
-    private void writeParticlesToFiles(IStarGroupIO particleWriter, OctreeNode current, int version) throws IOException {
-        // Write current
-        if (current.numObjects > 0) {
-            File particles = new File(outFolder + "/particles/", "particles_" + String.format("%06d", current.pageId) + ".bin");
-            logger.info("Writing " + current.numObjects + " particles of node " + current.pageId + " to " + particles.getAbsolutePath());
-            particleWriter.writeParticles(current.objects, new BufferedOutputStream(new FileOutputStream(particles)), version);
+    /**
+     * Writes the particles of each octant to its page file. Pages are written concurrently in the
+     * common fork-join pool, whose parallelism is set with --parallelism, each worker with its own writer.
+     */
+    private void writeParticlesToFiles(OctreeNode root, int version) throws IOException {
+        List<OctreeNode> nodes = new ArrayList<>();
+        collectNodes(root, nodes);
+        long total = 0;
+        for (OctreeNode node : nodes)
+            total += node.numObjects;
+        logger.info("Writing " + total + " particles to " + nodes.size() + " pages");
+
+        ThreadLocal<IStarGroupIO> writers = ThreadLocal.withInitial(StarGroupBinaryIO::new);
+        AtomicLong pages = new AtomicLong(), particles = new AtomicLong(), bytes = new AtomicLong();
+        long step = Math.max(1, nodes.size() / 20);
+        long start = System.nanoTime();
+        try {
+            nodes.parallelStream().forEach(node -> {
+                File file = new File(outFolder + "/particles/", "particles_" + String.format("%06d", node.pageId) + ".bin");
+                logger.debug("Writing " + node.numObjects + " particles of node " + node.pageId + " to " + file.getAbsolutePath());
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                    writers.get().writeParticles(node.objects, out, version);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                long p = particles.addAndGet(node.numObjects);
+                long b = bytes.addAndGet(file.length());
+                long n = pages.incrementAndGet();
+                if (n % step == 0 || n == nodes.size()) {
+                    double secs = Math.max(1e-9, (System.nanoTime() - start) * 1e-9);
+                    logger.info("Written " + n + "/" + nodes.size() + " pages, " + p + " particles (" + (long) (p / secs) + " particles/s, " + String.format("%.1f", b / (secs * 1024 * 1024)) + " MB/s)");
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+        double secs = (System.nanoTime() - start) * 1e-9;
+        logger.info("Pages written in " + String.format("%.2f", secs) + " s: " + pages.get() + " pages, " + particles.get() + " particles, " + bytes.get() / (1024 * 1024) + " MB");
+    }
 
-        // Write each child
+    private void collectNodes(OctreeNode current, List<OctreeNode> nodes) {
+        if (current.numObjects > 0)
+            nodes.add(current);
         if (current.numChildren > 0)
             for (OctreeNode child : current.children) {
                 if (child != null)
-                    writeParticlesToFiles(particleWriter, child, version);
+                    collectNodes(child, nodes);
             }
     }
 
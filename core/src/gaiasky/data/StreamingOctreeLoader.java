@@ -13,24 +13,47 @@ import gaiasky.event.Events;
 import gaiasky.event.IObserver;
 import gaiasky.scenegraph.Constellation;
 import gaiasky.scenegraph.SceneGraphNode;
+import gaiasky.scenegraph.camera.ICamera;
 import gaiasky.scenegraph.octreewrapper.AbstractOctreeWrapper;
+import gaiasky.scenegraph.particle.IParticleRecord;
 import gaiasky.util.GlobalConf;
 import gaiasky.util.I18n;
 import gaiasky.util.Logger;
 import gaiasky.util.Logger.Log;
+import gaiasky.util.math.Vector3d;
+import gaiasky.util.tree.ILoadPriorityPolicy;
 import gaiasky.util.tree.LoadStatus;
+import gaiasky.util.tree.OctreeNameIndex;
 import gaiasky.util.tree.OctreeNode;
 import uk.ac.starlink.util.DataSource;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Contains the infrastructure common to all multifile octree loaders which
  * streams data on-demand from disk and unloads unused data.
+ * <p>
+ * Octants are queued by priority (see {@link ILoadPriorityPolicy}), and are loaded in a staged pipeline:
+ * <ol>
+ *     <li>I/O: a single daemon thread takes the octants from the load queue and reads their pages from disk.</li>
+ *     <li>Decode and build: a pool of worker threads (see {@link GlobalConf.PerformanceConf#NUMBER_LOAD_THREADS()})
+ *     decodes the pages and constructs the scene graph objects.</li>
+ *     <li>Hand-off: the objects are attached to the scene graph in batches, in the main thread.</li>
+ * </ol>
+ * Octants which are predicted to be observed soon are prefetched (see {@link OctantPrefetcher}).
+ * If the catalog has a name index (see {@link OctreeNameIndex}), stars which are not loaded can be
+ * found by name, and their octants are loaded before the rest (see {@link #loadObject(String)}).
+ * The queues between stages are bounded, so that a slow stage blocks the previous ones
+ * instead of piling up data in memory. Octants which are no longer observed are dropped
+ * at every stage boundary.
  *
  * @author tsagrista
  */
@@ -45,53 +68,80 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
      */
     protected static final int LOAD_QUEUE_MAX_SIZE = 100;
 
-    /**
-     * Minimum time to pass to be able to clear the queue again
-     */
-    protected static final long MIN_QUEUE_CLEAR_MS = 2000;
-
     /**
      * Maximum number of pages to send to load every batch
      **/
     protected static final int MAX_LOAD_CHUNK = 5;
 
-    public static StreamingOctreeLoader instance;
+    /**
+     * Maximum number of octants attached to the scene graph in a single frame
+     */
+    protected static final int MAX_HANDOFF_BATCH = 10;
 
-    /** Octree loader thread lock **/
-    private static final Object threadLock = new Object();
+    /**
+     * Octants in the pipeline which have not been observed for this long are cancelled
+     */
+    protected static final long CANCEL_TIMEOUT_MS = 1000;
+
+    /**
+     * Octants observed within this time are never unloaded
+     */
+    protected static final long PIN_OBSERVED_MS = 500;
+
+    /**
+     * Octants loaded to find a star by name are kept for at least this long
+     */
+    protected static final long TARGET_KEEP_MS = 30000;
+
+    /**
+     * Time between two consecutive logs of the pipeline counters
+     */
+    protected static final long STATS_LOG_INTERVAL_MS = 30000;
+
+    public static StreamingOctreeLoader instance;
 
     /**
      * Current number of stars that are loaded
      **/
-    protected int nLoadedStars = 0;
+    protected volatile int nLoadedStars = 0;
     /**
      * Max number of stars loaded at once
      **/
     protected final long maxLoadedStars;
 
     /**
-     * The octant loading queue
+     * The octant loading queue, ordered by load priority
      **/
-    protected Queue<OctreeNode> toLoadQueue;
+    protected OctantLoadQueue toLoadQueue;
 
     /**
-     * Whether loading is paused or not
+     * Octants of the stars looked up by name, loaded before the ones in the load queue
      **/
-    protected boolean loadingPaused = false;
+    protected final Queue<OctreeNode> toLoadTargetQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Index of the names of all the stars, or null if the catalog has none
+     **/
+    protected OctreeNameIndex nameIndex;
 
     /**
-     * Last time of a queue clear event went through
+     * Root of the octree
+     **/
+    protected OctreeNode root;
+
+    /**
+     * Whether loading is paused or not
      **/
-    protected long lastQueueClearMs = 0;
+    protected boolean loadingPaused = false;
 
     // Dataset name and description
     protected String name, description;
 
     /**
-     * This queue is sorted ascending by access date, so that we know which
-     * element to release if needed (oldest)
+     * Loaded octants in least recently used order, with their memory
+     * usage, so that we know which ones to release if needed (oldest)
      **/
-    protected Queue<OctreeNode> toUnloadQueue;
+    protected OctantCache cache;
 
     /**
      * Loaded octant ids, for logging
@@ -103,26 +153,67 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
     protected String metadata, particles;
 
     /**
-     * Daemon thread that gets the data loading requests and serves them
+     * Daemon thread that gets the data loading requests and reads the pages
      **/
     protected OctreeLoaderThread daemon;
 
+    /**
+     * Loads octants in advance, before they are observed
+     **/
+    protected OctantPrefetcher prefetcher;
+
+    /**
+     * Worker threads that decode the pages and build the objects
+     **/
+    protected OctreeDecoderThread[] decoders;
+
+    /**
+     * Octants whose pages have been read and wait to be decoded
+     **/
+    protected BlockingQueue<OctantLoad> toDecodeQueue;
+
+    /**
+     * Octants whose objects have been built and wait to be attached to the scene graph
+     **/
+    protected BlockingQueue<OctantLoad> toAttachQueue;
+
+    /**
+     * Whether there is a hand-off runnable posted and not run yet
+     **/
+    private final AtomicBoolean handoffPosted = new AtomicBoolean(false);
+
+    /**
+     * Pipeline counters, per stage
+     **/
+    protected final StageCounter ioCounter, decodeCounter, buildCounter, handoffCounter, totalCounter;
+    /**
+     * Number of octants cancelled because they were no longer observed
+     **/
+    protected final AtomicLong nCancelled = new AtomicLong(0);
+    private long lastStatsLogMs = 0;
+
     public StreamingOctreeLoader() {
         // TODO Use memory info to figure this out
         // We assume 1Gb of graphics memory
         // GPU ~ 32 byte/star
-        // CPU ~ 136 byte/star
+        // CPU ~ 76 byte/star in columnar storage (see ParticleColumns), plus names
         maxLoadedStars = GlobalConf.scene.MAX_LOADED_STARS;
         logger.info("Maximum loaded stars setting: " + maxLoadedStars);
+        cache = new OctantCache(GlobalConf.scene.MAX_LOADED_MEMORY_SOFT_BYTES(), GlobalConf.scene.MAX_LOADED_MEMORY_HARD_BYTES());
+        logger.info("Loaded octants memory budget: " + (cache.getSoftBudget() >> 20) + " MB soft, " + (cache.getHardBudget() >> 20) + " MB hard");
 
-        Comparator<OctreeNode> depthComparator = Comparator.comparingInt((OctreeNode o) -> o.depth);
-        toLoadQueue = new PriorityBlockingQueue<>(LOAD_QUEUE_MAX_SIZE, depthComparator);
-        toUnloadQueue = new ArrayBlockingQueue<>(LOAD_QUEUE_MAX_SIZE);
+        toLoadQueue = new OctantLoadQueue(LOAD_QUEUE_MAX_SIZE);
 
         maxLoadedIds = 50;
         idxLoadedIds = 0;
         loadedIds = new long[maxLoadedIds];
 
+        ioCounter = new StageCounter("io");
+        decodeCounter = new StageCounter("decode");
+        buildCounter = new StageCounter("build");
+        handoffCounter = new StageCounter("handoff");
+        totalCounter = new StageCounter("total");
+
         EventManager.instance.subscribe(this, Events.DISPOSE, Events.PAUSE_BACKGROUND_LOADING, Events.RESUME_BACKGROUND_LOADING);
     }
 
@@ -144,27 +235,42 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
         AbstractOctreeWrapper octreeWrapper = loadOctreeData();
 
         if (octreeWrapper != null) {
+            root = octreeWrapper.root;
+
+            /*
+             * INITIALIZE DECODER THREADS
+             */
+            int nDecoders = GlobalConf.performance.NUMBER_LOAD_THREADS();
+            // Bounded queues give us back-pressure between stages
+            toDecodeQueue = new ArrayBlockingQueue<>(nDecoders * 2);
+            toAttachQueue = new ArrayBlockingQueue<>(MAX_HANDOFF_BATCH * 2);
+            decoders = new OctreeDecoderThread[nDecoders];
+            for (int i = 0; i < nDecoders; i++) {
+                decoders[i] = new OctreeDecoderThread(octreeWrapper, this);
+                decoders[i].setDaemon(true);
+                decoders[i].setName("gaiasky-worker-octreedecode-" + i);
+                decoders[i].setPriority(Thread.NORM_PRIORITY - 1);
+                decoders[i].start();
+            }
+            logger.info("Octree page decoder threads: " + nDecoders);
+
+            /*
+             * INITIALIZE PREFETCHER
+             */
+            if (GlobalConf.performance.PREFETCH_HORIZON > 0) {
+                prefetcher = new OctantPrefetcher(octreeWrapper.root, GlobalConf.performance.PREFETCH_HORIZON, GlobalConf.performance.PREFETCH_BUDGET);
+                logger.info("Octant prefetch horizon: " + GlobalConf.performance.PREFETCH_HORIZON + " s, budget: " + GlobalConf.performance.PREFETCH_BUDGET + " octants/s");
+            }
+
             /*
              * INITIALIZE DAEMON LOADER THREAD
              */
             daemon = new OctreeLoaderThread(octreeWrapper, this);
             daemon.setDaemon(true);
             daemon.setName("gaiasky-worker-octreeload");
-            daemon.setPriority(Thread.MIN_PRIORITY);
+            daemon.setPriority(Thread.NORM_PRIORITY - 1);
             daemon.start();
 
-            /*
-             * INITIALIZE TIMER TO FLUSH THE QUEUE AT REGULAR INTERVALS
-             */
-            Timer timer = new Timer();
-            timer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    flushLoadQueue();
-                }
-
-            }, 1000, 1000);
-
             // Add octreeWrapper to result list and return
             Array<SceneGraphNode> result = new Array<>(false, 1);
             result.add(octreeWrapper);
@@ -215,18 +321,111 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
     }
 
     /**
-     * Clears the current load queue
+     * Moves the given octant, which is observed, from the prefetch queue to the load queue,
+     * if the prefetcher queued it
+     *
+     * @param octant The octant
+     */
+    public static void promote(OctreeNode octant) {
+        if (instance != null && instance.daemon != null && instance.prefetcher != null && !instance.loadingPaused) {
+            instance.prefetcher.promote(octant, instance.toLoadQueue);
+        }
+    }
+
+    /**
+     * Drops the octants which are no longer observed from the load queue
+     * and the loading pipeline. The rest keep their place, since the queue
+     * is ordered by the up-to-date load priority.
      */
     public static void clearQueue() {
         if (instance != null && instance.daemon != null) {
-            if (TimeUtils.millis() - instance.lastQueueClearMs > MIN_QUEUE_CLEAR_MS) {
-                instance.emptyLoadQueue();
-                instance.lastQueueClearMs = TimeUtils.millis();
-            }
+            instance.removeStaleFromQueue();
             instance.abortCurrentLoading();
         }
     }
 
+    /**
+     * Predicts the octants which will be observed soon and queues them for prefetching.
+     * Called after every octree update.
+     *
+     * @param camera The camera
+     */
+    public static void prefetch(ICamera camera) {
+        if (instance != null && instance.prefetcher != null && !instance.loadingPaused) {
+            instance.prefetcher.update(camera);
+        }
+    }
+
+    /**
+     * Informs the prefetcher about a camera path which is about to be played
+     *
+     * @param positions  The positions, 3 components per frame
+     * @param directions The directions, 3 components per frame, or null
+     * @param frameRate  The frames per second
+     */
+    public static void prefetchPath(double[] positions, double[] directions, double frameRate) {
+        if (instance != null && instance.prefetcher != null) {
+            instance.prefetcher.setPath(positions, directions, frameRate);
+        }
+    }
+
+    /**
+     * Informs the prefetcher about the current frame of the path being played
+     *
+     * @param frame The frame
+     */
+    public static void prefetchPathFrame(int frame) {
+        if (instance != null && instance.prefetcher != null) {
+            instance.prefetcher.setPathFrame(frame);
+        }
+    }
+
+    /**
+     * Informs the prefetcher about the destination of the current camera transition
+     *
+     * @param target    The destination
+     * @param timeoutMs Time after which the destination is discarded
+     */
+    public static void prefetchTarget(Vector3d target, long timeoutMs) {
+        if (instance != null && instance.prefetcher != null) {
+            instance.prefetcher.setTarget(target, timeoutMs);
+        }
+    }
+
+    /**
+     * Drops the current path and destination of the prefetcher
+     */
+    public static void clearPrefetch() {
+        if (instance != null && instance.prefetcher != null) {
+            instance.prefetcher.clear();
+        }
+    }
+
+    /**
+     * Loads the octant of the star with the given name, if the catalog has a name index and the
+     * octant is not loaded yet. The octant is loaded before the ones in the load queue, and is kept
+     * for a while even if it is not observed, so that the star can be found in the scene graph
+     * once it is loaded.
+     *
+     * @param name The name, HIP number ('hip 1234') or source id of the star
+     * @return Whether the star is in the catalog and its octant is loaded or being loaded
+     */
+    public static boolean loadObject(String name) {
+        if (instance != null && instance.daemon != null && instance.nameIndex != null) {
+            return instance.loadStar(name);
+        }
+        return false;
+    }
+
+    /**
+     * Sets the policy used to compute the load priority of octants
+     *
+     * @param policy The new policy
+     */
+    public static void setPriorityPolicy(ILoadPriorityPolicy policy) {
+        OctreeNode.LOAD_PRIORITY_POLICY = policy;
+    }
+
     public static int getLoadQueueSize() {
         if (instance != null && instance.daemon != null) {
             return instance.toLoadQueue.size();
@@ -243,6 +442,34 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
         }
     }
 
+    /**
+     * Gets the counters of the loading pipeline, in the order I/O, decode, build,
+     * hand-off and total (from the load queue to the scene graph)
+     *
+     * @return The stage counters, or null if there is no streaming loader
+     */
+    public static StageCounter[] getStageCounters() {
+        if (instance != null && instance.daemon != null) {
+            return new StageCounter[] { instance.ioCounter, instance.decodeCounter, instance.buildCounter, instance.handoffCounter, instance.totalCounter };
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of octants which were dropped from the pipeline
+     * because they were no longer observed
+     *
+     * @return The number of cancelled octants, or -1 if there is no streaming loader
+     */
+    public static long getNCancelled() {
+        if (instance != null && instance.daemon != null) {
+            return instance.nCancelled.get();
+        } else {
+            return -1;
+        }
+    }
+
     /**
      * Moves the octant to the end of the unload queue
      *
@@ -261,60 +488,172 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
      * are loaded right away
      */
     public void emptyLoadQueue() {
-        int n = toLoadQueue.size();
+        List<OctreeNode> removed = new ArrayList<>();
+        int n = toLoadQueue.drainTo(removed);
         if (n > 0) {
-            for (OctreeNode octant : toLoadQueue) {
+            for (OctreeNode octant : removed) {
                 octant.setStatus(LoadStatus.NOT_LOADED);
             }
-            toLoadQueue.clear();
             logger.info(I18n.bundle.format("notif.loadingoctants.emtpied", n));
         }
     }
 
+    /**
+     * Removes the octants which are no longer observed from the load queue
+     */
+    public void removeStaleFromQueue() {
+        List<OctreeNode> removed = new ArrayList<>();
+        int n = toLoadQueue.removeIf(this::isStale, removed);
+        if (n > 0) {
+            for (OctreeNode octant : removed) {
+                cancel(octant);
+            }
+            logger.debug(I18n.bundle.format("notif.loadingoctants.emtpied", n));
+        }
+    }
+
     public void addToQueue(OctreeNode octant) {
-        // Add only if there is room
         if (!loadingPaused) {
-            if (toLoadQueue.size() >= LOAD_QUEUE_MAX_SIZE) {
-                OctreeNode out = toLoadQueue.poll();
+            octant.setStatus(LoadStatus.QUEUED);
+            // If full, the lowest priority octant is dropped
+            OctreeNode out = toLoadQueue.add(octant);
+            if (out != null)
                 out.setStatus(LoadStatus.NOT_LOADED);
-            }
-            toLoadQueue.add(octant);
+        }
+    }
+
+    /**
+     * Finds the star in the name index and queues its octant, if needed
+     *
+     * @param name The name of the star
+     * @return Whether the star is in the catalog and its octant is loaded or being loaded
+     */
+    public boolean loadStar(String name) {
+        long location = nameIndex.find(name);
+        if (location == OctreeNameIndex.NONE || loadingPaused)
+            return false;
+        OctreeNode octant = root.findOctant(OctreeNameIndex.pageId(location));
+        if (octant == null)
+            return false;
+        octant.prefetchUntilMs = Math.max(octant.prefetchUntilMs, TimeUtils.millis() + TARGET_KEEP_MS);
+        LoadStatus status = octant.getStatus();
+        if (status == LoadStatus.NOT_LOADED || status == LoadStatus.QUEUED) {
             octant.setStatus(LoadStatus.QUEUED);
+            toLoadTargetQueue.add(octant);
+            logger.debug("Loading octant " + octant.pageId + " of star '" + name + "'");
         }
+        return status != LoadStatus.LOADING_FAILED;
     }
 
     /**
-     * Puts it at the end of the toUnloadQueue
+     * Marks the octant as the most recently used one in the cache
      **/
     public void touchOctant(OctreeNode octant) {
         // Since higher levels are always observed, or 'touched',
         // it follows naturally that lower levels will always be kept
-        // at the head of the queue, whereas higher level octants
-        // are always at the tail and are the last to be unloaded
-        toUnloadQueue.remove(octant);
-        // Only attempt to unload the octants with a depth larger than preload_depth
-        if (octant.depth > PRELOAD_DEPTH)
-            toUnloadQueue.offer(octant);
+        // at the tail of the cache, whereas higher level octants
+        // are always at the head and are the last to be unloaded
+        cache.touch(octant);
+    }
+
+    /**
+     * Adds a freshly loaded octant to the cache, as the most recently used one
+     *
+     * @param octant   The octant
+     * @param cpuBytes The main memory it takes, in bytes
+     * @param gpuBytes The graphics memory it takes, in bytes
+     * @param nObjects The number of objects it contains
+     */
+    protected void cacheOctant(OctreeNode octant, long cpuBytes, long gpuBytes, int nObjects) {
+        cache.put(octant, cpuBytes, gpuBytes, nObjects);
+    }
+
+    /**
+     * Checks whether the octant must be kept in memory. This is the case for the
+     * octants in the preloaded levels, those which are currently observed, and those
+     * which are expected to be observed soon.
+     *
+     * @param octant The octant
+     * @return Whether the octant can't be unloaded
+     */
+    protected boolean isPinned(OctreeNode octant) {
+        long now = TimeUtils.millis();
+        return octant.depth <= PRELOAD_DEPTH || octant.observed || now - octant.lastObservedMs < PIN_OBSERVED_MS || now < octant.prefetchUntilMs;
     }
 
     /**
-     * Tells the loader to start loading the octants in the queue.
+     * Gets the memory used by the loaded octants, main plus graphics
+     *
+     * @return The memory in MB, or -1 if there is no streaming loader
+     */
+    public static double getLoadedMemoryMB() {
+        if (instance != null && instance.daemon != null) {
+            return instance.cache.getBytes() / (1024d * 1024d);
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the soft memory budget for loaded octants
+     *
+     * @return The budget in MB, or -1 if there is no streaming loader
+     */
+    public static double getMemoryBudgetMB() {
+        if (instance != null && instance.daemon != null) {
+            return instance.cache.getSoftBudget() / (1024d * 1024d);
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Tells the loader to start loading the octants in the queue. The loader thread
+     * wakes up by itself when octants are queued, so this only informs the interface.
      */
     public void flushLoadQueue() {
-        if (!daemon.awake && !toLoadQueue.isEmpty() && !loadingPaused) {
-            synchronized (threadLock) {
-                EventManager.instance.post(Events.BACKGROUND_LOADING_INFO);
-                threadLock.notifyAll();
-            }
+        if (!toLoadQueue.isEmpty() && !loadingPaused) {
+            EventManager.instance.post(Events.BACKGROUND_LOADING_INFO);
         }
     }
 
     /**
-     * Tells the daemon to immediately stop the loading of
-     * octants and wait for new data
+     * Tells the pipeline to immediately drop the octants which
+     * are being loaded and are no longer observed
      */
     public void abortCurrentLoading() {
         daemon.abort();
+        if (toDecodeQueue != null) {
+            Iterator<OctantLoad> it = toDecodeQueue.iterator();
+            while (it.hasNext()) {
+                OctantLoad load = it.next();
+                if (isStale(load.octant) && toDecodeQueue.remove(load)) {
+                    cancel(load.octant);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the given octant has not been observed recently, so it is
+     * not worth loading it anymore
+     *
+     * @param octant The octant
+     * @return Whether the octant is stale
+     */
+    protected boolean isStale(OctreeNode octant) {
+        long now = TimeUtils.millis();
+        return loadingPaused || (now - octant.lastObservedMs > CANCEL_TIMEOUT_MS && now > octant.prefetchUntilMs);
+    }
+
+    /**
+     * Drops the given octant from the pipeline
+     *
+     * @param octant The octant
+     */
+    protected void cancel(OctreeNode octant) {
+        octant.setStatus(LoadStatus.NOT_LOADED);
+        nCancelled.incrementAndGet();
     }
 
     /**
@@ -362,12 +701,10 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
         int loaded = 0;
         if (octants.size > 0) {
             int i = 0;
-            OctreeNode octant = octants.get(0);
             while (i < octants.size && !abort.get()) {
-                if (loadOctant(octant, octreeWrapper, true))
+                if (loadOctant(octants.get(i), octreeWrapper, true))
                     loaded++;
                 i += 1;
-                octant = octants.get(i);
             }
             flushLoadedIds();
 
@@ -407,6 +744,7 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
                             unloaded += count;
                         }
                         objects.clear();
+                        cache.remove(octant);
                         octant.setStatus(LoadStatus.NOT_LOADED);
                         octant.touch(unloaded);
                     } catch (Exception e) {
@@ -419,7 +757,83 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
     }
 
     /**
-     * Loads the data of the given octant
+     * Unloads the least recently used octants until the number of loaded stars
+     * is safely below the maximum
+     *
+     * @param octreeWrapper The octree wrapper
+     */
+    protected void unloadLeastRecentlyUsed(final AbstractOctreeWrapper octreeWrapper) {
+        if (cache.overSoftBudget() || nLoadedStars >= maxLoadedStars) {
+            // Release the octants not accessed for the longest time, leaving some margin
+            List<OctreeNode> evicted = new ArrayList<>();
+            cache.evict((long) (cache.getSoftBudget() * 0.9), (long) (maxLoadedStars * 0.85), this::isPinned, evicted);
+            for (OctreeNode octant : evicted) {
+                if (octant.getStatus() == LoadStatus.LOADED) {
+                    unloadOctant(octant, octreeWrapper);
+                }
+            }
+        }
+    }
+
+    /**
+     * Posts a runnable to attach the octants in the attach queue to the scene graph,
+     * unless there is one already waiting
+     *
+     * @param octreeWrapper The octree wrapper
+     */
+    protected void postHandoff(final AbstractOctreeWrapper octreeWrapper) {
+        if (handoffPosted.compareAndSet(false, true)) {
+            GaiaSky.postRunnable(() -> handoff(octreeWrapper));
+        }
+    }
+
+    /**
+     * Attaches a batch of built octants to the scene graph. Runs in the main thread.
+     *
+     * @param octreeWrapper The octree wrapper
+     */
+    protected void handoff(final AbstractOctreeWrapper octreeWrapper) {
+        handoffPosted.set(false);
+        int n = 0;
+        OctantLoad load;
+        while (n < MAX_HANDOFF_BATCH && (load = toAttachQueue.poll()) != null) {
+            if (isStale(load.octant)) {
+                load.node.dispose();
+                cancel(load.octant);
+                continue;
+            }
+            long start = System.nanoTime();
+            attachOctant(load.octant, load.node, octreeWrapper);
+            long end = System.nanoTime();
+            handoffCounter.add(end - start, load.nObjects);
+            totalCounter.add(end - load.queuedNs, load.nObjects);
+            n++;
+        }
+        if (n > 0) {
+            // Update constellations :S
+            Constellation.updateConstellations();
+            flushLoadedIds();
+            logStats();
+        }
+        if (!toAttachQueue.isEmpty()) {
+            // Rest in next frames
+            postHandoff(octreeWrapper);
+        }
+    }
+
+    /**
+     * Logs the pipeline counters every now and then
+     */
+    private void logStats() {
+        long now = TimeUtils.millis();
+        if (now - lastStatsLogMs > STATS_LOG_INTERVAL_MS) {
+            lastStatsLogMs = now;
+            logger.debug(ioCounter + ", " + decodeCounter + ", " + buildCounter + ", " + handoffCounter + ", " + totalCounter + ", cancelled: " + nCancelled.get());
+        }
+    }
+
+    /**
+     * Loads the data of the given octant right away in the calling thread
      *
      * @param octant        The octant to load.
      * @param octreeWrapper The octree wrapper.
@@ -428,40 +842,160 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
      * @return True if the octant was loaded, false otherwise
      * @throws IOException
      */
-    public abstract boolean loadOctant(final OctreeNode octant, final AbstractOctreeWrapper octreeWrapper, boolean fullinit) throws IOException;
+    public boolean loadOctant(final OctreeNode octant, final AbstractOctreeWrapper octreeWrapper, boolean fullinit) throws IOException {
+        ByteBuffer page = readOctant(octant);
+        if (page == null) {
+            return false;
+        }
+        SceneGraphNode node = buildOctant(octant, decodeOctant(octant, page), octreeWrapper, fullinit);
+        attachOctant(octant, node, octreeWrapper);
+        return true;
+    }
+
+    /**
+     * I/O stage. Reads the page of the given octant from disk. Runs in the loader thread.
+     *
+     * @param octant The octant
+     * @return The contents of the page, or null if the octant has no page
+     * @throws IOException If the page can't be read
+     */
+    protected abstract ByteBuffer readOctant(final OctreeNode octant) throws IOException;
+
+    /**
+     * Decode stage. Decodes the page of the octant. Runs concurrently in the decoder threads,
+     * so it must not modify any shared state.
+     *
+     * @param octant The octant
+     * @param page   The contents of the page, as returned by {@link #readOctant(OctreeNode)}
+     * @return The particle records
+     */
+    protected abstract List<IParticleRecord> decodeOctant(final OctreeNode octant, final ByteBuffer page);
+
+    /**
+     * Build stage. Creates the scene graph object holding the given records. Runs concurrently
+     * in the decoder threads, so it must not modify any shared state.
+     *
+     * @param octant        The octant
+     * @param data          The records
+     * @param octreeWrapper The octree wrapper
+     * @param fullinit      Whether to fully initialise the object
+     * @return The new object
+     */
+    protected abstract SceneGraphNode buildOctant(final OctreeNode octant, final List<IParticleRecord> data, final AbstractOctreeWrapper octreeWrapper, boolean fullinit);
 
     /**
-     * The daemon loader thread.
+     * Hand-off stage. Adds the object to the octant and the scene graph. Runs in the main thread,
+     * except at startup.
+     *
+     * @param octant        The octant
+     * @param node          The object, as returned by {@link #buildOctant(OctreeNode, List, AbstractOctreeWrapper, boolean)}
+     * @param octreeWrapper The octree wrapper
+     */
+    protected abstract void attachOctant(final OctreeNode octant, final SceneGraphNode node, final AbstractOctreeWrapper octreeWrapper);
+
+    /**
+     * An octant travelling through the loading pipeline
+     */
+    protected static class OctantLoad {
+        final OctreeNode octant;
+        /** Time when the octant entered the pipeline, in ns **/
+        final long queuedNs;
+        ByteBuffer page;
+        SceneGraphNode node;
+        int nObjects;
+
+        OctantLoad(OctreeNode octant, long queuedNs) {
+            this.octant = octant;
+            this.queuedNs = queuedNs;
+        }
+    }
+
+    /**
+     * Throughput and latency counters of a pipeline stage. Updated concurrently.
+     */
+    public static class StageCounter {
+        public final String name;
+        private final long startNs;
+        private final AtomicLong count, objects, totalNs, maxNs;
+
+        public StageCounter(String name) {
+            this.name = name;
+            this.startNs = System.nanoTime();
+            this.count = new AtomicLong(0);
+            this.objects = new AtomicLong(0);
+            this.totalNs = new AtomicLong(0);
+            this.maxNs = new AtomicLong(0);
+        }
+
+        public void add(long ns, int nObjects) {
+            count.incrementAndGet();
+            objects.addAndGet(nObjects);
+            totalNs.addAndGet(ns);
+            maxNs.accumulateAndGet(ns, Math::max);
+        }
+
+        /** Number of octants processed by this stage **/
+        public long count() {
+            return count.get();
+        }
+
+        /** Number of objects (stars) processed by this stage **/
+        public long objects() {
+            return objects.get();
+        }
+
+        /** Mean latency per octant, in ms **/
+        public double meanLatencyMs() {
+            long c = count.get();
+            return c > 0 ? totalNs.get() / (c * 1e6) : 0;
+        }
+
+        /** Maximum latency of an octant, in ms **/
+        public double maxLatencyMs() {
+            return maxNs.get() / 1e6;
+        }
+
+        /** Octants per second since the start **/
+        public double throughput() {
+            double s = (System.nanoTime() - startNs) / 1e9;
+            return s > 0 ? count.get() / s : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d oct, %d obj, %.2f oct/s, %.2f ms mean, %.2f ms max", name, count(), objects(), throughput(), meanLatencyMs(), maxLatencyMs());
+        }
+    }
+
+    /**
+     * The daemon loader thread. Runs the I/O stage and the unloading of data.
      *
      * @author Toni Sagrista
      */
     protected static class OctreeLoaderThread extends Thread {
-        private boolean awake;
-        private boolean running;
+        private volatile boolean running;
         private final AtomicBoolean abort;
 
         private final StreamingOctreeLoader loader;
         private final AbstractOctreeWrapper octreeWrapper;
-        private final Array<OctreeNode> toLoad;
 
         public OctreeLoaderThread(AbstractOctreeWrapper aow, StreamingOctreeLoader loader) {
-            this.awake = false;
             this.running = true;
             this.abort = new AtomicBoolean(false);
             this.loader = loader;
             this.octreeWrapper = aow;
-            this.toLoad = new Array<>();
         }
 
         /**
-         * Stops the daemon iterations when
+         * Stops the daemon iterations
          */
         public void stopDaemon() {
             running = false;
+            this.interrupt();
         }
 
         /**
-         * Aborts only the current iteration
+         * Aborts only the octant which is currently being read
          */
         public void abort() {
             abort.set(true);
@@ -469,70 +1003,137 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
 
         @Override
         public void run() {
+            boolean idle = true;
             while (running) {
-                synchronized (threadLock) {
-                    /** ----------- PROCESS OCTANTS ----------- **/
-                    while (!instance.toLoadQueue.isEmpty()) {
-                        toLoad.clear();
-                        int i = 0;
-                        while (instance.toLoadQueue.peek() != null && i <= MAX_LOAD_CHUNK) {
-                            OctreeNode octant = instance.toLoadQueue.poll();
-                            toLoad.add(octant);
-                            i++;
+                try {
+                    // Octants of the stars looked up by name go first
+                    OctreeNode octant = loader.toLoadTargetQueue.poll();
+                    boolean target = octant != null;
+                    if (octant == null)
+                        octant = loader.toLoadQueue.poll(50, TimeUnit.MILLISECONDS);
+                    if (octant == null && loader.prefetcher != null && !loader.loadingPaused) {
+                        // Regular queue is empty, prefetch within budget
+                        octant = loader.prefetcher.next();
+                    }
+                    if (octant == null) {
+                        // Nothing to do, release resources if needed
+                        idle = true;
+                        loader.unloadLeastRecentlyUsed(octreeWrapper);
+                        continue;
+                    }
+                    if (loader.cache.overHardBudget()) {
+                        // Out of memory, make room before loading anything else
+                        loader.unloadLeastRecentlyUsed(octreeWrapper);
+                        if (loader.cache.overHardBudget()) {
+                            // Everything in memory is in use, wait. Octants of stars looked up by
+                            // name are waited for, so they stay queued
+                            if (target && octant.getStatus() == LoadStatus.QUEUED)
+                                loader.toLoadTargetQueue.add(octant);
+                            else if (octant.getStatus() == LoadStatus.QUEUED)
+                                octant.setStatus(LoadStatus.NOT_LOADED);
+                            Thread.sleep(100);
+                            continue;
                         }
+                    }
+                    if (idle) {
+                        idle = false;
+                        loader.flushLoadQueue();
+                    }
+                    abort.set(false);
+                    if (octant.getStatus() != LoadStatus.QUEUED || loader.isStale(octant)) {
+                        // Not wanted anymore
+                        if (octant.getStatus() == LoadStatus.QUEUED)
+                            loader.cancel(octant);
+                        continue;
+                    }
+                    octant.setStatus(LoadStatus.LOADING);
+                    OctantLoad load = new OctantLoad(octant, System.nanoTime());
+                    ByteBuffer page = null;
+                    try {
+                        page = loader.readOctant(octant);
+                    } catch (IOException e) {
+                        logger.error(e);
+                    }
+                    if (page == null) {
+                        octant.setStatus(LoadStatus.LOADING_FAILED);
+                        continue;
+                    }
+                    loader.ioCounter.add(System.nanoTime() - load.queuedNs, 0);
+                    if (abort.get() && loader.isStale(octant)) {
+                        loader.cancel(octant);
+                        continue;
+                    }
+                    load.page = page;
+                    // Blocks while the decoders are busy
+                    loader.toDecodeQueue.put(load);
+
+                    loader.unloadLeastRecentlyUsed(octreeWrapper);
+                } catch (InterruptedException e) {
+                    // Stopping
+                } catch (Exception e) {
+                    logger.debug(I18n.bundle.get("notif.loadingoctants.fail"));
+                    logger.debug(e);
+                }
+            }
+        }
 
-                        // Load octants if any
-                        if (toLoad.size > 0) {
-                            logger.debug(I18n.bundle.format("notif.loadingoctants", toLoad.size));
-                            try {
-                                int loaded = loader.loadOctants(toLoad, octreeWrapper, abort);
-                                logger.debug(I18n.bundle.format("notif.loadingoctants.finished", loaded));
-                            } catch (Exception e) {
-                                // This will happen when the queue has been cleared during processing
-                                logger.debug(I18n.bundle.get("notif.loadingoctants.fail"));
-                            }
-                        }
+    }
+
+    /**
+     * Worker thread which runs the decode and build stages.
+     */
+    protected static class OctreeDecoderThread extends Thread {
+        private volatile boolean running;
 
-                        // Release resources if needed
-                        int nUnloaded = 0;
-                        int nStars = loader.nLoadedStars;
-                        if (running && nStars >= loader.maxLoadedStars) //-V6007
-                            while (true) {
-                                // Get first in queue (non-accessed for the longest time)
-                                // and release it
-                                OctreeNode octant = loader.toUnloadQueue.poll();
-                                if (octant != null && octant.getStatus() == LoadStatus.LOADED) {
-                                    loader.unloadOctant(octant, octreeWrapper);
-                                }
-                                if (octant != null && octant.objects != null && octant.objects.size() > 0) {
-                                    SceneGraphNode sg = octant.objects.get(0);
-                                    nUnloaded += sg.getStarCount();
-                                    if (nStars - nUnloaded < loader.maxLoadedStars * 0.85) {
-                                        break;
-                                    }
-                                }
-                            }
-
-                        GaiaSky.postRunnable(() -> {
-                            // Update constellations :S
-                            Constellation.updateConstellations();
-                        });
+        private final StreamingOctreeLoader loader;
+        private final AbstractOctreeWrapper octreeWrapper;
 
-                    }
+        public OctreeDecoderThread(AbstractOctreeWrapper aow, StreamingOctreeLoader loader) {
+            this.running = true;
+            this.loader = loader;
+            this.octreeWrapper = aow;
+        }
 
-                    /* ----------- WAIT FOR NOTIFY ----------- */
-                    try {
-                        awake = false;
-                        abort.set(false);
-                        threadLock.wait(Long.MAX_VALUE - 8);
-                    } catch (InterruptedException e) {
-                        // New data!
-                        awake = true;
+        public void stopDaemon() {
+            running = false;
+            this.interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                OctantLoad load = null;
+                try {
+                    load = loader.toDecodeQueue.take();
+                    if (loader.isStale(load.octant)) {
+                        loader.cancel(load.octant);
+                        continue;
                     }
+                    // Decode
+                    long start = System.nanoTime();
+                    List<IParticleRecord> data = loader.decodeOctant(load.octant, load.page);
+                    load.page = null;
+                    long decoded = System.nanoTime();
+                    load.nObjects = data.size();
+                    loader.decodeCounter.add(decoded - start, load.nObjects);
+
+                    // Build
+                    load.node = loader.buildOctant(load.octant, data, octreeWrapper, true);
+                    loader.buildCounter.add(System.nanoTime() - decoded, load.nObjects);
+                    load.octant.setStatus(LoadStatus.READY);
+
+                    // Blocks while the main thread is behind
+                    loader.toAttachQueue.put(load);
+                    loader.postHandoff(octreeWrapper);
+                } catch (InterruptedException e) {
+                    // Stopping
+                } catch (Exception e) {
+                    logger.error(e);
+                    if (load != null)
+                        load.octant.setStatus(LoadStatus.LOADING_FAILED);
                 }
             }
         }
-
     }
 
     @Override
@@ -552,6 +1153,10 @@ public abstract class StreamingOctreeLoader implements IObserver, ISceneGraphLoa
                 if (daemon != null) {
                     daemon.stopDaemon();
                 }
+                if (decoders != null) {
+                    for (OctreeDecoderThread decoder : decoders)
+                        decoder.stopDaemon();
+                }
                 break;
             default:
                 break;
@@ -13,8 +13,10 @@ import gaiasky.util.Logger;
 import gaiasky.util.Logger.Log;
 import gaiasky.util.TextUtils;
 import gaiasky.util.coord.Coordinates;
+import gaiasky.util.ds.LongIndex;
 import gaiasky.util.io.ByteBufferInputStream;
 import gaiasky.util.math.Vector3d;
+import gaiasky.util.parse.CsvChunkTokenizer;
 import gaiasky.util.parse.Parser;
 
 import java.io.*;
@@ -25,8 +27,10 @@ import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.zip.GZIPInputStream;
 
 public abstract class AbstractStarGroupDataProvider implements IStarGroupDataProvider {
@@ -168,34 +172,159 @@ public abstract class AbstractStarGroupDataProvider implements IStarGroupDataPro
     protected long[] countsPerMag;
     protected Set<Long> mustLoadIds = null;
 
+    /**
+     * Additional columns, matched by source id. Rows are found with a primitive hash index, and the
+     * values are stored by column in fixed-size blocks, so that there is no per-star object and lookups
+     * do not allocate. Missing values are NaN.
+     */
     public class AdditionalCols {
+        private static final int BLOCK_SHIFT = 16;
+        private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+        private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
         // Column name -> index
         Map<String, Integer> indices;
-        // Sourceid -> values
-        TreeMap<Long, double[]> values;
+        // Column id ordinal -> index, -1 if not present
+        int[] colIndices;
+        // Sourceid -> row
+        LongIndex rows;
+        // Values, [column][block][row in block]
+        double[][][] values;
+        int nRows;
+
+        AdditionalCols(long expectedRows) {
+            indices = new HashMap<>();
+            colIndices = new int[ColId.values().length];
+            Arrays.fill(colIndices, -1);
+            rows = new LongIndex(expectedRows);
+            values = new double[0][][];
+            nRows = 0;
+        }
 
         public boolean hasCol(ColId col) {
-            return indices != null && indices.containsKey(col.name());
+            return colIndices[col.ordinal()] >= 0;
         }
 
-        public Double get(ColId col, Long sourceid) {
-            try {
-                if (hasCol(col)) {
-                    return values.get(sourceid)[indices.get(col.name())];
-                } else {
-                    return null;
+        /**
+         * Gets the value of the column for the given star
+         *
+         * @param col      The column
+         * @param sourceid The source id of the star
+         * @return The value, or NaN if the column or the star are not present
+         */
+        public double get(ColId col, long sourceid) {
+            int c = colIndices[col.ordinal()];
+            if (c < 0)
+                return Double.NaN;
+            int row = rows.get(sourceid);
+            if (row == LongIndex.NONE)
+                return Double.NaN;
+            return values[c][row >>> BLOCK_SHIFT][row & BLOCK_MASK];
+        }
+
+        public int size() {
+            return nRows;
+        }
+
+        private int column(String name) {
+            Integer c = indices.get(name);
+            if (c == null) {
+                c = values.length;
+                indices.put(name, c);
+                for (ColId col : ColId.values()) {
+                    if (col.name().equals(name))
+                        colIndices[col.ordinal()] = c;
                 }
-            } catch (Exception e) {
-                return null;
+                // Existing stars have no value for the new column
+                double[][] blocks = new double[nBlocks(nRows)][];
+                for (int b = 0; b < blocks.length; b++)
+                    blocks[b] = newBlock();
+                values = Arrays.copyOf(values, c + 1);
+                values[c] = blocks;
+            }
+            return c;
+        }
+
+        /**
+         * Adds the stars of a parsed file. A star that is already present gets the new values in the
+         * columns of the file and keeps the others.
+         */
+        void add(AdditionalChunk chunk) {
+            int[] cols = new int[chunk.names.length];
+            for (int j = 0; j < cols.length; j++)
+                cols[j] = column(chunk.names[j]);
+
+            for (int i = 0; i < chunk.size; i++) {
+                int row = rows.get(chunk.ids[i]);
+                if (row == LongIndex.NONE) {
+                    if (nRows == Integer.MAX_VALUE)
+                        throw new IllegalStateException("Too many stars in additional columns: " + nRows);
+                    row = nRows++;
+                    if ((row & BLOCK_MASK) == 0)
+                        addBlock();
+                    rows.put(chunk.ids[i], row);
+                }
+                int block = row >>> BLOCK_SHIFT, offset = row & BLOCK_MASK;
+                for (int j = 0; j < cols.length; j++)
+                    values[cols[j]][block][offset] = chunk.values[j][i];
+            }
+        }
+
+        private void addBlock() {
+            for (int c = 0; c < values.length; c++) {
+                double[][] blocks = Arrays.copyOf(values[c], values[c].length + 1);
+                blocks[blocks.length - 1] = newBlock();
+                values[c] = blocks;
             }
         }
+
+        private double[] newBlock() {
+            double[] block = new double[BLOCK_SIZE];
+            Arrays.fill(block, Double.NaN);
+            return block;
+        }
+
+        private int nBlocks(int nRows) {
+            return (nRows + BLOCK_MASK) >>> BLOCK_SHIFT;
+        }
+    }
+
+    /**
+     * The contents of a single additional columns file, column by column
+     */
+    private static class AdditionalChunk {
+        // Column names, without the sourceid
+        final String[] names;
+        long[] ids;
+        // [column][row]
+        double[][] values;
+        int size;
+
+        AdditionalChunk(String[] names) {
+            this.names = names;
+            this.ids = new long[1024];
+            this.values = new double[names.length][1024];
+        }
+
+        /**
+         * Adds a row and returns its index
+         */
+        int add(long id) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                for (int j = 0; j < values.length; j++)
+                    values[j] = Arrays.copyOf(values[j], capacity);
+            }
+            ids[size] = id;
+            return size++;
+        }
     }
 
     protected List<AdditionalCols> additional;
 
-    protected boolean hasAdditional(ColId col, Long sourceId) {
-        Double val = getAdditionalValue(col, sourceId);
-        return val != null && !Double.isNaN(val) && !Double.isInfinite(val);
+    protected boolean hasAdditional(ColId col, long sourceId) {
+        return Double.isFinite(getAdditionalValue(col, sourceId));
     }
 
     protected boolean hasAdditionalColumn(ColId col) {
@@ -208,17 +337,25 @@ public abstract class AbstractStarGroupDataProvider implements IStarGroupDataPro
         return false;
     }
 
-    protected Double getAdditionalValue(ColId col, Long sourceId) {
+    /**
+     * Gets the value of the given additional column for the given star, from the first set of
+     * additional columns that has it
+     *
+     * @param col      The column
+     * @param sourceId The source id
+     * @return The value, or NaN if it is not present
+     */
+    protected double getAdditionalValue(ColId col, long sourceId) {
         if (additional == null)
-            return null;
+            return Double.NaN;
         for (AdditionalCols add : additional) {
             if (add != null && add.hasCol(col)) {
-                Double d = add.get(col, sourceId);
-                if (d != null)
+                double d = add.get(col, sourceId);
+                if (!Double.isNaN(d))
                     return d;
             }
         }
-        return null;
+        return Double.NaN;
     }
 
     /**
@@ -226,7 +363,6 @@ public abstract class AbstractStarGroupDataProvider implements IStarGroupDataPro
      * to {@link ColId}
      */
     protected String[] additionalFiles = null;
-    private String additionalSplit = ",|\\s+";
 
     /**
      * RUWE cap value. Will accept all stars with star_ruwe <= ruwe
@@ -374,15 +510,15 @@ public abstract class AbstractStarGroupDataProvider implements IStarGroupDataPro
         }
     }
 
-    protected float getRuweValue(long sourceId, String[] tokens) {
+    protected float getRuweValue(long sourceId, CsvChunkTokenizer.Record tokens) {
         if (hasCol(ColId.ruwe)) {
-            return Parser.parseFloat(tokens[idx(ColId.ruwe)]);
+            return tokens.getFloat(idx(ColId.ruwe));
         } else {
-            Double ruwe = getAdditionalValue(ColId.ruwe, sourceId);
-            if (ruwe == null || ruwe.isInfinite() || ruwe.isNaN()) {
+            double ruwe = getAdditionalValue(ColId.ruwe, sourceId);
+            if (!Double.isFinite(ruwe)) {
                 return Float.NaN;
             }
-            return ruwe.floatValue();
+            return (float) ruwe;
         }
     }
 
@@ -394,8 +530,8 @@ public abstract class AbstractStarGroupDataProvider implements IStarGroupDataPro
      * @return The geometric distance in parsecs if it exists, -1 otherwise.
      */
     protected double getGeoDistance(long sourceId) {
-        Double geodist = getAdditionalValue(ColId.geodist, sourceId);
-        if (geodist == null || geodist.isInfinite() || geodist.isNaN())
+        double geodist = getAdditionalValue(ColId.geodist, sourceId);
+        if (!Double.isFinite(geodist))
             return -1;
         return geodist;
     }
@@ -559,112 +695,156 @@ public abstract class AbstractStarGroupDataProvider implements IStarGroupDataPro
 
     private void loadAdditional() {
         for (String additionalFile : additionalFiles) {
-            AdditionalCols addit = new AdditionalCols();
-            addit.indices = new HashMap<>();
-            addit.values = new TreeMap<>();
-
             logger.info("Loading additional columns from " + additionalFile);
 
-            Path f = Paths.get(additionalFile);
-            loadAdditional(f, addit);
+            List<Path> files = new ArrayList<>();
+            listAdditional(Paths.get(additionalFile), files);
+            AdditionalCols addit = new AdditionalCols(estimateAdditionalRows(files));
+            loadAdditional(files, addit);
             additional.add(addit);
 
-            logger.info(addit.indices.size() + " additional columns loaded for " + addit.values.size() + " stars");
+            logger.info(addit.indices.size() + " additional columns loaded for " + addit.size() + " stars");
         }
     }
 
-    private void loadAdditional(Path f, AdditionalCols addit) {
+    private void listAdditional(Path f, List<Path> files) {
         if (Files.isDirectory(f, LinkOption.NOFOLLOW_LINKS)) {
-            File[] files = f.toFile().listFiles();
-            int nfiles = files.length;
-            int mod = nfiles / 20;
-            int i = 1;
-            for (File file : files) {
-                if (nfiles > 60 && i % mod == 0) {
-                    logger.info("Loading file " + i + "/" + nfiles);
-                }
-                loadAdditional(file.toPath(), addit);
-                i++;
+            File[] children = f.toFile().listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children)
+                    listAdditional(child.toPath(), files);
             }
         } else {
+            files.add(f);
+        }
+    }
+
+    /**
+     * Rough lower bound of the number of stars in the given files, assuming short lines and a
+     * compression ratio of three for gzipped files. Only used to size the index.
+     */
+    private long estimateAdditionalRows(List<Path> files) {
+        long bytes = 0;
+        for (Path f : files) {
             try {
-                loadAdditionalFile(f, addit);
-            } catch (Exception e) {
-                logger.error(e);
+                bytes += Files.size(f) * (f.toString().endsWith(".gz") ? 3 : 1);
+            } catch (IOException e) {
+                // Ignore, the error is reported when loading
             }
         }
+        return bytes / 64;
     }
 
     /**
-     * Loads a single file, optionally gzipped into the given {@link AdditionalCols}
+     * Parses the files in parallel and adds them to the given {@link AdditionalCols} in order, so
+     * that the result does not depend on the scheduling. At most two files per worker are parsed ahead.
      *
-     * @param f     The path
+     * @param files The files
      * @param addit The {@link AdditionalCols} instance
-     * @throws IOException
-     * @throws RuntimeException
      */
-    private void loadAdditionalFile(Path f, AdditionalCols addit) throws IOException, RuntimeException {
-        FileChannel fc = null;
-        InputStream data = null;
-        try {
-            fc = new RandomAccessFile(f.toFile(), "r").getChannel();
+    private void loadAdditional(List<Path> files, AdditionalCols addit) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int window = Math.max(2, pool.getParallelism() * 2);
+        Deque<ForkJoinTask<AdditionalChunk>> pending = new ArrayDeque<>();
+        int nfiles = files.size();
+        int mod = Math.max(1, nfiles / 20);
+        int next = 0;
+        for (int i = 0; i < nfiles; i++) {
+            while (next < nfiles && next < i + window) {
+                final Path f = files.get(next++);
+                pending.add(pool.submit(() -> loadAdditionalFile(f)));
+            }
+            if (nfiles > 60 && (i + 1) % mod == 0) {
+                logger.info("Loading file " + (i + 1) + "/" + nfiles);
+            }
+            AdditionalChunk chunk = pending.poll().join();
+            if (chunk != null)
+                addit.add(chunk);
+        }
+    }
+
+    /**
+     * Parses a single file, optionally gzipped. Separators are commas or white space.
+     *
+     * @param f The path
+     * @return The contents of the file, or null if it could not be read
+     */
+    private AdditionalChunk loadAdditionalFile(Path f) {
+        try (FileChannel fc = FileChannel.open(f, StandardOpenOption.READ)) {
             MappedByteBuffer mem = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
-            data = new ByteBufferInputStream(mem);
+            InputStream data = new ByteBufferInputStream(mem);
             if (f.toString().endsWith(".gz"))
                 data = new GZIPInputStream(data);
-            BufferedReader br = new BufferedReader(new InputStreamReader(data));
-            // Read header
-            String[] header = br.readLine().strip().split(additionalSplit);
-            int i = 0;
-            for (String col : header) {
-                col = col.strip();
-                if (i == 0 && !col.equals(ColId.sourceid.name())) {
-                    logger.error("First column: " + col + ", should be: " + ColId.sourceid.name());
-                    throw new RuntimeException("Additional columns file must contain a sourceid in the first column");
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(data))) {
+                // Read header
+                String headerLine = br.readLine();
+                if (headerLine == null)
+                    return null;
+                List<String> header = new ArrayList<>();
+                int[] range = new int[2];
+                int pos = 0;
+                while ((pos = nextToken(headerLine, pos, range)) >= 0) {
+                    header.add(headerLine.substring(range[0], range[1]));
                 }
-                if (i > 0 && !addit.indices.containsKey(col)) {
-                    addit.indices.put(col, i - 1);
+                if (header.isEmpty() || !header.get(0).equals(ColId.sourceid.name())) {
+                    logger.error("First column: " + (header.isEmpty() ? "" : header.get(0)) + ", should be: " + ColId.sourceid.name());
+                    throw new RuntimeException("Additional columns file must contain a sourceid in the first column");
                 }
-                i++;
-            }
-            int ncols = header.length - 1;
-            String line;
-            i = 0;
-            while ((line = br.readLine()) != null) {
-                String[] tokens = line.split(additionalSplit);
-                Long sourceId = Parser.parseLong(tokens[0].trim());
-                double[] vals = new double[ncols];
-                for (int j = 1; j <= ncols; j++) {
-                    if (tokens[j] != null && !tokens[j].strip().isBlank()) {
-                        Double val = Parser.parseDouble(tokens[j].strip());
-                        vals[j - 1] = val;
-                    } else {
-                        // No value
-                        vals[j - 1] = Double.NaN;
+                AdditionalChunk chunk = new AdditionalChunk(header.subList(1, header.size()).toArray(new String[0]));
+                int ncols = chunk.names.length;
+
+                String line;
+                while ((line = br.readLine()) != null) {
+                    pos = nextToken(line, 0, range);
+                    if (range[0] == range[1])
+                        continue;
+                    int row = chunk.add(Parser.parseLong(line, range[0], range[1]));
+                    for (int j = 0; j < ncols; j++) {
+                        if (pos >= 0)
+                            pos = nextToken(line, pos, range);
+                        // Empty or missing values are NaN
+                        chunk.values[j][row] = pos >= 0 ? Parser.parseDouble(line, range[0], range[1]) : Double.NaN;
                     }
                 }
-                addit.values.put(sourceId, vals);
-                i++;
+                return chunk;
             }
-            br.close();
         } catch (Exception e) {
-            logger.error(e);
-        } finally {
-            if (fc != null)
-                try {
-                    fc.close();
-                } catch (Exception e) {
-                    logger.error(e);
-                }
-            if (data != null)
-                try {
-                    data.close();
-                } catch (IOException e) {
-                    logger.error(e);
-                }
+            logger.error(e, "Error loading additional columns file: " + f);
+            return null;
         }
     }
 
+    /**
+     * Finds the token at the given position of the line. Tokens are separated by a comma or by white space,
+     * and white space around a comma is ignored. Two consecutive commas enclose an empty token.
+     *
+     * @param line  The line
+     * @param pos   The position to start at, 0 or the value returned by the previous call
+     * @param range Gets the start (inclusive) and end (exclusive) of the token
+     * @return The position of the next token, or -1 if there are no more tokens
+     */
+    private static int nextToken(String line, int pos, int[] range) {
+        int len = line.length();
+        if (pos > len)
+            return -1;
+        while (pos < len && Character.isWhitespace(line.charAt(pos)))
+            pos++;
+        int start = pos;
+        while (pos < len && line.charAt(pos) != ',' && !Character.isWhitespace(line.charAt(pos)))
+            pos++;
+        range[0] = start;
+        range[1] = pos;
+        // Skip the separator
+        while (pos < len && Character.isWhitespace(line.charAt(pos)))
+            pos++;
+        if (pos >= len)
+            return len + 1;
+        if (line.charAt(pos) == ',')
+            pos++;
+        return pos;
+    }
+
     @Override
     public void setFileNumberCap(int cap) {
         this.fileNumberCap = cap;
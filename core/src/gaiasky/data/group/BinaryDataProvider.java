@@ -6,10 +6,13 @@
 package gaiasky.data.group;
 
 import gaiasky.scenegraph.particle.IParticleRecord;
+import gaiasky.scenegraph.particle.ParticleColumnList;
+import gaiasky.scenegraph.particle.ParticleColumns;
 import gaiasky.util.GlobalConf;
 import gaiasky.util.I18n;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
@@ -33,6 +36,8 @@ import java.util.List;
  *      </ul>
  * </li>
  * </ul>
+ * Version 3 is columnar (see {@link BinaryVersion3}), and is read into a {@link ParticleColumnList}
+ * without creating a record object per star.
  *
  * @author tsagrista
  */
@@ -42,8 +47,11 @@ public class BinaryDataProvider extends AbstractStarGroupDataProvider {
     /** The default output format version to use for writing **/
     public static int DEFAULT_OUTPUT_VERSION = 2;
 
+    /** The columnar format version **/
+    public static final int COLUMNAR_VERSION = 3;
+
     public static int MIN_OUTPUT_VERSION = 0;
-    public static int MAX_OUTPUT_VERSION = DEFAULT_OUTPUT_VERSION;
+    public static int MAX_OUTPUT_VERSION = COLUMNAR_VERSION;
 
     /** The output format version for writing **/
     private int outputVersion = -1;
@@ -51,15 +59,21 @@ public class BinaryDataProvider extends AbstractStarGroupDataProvider {
     /**
      * Binary IO for the different format versions
      */
-    private final BinaryIO[] binaryVersions;
+    private final BinaryIOBase[] binaryVersions;
+
+    /**
+     * Columnar binary IO, version 3
+     */
+    private final BinaryVersion3 columnarVersion;
 
     public BinaryDataProvider() {
         super();
 
-        binaryVersions = new BinaryIO[3];
+        binaryVersions = new BinaryIOBase[3];
         binaryVersions[0] = new BinaryVersion0();
         binaryVersions[1] = new BinaryVersion1();
         binaryVersions[2] = new BinaryVersion2();
+        columnarVersion = new BinaryVersion3();
     }
 
     @Override
@@ -93,8 +107,12 @@ public class BinaryDataProvider extends AbstractStarGroupDataProvider {
             }
             // Number of stars
             data_out.writeInt(data.size());
-            for (IParticleRecord sb : data) {
-                binaryVersions[version].writeParticleRecord(sb, data_out);
+            if (version == COLUMNAR_VERSION) {
+                columnarVersion.writeParticleColumns(data, data_out);
+            } else {
+                for (IParticleRecord sb : data) {
+                    binaryVersions[version].writeParticleRecord(sb, data_out);
+                }
             }
 
         } catch (Exception e) {
@@ -109,6 +127,16 @@ public class BinaryDataProvider extends AbstractStarGroupDataProvider {
 
     }
 
+    /**
+     * Gets the reader and writer of single records of the given row-based format version
+     *
+     * @param version The format version, lower than {@link #COLUMNAR_VERSION}
+     * @return The binary IO
+     */
+    public BinaryIO getBinaryIO(int version) {
+        return binaryVersions[version];
+    }
+
     public List<IParticleRecord> readData(InputStream in, double factor) {
         List<IParticleRecord> data = null;
         DataInputStream data_in = new DataInputStream(in);
@@ -125,9 +153,13 @@ public class BinaryDataProvider extends AbstractStarGroupDataProvider {
             }
             // Read size of stars
             int size = data_in.readInt();
-            data = new ArrayList<>(size);
-            for (int i = 0; i < size; i++) {
-                data.add(binaryVersions[version].readParticleRecord(data_in, factor));
+            if (version == COLUMNAR_VERSION) {
+                data = new ParticleColumnList(columnarVersion.readParticleColumns(data_in, size, factor));
+            } else {
+                data = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    data.add(binaryVersions[version].readParticleRecord(data_in, factor));
+                }
             }
 
         } catch (IOException e) {
@@ -161,9 +193,13 @@ public class BinaryDataProvider extends AbstractStarGroupDataProvider {
             }
             // Read size of stars
             int size = mem.getInt();
-            list = new ArrayList<>(size);
-            for (int i = 0; i < size; i++) {
-                list.add(binaryVersions[version].readParticleRecord(mem, factor));
+            if (version == COLUMNAR_VERSION) {
+                list = new ParticleColumnList(columnarVersion.readParticleColumns(mem, size, factor));
+            } else {
+                list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(binaryVersions[version].readParticleRecord(mem, factor));
+                }
             }
 
             fc.close();
@@ -177,44 +213,77 @@ public class BinaryDataProvider extends AbstractStarGroupDataProvider {
     }
 
     /**
-     * Loads data mapped with a version hint.
+     * Loads data mapped with a version hint. The stars are read directly into a columnar
+     * store ({@link ParticleColumns}) regardless of the version of the file, so that
+     * no per-star objects are created.
      *
      * @param file        The file to load
      * @param factor      Distance factor, if any
      * @param versionHint Data version number, in case of version 0 or 1, since these formats were
      *                    not annotated. If version >=2, the version number is read from the file header
-     * @return
+     * @return A list view of the columnar store
      */
     public List<IParticleRecord> loadDataMapped(String file, double factor, int versionHint) {
         try {
-            FileChannel fc = new RandomAccessFile(GlobalConf.data.dataFile(file), "r").getChannel();
+            list = new ParticleColumnList(decodeColumns(mapData(file), factor, versionHint));
+            return list;
+        } catch (Exception e) {
+            logger.error(e);
+        }
+        return null;
+    }
 
+    /**
+     * Maps the given file into memory and loads its contents, so that decoding it
+     * afterwards does not hit the disk. This is the I/O part of {@link #loadDataMapped(String, double, int)},
+     * and can be run in a different thread than the decoding.
+     *
+     * @param file The file to map
+     * @return The buffer with the contents of the file
+     * @throws IOException If the file can't be read
+     */
+    public ByteBuffer mapData(String file) throws IOException {
+        try (FileChannel fc = new RandomAccessFile(GlobalConf.data.dataFile(file), "r").getChannel()) {
             MappedByteBuffer mem = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            // Page in the contents
+            mem.load();
+            return mem;
+        }
+    }
 
-            int version = versionHint;
-            mem.mark();
-            int versionToken = mem.getInt();
-            if (versionToken < 0) {
-                version = mem.getInt();
-            } else {
-                // Rewind
-                mem.reset();
-            }
-            // Read size of stars
-            int size = mem.getInt();
-            list = new ArrayList<>(size);
+    /**
+     * Decodes the stars in the given buffer directly into a columnar store ({@link ParticleColumns})
+     * regardless of the version of the data, so that no per-star objects are created. This method does
+     * not use any state of the provider, so it is safe to call it concurrently from different threads.
+     *
+     * @param mem         The buffer, positioned at the start of the data
+     * @param factor      Distance factor, if any
+     * @param versionHint Data version number, in case of version 0 or 1, since these formats were
+     *                    not annotated. If version >=2, the version number is read from the header
+     * @return The columnar store
+     */
+    public ParticleColumns decodeColumns(ByteBuffer mem, double factor, int versionHint) {
+        int version = versionHint;
+        mem.mark();
+        int versionToken = mem.getInt();
+        if (versionToken < 0) {
+            version = mem.getInt();
+        } else {
+            // Rewind
+            mem.reset();
+        }
+        // Read size of stars
+        int size = mem.getInt();
+        ParticleColumns columns;
+        if (version == COLUMNAR_VERSION) {
+            columns = columnarVersion.readParticleColumns(mem, size, factor);
+        } else {
+            columns = new ParticleColumns(size);
             for (int i = 0; i < size; i++) {
-                list.add(binaryVersions[version].readParticleRecord(mem, factor));
+                binaryVersions[version].readParticleRecord(mem, factor, columns, i);
             }
-
-            fc.close();
-
-            return list;
-
-        } catch (Exception e) {
-            logger.error(e);
         }
-        return null;
+        return columns;
     }
 
     @Override
@@ -1,10 +1,12 @@
 package gaiasky.data.group;
 
+import gaiasky.scenegraph.particle.ParticleColumns;
 import gaiasky.scenegraph.particle.ParticleRecord;
 import gaiasky.util.Constants;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 
 /**
@@ -80,6 +82,83 @@ public abstract class BinaryIOBase implements BinaryIO {
     }
 
 
+    /**
+     * Reads a star from the buffer directly into the given columns, without creating
+     * any intermediate objects. Stars must be read in order, starting at index 0.
+     *
+     * @param mem    Buffer to read from
+     * @param factor Scale factor to apply to positions
+     * @param c      The destination columns
+     * @param i      The index of the star in the columns
+     */
+    public void readParticleRecord(ByteBuffer mem, double factor, ParticleColumns c, int i) {
+        double posFactor = factor * Constants.DISTANCE_SCALE_FACTOR;
+        // Doubles first, then floats, in the order x y z pmx pmy pmz mualpha mudelta radvel appmag absmag col size
+        int nValues = nDoubles + nFloats;
+        for (int k = 0; k < nValues; k++) {
+            double v = k < nDoubles ? mem.getDouble() : mem.getFloat();
+            switch (k) {
+            case 0:
+                c.x[i] = v * posFactor;
+                break;
+            case 1:
+                c.y[i] = v * posFactor;
+                break;
+            case 2:
+                c.z[i] = v * posFactor;
+                break;
+            case 3:
+                c.pmx[i] = (float) v;
+                break;
+            case 4:
+                c.pmy[i] = (float) v;
+                break;
+            case 5:
+                c.pmz[i] = (float) v;
+                break;
+            case 6:
+                c.mualpha[i] = (float) v;
+                break;
+            case 7:
+                c.mudelta[i] = (float) v;
+                break;
+            case 8:
+                c.radvel[i] = (float) v;
+                break;
+            case 9:
+                c.appmag[i] = (float) v;
+                break;
+            case 10:
+                c.absmag[i] = (float) v;
+                break;
+            case 11:
+                c.col[i] = (float) v;
+                break;
+            case 12:
+                c.size[i] = (float) (v * Constants.DISTANCE_SCALE_FACTOR);
+                break;
+            default:
+                break;
+            }
+        }
+        // HIP
+        c.hip[i] = mem.getInt();
+
+        // TYCHO
+        if (tychoIds) {
+            // Skip unused tycho numbers, 3 Integers
+            mem.position(mem.position() + 3 * Integer.BYTES);
+        }
+
+        // ID
+        c.id[i] = mem.getLong();
+
+        // NAME
+        int nameLength = mem.getInt();
+        c.appendNames(i, mem, nameLength);
+    }
+
+
     @Override
     public ParticleRecord readParticleRecord(DataInputStream in, double factor) throws IOException {
         double[] dataD = new double[ParticleRecord.STAR_SIZE_D];
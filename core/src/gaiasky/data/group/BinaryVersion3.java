@@ -0,0 +1,186 @@
+package gaiasky.data.group;
+
+import gaiasky.scenegraph.particle.IParticleRecord;
+import gaiasky.scenegraph.particle.ParticleColumns;
+import gaiasky.util.Constants;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Binary version 3, columnar. Instead of storing one record after the other, all the
+ * values of each attribute are stored contiguously, so that a whole page can be read
+ * in bulk into a {@link ParticleColumns} object without creating any per-star objects.
+ * After the header (see {@link BinaryDataProvider}), the layout is:
+ * <ul>
+ *     <li>3 double columns: x, y, z</li>
+ *     <li>10 float columns: pmx, pmy, pmz, mualpha, mudelta, radvel, appmag, absmag, col, size</li>
+ *     <li>1 int column: hip</li>
+ *     <li>1 long column: id</li>
+ *     <li>string table: n+1 int offsets, followed by the concatenated names as chars</li>
+ * </ul>
+ */
+public class BinaryVersion3 {
+
+    /**
+     * Reads the columns of n stars from the buffer, starting at its current position.
+     *
+     * @param mem    The buffer
+     * @param n      The number of stars
+     * @param factor Scale factor to apply to positions
+     * @return The columns
+     */
+    public ParticleColumns readParticleColumns(ByteBuffer mem, int n, double factor) {
+        ParticleColumns c = new ParticleColumns(n);
+        // Double columns
+        readDoubles(mem, c.x);
+        readDoubles(mem, c.y);
+        readDoubles(mem, c.z);
+        // Float columns
+        readFloats(mem, c.pmx);
+        readFloats(mem, c.pmy);
+        readFloats(mem, c.pmz);
+        readFloats(mem, c.mualpha);
+        readFloats(mem, c.mudelta);
+        readFloats(mem, c.radvel);
+        readFloats(mem, c.appmag);
+        readFloats(mem, c.absmag);
+        readFloats(mem, c.col);
+        readFloats(mem, c.size);
+        // HIP
+        mem.asIntBuffer().get(c.hip);
+        mem.position(mem.position() + n * Integer.BYTES);
+        // ID
+        mem.asLongBuffer().get(c.id);
+        mem.position(mem.position() + n * Long.BYTES);
+        // NAMES
+        int[] offsets = new int[n + 1];
+        mem.asIntBuffer().get(offsets);
+        mem.position(mem.position() + (n + 1) * Integer.BYTES);
+        char[] chars = new char[offsets[n]];
+        mem.asCharBuffer().get(chars);
+        mem.position(mem.position() + chars.length * Character.BYTES);
+        c.setNameTable(chars, offsets);
+
+        scale(c, factor);
+        return c;
+    }
+
+    /**
+     * Reads the columns of n stars from the input stream.
+     *
+     * @param in     The input stream
+     * @param n      The number of stars
+     * @param factor Scale factor to apply to positions
+     * @return The columns
+     * @throws IOException If the stream can't be read
+     */
+    public ParticleColumns readParticleColumns(DataInputStream in, int n, double factor) throws IOException {
+        ParticleColumns c = new ParticleColumns(n);
+        for (double[] col : new double[][] { c.x, c.y, c.z })
+            for (int i = 0; i < n; i++)
+                col[i] = in.readDouble();
+        for (float[] col : new float[][] { c.pmx, c.pmy, c.pmz, c.mualpha, c.mudelta, c.radvel, c.appmag, c.absmag, c.col, c.size })
+            for (int i = 0; i < n; i++)
+                col[i] = in.readFloat();
+        for (int i = 0; i < n; i++)
+            c.hip[i] = in.readInt();
+        for (int i = 0; i < n; i++)
+            c.id[i] = in.readLong();
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i <= n; i++)
+            offsets[i] = in.readInt();
+        char[] chars = new char[offsets[n]];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = in.readChar();
+        c.setNameTable(chars, offsets);
+
+        scale(c, factor);
+        return c;
+    }
+
+    /**
+     * Writes the given stars in columnar form to the output stream.
+     *
+     * @param data The stars
+     * @param out  The output stream
+     * @throws IOException If the stream can't be written
+     */
+    public void writeParticleColumns(List<IParticleRecord> data, DataOutputStream out) throws IOException {
+        // 3 double columns
+        for (IParticleRecord sb : data)
+            out.writeDouble(sb.x());
+        for (IParticleRecord sb : data)
+            out.writeDouble(sb.y());
+        for (IParticleRecord sb : data)
+            out.writeDouble(sb.z());
+
+        // 10 float columns
+        for (IParticleRecord sb : data)
+            out.writeFloat((float) sb.pmx());
+        for (IParticleRecord sb : data)
+            out.writeFloat((float) sb.pmy());
+        for (IParticleRecord sb : data)
+            out.writeFloat((float) sb.pmz());
+        for (IParticleRecord sb : data)
+            out.writeFloat(sb.mualpha());
+        for (IParticleRecord sb : data)
+            out.writeFloat(sb.mudelta());
+        for (IParticleRecord sb : data)
+            out.writeFloat(sb.radvel());
+        for (IParticleRecord sb : data)
+            out.writeFloat(sb.appmag());
+        for (IParticleRecord sb : data)
+            out.writeFloat(sb.absmag());
+        for (IParticleRecord sb : data)
+            out.writeFloat(sb.col());
+        for (IParticleRecord sb : data)
+            out.writeFloat(sb.size());
+
+        // HIP
+        for (IParticleRecord sb : data)
+            out.writeInt(sb.hip());
+
+        // ID
+        for (IParticleRecord sb : data)
+            out.writeLong(sb.id());
+
+        // NAMES - offsets first, then the string table
+        String[] namesConcat = new String[data.size()];
+        int offset = 0, i = 0;
+        out.writeInt(offset);
+        for (IParticleRecord sb : data) {
+            String nc = sb.namesConcat();
+            namesConcat[i++] = nc;
+            offset += nc == null ? 0 : nc.length();
+            out.writeInt(offset);
+        }
+        for (String nc : namesConcat) {
+            if (nc != null)
+                out.writeChars(nc);
+        }
+    }
+
+    private void readDoubles(ByteBuffer mem, double[] dest) {
+        mem.asDoubleBuffer().get(dest);
+        mem.position(mem.position() + dest.length * Double.BYTES);
+    }
+
+    private void readFloats(ByteBuffer mem, float[] dest) {
+        mem.asFloatBuffer().get(dest);
+        mem.position(mem.position() + dest.length * Float.BYTES);
+    }
+
+    private void scale(ParticleColumns c, double factor) {
+        double posFactor = factor * Constants.DISTANCE_SCALE_FACTOR;
+        for (int i = 0; i < c.n; i++) {
+            c.x[i] *= posFactor;
+            c.y[i] *= posFactor;
+            c.z[i] *= posFactor;
+            c.size[i] *= Constants.DISTANCE_SCALE_FACTOR;
+        }
+    }
+}
@@ -20,16 +20,16 @@ import gaiasky.util.format.NumberFormatFactory;
 import gaiasky.util.io.ByteBufferInputStream;
 import gaiasky.util.math.MathUtilsd;
 import gaiasky.util.math.Vector3d;
-import gaiasky.util.parse.Parser;
+import gaiasky.util.parse.CsvChunkTokenizer;
 import gaiasky.util.ucd.UCD;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.function.Consumer;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -44,7 +44,7 @@ public class CsvCatalogDataProvider extends AbstractStarGroupDataProvider {
     private static final Log logger = Logger.getLogger(CsvCatalogDataProvider.class);
     private static final String comma = ",";
 
-    private static final String separator = comma;
+    private static final char separator = ',';
 
 
     /**
@@ -52,8 +52,8 @@ public class CsvCatalogDataProvider extends AbstractStarGroupDataProvider {
      */
     private final INumberFormat nf;
 
-    // Buffer in number of lines
-    private int parallelBufferSize = 50000;
+    // Size of the chunks parsed in parallel, in bytes
+    private int chunkSize = CsvChunkTokenizer.DEFAULT_CHUNK_SIZE;
 
     public CsvCatalogDataProvider() {
         super();
@@ -148,82 +148,81 @@ public class CsvCatalogDataProvider extends AbstractStarGroupDataProvider {
     }
 
     public void loadFileIs(InputStream is, double factor, AtomicLong addedStars, AtomicLong discardedStars) {
-        // Simple case
-        InputStream data = is;
-        BufferedReader br = new BufferedReader(new InputStreamReader(data));
-        Consumer<String> c = (l) -> {
-            if (addStar(l))
-                addedStars.incrementAndGet();
-            else
-                discardedStars.incrementAndGet();
-        };
         try {
-            if (parallelism > 1) {
-                // Use parallel stream with buffer
-                List<String> lineBuffer = new ArrayList<>(parallelBufferSize);
-                long i = 0;
-                String line;
-                while ((line = br.readLine()) != null) {
-                    // Add to buffer
-                    if (i > 0)
-                        lineBuffer.add(line);
-                    if (lineBuffer.size() >= parallelBufferSize) {
-                        lineBuffer.parallelStream().forEach(c);
-                        lineBuffer.clear();
-                    }
-                    i++;
-                }
-                // Flush rest
-                if (lineBuffer.size() > 0) {
-                    lineBuffer.parallelStream().forEach(c);
-                    lineBuffer.clear();
-                }
-            } else {
-                // Just read line by line
-                int num = 0;
-                String line;
-                while ((line = br.readLine()) != null) {
-                    c.accept(line);
-                    num++;
-                    if(starNumberCap >= 0 && num >= starNumberCap){
-                        break;
-                    }
-                }
-            }
+            newTokenizer().process(is, this::parseChunk, (r) -> mergeChunk(r, addedStars, discardedStars));
         } catch (IOException e) {
             logger.error(e);
         } finally {
             try {
-                br.close();
+                is.close();
             } catch (IOException e) {
                 logger.error(e);
             }
         }
     }
 
+    /**
+     * Same as {@link #loadFileIs(InputStream, double, AtomicLong, AtomicLong)}, but chunks are slices of the buffer,
+     * with no copy
+     */
+    public void loadFileBuffer(ByteBuffer data, double factor, AtomicLong addedStars, AtomicLong discardedStars) {
+        newTokenizer().process(data, this::parseChunk, (r) -> mergeChunk(r, addedStars, discardedStars));
+    }
+
+    private CsvChunkTokenizer newTokenizer() {
+        return new CsvChunkTokenizer(separator, chunkSize, true, parallelism > 1, starNumberCap);
+    }
+
+    /**
+     * Stars of a chunk, accumulated by the thread that parses it
+     */
+    private static class ChunkResult {
+        final List<IParticleRecord> records = new ArrayList<>();
+        final long[] counts = new long[22];
+        long discarded;
+    }
+
+    private ChunkResult parseChunk(CsvChunkTokenizer.Chunk chunk) {
+        ChunkResult result = new ChunkResult();
+        CsvChunkTokenizer.Record record = new CsvChunkTokenizer.Record();
+        while (chunk.next(record)) {
+            if (!addStar(record, result.records, result.counts))
+                result.discarded++;
+        }
+        return result;
+    }
+
+    private void mergeChunk(ChunkResult result, AtomicLong addedStars, AtomicLong discardedStars) {
+        list.addAll(result.records);
+        for (int i = 0; i < countsPerMag.length; i++)
+            countsPerMag[i] += result.counts[i];
+        addedStars.addAndGet(result.records.size());
+        discardedStars.addAndGet(result.discarded);
+    }
+
     /**
      * Adds the star if it meets the criteria.
      *
-     * @param line The string line
+     * @param tokens The record
+     * @param out    The list to add the star to
+     * @param counts The star counts per magnitude
      * @return True if star was added, false otherwise
      */
-    private boolean addStar(String line) {
-        String[] tokens = line.split(separator);
-
+    private boolean addStar(CsvChunkTokenizer.Record tokens, List<IParticleRecord> out, long[] counts) {
         // Check that parallax exists (5-param solution), otherwise we have no distance
-        if (!tokens[idx(ColId.pllx)].isEmpty()) {
+        if (!tokens.isEmpty(idx(ColId.pllx))) {
             /** Extra attributes **/
             ObjectDoubleMap<UCD> extra = new ObjectDoubleMap<>(2, 0.9f);
 
             /** ID **/
-            long sourceid = Parser.parseLong(tokens[idx(ColId.sourceid)]);
+            long sourceid = tokens.getLong(idx(ColId.sourceid));
             boolean mustLoad = mustLoad(sourceid);
 
             /** PARALLAX **/
             // Add the zero point to the parallax
-            double pllx = Parser.parseDouble(tokens[idx(ColId.pllx)]) - parallaxZeroPoint;
-            double pllxerr = Parser.parseDouble(tokens[idx(ColId.pllx_err)]);
-            float appmag = (float) Parser.parseDouble(tokens[idx(ColId.gmag)]);
+            double pllx = tokens.getDouble(idx(ColId.pllx)) - parallaxZeroPoint;
+            double pllxerr = tokens.getDouble(idx(ColId.pllx_err));
+            float appmag = (float) tokens.getDouble(idx(ColId.gmag));
 
             extra.put(new UCD("pllx_err", ColId.pllx_err.toString(), "", 0), pllxerr);
 
@@ -257,19 +256,19 @@ public class CsvCatalogDataProvider extends AbstractStarGroupDataProvider {
                         String name = null;
 
                         /** RA and DEC **/
-                        double ra = Parser.parseDouble(tokens[idx(ColId.ra)]);
-                        double dec = Parser.parseDouble(tokens[idx(ColId.dec)]);
+                        double ra = tokens.getDouble(idx(ColId.ra));
+                        double dec = tokens.getDouble(idx(ColId.dec));
                         double rarad = Math.toRadians(ra);
                         double decrad = Math.toRadians(dec);
                         // If distance is negative due to mustLoad, we need to be able to retrieve sph pos later on, so we use 1 m to mark it
                         Vector3d pos = Coordinates.sphericalToCartesian(rarad, decrad, Math.max(dist, NEGATIVE_DIST), new Vector3d());
 
                         /** PROPER MOTIONS in mas/yr **/
-                        double mualphastar = Parser.parseDouble(tokens[idx(ColId.pmra)]);
-                        double mudelta = Parser.parseDouble(tokens[idx(ColId.pmdec)]);
+                        double mualphastar = tokens.getDouble(idx(ColId.pmra));
+                        double mudelta = tokens.getDouble(idx(ColId.pmdec));
 
                         /** RADIAL VELOCITY in km/s **/
-                        double radvel = Parser.parseDouble(tokens[idx(ColId.radvel)]);
+                        double radvel = tokens.getDouble(idx(ColId.radvel));
                         if (Double.isNaN(radvel)) {
                             radvel = 0;
                         }
@@ -288,9 +287,9 @@ public class CsvCatalogDataProvider extends AbstractStarGroupDataProvider {
                         double magcorraux = Math.min(distpc, 150d / Math.abs(Math.sin(b)));
 
                         if (magCorrections) {
-                            if (hasCol(ColId.ag) && !tokens[idx(ColId.ag)].isEmpty()) {
+                            if (hasCol(ColId.ag) && !tokens.isEmpty(idx(ColId.ag))) {
                                 // Take extinction from database
-                                ag = Parser.parseDouble(tokens[idx(ColId.ag)]);
+                                ag = tokens.getDouble(idx(ColId.ag));
                             } else if (hasAdditional(ColId.ag, sourceid)) {
                                 // Take extinction from additional file
                                 ag = getAdditionalValue(ColId.ag, sourceid);
@@ -316,9 +315,9 @@ public class CsvCatalogDataProvider extends AbstractStarGroupDataProvider {
                         // Reddening
                         double ebr = 0;
                         if (magCorrections) {
-                            if (hasCol(ColId.ebp_min_rp) && !tokens[idx(ColId.ebp_min_rp)].isEmpty()) {
+                            if (hasCol(ColId.ebp_min_rp) && !tokens.isEmpty(idx(ColId.ebp_min_rp))) {
                                 // Take reddening from table
-                                ebr = Parser.parseDouble(tokens[idx(ColId.ebp_min_rp)]);
+                                ebr = tokens.getDouble(idx(ColId.ebp_min_rp));
                             } else if (hasAdditional(ColId.ebp_min_rp, sourceid)) {
                                 // From additional
                                 ebr = getAdditionalValue(ColId.ebp_min_rp, sourceid);
@@ -331,15 +330,15 @@ public class CsvCatalogDataProvider extends AbstractStarGroupDataProvider {
                         }
 
                         // XP = BP - RP - Reddening
-                        float bp = (float) Parser.parseDouble(tokens[idx(ColId.bpmag)].trim());
-                        float rp = (float) Parser.parseDouble(tokens[idx(ColId.rpmag)].trim());
+                        float bp = (float) tokens.getDouble(idx(ColId.bpmag));
+                        float rp = (float) tokens.getDouble(idx(ColId.rpmag));
                         double xp = bp - rp - ebr;
 
                         // See Gaia broad band photometry (https://doi.org/10.1051/0004-6361/201015441)
                         double teff;
-                        if (tokens.length > 18 && !tokens[idx(ColId.teff)].isEmpty()) {
+                        if (!tokens.isEmpty(idx(ColId.teff))) {
                             // Use database Teff
-                            teff = Parser.parseDouble(tokens[idx(ColId.teff)]);
+                            teff = tokens.getDouble(idx(ColId.teff));
                         } else {
                             // Compute Teff from XP color
                             if (xp <= 1.5) {
@@ -370,10 +369,10 @@ public class CsvCatalogDataProvider extends AbstractStarGroupDataProvider {
                         dataF[ParticleRecord.I_FSIZE] = size;
                         dataF[ParticleRecord.I_FHIP] = -1;
 
-                        list.add(new ParticleRecord(dataD, dataF, sourceid, name, extra));
+                        out.add(new ParticleRecord(dataD, dataF, sourceid, name, extra));
 
                         int appClamp = (int) MathUtilsd.clamp(appmag, 0, 21);
-                        countsPerMag[appClamp] += 1;
+                        counts[appClamp] += 1;
                         return true;
                     }
                 }
@@ -404,18 +403,14 @@ public class CsvCatalogDataProvider extends AbstractStarGroupDataProvider {
         try {
             fc = new RandomAccessFile(file, "r").getChannel();
             MappedByteBuffer mem = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
-            data = new ByteBufferInputStream(mem);
-
-            if (gz) {
-                try {
-                    data = new GZIPInputStream(data);
-                } catch (IOException e) {
-                    logger.error(e);
-                }
-            }
             AtomicLong addedStars = new AtomicLong(0l);
             AtomicLong discardedStars = new AtomicLong(0l);
-            loadFileIs(data, factor, addedStars, discardedStars);
+            if (gz) {
+                data = new GZIPInputStream(new ByteBufferInputStream(mem), 65536);
+                loadFileIs(data, factor, addedStars, discardedStars);
+            } else {
+                loadFileBuffer(mem, factor, addedStars, discardedStars);
+            }
 
             if (fileNumber >= 0 && totalFiles >= 0)
                 logger.info(fileNumber + "/" + totalFiles + " (" + nf.format((double) fileNumber * 100d / (double) totalFiles) + "%): " + fileName + " --> " + addedStars.get() + "/" + (addedStars.get() + discardedStars.get()) + " stars (" + nf.format(100d * (double) addedStars.get() / (double) (addedStars.get() + discardedStars.get())) + "%)");
@@ -479,7 +474,7 @@ public class CsvCatalogDataProvider extends AbstractStarGroupDataProvider {
         return null;
     }
 
-    public void setParallelBufferSize(int size) {
-        this.parallelBufferSize = size;
+    public void setChunkSize(int bytes) {
+        this.chunkSize = bytes;
     }
 }
@@ -11,10 +11,12 @@ import gaiasky.data.StreamingOctreeLoader;
 import gaiasky.data.octreegen.MetadataBinaryIO;
 import gaiasky.event.EventManager;
 import gaiasky.event.Events;
+import gaiasky.scenegraph.SceneGraphNode;
 import gaiasky.scenegraph.StarGroup;
 import gaiasky.scenegraph.octreewrapper.AbstractOctreeWrapper;
 import gaiasky.scenegraph.octreewrapper.OctreeWrapper;
 import gaiasky.scenegraph.particle.IParticleRecord;
+import gaiasky.scenegraph.particle.ParticleColumnList;
 import gaiasky.util.CatalogInfo;
 import gaiasky.util.CatalogInfo.CatalogInfoType;
 import gaiasky.util.GlobalConf;
@@ -23,9 +25,13 @@ import gaiasky.util.Logger;
 import gaiasky.util.Logger.Log;
 import gaiasky.util.coord.AstroUtils;
 import gaiasky.util.tree.LoadStatus;
+import gaiasky.util.tree.OctreeNameIndex;
 import gaiasky.util.tree.OctreeNode;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 /**
@@ -86,6 +92,19 @@ public class OctreeGroupLoader extends StreamingOctreeLoader {
 
             dataVersionHint = name.contains("DR2") || name.contains("dr2") || description.contains("DR2") || description.contains("dr2") ? 0 : 1;
 
+            /**
+             * MAP NAME INDEX, IF ANY
+             */
+            Path nameIndexFile = Path.of(GlobalConf.data.dataFile(metadata)).resolveSibling(OctreeNameIndex.FILE_NAME);
+            if (Files.exists(nameIndexFile)) {
+                try {
+                    nameIndex = new OctreeNameIndex(nameIndexFile);
+                    logger.info("Name index mapped with " + nameIndex.nNames() + " names and " + nameIndex.nIds() + " source ids: " + nameIndexFile);
+                } catch (IOException e) {
+                    logger.error(e);
+                }
+            }
+
             /**
              * LOAD LOD LEVELS - LOAD PARTICLE DATA
              */
@@ -104,17 +123,31 @@ public class OctreeGroupLoader extends StreamingOctreeLoader {
         }
     }
 
-    public boolean loadOctant(final OctreeNode octant, final AbstractOctreeWrapper octreeWrapper, boolean fullInit) {
+    @Override
+    protected ByteBuffer readOctant(final OctreeNode octant) throws IOException {
         FileHandle octantFile = GlobalConf.data.dataFileHandle(particles + "particles_" + String.format("%06d", octant.pageId) + ".bin");
         if (!octantFile.exists() || octantFile.isDirectory()) {
-            return false;
+            return null;
         }
-        @SuppressWarnings("unchecked")
-        List<IParticleRecord> data = particleReader.loadDataMapped(octantFile.path(), 1.0, dataVersionHint);
+        return particleReader.mapData(octantFile.path());
+    }
+
+    @Override
+    protected List<IParticleRecord> decodeOctant(final OctreeNode octant, final ByteBuffer page) {
+        return new ParticleColumnList(particleReader.decodeColumns(page, 1.0, dataVersionHint));
+    }
+
+    @Override
+    protected SceneGraphNode buildOctant(final OctreeNode octant, final List<IParticleRecord> data, final AbstractOctreeWrapper octreeWrapper, boolean fullInit) {
         StarGroup sg = StarGroup.getDefaultStarGroup("stargroup-%%SGID%%", data, fullInit);
         sg.setEpoch(epoch);
         sg.setCatalogInfoBare(octreeWrapper.getCatalogInfo());
+        return sg;
+    }
 
+    @Override
+    protected void attachOctant(final OctreeNode octant, final SceneGraphNode node, final AbstractOctreeWrapper octreeWrapper) {
+        StarGroup sg = (StarGroup) node;
         synchronized (octant) {
             sg.octant = octant;
             sg.octantId = octant.pageId;
@@ -127,17 +160,15 @@ public class OctreeGroupLoader extends StreamingOctreeLoader {
             nLoadedStars += sg.size();
             octant.add(sg);
 
-            // Put it at the end of the queue
-            touch(octant);
+            // Put it at the end of the cache, with its memory footprint
+            cacheOctant(octant, sg.getCpuBytes(), sg.getGpuBytes(), sg.size());
 
             octant.setStatus(LoadStatus.LOADED);
             // Update counts
-            octant.touch(data.size());
+            octant.touch(sg.size());
 
             addLoadedInfo(octant.pageId, octant.countObjects());
         }
-        return true;
-
     }
 
     public void setEpoch(Double epoch) {
@@ -9,18 +9,17 @@ import gaiasky.util.Constants;
 import gaiasky.util.GlobalConf;
 import gaiasky.util.Logger;
 import gaiasky.util.Logger.Log;
-import gaiasky.util.Pair;
 import gaiasky.util.tree.LoadStatus;
 import gaiasky.util.tree.OctreeNode;
+import gaiasky.util.tree.OctreeSkeleton;
 
 import java.io.*;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Writes and reads the metadata to/from binary. The format is as follows:
@@ -44,8 +43,8 @@ import java.util.Map;
  */
 public class MetadataBinaryIO {
     private static final Log logger = Logger.getLogger(MetadataBinaryIO.class);
-    
-    public Map<Long, Pair<OctreeNode, long[]>> nodesMap;
+    /** Size of a node in bytes **/
+    private static final int NODE_SIZE = 19 * 4;
 
     /**
      * Reads the metadata into an octree node
@@ -65,59 +64,42 @@ public class MetadataBinaryIO {
      * @return The octree node
      */
     public OctreeNode readMetadata(InputStream in, LoadStatus status) {
-        nodesMap = new HashMap<>();
-
         DataInputStream data_in = new DataInputStream(in);
         try {
-            OctreeNode root = null;
             // Read size of stars
             int size = data_in.readInt();
-            int maxDepth = 0;
+            OctreeSkeleton skeleton = new OctreeSkeleton(size);
+            int[] childrenIds = new int[8];
+            // One read per node, the stream may not be buffered
+            byte[] record = new byte[NODE_SIZE];
+            ByteBuffer buff = ByteBuffer.wrap(record);
 
             for (int idx = 0; idx < size; idx++) {
                 try {
-                    // name_length, name, appmag, absmag, colorbv, ra, dec, dist
-                    long pageId = data_in.readInt();
-                    float x = (float) (data_in.readFloat() * Constants.DISTANCE_SCALE_FACTOR);
-                    float y = (float) (data_in.readFloat() * Constants.DISTANCE_SCALE_FACTOR);
-                    float z = (float) (data_in.readFloat() * Constants.DISTANCE_SCALE_FACTOR);
-                    float hsx = (float) ((data_in.readFloat() / 2f) * Constants.DISTANCE_SCALE_FACTOR);
-                    float hsy = (float) ((data_in.readFloat() / 2f) * Constants.DISTANCE_SCALE_FACTOR);
-                    float hsz = (float) ((data_in.readFloat() / 2f) * Constants.DISTANCE_SCALE_FACTOR);
-                    long[] childrenIds = new long[8];
+                    data_in.readFully(record);
+                    buff.rewind();
+                    long pageId = buff.getInt();
+                    float x = (float) (buff.getFloat() * Constants.DISTANCE_SCALE_FACTOR);
+                    float y = (float) (buff.getFloat() * Constants.DISTANCE_SCALE_FACTOR);
+                    float z = (float) (buff.getFloat() * Constants.DISTANCE_SCALE_FACTOR);
+                    float hsx = (float) ((buff.getFloat() / 2f) * Constants.DISTANCE_SCALE_FACTOR);
+                    float hsy = (float) ((buff.getFloat() / 2f) * Constants.DISTANCE_SCALE_FACTOR);
+                    float hsz = (float) ((buff.getFloat() / 2f) * Constants.DISTANCE_SCALE_FACTOR);
                     for (int i = 0; i < 8; i++) {
-                        childrenIds[i] = data_in.readInt();
-                    }
-                    int depth = data_in.readInt();
-                    int nObjects = data_in.readInt();
-                    int ownObjects = data_in.readInt();
-                    int childrenCount = data_in.readInt();
-
-                    maxDepth = Math.max(maxDepth, depth);
-
-                    OctreeNode node = new OctreeNode(pageId, x, y, z, hsx, hsy, hsz, childrenCount, nObjects, ownObjects, depth);
-                    nodesMap.put(pageId, new Pair<>(node, childrenIds));
-                    if (status != null)
-                        node.setStatus(status);
-
-                    if (depth == 0) {
-                        root = node;
+                        childrenIds[i] = buff.getInt();
                     }
+                    int depth = buff.getInt();
+                    int nObjects = buff.getInt();
+                    int ownObjects = buff.getInt();
+                    int childrenCount = buff.getInt();
 
+                    skeleton.add(pageId, x, y, z, hsx, hsy, hsz, childrenIds, depth, nObjects, ownObjects, childrenCount);
                 } catch (EOFException eof) {
                     logger.error(eof);
                 }
             }
 
-            OctreeNode.maxDepth = maxDepth;
-            // All data has arrived
-            if (root != null) {
-                root.resolveChildren(nodesMap);
-            } else {
-                logger.error(new RuntimeException("No root node in visualization-metadata"));
-            }
-
-            return root;
+            return toOctree(skeleton, status);
 
         } catch (IOException e) {
             logger.error(e);
@@ -130,17 +112,15 @@ public class MetadataBinaryIO {
     }
 
     public OctreeNode readMetadataMapped(String file, LoadStatus status) {
-        nodesMap = new HashMap<>();
-
         try {
             FileChannel fc = new RandomAccessFile(GlobalConf.data.dataFile(file), "r").getChannel();
 
             MappedByteBuffer mem = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
 
-            OctreeNode root = null;
             // Read size of stars
             int size = mem.getInt();
-            int maxDepth = 0;
+            OctreeSkeleton skeleton = new OctreeSkeleton(size);
+            int[] childrenIds = new int[8];
 
             for (int idx = 0; idx < size; idx++) {
                 try {
@@ -156,7 +136,6 @@ public class MetadataBinaryIO {
                     //float hsz = mem.getFloat() / 2f;
                     mem.position(mem.position() + 4); // skip hsz
                     float hsz = hsx;
-                    long[] childrenIds = new long[8];
                     for (int i = 0; i < 8; i++) {
                         childrenIds[i] = mem.getInt();
                     }
@@ -165,33 +144,15 @@ public class MetadataBinaryIO {
                     int ownObjects = mem.getInt();
                     int childrenCount = mem.getInt();
 
-                    maxDepth = Math.max(maxDepth, depth);
-
-                    OctreeNode node = new OctreeNode(pageId, x, y, z, hsx, hsy, hsz, childrenCount, nObjects, ownObjects, depth);
-                    nodesMap.put(pageId, new Pair<OctreeNode, long[]>(node, childrenIds));
-                    if (status != null)
-                        node.setStatus(status);
-
-                    if (depth == 0) {
-                        root = node;
-                    }
-
+                    skeleton.add(pageId, x, y, z, hsx, hsy, hsz, childrenIds, depth, nObjects, ownObjects, childrenCount);
                 } catch (BufferUnderflowException bue) {
                     logger.error(bue);
                 }
             }
 
-            OctreeNode.maxDepth = maxDepth;
-            // All data has arrived
-            if (root != null) {
-                root.resolveChildren(nodesMap);
-            } else {
-                logger.error(new RuntimeException("No root node in visualization-metadata"));
-            }
-
             fc.close();
 
-            return root;
+            return toOctree(skeleton, status);
 
         } catch (Exception e) {
             logger.error(e);
@@ -200,6 +161,24 @@ public class MetadataBinaryIO {
 
     }
 
+    /**
+     * Resolves the given skeleton and creates its octree nodes
+     *
+     * @param skeleton The skeleton
+     * @param status   The status to set to all nodes, or null
+     * @return The root node, or null if there is no root
+     */
+    private OctreeNode toOctree(OctreeSkeleton skeleton, LoadStatus status) {
+        OctreeNode.maxDepth = skeleton.maxDepth();
+        // All data has arrived
+        skeleton.resolve();
+        OctreeNode root = skeleton.toOctree(status);
+        if (root == null) {
+            logger.error(new RuntimeException("No root node in visualization-metadata"));
+        }
+        return root;
+    }
+
     /**
      * Writes the metadata of the given octree node and its descendants to the
      * given output stream in binary.
@@ -220,12 +199,12 @@ public class MetadataBinaryIO {
 
             for (OctreeNode node : nodes) {
                 data_out.writeInt((int) node.pageId);
-                data_out.writeFloat((float) node.centre.x);
-                data_out.writeFloat((float) node.centre.y);
-                data_out.writeFloat((float) node.centre.z);
-                data_out.writeFloat((float) node.size.x);
-                data_out.writeFloat((float) node.size.y);
-                data_out.writeFloat((float) node.size.z);
+                data_out.writeFloat((float) node.getCentreX());
+                data_out.writeFloat((float) node.getCentreY());
+                data_out.writeFloat((float) node.getCentreZ());
+                data_out.writeFloat((float) (node.getHalfSizeX() * 2d));
+                data_out.writeFloat((float) (node.getHalfSizeY() * 2d));
+                data_out.writeFloat((float) (node.getHalfSizeZ() * 2d));
                 for (int i = 0; i < 8; i++) {
                     data_out.writeInt((int) (node.children[i] != null ? node.children[i].pageId : -1));
                 }
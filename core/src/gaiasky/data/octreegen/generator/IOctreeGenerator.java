@@ -67,6 +67,16 @@ public interface IOctreeGenerator {
             }
         }
 
+        return createRoot(min, max);
+    }
+
+    /**
+     * Creates the root octree node, a cube containing the given bounds
+     * @param min The minimum position of the particles
+     * @param max The maximum position of the particles
+     * @return The root octree node
+     */
+    static OctreeNode createRoot(Vector3d min, Vector3d max) {
         BoundingBoxd box = new BoundingBoxd(min, max);
         double halfSize = Math.max(Math.max(box.getDepth(), box.getHeight()), box.getWidth()) / 2d;
         OctreeNode root = new OctreeNode(0, box.getCenterX(), box.getCenterY(), box.getCenterZ(), halfSize, halfSize, halfSize, 0);
@@ -0,0 +1,405 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.data.octreegen.generator;
+
+import gaiasky.data.group.BinaryDataProvider;
+import gaiasky.data.group.BinaryIO;
+import gaiasky.data.octreegen.StarBrightnessComparator;
+import gaiasky.scenegraph.particle.IParticleRecord;
+import gaiasky.util.math.Vector3d;
+import gaiasky.util.tree.OctreeNode;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * External-memory version of {@link OctreeGeneratorMag}, for catalogs which do not fit in the heap.
+ * Produces the same octree and the same pages.
+ * <ol>
+ * <li>Stars are added in batches with {@link #add(List, boolean)}. They are buffered, and when the buffer
+ * goes over the memory budget it is sorted by magnitude and spilled to a run file.</li>
+ * <li>{@link #generate()} merges the runs by magnitude and assigns the stars to octants in a
+ * streaming pass. The stars of each octant are buffered and appended to a spool file of the
+ * octant when they go over the budget.</li>
+ * <li>Finally, low-count octants are merged with their parents if post-processing is on, and
+ * the page of each octant is written from its spool file, one at a time.</li>
+ * </ol>
+ * Peak memory is bounded by the budget, the octree skeleton and the largest page. Runs and spool
+ * files use the record format of version 2, which contains all the data written in the pages.
+ *
+ * @author tsagrista
+ */
+public class OctreeGeneratorExternal implements IOctreeGenerator {
+    /** Estimated heap size of a star record, in bytes, used to apply the budget **/
+    private static final long RECORD_BYTES = 256;
+    /** Row-based version of the run and spool files **/
+    private static final int TMP_VERSION = 2;
+    private static final int IO_BUFFER = 1 << 16;
+
+    private final OctreeGeneratorParams params;
+    private final long maxBuffered;
+    private final Path tmpDir, pagesDir;
+    private final int pageVersion;
+    private final BinaryDataProvider binary;
+    private final BinaryIO io;
+    private final Comparator<IParticleRecord> comparator = new StarBrightnessComparator();
+
+    private final List<Run> runs = new ArrayList<>();
+    private List<IParticleRecord> buffer = new ArrayList<>();
+    private int nextOrder = 0, nextFirstOrder = -1;
+    private long nStars = 0;
+    private final Vector3d min = new Vector3d(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
+    private final Vector3d max = new Vector3d(-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE);
+
+    /** A sorted run in a file. Runs with a lower order go first among stars of equal magnitude **/
+    private static class Run {
+        final Path file;
+        final int order;
+        final long size;
+
+        Run(Path file, int order, long size) {
+            this.file = file;
+            this.order = order;
+            this.size = size;
+        }
+    }
+
+    /** Reads a run during the merge **/
+    private class RunReader implements Comparable<RunReader> {
+        final Run run;
+        final DataInputStream in;
+        long left;
+        IParticleRecord head;
+
+        RunReader(Run run, int bufferSize) throws IOException {
+            this.run = run;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file), bufferSize));
+            this.left = run.size;
+        }
+
+        boolean advance() throws IOException {
+            if (left == 0) {
+                head = null;
+                in.close();
+                Files.deleteIfExists(run.file);
+                return false;
+            }
+            head = io.readParticleRecord(in, 1d);
+            left--;
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunReader o) {
+            int c = comparator.compare(head, o.head);
+            return c != 0 ? c : Integer.compare(run.order, o.run.order);
+        }
+    }
+
+    /** Stars and spool file of an octant **/
+    private static class Octant {
+        final OctreeNode node;
+        List<IParticleRecord> buffered = new ArrayList<>();
+        int count, spooled;
+        /** Octants merged into this one during post-processing, in order **/
+        List<Octant> merged;
+
+        Octant(OctreeNode node) {
+            this.node = node;
+        }
+    }
+
+    /**
+     * Creates a generator
+     *
+     * @param params       The octree generation parameters
+     * @param memoryBudget The memory budget for buffered stars, in bytes
+     * @param tmpDir       The directory for the temporary files, which must exist
+     * @param pagesDir     The directory to write the pages to, which must exist
+     * @param pageVersion  The format version of the pages
+     */
+    public OctreeGeneratorExternal(OctreeGeneratorParams params, long memoryBudget, Path tmpDir, Path pagesDir, int pageVersion) {
+        this.params = params;
+        this.maxBuffered = Math.max(params.maxPart, memoryBudget / RECORD_BYTES);
+        this.tmpDir = tmpDir;
+        this.pagesDir = pagesDir;
+        this.pageVersion = pageVersion;
+        this.binary = new BinaryDataProvider();
+        this.io = binary.getBinaryIO(TMP_VERSION);
+    }
+
+    /**
+     * Adds a batch of stars. The stars are copied to the buffer, so the batch can be cleared afterwards.
+     *
+     * @param stars The stars
+     * @param first Whether these stars go before all the stars added so far among stars of equal magnitude.
+     *              Otherwise, they go after
+     * @throws IOException If a run can't be written
+     */
+    public void add(List<IParticleRecord> stars, boolean first) throws IOException {
+        for (IParticleRecord star : stars) {
+            min.set(Math.min(min.x, star.x()), Math.min(min.y, star.y()), Math.min(min.z, star.z()));
+            max.set(Math.max(max.x, star.x()), Math.max(max.y, star.y()), Math.max(max.z, star.z()));
+        }
+        nStars += stars.size();
+        if (first) {
+            spill(buffer, nextOrder++);
+            spill(new ArrayList<>(stars), nextFirstOrder--);
+        } else {
+            for (IParticleRecord star : stars) {
+                buffer.add(star);
+                if (buffer.size() >= maxBuffered) {
+                    spill(buffer, nextOrder++);
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of stars added so far
+     */
+    public long size() {
+        return nStars;
+    }
+
+    private void spill(List<IParticleRecord> stars, int order) throws IOException {
+        if (stars.isEmpty())
+            return;
+        stars.sort(comparator);
+        Path file = tmpDir.resolve(String.format("run_%06d.bin", runs.size()));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), IO_BUFFER))) {
+            for (IParticleRecord star : stars)
+                io.writeParticleRecord(star, out);
+        }
+        runs.add(new Run(file, order, stars.size()));
+        logger.info("Spilled run " + runs.size() + " with " + stars.size() + " stars to " + file);
+        if (stars == buffer)
+            buffer = new ArrayList<>();
+    }
+
+    @Override
+    public OctreeNode generateOctree(List<IParticleRecord> catalog) {
+        try {
+            add(catalog, false);
+            return generate();
+        } catch (IOException e) {
+            logger.error(e);
+            return null;
+        }
+    }
+
+    /**
+     * Merges the runs, generates the octree and writes the pages of its octants, named
+     * <code>particles_%06d.bin</code> after the page id. The temporary files are deleted.
+     *
+     * @return The root of the octree, with the counts set, or null if there are no stars
+     * @throws IOException If a temporary file or a page can't be read or written
+     */
+    public OctreeNode generate() throws IOException {
+        spill(buffer, nextOrder++);
+        if (nStars == 0)
+            return null;
+
+        OctreeNode root = IOctreeGenerator.createRoot(min, max);
+        Map<OctreeNode, Octant> octants = new HashMap<>();
+        long[] nBuffered = new long[1];
+
+        // Merge the runs. Reader buffers take a part of the budget
+        logger.info("Merging " + runs.size() + " runs with " + nStars + " stars");
+        int readBuffer = (int) Math.max(IO_BUFFER, Math.min(1 << 24, maxBuffered * RECORD_BYTES / 4 / runs.size()));
+        PriorityQueue<RunReader> heap = new PriorityQueue<>();
+        for (Run run : runs) {
+            RunReader reader = new RunReader(run, readBuffer);
+            if (reader.advance())
+                heap.add(reader);
+        }
+        long maxOctantBuffered = maxBuffered * 3 / 4;
+        Iterator<IParticleRecord> merged = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heap.isEmpty();
+            }
+
+            @Override
+            public IParticleRecord next() {
+                RunReader reader = heap.poll();
+                IParticleRecord star = reader.head;
+                try {
+                    if (reader.advance())
+                        heap.add(reader);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return star;
+            }
+        };
+
+        OctreeGeneratorMag assigner = new OctreeGeneratorMag(params);
+        try {
+            assigner.assignOctants(root, merged, nStars, (star, node) -> {
+                Octant octant = octants.computeIfAbsent(node, Octant::new);
+                octant.buffered.add(star);
+                octant.count++;
+                if (++nBuffered[0] >= maxOctantBuffered) {
+                    try {
+                        spool(octants.values());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    nBuffered[0] = 0;
+                }
+                return octant.count;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            // Stars beyond the deepest level are dropped, as in memory
+            for (RunReader reader : heap) {
+                reader.in.close();
+                Files.deleteIfExists(reader.run.file);
+            }
+        }
+        spool(octants.values());
+        runs.clear();
+
+        if (params.postprocess) {
+            postprocess(octants);
+        }
+
+        // Pages, written one at a time so that only one page is in memory
+        logger.info("Writing " + octants.size() + " pages to " + pagesDir);
+        long start = System.nanoTime();
+        long written = 0;
+        for (Octant octant : octants.values()) {
+            writePage(octant);
+            written += octant.node.numObjects;
+        }
+        double secs = Math.max(1e-9, (System.nanoTime() - start) * 1e-9);
+        logger.info("Written " + octants.size() + " pages with " + written + " stars in " + String.format("%.2f", secs) + " s (" + (long) (written / secs) + " stars/s)");
+        updateCounts(root);
+        return root;
+    }
+
+    /**
+     * Same as the post-processing of {@link OctreeGeneratorMag}, on the counts: low-count leaf octants are
+     * merged with their parents, if the parents have a low count as well.
+     */
+    private void postprocess(Map<OctreeNode, Octant> octants) {
+        logger.info("Post-processing octree: childcount=" + params.childCount + ", parentcount=" + params.parentCount);
+        long mergedNodes = 0;
+        long mergedObjects = 0;
+        Octant[] nodes = octants.values().toArray(new Octant[0]);
+        // Sort by descending depth
+        Arrays.sort(nodes, (o1, o2) -> Integer.compare(o2.node.depth, o1.node.depth));
+
+        for (int i = nodes.length - 1; i >= 0; i--) {
+            Octant current = nodes[i];
+            OctreeNode node = current.node;
+            if (node.numChildren() == 0 && node.parent != null && octants.containsKey(node) && octants.containsKey(node.parent)) {
+                Octant parent = octants.get(node.parent);
+                if (current.count <= params.childCount && parent.count <= params.parentCount) {
+                    // Merge children nodes with parent nodes, remove children
+                    if (parent.merged == null)
+                        parent.merged = new ArrayList<>();
+                    parent.merged.add(current);
+                    parent.count += current.count;
+                    octants.remove(node);
+                    node.remove();
+                    mergedNodes++;
+                    mergedObjects += current.count;
+                }
+            }
+        }
+
+        logger.info("POSTPROCESS STATS:");
+        logger.info("    Merged nodes:    " + mergedNodes);
+        logger.info("    Merged objects:  " + mergedObjects);
+    }
+
+    /**
+     * Appends the buffered stars of the octants to their spool files
+     */
+    private void spool(Collection<Octant> octants) throws IOException {
+        for (Octant octant : octants) {
+            if (!octant.buffered.isEmpty()) {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spoolFile(octant).toFile(), true), IO_BUFFER))) {
+                    for (IParticleRecord star : octant.buffered)
+                        io.writeParticleRecord(star, out);
+                }
+                octant.spooled += octant.buffered.size();
+                octant.buffered = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * Reads the spooled stars of the octant and of the octants merged into it, and writes its page
+     */
+    private void writePage(Octant octant) throws IOException {
+        List<IParticleRecord> page = new ArrayList<>(octant.count);
+        readSpool(octant, page);
+        if (octant.merged != null) {
+            for (Octant child : octant.merged)
+                readSpool(child, page);
+        }
+        octant.node.numObjects = page.size();
+        File file = pagesDir.resolve("particles_" + String.format("%06d", octant.node.pageId) + ".bin").toFile();
+        binary.writeData(page, new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER), pageVersion);
+    }
+
+    private void readSpool(Octant octant, List<IParticleRecord> out) throws IOException {
+        Path file = spoolFile(octant);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER))) {
+            for (int i = 0; i < octant.spooled; i++)
+                out.add(io.readParticleRecord(in, 1d));
+        }
+        Files.delete(file);
+    }
+
+    private Path spoolFile(Octant octant) {
+        return tmpDir.resolve("octant_" + octant.node.pageId + ".bin");
+    }
+
+    /**
+     * Sets the recursive counts from the own counts, set when writing the pages
+     */
+    static void updateCounts(OctreeNode node) {
+        node.numObjectsRec = node.numObjects;
+        node.numChildren = 0;
+        for (OctreeNode child : node.children) {
+            if (child != null) {
+                node.numChildren++;
+                updateCounts(child);
+                node.numObjectsRec += child.numObjectsRec;
+            }
+        }
+    }
+
+    /**
+     * Deletes the temporary files left, if any
+     */
+    public void cleanup() {
+        try (Stream<Path> files = Files.list(tmpDir)) {
+            files.forEach(f -> {
+                try {
+                    Files.deleteIfExists(f);
+                } catch (IOException e) {
+                    logger.error(e);
+                }
+            });
+        } catch (IOException e) {
+            logger.error(e);
+        }
+    }
+
+    @Override
+    public int getDiscarded() {
+        return 0;
+    }
+}
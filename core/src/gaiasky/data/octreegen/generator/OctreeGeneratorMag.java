@@ -8,11 +8,14 @@ package gaiasky.data.octreegen.generator;
 import com.badlogic.gdx.utils.LongMap;
 import gaiasky.scenegraph.StarGroup;
 import gaiasky.scenegraph.particle.IParticleRecord;
+import gaiasky.util.ds.LongIndex;
 import gaiasky.util.math.Vector3d;
-import gaiasky.util.parse.Parser;
 import gaiasky.util.tree.OctreeNode;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToIntBiFunction;
+import java.util.stream.IntStream;
 
 /**
  * Implements a f: mag -> level bijective map, where octree nodes in a level are filled with
@@ -23,11 +26,14 @@ import java.util.*;
  * @author Toni Sagrista
  */
 public class OctreeGeneratorMag implements IOctreeGenerator {
+    /** Number of levels in an octant path, three bits per level **/
+    private static final int PATH_LEVELS = 21;
+    /** Stars per parallel task **/
+    private static final int TASK_SIZE = 1 << 16;
 
     private final OctreeGeneratorParams params;
     private OctreeNode root;
     private Vector3d min = new Vector3d();
-    private Vector3d max = new Vector3d();
 
     public OctreeGeneratorMag(OctreeGeneratorParams params) {
         this.params = params;
@@ -37,46 +43,10 @@ public class OctreeGeneratorMag implements IOctreeGenerator {
     public OctreeNode generateOctree(List<IParticleRecord> catalog) {
         root = IOctreeGenerator.startGeneration(catalog, params);
 
-        // Holds all octree nodes indexed by id
-        LongMap<OctreeNode> idMap = new LongMap<>();
-        idMap.put(root.pageId, root);
-
         // Contains the list of objects for each node
         Map<OctreeNode, List<IParticleRecord>> objMap = new HashMap<>();
 
-
-        int catalogIndex = 0;
-        for (int level = 0; level < 25; level++) {
-            logger.info("Generating level " + level + " (" + (catalog.size() - catalogIndex) + " stars left)");
-            while (catalogIndex < catalog.size()) {
-                // Add stars to nodes until we reach max part
-                IParticleRecord sb = catalog.get(catalogIndex++);
-                double x = sb.x();
-                double y = sb.y();
-                double z = sb.z();
-
-                Long nodeId = getPositionOctantId(x, y, z, level);
-                if (!idMap.containsKey(nodeId)) {
-                    // Create octant and parents if necessary
-                    OctreeNode octant = createOctant(nodeId, x, y, z, level);
-                    // Add to idMap
-                    idMap.put(octant.pageId, octant);
-                }
-                // Add star to node
-                OctreeNode octant = idMap.get(nodeId);
-                int addedNum = addStarToNode(sb, octant, objMap);
-
-                if (addedNum >= params.maxPart) {
-                    // On to next level!
-                    break;
-                }
-            }
-
-            if (catalogIndex >= catalog.size()) {
-                // All stars added -> FINISHED
-                break;
-            }
-        }
+        assignOctants(root, catalog, objMap);
 
         if (params.postprocess) {
             logger.info("Post-processing octree: childcount=" + params.childCount + ", parentcount=" + params.parentCount);
@@ -128,47 +98,273 @@ public class OctreeGeneratorMag implements IOctreeGenerator {
         return root;
     }
 
-    private OctreeNode createOctant(Long id, double x, double y, double z, int level) {
+    /**
+     * Assigns the stars, sorted by magnitude, to the octants, level by level. Each level is filled
+     * until one of its octants reaches the maximum number of stars, then the next stars go to the
+     * next level. This gives the same octants as {@link #assignOctants(OctreeNode, Iterator, long, ToIntBiFunction)},
+     * but the octant paths of the stars are computed in parallel, and the end of each level is found
+     * by counting the stars per octant in parallel tasks, whose counts are accumulated in order.
+     *
+     * @param root   The root node
+     * @param stars  The stars, sorted by magnitude
+     * @param objMap Gets the stars of each octant
+     */
+    public void assignOctants(OctreeNode root, List<IParticleRecord> stars, Map<OctreeNode, List<IParticleRecord>> objMap) {
+        this.root = root;
+        int n = stars.size();
+
+        long start = System.nanoTime();
+        long[] paths = new long[n];
+        int tasks = (n + TASK_SIZE - 1) / TASK_SIZE;
+        IntStream.range(0, tasks).parallel().forEach(t -> {
+            int to = Math.min(n, (t + 1) * TASK_SIZE);
+            for (int i = t * TASK_SIZE; i < to; i++) {
+                IParticleRecord sb = stars.get(i);
+                paths[i] = getPositionOctantPath(sb.x(), sb.y(), sb.z());
+            }
+        });
+        logger.info("Computed octant paths of " + n + " stars in " + seconds(start) + " s (" + rate(n, start) + " stars/s)");
+
+        int from = 0;
+        for (int level = 0; level < 25 && from < n; level++) {
+            logger.info("Generating level " + level + " (" + (n - from) + " stars left)");
+            long levelStart = System.nanoTime();
+            int to = findLevelEnd(stars, paths, from, level);
+
+            // Octants are created in order, as they modify the tree
+            LongMap<List<IParticleRecord>> lists = new LongMap<>();
+            for (int i = from; i < to; i++) {
+                long key = getOctantKey(stars, paths, i, level);
+                List<IParticleRecord> list = lists.get(key);
+                if (list == null) {
+                    IParticleRecord sb = stars.get(i);
+                    OctreeNode octant = createOctant(getPageId(key, level), sb.x(), sb.y(), sb.z(), level);
+                    list = new ArrayList<>(25);
+                    lists.put(key, list);
+                    objMap.put(octant, list);
+                }
+                list.add(stars.get(i));
+            }
+            logger.info("    Level " + level + ": " + (to - from) + " stars in " + lists.size + " octants, " + seconds(levelStart) + " s (" + rate(to - from, levelStart) + " stars/s), " + (to * 100L / n) + "% done");
+            from = to;
+        }
+        logger.info("Assigned " + n + " stars to " + objMap.size() + " octants in " + seconds(start) + " s (" + rate(n, start) + " stars/s)");
+    }
+
+    /**
+     * Finds the end of the given level, which is the star after the first one that brings an octant to
+     * the maximum number of stars. Blocks of stars are split into tasks that count their stars per
+     * octant in parallel. The counts are then added in order, and the task where an octant reaches
+     * the maximum is counted again star by star.
+     *
+     * @return The index of the first star of the next level, or the number of stars
+     */
+    private int findLevelEnd(List<IParticleRecord> stars, long[] paths, int from, int level) {
+        int n = paths.length;
+        int blockSize = TASK_SIZE * Math.max(2, ForkJoinPool.commonPool().getParallelism() * 2);
+        OctantCounts counts = new OctantCounts();
+        for (int block = from; block < n; block += blockSize) {
+            int blockStart = block;
+            int blockEnd = Math.min(n, block + blockSize);
+            int tasks = (blockEnd - blockStart + TASK_SIZE - 1) / TASK_SIZE;
+            OctantCounts[] taskCounts = new OctantCounts[tasks];
+            IntStream.range(0, tasks).parallel().forEach(t -> {
+                OctantCounts c = new OctantCounts();
+                int to = Math.min(blockEnd, blockStart + (t + 1) * TASK_SIZE);
+                for (int i = blockStart + t * TASK_SIZE; i < to; i++)
+                    c.add(getOctantKey(stars, paths, i, level), 1);
+                taskCounts[t] = c;
+            });
+            for (int t = 0; t < tasks; t++) {
+                if (counts.reaches(taskCounts[t], params.maxPart)) {
+                    int to = Math.min(blockEnd, blockStart + (t + 1) * TASK_SIZE);
+                    for (int i = blockStart + t * TASK_SIZE; i < to; i++) {
+                        if (counts.add(getOctantKey(stars, paths, i, level), 1) >= params.maxPart)
+                            return i + 1;
+                    }
+                }
+                counts.addAll(taskCounts[t]);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Gets the key of the octant of the star in the given level, unique within the level
+     */
+    private long getOctantKey(List<IParticleRecord> stars, long[] paths, int i, int level) {
+        if (level <= PATH_LEVELS) {
+            return paths[i] >>> (3 * (PATH_LEVELS - level));
+        } else {
+            IParticleRecord sb = stars.get(i);
+            return getPositionOctantId(sb.x(), sb.y(), sb.z(), level);
+        }
+    }
+
+    /**
+     * Converts an octant key to the page id of the octant
+     */
+    private static long getPageId(long key, int level) {
+        if (level > PATH_LEVELS)
+            return key;
+        long id = 0;
+        for (int l = level - 1; l >= 0; l--)
+            id = id * 10 + ((key >>> (3 * l)) & 7) + 1;
+        return id;
+    }
+
+    private static String seconds(long start) {
+        return String.format("%.2f", (System.nanoTime() - start) * 1e-9);
+    }
+
+    private static long rate(long n, long start) {
+        return (long) (n / Math.max(1e-9, (System.nanoTime() - start) * 1e-9));
+    }
+
+    /**
+     * Number of stars per octant key
+     */
+    private static class OctantCounts {
+        private final LongIndex slots = new LongIndex();
+        private long[] keys = new long[64];
+        private int[] counts = new int[64];
+        private int size;
+
+        /**
+         * Adds to the count of the key
+         *
+         * @return The new count
+         */
+        int add(long key, int n) {
+            int slot = slots.get(key);
+            if (slot == LongIndex.NONE) {
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                    counts = Arrays.copyOf(counts, size * 2);
+                }
+                slot = size++;
+                keys[slot] = key;
+                slots.put(key, slot);
+            }
+            return counts[slot] += n;
+        }
+
+        int get(long key) {
+            int slot = slots.get(key);
+            return slot == LongIndex.NONE ? 0 : counts[slot];
+        }
+
+        /**
+         * Whether adding the other counts brings any key to the given count
+         */
+        boolean reaches(OctantCounts other, int count) {
+            for (int i = 0; i < other.size; i++) {
+                if (get(other.keys[i]) + other.counts[i] >= count)
+                    return true;
+            }
+            return false;
+        }
+
+        void addAll(OctantCounts other) {
+            for (int i = 0; i < other.size; i++)
+                add(other.keys[i], other.counts[i]);
+        }
+    }
+
+    /**
+     * Assigns the stars, sorted by magnitude, to the octants in a single pass. Each level is filled
+     * until one of its octants reaches the maximum number of stars, then the next stars go to the
+     * next level. Octants are created as needed.
+     *
+     * @param root   The root node
+     * @param stars  The stars, sorted by magnitude
+     * @param nStars The number of stars, only for logging
+     * @param sink   Gets each star and its octant, and returns the number of stars in the octant
+     */
+    public void assignOctants(OctreeNode root, Iterator<IParticleRecord> stars, long nStars, ToIntBiFunction<IParticleRecord, OctreeNode> sink) {
+        this.root = root;
+
+        // Holds all octree nodes indexed by id
+        LongMap<OctreeNode> idMap = new LongMap<>();
+        idMap.put(root.pageId, root);
+
+        long assigned = 0;
+        for (int level = 0; level < 25; level++) {
+            logger.info("Generating level " + level + " (" + (nStars - assigned) + " stars left)");
+            while (stars.hasNext()) {
+                // Add stars to nodes until we reach max part
+                IParticleRecord sb = stars.next();
+                assigned++;
+                double x = sb.x();
+                double y = sb.y();
+                double z = sb.z();
+
+                long nodeId = getPositionOctantId(x, y, z, level);
+                if (!idMap.containsKey(nodeId)) {
+                    // Create octant and parents if necessary
+                    OctreeNode octant = createOctant(nodeId, x, y, z, level);
+                    // Add to idMap
+                    idMap.put(octant.pageId, octant);
+                }
+                // Add star to node
+                OctreeNode octant = idMap.get(nodeId);
+                int addedNum = sink.applyAsInt(sb, octant);
+
+                if (addedNum >= params.maxPart) {
+                    // On to next level!
+                    break;
+                }
+            }
+
+            if (!stars.hasNext()) {
+                // All stars added -> FINISHED
+                break;
+            }
+        }
+    }
+
+    private OctreeNode createOctant(long id, double x, double y, double z, int level) {
         min.setZero();
         OctreeNode current = root;
         // From root down to level
         for (int l = 1; l <= level; l++) {
-            double hs = current.size.x / 2d;
+            double hs = current.getHalfSizeX();
+            double minx = current.getCentreX() - hs, miny = current.getCentreY() - current.getHalfSizeY(), minz = current.getCentreZ() - current.getHalfSizeZ();
             int idx;
-            if (x <= current.min.x + hs) {
-                if (y <= current.min.y + hs) {
-                    if (z <= current.min.z + hs) {
+            if (x <= minx + hs) {
+                if (y <= miny + hs) {
+                    if (z <= minz + hs) {
                         idx = 0;
-                        min.set(current.min);
+                        min.set(minx, miny, minz);
                     } else {
                         idx = 1;
-                        min.set(current.min.x, current.min.y, current.min.z + hs);
+                        min.set(minx, miny, minz + hs);
                     }
                 } else {
-                    if (z <= current.min.z + hs) {
+                    if (z <= minz + hs) {
                         idx = 2;
-                        min.set(current.min.x, current.min.y + hs, current.min.z);
+                        min.set(minx, miny + hs, minz);
                     } else {
                         idx = 3;
-                        min.set(current.min.x, current.min.y + hs, current.min.z + hs);
+                        min.set(minx, miny + hs, minz + hs);
                     }
                 }
             } else {
-                if (y <= current.min.y + hs) {
-                    if (z <= current.min.z + hs) {
+                if (y <= miny + hs) {
+                    if (z <= minz + hs) {
                         idx = 4;
-                        min.set(current.min.x + hs, current.min.y, current.min.z);
+                        min.set(minx + hs, miny, minz);
                     } else {
                         idx = 5;
-                        min.set(current.min.x + hs, current.min.y, current.min.z + hs);
+                        min.set(minx + hs, miny, minz + hs);
                     }
                 } else {
-                    if (z <= current.min.z + hs) {
+                    if (z <= minz + hs) {
                         idx = 6;
-                        min.set(current.min.x + hs, current.min.y + hs, current.min.z);
+                        min.set(minx + hs, miny + hs, minz);
                     } else {
                         idx = 7;
-                        min.set(current.min.x + hs, current.min.y + hs, current.min.z + hs);
+                        min.set(minx + hs, miny + hs, minz + hs);
                     }
                 }
             }
@@ -186,16 +382,6 @@ public class OctreeGeneratorMag implements IOctreeGenerator {
         return current;
     }
 
-    private int addStarToNode(IParticleRecord sb, OctreeNode node, Map<OctreeNode, List<IParticleRecord>> map) {
-        List<IParticleRecord> array = map.get(node);
-        if (array == null) {
-            array = new ArrayList<>(25);
-            map.put(node, array);
-        }
-        array.add(sb);
-        return array.size();
-    }
-
     @Override
     public int getDiscarded() {
         return 0;
@@ -208,65 +394,63 @@ public class OctreeGeneratorMag implements IOctreeGenerator {
      * @param y Position in y
      * @param z Position in z
      * @param level Level
-     * @return Id of node which contains the position. The id is a long where the two least significant digits 
-     * indicate the level and the rest of digit positions indicate the index in the level of
-     * the position.
+     * @return Id of node which contains the position. Each decimal digit, from the most significant one,
+     * is the index plus one of the octant in its parent, from the first level down to the given level.
      */
-    public Long getPositionOctantId(double x, double y, double z, int level) {
-        if (level == 0) {
-            // Root is alwais id=0
-            return 0l;
-        }
-        min.set(root.min);
-        max.set(root.max);
+    public long getPositionOctantId(double x, double y, double z, int level) {
+        // Root is always id=0
+        double minx = root.getCentreX() - root.getHalfSizeX(), miny = root.getCentreY() - root.getHalfSizeY(), minz = root.getCentreZ() - root.getHalfSizeZ();
         // Half side
-        double hs = (max.x - min.x) / 2d;
-        StringBuilder id = new StringBuilder();
-
+        double hs = root.getHalfSizeX();
+        long id = 0;
         for (int l = 1; l <= level; l++) {
-            if (x <= min.x + hs) {
-                if (y <= min.y + hs) {
-                    if (z <= min.z + hs) {
-                        // Min stays the same!
-                        id.append("1");
-                    } else {
-                        min.set(min.x, min.y, min.z + hs);
-                        id.append("2");
-                    }
-                } else {
-                    if (z <= min.z + hs) {
-                        min.set(min.x, min.y + hs, min.z);
-                        id.append("3");
-                    } else {
-                        min.set(min.x, min.y + hs, min.z + hs);
-                        id.append("4");
-                    }
-                }
-            } else {
-                if (y <= min.y + hs) {
-                    if (z <= min.z + hs) {
-                        min.set(min.x + hs, min.y, min.z);
-                        id.append("5");
-                    } else {
-                        min.set(min.x + hs, min.y, min.z + hs);
-                        id.append("6");
-                    }
-                } else {
-                    if (z <= min.z + hs) {
-                        min.set(min.x + hs, min.y + hs, min.z);
-                        id.append("7");
-                    } else {
-                        min.set(min.x + hs, min.y + hs, min.z + hs);
-                        id.append("8");
-                    }
+            // Same comparisons as when creating the octants
+            int idx = 0;
+            if (!(x <= minx + hs)) {
+                minx += hs;
+                idx += 4;
+            }
+            if (!(y <= miny + hs)) {
+                miny += hs;
+                idx += 2;
+            }
+            if (!(z <= minz + hs)) {
+                minz += hs;
+                idx += 1;
+            }
+            id = id * 10 + idx + 1;
+            hs = hs / 2d;
+        }
+        return id;
+    }
 
-                }
+    /**
+     * Gets the path of octant indices to the given position, three bits per level from the first level
+     * in the most significant bits, down to {@link #PATH_LEVELS}. The path to a level is a prefix of the path.
+     * This does not modify the generator, so it can be called from any thread.
+     */
+    private long getPositionOctantPath(double x, double y, double z) {
+        double minx = root.getCentreX() - root.getHalfSizeX(), miny = root.getCentreY() - root.getHalfSizeY(), minz = root.getCentreZ() - root.getHalfSizeZ();
+        double hs = root.getHalfSizeX();
+        long path = 0;
+        for (int l = 1; l <= PATH_LEVELS; l++) {
+            int idx = 0;
+            if (!(x <= minx + hs)) {
+                minx += hs;
+                idx += 4;
+            }
+            if (!(y <= miny + hs)) {
+                miny += hs;
+                idx += 2;
+            }
+            if (!(z <= minz + hs)) {
+                minz += hs;
+                idx += 1;
             }
-            // Max is always a half side away from min
-            max.set(min.x + hs, min.y + hs, min.z + hs);
+            path = (path << 3) | idx;
             hs = hs / 2d;
         }
-        return Parser.parseLong(id.toString());
+        return path;
     }
 
 }
@@ -80,27 +80,27 @@ public class OctreeGeneratorPart implements IOctreeGenerator {
 
                 if (!leaf) {
                     // Generate 8 children per each level octant
-                    double hsx = octant.size.x / 4d;
-                    double hsy = octant.size.y / 4d;
-                    double hsz = octant.size.z / 4d;
+                    double hsx = octant.getHalfSizeX() / 2d;
+                    double hsy = octant.getHalfSizeY() / 2d;
+                    double hsz = octant.getHalfSizeZ() / 2d;
 
                     /** CREATE SUB-OCTANTS **/
                     // Front - top - left
-                    octantsPerLevel[level + 1].add(new OctreeNode(octant.centre.x - hsx, octant.centre.y + hsy, octant.centre.z - hsz, hsx, hsy, hsz, octant.depth + 1, octant, 0));
+                    octantsPerLevel[level + 1].add(new OctreeNode(octant.getCentreX() - hsx, octant.getCentreY() + hsy, octant.getCentreZ() - hsz, hsx, hsy, hsz, octant.depth + 1, octant, 0));
                     // Front - top - right
-                    octantsPerLevel[level + 1].add(new OctreeNode(octant.centre.x + hsx, octant.centre.y + hsy, octant.centre.z - hsz, hsx, hsy, hsz, octant.depth + 1, octant, 1));
+                    octantsPerLevel[level + 1].add(new OctreeNode(octant.getCentreX() + hsx, octant.getCentreY() + hsy, octant.getCentreZ() - hsz, hsx, hsy, hsz, octant.depth + 1, octant, 1));
                     // Front - bottom - left
-                    octantsPerLevel[level + 1].add(new OctreeNode(octant.centre.x - hsx, octant.centre.y - hsy, octant.centre.z - hsz, hsx, hsy, hsz, octant.depth + 1, octant, 2));
+                    octantsPerLevel[level + 1].add(new OctreeNode(octant.getCentreX() - hsx, octant.getCentreY() - hsy, octant.getCentreZ() - hsz, hsx, hsy, hsz, octant.depth + 1, octant, 2));
                     // Front - bottom - right
-                    octantsPerLevel[level + 1].add(new OctreeNode(octant.centre.x + hsx, octant.centre.y - hsy, octant.centre.z - hsz, hsx, hsy, hsz, octant.depth + 1, octant, 3));
+                    octantsPerLevel[level + 1].add(new OctreeNode(octant.getCentreX() + hsx, octant.getCentreY() - hsy, octant.getCentreZ() - hsz, hsx, hsy, hsz, octant.depth + 1, octant, 3));
                     // Back - top - left
-                    octantsPerLevel[level + 1].add(new OctreeNode(octant.centre.x - hsx, octant.centre.y + hsy, octant.centre.z + hsz, hsx, hsy, hsz, octant.depth + 1, octant, 4));
+                    octantsPerLevel[level + 1].add(new OctreeNode(octant.getCentreX() - hsx, octant.getCentreY() + hsy, octant.getCentreZ() + hsz, hsx, hsy, hsz, octant.depth + 1, octant, 4));
                     // Back - top - right
-                    octantsPerLevel[level + 1].add(new OctreeNode(octant.centre.x + hsx, octant.centre.y + hsy, octant.centre.z + hsz, hsx, hsy, hsz, octant.depth + 1, octant, 5));
+                    octantsPerLevel[level + 1].add(new OctreeNode(octant.getCentreX() + hsx, octant.getCentreY() + hsy, octant.getCentreZ() + hsz, hsx, hsy, hsz, octant.depth + 1, octant, 5));
                     // Back - bottom - left
-                    octantsPerLevel[level + 1].add(new OctreeNode(octant.centre.x - hsx, octant.centre.y - hsy, octant.centre.z + hsz, hsx, hsy, hsz, octant.depth + 1, octant, 6));
+                    octantsPerLevel[level + 1].add(new OctreeNode(octant.getCentreX() - hsx, octant.getCentreY() - hsy, octant.getCentreZ() + hsz, hsx, hsy, hsz, octant.depth + 1, octant, 6));
                     // Back - bottom - right
-                    octantsPerLevel[level + 1].add(new OctreeNode(octant.centre.x + hsx, octant.centre.y - hsy, octant.centre.z + hsz, hsx, hsy, hsz, octant.depth + 1, octant, 7));
+                    octantsPerLevel[level + 1].add(new OctreeNode(octant.getCentreX() + hsx, octant.getCentreY() - hsy, octant.getCentreZ() + hsz, hsx, hsy, hsz, octant.depth + 1, octant, 7));
                 }
             }
         }
@@ -0,0 +1,276 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.data.octreegen.generator;
+
+import gaiasky.data.group.BinaryDataProvider;
+import gaiasky.data.octreegen.StarBrightnessComparator;
+import gaiasky.scenegraph.particle.IParticleRecord;
+import gaiasky.util.Logger;
+import gaiasky.util.Logger.Log;
+import gaiasky.util.tree.OctreeNode;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Inserts new stars into an existing octree, read from its metadata, and rewrites only the pages
+ * of the octants which change. Pages are read when the insertion first visits their octant.
+ * <p>
+ * Each star goes down its path from the root, and keeps the rules of {@link OctreeGeneratorMag}
+ * along it: octants hold at most the maximum number of stars, and the stars of an octant are not
+ * fainter than the stars of its descendants.
+ * <ul>
+ * <li>If the octant is full, the star takes the place of the faintest star of the octant if it is
+ * brighter, and the faintest one goes on down its own path. Otherwise, the star goes on down.</li>
+ * <li>If the octant is not full, the star stays in it unless the first non-empty octant below on
+ * its path has a brighter star, in which case it goes on down.</li>
+ * </ul>
+ * Missing octants are created. The result is close to, but not the same as, generating the octree
+ * again with the new stars, whose levels are limited by the saturation of any octant. Stars outside
+ * the root octant, or beyond the deepest level, are discarded.
+ * <p>
+ * New stars replace the stars of the octree with the same source identifier or HIP number, for
+ * instance after an update of the HIP cross-match. These are removed from their octants before the
+ * insertion, which needs a pass over all the pages. Only identifiers from {@link #MIN_SOURCE_ID}
+ * are taken as source identifiers, since the loaders use HIP numbers and sequential numbers below it.
+ * Pages are written sorted by magnitude, brightest first, as the generator writes them.
+ *
+ * @author tsagrista
+ */
+public class OctreeUpdater {
+    private static final Log logger = Logger.getLogger(OctreeUpdater.class);
+
+    /** Deepest level whose page ids, one digit per level, fit in the 32-bit page ids of the metadata **/
+    private static final int MAX_DEPTH = 9;
+    /** Smallest identifier which is a source identifier **/
+    public static final long MIN_SOURCE_ID = 1L << 31;
+
+    private final OctreeGeneratorParams params;
+    private final Path pagesDir;
+    private final int pageVersion;
+    private final BinaryDataProvider binary = new BinaryDataProvider();
+    private final Comparator<IParticleRecord> comparator = new StarBrightnessComparator();
+
+    /** Pages read so far **/
+    private final Map<OctreeNode, List<IParticleRecord>> pages = new HashMap<>();
+    /** Octants whose pages must be written **/
+    private final Set<OctreeNode> modified = new HashSet<>();
+    private long discarded = 0;
+    private long replaced = 0;
+
+    /**
+     * Creates an updater
+     *
+     * @param params      The parameters of the octree, only the maximum number of stars per octant is used
+     * @param pagesDir    The directory with the pages, <code>particles_%06d.bin</code>
+     * @param pageVersion The format version of the pages written
+     */
+    public OctreeUpdater(OctreeGeneratorParams params, Path pagesDir, int pageVersion) {
+        this.params = params;
+        this.pagesDir = pagesDir;
+        this.pageVersion = pageVersion;
+    }
+
+    /**
+     * Inserts the stars into the octree, writes the pages which change and updates the counts of the
+     * octree. The metadata must be written afterwards. Stars sorted by magnitude, brightest first,
+     * move fewer stars around.
+     *
+     * @param root  The root of the existing octree
+     * @param stars The new stars
+     * @return The number of pages written
+     * @throws IOException If a page can't be read or written
+     */
+    public int update(OctreeNode root, List<IParticleRecord> stars) throws IOException {
+        long start = System.nanoTime();
+        int nodes = root.numNodesRec();
+        removeExisting(root, stars);
+        for (IParticleRecord star : stars) {
+            if (!contains(root, star)) {
+                discarded++;
+                continue;
+            }
+            insert(root, star);
+        }
+        logger.info("Inserted " + (stars.size() - discarded) + " stars, " + replaced + " replaced, " + discarded + " discarded, " + (root.numNodesRec() - nodes) + " new octants, " + pages.size() + " pages read, in " + String.format("%.2f", (System.nanoTime() - start) * 1e-9) + " s");
+
+        // Pages, written concurrently in the common pool
+        logger.info("Writing " + modified.size() + " pages to " + pagesDir);
+        pagesDir.toFile().mkdirs();
+        AtomicLong written = new AtomicLong();
+        try {
+            new ArrayList<>(modified).parallelStream().forEach(node -> {
+                List<IParticleRecord> page = pages.get(node);
+                page.sort(comparator);
+                node.numObjects = page.size();
+                try {
+                    binary.writeData(page, new BufferedOutputStream(new FileOutputStream(pageFile(node))), pageVersion);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                written.addAndGet(page.size());
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        logger.info("Written " + modified.size() + " pages with " + written.get() + " stars");
+
+        OctreeGeneratorExternal.updateCounts(root);
+        OctreeNode.maxDepth = Math.max(OctreeNode.maxDepth, root.getMaxDepth());
+        return modified.size();
+    }
+
+    /**
+     * Number of stars discarded in the last update, outside the root octant or beyond the deepest level
+     */
+    public long getDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * Number of stars of the octree replaced by new stars in the last update
+     */
+    public long getReplaced() {
+        return replaced;
+    }
+
+    /**
+     * Removes the stars of the octree which have the source identifier or the HIP number of a new star.
+     * Only the pages with removed stars are kept in memory.
+     */
+    private void removeExisting(OctreeNode root, List<IParticleRecord> stars) throws IOException {
+        Set<Long> sourceIds = new HashSet<>();
+        Set<Integer> hips = new HashSet<>();
+        for (IParticleRecord star : stars) {
+            if (star.id() >= MIN_SOURCE_ID)
+                sourceIds.add(star.id());
+            if (star.hip() > 0)
+                hips.add(star.hip());
+        }
+        if (sourceIds.isEmpty() && hips.isEmpty())
+            return;
+
+        Deque<OctreeNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            OctreeNode node = stack.pop();
+            List<IParticleRecord> page = pages.containsKey(node) ? pages.get(node) : readPage(node);
+            int size = page.size();
+            page.removeIf(sb -> (sb.id() >= MIN_SOURCE_ID && sourceIds.contains(sb.id())) || (sb.hip() > 0 && hips.contains(sb.hip())));
+            if (page.size() < size) {
+                replaced += size - page.size();
+                pages.put(node, page);
+                modified.add(node);
+            }
+            for (OctreeNode child : node.children) {
+                if (child != null)
+                    stack.push(child);
+            }
+        }
+    }
+
+    private void insert(OctreeNode root, IParticleRecord star) throws IOException {
+        OctreeNode node = root;
+        while (true) {
+            List<IParticleRecord> page = page(node);
+            if (page.size() >= params.maxPart) {
+                // Full, the faintest star goes down
+                int faintest = 0;
+                for (int i = 1; i < page.size(); i++) {
+                    if (comparator.compare(page.get(i), page.get(faintest)) > 0)
+                        faintest = i;
+                }
+                if (comparator.compare(star, page.get(faintest)) < 0) {
+                    star = page.set(faintest, star);
+                    modified.add(node);
+                }
+                if (node.depth >= MAX_DEPTH) {
+                    discarded++;
+                    return;
+                }
+                node = child(node, star, true);
+            } else {
+                IParticleRecord brightestBelow = brightestBelow(node, star);
+                if (brightestBelow == null || comparator.compare(star, brightestBelow) <= 0) {
+                    page.add(star);
+                    modified.add(node);
+                    return;
+                }
+                node = child(node, star, false);
+            }
+        }
+    }
+
+    /**
+     * Gets the brightest star of the first non-empty octant below the given one on the path of the star
+     *
+     * @return The brightest star, or null if there are no stars below
+     */
+    private IParticleRecord brightestBelow(OctreeNode node, IParticleRecord star) throws IOException {
+        OctreeNode child = child(node, star, false);
+        while (child != null) {
+            List<IParticleRecord> page = page(child);
+            if (!page.isEmpty()) {
+                IParticleRecord brightest = page.get(0);
+                for (IParticleRecord sb : page) {
+                    if (comparator.compare(sb, brightest) < 0)
+                        brightest = sb;
+                }
+                return brightest;
+            }
+            child = child(child, star, false);
+        }
+        return null;
+    }
+
+    /**
+     * Gets the child octant which contains the star, with the same comparisons as {@link OctreeGeneratorMag}
+     *
+     * @param create Whether to create the child if it does not exist
+     * @return The child, or null if it does not exist and must not be created
+     */
+    private OctreeNode child(OctreeNode node, IParticleRecord star, boolean create) {
+        int idx = (star.x() <= node.getCentreX() ? 0 : 4) + (star.y() <= node.getCentreY() ? 0 : 2) + (star.z() <= node.getCentreZ() ? 0 : 1);
+        OctreeNode child = node.children[idx];
+        if (child == null && create) {
+            double nhs = node.getHalfSizeX() / 2d;
+            child = new OctreeNode(node.getCentreX() + ((idx & 4) != 0 ? nhs : -nhs), node.getCentreY() + ((idx & 2) != 0 ? nhs : -nhs), node.getCentreZ() + ((idx & 1) != 0 ? nhs : -nhs), nhs, nhs, nhs, node.depth + 1, node, idx);
+        }
+        return child;
+    }
+
+    /**
+     * Gets the stars of the octant, reading its page the first time
+     */
+    private List<IParticleRecord> page(OctreeNode node) throws IOException {
+        List<IParticleRecord> page = pages.get(node);
+        if (page == null) {
+            page = readPage(node);
+            pages.put(node, page);
+        }
+        return page;
+    }
+
+    private List<IParticleRecord> readPage(OctreeNode node) throws IOException {
+        File file = pageFile(node);
+        if (node.numObjects > 0 && file.exists()) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                return new ArrayList<>(binary.readData(in, 1d));
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    private File pageFile(OctreeNode node) {
+        return pagesDir.resolve("particles_" + String.format("%06d", node.pageId) + ".bin").toFile();
+    }
+
+    private static boolean contains(OctreeNode root, IParticleRecord star) {
+        return root.contains(star.x(), star.y(), star.z());
+    }
+}
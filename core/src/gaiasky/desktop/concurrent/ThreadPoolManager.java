@@ -5,10 +5,21 @@
 
 package gaiasky.desktop.concurrent;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import gaiasky.desktop.concurrent.GaiaSkyThreadFactory.GSThread;
+import gaiasky.util.Logger;
+import gaiasky.util.Logger.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Holds the pool of the parallel scene graph update
+ *
+ * @author tsagrista
+ */
 public class ThreadPoolManager {
+    private static final Log logger = Logger.getLogger(ThreadPoolManager.class);
 
     /** The executor service containing the pool **/
     public static ThreadPoolExecutor pool;
@@ -17,4 +28,63 @@ public class ThreadPoolManager {
         pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(numThreads, new GaiaSkyThreadFactory());
     }
 
+    /**
+     * Whether the current thread is a thread of the pool
+     */
+    public static boolean isPoolThread() {
+        return Thread.currentThread() instanceof GSThread;
+    }
+
+    /**
+     * Runs the tasks and waits until all of them are done. The first task runs in the calling thread,
+     * and so do the tasks which have not been picked up by the pool when the caller gets to them, so
+     * this can be called from a thread of the pool without deadlocks. If the pool is not initialized,
+     * all tasks run in the calling thread.
+     *
+     * @param tasks The tasks
+     */
+    public static void invokeAll(List<? extends Callable<Void>> tasks) {
+        int n = tasks.size();
+        List<FutureTask<Void>> futures = new ArrayList<>(n);
+        for (int i = 1; i < n; i++) {
+            FutureTask<Void> future = new FutureTask<>(tasks.get(i));
+            futures.add(future);
+            if (pool != null && !pool.isShutdown())
+                pool.execute(future);
+        }
+        RuntimeException error = null;
+        try {
+            if (n > 0)
+                tasks.get(0).call();
+        } catch (Exception e) {
+            error = new RuntimeException(e);
+        }
+        for (FutureTask<Void> future : futures) {
+            // Run it here if it is still queued
+            if (pool == null || pool.remove(future))
+                future.run();
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                if (error == null)
+                    error = new RuntimeException(e.getCause());
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+
+    public static void shutDownThreadPool() {
+        if (pool != null && !pool.isShutdown()) {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(500, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                logger.error(e);
+            }
+        }
+    }
+
 }
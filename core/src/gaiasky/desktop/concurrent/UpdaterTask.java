@@ -6,59 +6,145 @@
 package gaiasky.desktop.concurrent;
 
 import com.badlogic.gdx.utils.Array;
-import gaiasky.scenegraph.FadeNode;
-import gaiasky.scenegraph.Particle;
+import gaiasky.event.EventManager;
+import gaiasky.render.IRenderable;
+import gaiasky.render.SceneGraphRenderer;
 import gaiasky.scenegraph.SceneGraphNode;
 import gaiasky.scenegraph.camera.ICamera;
+import gaiasky.util.math.Vector3d;
 import gaiasky.util.time.ITimeFrameProvider;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 
+/**
+ * Updates a range of independent nodes, with their subtrees, in a task of the parallel
+ * scene graph update. The renderables and the events of the nodes are kept in the task,
+ * and are passed on to the render lists and observers of the thread which started the
+ * tasks in {@link #flush()}, which must run in that thread once all the tasks are done.
+ * Tasks can be nested: the tasks started by a task flush into the lists of that task.
+ *
+ * @author tsagrista
+ */
 public class UpdaterTask<T extends SceneGraphNode> implements Callable<Void> {
 
     ICamera camera;
     Array<T> nodes;
+    List<T> nodeList;
     ITimeFrameProvider time;
-    int start, step;
+    Vector3d parentTransform;
+    float opacity;
+    int from, to;
+
+    /** Update time of each node of the range in the last call, in nanoseconds **/
+    private long[] nanos;
+
+    private final Array<Array<IRenderable>> renderLists;
+    private final List<Runnable> events = new ArrayList<>();
 
-    public UpdaterTask(Array<T> nodes, int start, int step) {
+    public UpdaterTask(Array<T> nodes, int from, int to) {
         this.nodes = nodes;
-        this.start = start;
-        this.step = step;
+        this.from = from;
+        this.to = to;
+        Array<Array<IRenderable>> shared = SceneGraphRenderer.renderLists();
+        this.renderLists = new Array<>(false, shared.size);
+        for (int i = 0; i < shared.size; i++) {
+            this.renderLists.add(new Array<>(false, 20));
+        }
     }
 
     public UpdaterTask(Array<T> nodes) {
-        this(nodes, 0, 1);
+        this(nodes, 0, nodes.size);
+    }
+
+    public UpdaterTask(List<T> nodes, int from, int to) {
+        this((Array<T>) null, from, to);
+        this.nodeList = nodes;
     }
 
     @Override
     public Void call() throws Exception {
-        int size = nodes.size;
-        for (int i = start; i < size; i += step) {
-            SceneGraphNode node = nodes.get(i);
-            float opacity = node instanceof Particle && node.octant != null ? node.octant.opacity : (node instanceof FadeNode ? 1f : node.opacity);
-            node.update(time, node.parent.translation, camera, opacity);
+        Array<Array<IRenderable>> prevLists = SceneGraphRenderer.setThreadRenderLists(renderLists);
+        List<Runnable> prevEvents = EventManager.instance.setDeferred(events);
+        try {
+            if (nanos == null || nanos.length != to - from)
+                nanos = new long[to - from];
+            for (int i = from; i < to; i++) {
+                long start = System.nanoTime();
+                SceneGraphNode node = nodes != null ? nodes.get(i) : nodeList.get(i);
+                node.update(time, parentTransform, camera, node.octant != null ? opacity * node.octant.opacity : opacity);
+                nanos[i - from] = System.nanoTime() - start;
+            }
+        } finally {
+            SceneGraphRenderer.setThreadRenderLists(prevLists);
+            EventManager.instance.setDeferred(prevEvents);
         }
         return null;
     }
 
+    /**
+     * Adds the renderables of the last call to the render lists and posts its events, in
+     * the order in which the nodes added and posted them. Must be called in the thread which
+     * started the task, once it is done.
+     */
+    public void flush() {
+        Array<Array<IRenderable>> shared = SceneGraphRenderer.renderLists();
+        for (int i = 0; i < renderLists.size; i++) {
+            Array<IRenderable> list = renderLists.get(i);
+            if (list.size > 0) {
+                shared.get(i).addAll(list);
+                list.clear();
+            }
+        }
+        for (int i = 0; i < events.size(); i++) {
+            events.get(i).run();
+        }
+        events.clear();
+    }
+
+    /**
+     * Gets the update time of the given node of the range in the last call
+     *
+     * @param i The index of the node in the array
+     * @return The time in nanoseconds
+     */
+    public long getNanos(int i) {
+        return nanos != null && i >= from && i < to ? nanos[i - from] : 0;
+    }
+
     public void setNodesToProcess(Array<T> nodes) {
         this.nodes = nodes;
+        this.nodeList = null;
+    }
+
+    public void setNodesToProcess(List<T> nodes) {
+        this.nodeList = nodes;
+        this.nodes = null;
+    }
+
+    public void setRange(int from, int to) {
+        this.from = from;
+        this.to = to;
     }
 
-    public void addAll(Array<T> list) {
-        this.nodes.addAll(list);
+    public int getTo() {
+        return to;
     }
 
     /**
      * This must be called to prepare the updater task for execution
-     * 
-     * @param camera
-     * @param time
+     *
+     * @param camera          The camera
+     * @param time            The time frame provider
+     * @param parentTransform The translation of the parent of the nodes
+     * @param opacity         The opacity of the parent of the nodes
      */
-    public void setParameters(ICamera camera, ITimeFrameProvider time) {
+    public void setParameters(ICamera camera, ITimeFrameProvider time, Vector3d parentTransform, float opacity) {
         this.camera = camera;
         this.time = time;
+        this.parentTransform = parentTransform;
+        this.opacity = opacity;
     }
 
-}
\ No newline at end of file
+}
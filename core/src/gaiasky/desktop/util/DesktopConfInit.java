@@ -128,7 +128,14 @@ public class DesktopConfInit extends ConfInit {
         boolean MULTITHREADING = Parser.parseBoolean(p.getProperty("global.conf.multithreading"));
         String propNumthreads = p.getProperty("global.conf.numthreads");
         int NUMBER_THREADS = Parser.parseInt((propNumthreads == null || propNumthreads.isEmpty()) ? "0" : propNumthreads);
-        pc.initialize(MULTITHREADING, NUMBER_THREADS);
+        String propLoadthreads = p.getProperty("global.conf.numthreads.load");
+        int NUMBER_LOAD_THREADS = Parser.parseInt((propLoadthreads == null || propLoadthreads.isEmpty()) ? "0" : propLoadthreads);
+        double PREFETCH_HORIZON = Parser.parseDouble(p.getProperty("global.conf.prefetch.horizon", "5.0"));
+        int PREFETCH_BUDGET = Parser.parseInt(p.getProperty("global.conf.prefetch.budget", "10"));
+        int OCTREE_SPLIT_DEPTH = Parser.parseInt(p.getProperty("global.conf.octree.splitdepth", "2"));
+        boolean PARALLEL_UPDATE = Parser.parseBoolean(p.getProperty("global.conf.update.parallel", "false"));
+        double EPHEMERIS_TOLERANCE_KM = Parser.parseDouble(p.getProperty("global.conf.ephemeris.tolerance", "1.0"));
+        pc.initialize(MULTITHREADING, NUMBER_THREADS, NUMBER_LOAD_THREADS, PREFETCH_HORIZON, PREFETCH_BUDGET, OCTREE_SPLIT_DEPTH, PARALLEL_UPDATE, EPHEMERIS_TOLERANCE_KM);
 
         /** POSTPROCESS CONF **/
         PostprocessConf ppc = new PostprocessConf();
@@ -195,6 +202,8 @@ public class DesktopConfInit extends ConfInit {
         String SCRIPT_LOCATION = p.getProperty("program.scriptlocation").isEmpty() ? System.getProperty("user.dir") + File.separatorChar + "scripts" : p.getProperty("program.scriptlocation");
         SCRIPT_LOCATION = SCRIPT_LOCATION.replaceAll("\\\\", "/");
         int REST_PORT = Parser.parseInt(p.getProperty("program.restport", "-1"));
+        int RPC_PORT = Parser.parseInt(p.getProperty("program.rpcport", "-1"));
+        boolean RPC_REMOTE = Parser.parseBoolean(p.getProperty("program.rpcremote", "false"));
 
         boolean STEREOSCOPIC_MODE = Parser.parseBoolean(p.getProperty("program.stereoscopic"));
         StereoProfile STEREO_PROFILE = StereoProfile.values()[Parser.parseInt(p.getProperty("program.stereoscopic.profile"))];
@@ -215,6 +224,8 @@ public class DesktopConfInit extends ConfInit {
         float NET_SLAVE_ROLL = Parser.parseFloat(p.getProperty("program.net.slave.roll", "NaN"));
         String NET_SLAVE_WARP = p.getProperty("program.net.slave.warp", "");
         String NET_SLAVE_BLEND = p.getProperty("program.net.slave.blend", "");
+        String NET_SYNC_GROUP = p.getProperty("program.net.sync.group", "");
+        int NET_SYNC_PORT = Parser.parseInt(p.getProperty("program.net.sync.port", "13990"));
         String LAST_FOLDER_LOCATION = p.getProperty("program.last.filesystem.location");
         boolean EXIT_CONFIRMATION = Parser.parseBoolean(p.getProperty("program.exit.confirmation", "true"));
 
@@ -241,7 +252,7 @@ public class DesktopConfInit extends ConfInit {
             }
         }
 
-        prc.initialize(SHOW_DEBUG_INFO, LAST_CHECKED, LAST_VERSION, VERSION_CHECK_URL, DATA_DESCRIPTOR_URL, UI_THEME, UI_SCALE, SCRIPT_LOCATION, REST_PORT, LOCALE, STEREOSCOPIC_MODE, STEREO_PROFILE, CUBEMAP_MODE, CUBEMAP_PROJECTION, CUBEMAP_FACE_RESOLUTION, DISPLAY_HUD, DISPLAY_POINTER_COORDS, NET_MASTER, NET_SLAVE, NET_MASTER_SLAVES, NET_SLAVE_CONFIG, NET_SLAVE_YAW, NET_SLAVE_PITCH, NET_SLAVE_ROLL, NET_SLAVE_WARP, NET_SLAVE_BLEND, LAST_FOLDER_LOCATION, DISPLAY_MINIMAP, MINIMAP_SIZE, PLANETARIUM_APERTURE, PLANETARIUM_ANGLE, DISPLAY_POINTER_GUIDES, POINTER_GUIDES_COLOR, POINTER_GUIDES_WIDTH, RECURSIVE_GRID_ORIGIN, RECURSIVE_GRID_ORIGIN_LINES, EXIT_CONFIRMATION, MIRROR_URL, SAFE_GRAPHICS_MODE, FILE_CHOOSER_SHOW_HIDDEN);
+        prc.initialize(SHOW_DEBUG_INFO, LAST_CHECKED, LAST_VERSION, VERSION_CHECK_URL, DATA_DESCRIPTOR_URL, UI_THEME, UI_SCALE, SCRIPT_LOCATION, REST_PORT, LOCALE, STEREOSCOPIC_MODE, STEREO_PROFILE, CUBEMAP_MODE, CUBEMAP_PROJECTION, CUBEMAP_FACE_RESOLUTION, DISPLAY_HUD, DISPLAY_POINTER_COORDS, NET_MASTER, NET_SLAVE, NET_MASTER_SLAVES, NET_SLAVE_CONFIG, NET_SLAVE_YAW, NET_SLAVE_PITCH, NET_SLAVE_ROLL, NET_SLAVE_WARP, NET_SLAVE_BLEND, LAST_FOLDER_LOCATION, DISPLAY_MINIMAP, MINIMAP_SIZE, PLANETARIUM_APERTURE, PLANETARIUM_ANGLE, DISPLAY_POINTER_GUIDES, POINTER_GUIDES_COLOR, POINTER_GUIDES_WIDTH, RECURSIVE_GRID_ORIGIN, RECURSIVE_GRID_ORIGIN_LINES, EXIT_CONFIRMATION, MIRROR_URL, SAFE_GRAPHICS_MODE, FILE_CHOOSER_SHOW_HIDDEN, NET_SYNC_GROUP, NET_SYNC_PORT, RPC_PORT, RPC_REMOTE);
 
         /** SCENE CONF **/
         String gc = p.getProperty("scene.graphics.quality");
@@ -304,6 +315,8 @@ public class DesktopConfInit extends ConfInit {
         int SHADOW_MAPPING_N_SHADOWS = MathUtilsd.clamp(Parser.parseInt(p.getProperty("scene.shadowmapping.nshadows", "2")), 0, 4);
         int SHADOW_MAPPING_RESOLUTION = Parser.parseInt(p.getProperty("scene.shadowmapping.resolution", "512"));
         long MAX_LOADED_STARS = Long.parseLong(p.getProperty("scene.octree.maxstars", "10000000"));
+        long MAX_LOADED_MEMORY_SOFT = Long.parseLong(p.getProperty("scene.octree.maxmemory.soft", "0"));
+        long MAX_LOADED_MEMORY_HARD = Long.parseLong(p.getProperty("scene.octree.maxmemory.hard", "0"));
         // Limiting number of stars in 32-bit JVM
         if (ARCH.equals("32")) {
             MAX_LOADED_STARS = 1500000;
@@ -329,7 +342,7 @@ public class DesktopConfInit extends ConfInit {
         double DIST_SCALE_VR = 1e4d;
 
         SceneConf sc = new SceneConf();
-        sc.initialize(STARTUP_OBJECT, GRAPHICS_QUALITY, OBJECT_FADE_MS, STAR_BRIGHTNESS, STAR_BRIGHTNESS_POWER, STAR_TEX_INDEX, STAR_GROUP_N_NEAREST, STAR_GROUP_BILLBOARD_FLAG, AMBIENT_LIGHT, CAMERA_FOV, CAMERA_SPEED, TURNING_SPEED, ROTATION_SPEED, CAMERA_SPEED_LIMIT_IDX, FOCUS_LOCK, FOCUS_LOCK_ORIENTATION, LABEL_SIZE_FACTOR, LABEL_NUMBER_FACTOR, LINE_WIDTH_FACTOR, VISIBILITY, ORBIT_RENDERER, LINE_RENDERER, STAR_TH_ANGLE_NONE, STAR_TH_ANGLE_POINT, STAR_TH_ANGLE_QUAD, STAR_MIN_OPACITY, STAR_MAX_OPACITY, OCTREE_PARTICLE_FADE, OCTANT_THRESHOLD_0, OCTANT_THRESHOLD_1, PM_NUM_FACTOR, PM_LEN_FACTOR, N_PM_STARS, PM_COLOR_MODE, PM_ARROWHEADS, STAR_POINT_SIZE, GALAXY_3D, CROSSHAIR_FOCUS, CROSSHAIR_CLOSEST, CROSSHAIR_HOME, CINEMATIC_CAMERA, LAZY_TEXTURE_INIT, LAZY_MESH_INIT, FREE_CAMERA_TARGET_MODE_ON, SHADOW_MAPPING, SHADOW_MAPPING_N_SHADOWS, SHADOW_MAPPING_RESOLUTION, MAX_LOADED_STARS, ELEVATION_TYPE, ELEVATION_MULTIPLIER, TESSELLATION_QUALITY, DIST_SCALE_DESKTOP, DIST_SCALE_VR);
+        sc.initialize(STARTUP_OBJECT, GRAPHICS_QUALITY, OBJECT_FADE_MS, STAR_BRIGHTNESS, STAR_BRIGHTNESS_POWER, STAR_TEX_INDEX, STAR_GROUP_N_NEAREST, STAR_GROUP_BILLBOARD_FLAG, AMBIENT_LIGHT, CAMERA_FOV, CAMERA_SPEED, TURNING_SPEED, ROTATION_SPEED, CAMERA_SPEED_LIMIT_IDX, FOCUS_LOCK, FOCUS_LOCK_ORIENTATION, LABEL_SIZE_FACTOR, LABEL_NUMBER_FACTOR, LINE_WIDTH_FACTOR, VISIBILITY, ORBIT_RENDERER, LINE_RENDERER, STAR_TH_ANGLE_NONE, STAR_TH_ANGLE_POINT, STAR_TH_ANGLE_QUAD, STAR_MIN_OPACITY, STAR_MAX_OPACITY, OCTREE_PARTICLE_FADE, OCTANT_THRESHOLD_0, OCTANT_THRESHOLD_1, PM_NUM_FACTOR, PM_LEN_FACTOR, N_PM_STARS, PM_COLOR_MODE, PM_ARROWHEADS, STAR_POINT_SIZE, GALAXY_3D, CROSSHAIR_FOCUS, CROSSHAIR_CLOSEST, CROSSHAIR_HOME, CINEMATIC_CAMERA, LAZY_TEXTURE_INIT, LAZY_MESH_INIT, FREE_CAMERA_TARGET_MODE_ON, SHADOW_MAPPING, SHADOW_MAPPING_N_SHADOWS, SHADOW_MAPPING_RESOLUTION, MAX_LOADED_STARS, MAX_LOADED_MEMORY_SOFT, MAX_LOADED_MEMORY_HARD, ELEVATION_TYPE, ELEVATION_MULTIPLIER, TESSELLATION_QUALITY, DIST_SCALE_DESKTOP, DIST_SCALE_VR);
 
         /** FRAME CONF **/
         String renderFolder;
@@ -352,12 +365,13 @@ public class DesktopConfInit extends ConfInit {
         ScreenshotMode FRAME_MODE = ScreenshotMode.valueOf(p.getProperty("graphics.render.mode"));
         ImageFormat FRAME_FORMAT = ImageFormat.valueOf(p.getProperty("graphics.render.format", "jpg").toUpperCase());
         float FRAME_QUALITY = Parser.parseFloat(p.getProperty("graphics.render.quality", "0.93"));
+        String RENDER_STREAM = p.getProperty("graphics.render.stream", "");
 
         CameraKeyframeManager.PathType KF_POS = CameraKeyframeManager.PathType.valueOf(p.getProperty("graphics.camera.keyframe.path.position", CameraKeyframeManager.PathType.SPLINE.toString()));
         CameraKeyframeManager.PathType KF_ORI = CameraKeyframeManager.PathType.valueOf(p.getProperty("graphics.camera.keyframe.path.orientation", CameraKeyframeManager.PathType.SPLINE.toString()));
 
         FrameConf fc = new FrameConf();
-        fc.initialize(RENDER_WIDTH, RENDER_HEIGHT, RENDER_TARGET_FPS, CAMERA_REC_TARGET_FPS, AUTO_FRAME_OUTPUT_CAMERA_PLAY, RENDER_FOLDER, RENDER_FILE_NAME, RENDER_SCREENSHOT_TIME, RENDER_SCREENSHOT_TIME, FRAME_MODE, FRAME_FORMAT, FRAME_QUALITY, KF_POS, KF_ORI);
+        fc.initialize(RENDER_WIDTH, RENDER_HEIGHT, RENDER_TARGET_FPS, CAMERA_REC_TARGET_FPS, AUTO_FRAME_OUTPUT_CAMERA_PLAY, RENDER_FOLDER, RENDER_FILE_NAME, RENDER_SCREENSHOT_TIME, RENDER_SCREENSHOT_TIME, FRAME_MODE, FRAME_FORMAT, FRAME_QUALITY, KF_POS, KF_ORI, RENDER_STREAM);
 
         /** SCREEN CONF **/
         int SCREEN_WIDTH = Parser.parseInt(p.getProperty("graphics.screen.width"));
@@ -441,6 +455,12 @@ public class DesktopConfInit extends ConfInit {
         /** PERFORMANCE **/
         p.setProperty("global.conf.multithreading", Boolean.toString(GlobalConf.performance.MULTITHREADING));
         p.setProperty("global.conf.numthreads", Integer.toString(GlobalConf.performance.NUMBER_THREADS));
+        p.setProperty("global.conf.numthreads.load", Integer.toString(GlobalConf.performance.NUMBER_LOAD_THREADS));
+        p.setProperty("global.conf.prefetch.horizon", Double.toString(GlobalConf.performance.PREFETCH_HORIZON));
+        p.setProperty("global.conf.prefetch.budget", Integer.toString(GlobalConf.performance.PREFETCH_BUDGET));
+        p.setProperty("global.conf.octree.splitdepth", Integer.toString(GlobalConf.performance.OCTREE_SPLIT_DEPTH));
+        p.setProperty("global.conf.update.parallel", Boolean.toString(GlobalConf.performance.PARALLEL_UPDATE));
+        p.setProperty("global.conf.ephemeris.tolerance", Double.toString(GlobalConf.performance.EPHEMERIS_TOLERANCE_KM));
 
         /** POSTPROCESS **/
         p.setProperty("postprocess.antialiasing", Integer.toString(GlobalConf.postprocess.POSTPROCESS_ANTIALIAS.getAACode()));
@@ -472,6 +492,7 @@ public class DesktopConfInit extends ConfInit {
         p.setProperty("graphics.render.mode", GlobalConf.frame.FRAME_MODE.toString());
         p.setProperty("graphics.render.format", GlobalConf.frame.FRAME_FORMAT.toString().toLowerCase());
         p.setProperty("graphics.render.quality", Float.toString(GlobalConf.frame.FRAME_QUALITY));
+        p.setProperty("graphics.render.stream", GlobalConf.frame.RENDER_STREAM);
 
         /** DATA **/
         p.setProperty("data.location", GlobalConf.data.DATA_LOCATION);
@@ -514,6 +535,8 @@ public class DesktopConfInit extends ConfInit {
         p.setProperty("program.exit.confirmation", Boolean.toString(GlobalConf.program.EXIT_CONFIRMATION));
         p.setProperty("program.scriptlocation", GlobalConf.program.SCRIPT_LOCATION);
         p.setProperty("program.restport", Integer.toString(GlobalConf.program.REST_PORT));
+        p.setProperty("program.rpcport", Integer.toString(GlobalConf.program.RPC_PORT));
+        p.setProperty("program.rpcremote", Boolean.toString(GlobalConf.program.RPC_REMOTE));
         p.setProperty("program.locale", GlobalConf.program.LOCALE);
         p.setProperty("program.stereoscopic", Boolean.toString(GlobalConf.program.STEREOSCOPIC_MODE));
         p.setProperty("program.stereoscopic.profile", Integer.toString(GlobalConf.program.STEREO_PROFILE.ordinal()));
@@ -579,6 +602,8 @@ public class DesktopConfInit extends ConfInit {
         p.setProperty("scene.shadowmapping.nshadows", Integer.toString(GlobalConf.scene.SHADOW_MAPPING_N_SHADOWS));
         p.setProperty("scene.shadowmapping.resolution", Integer.toString(GlobalConf.scene.SHADOW_MAPPING_RESOLUTION));
         p.setProperty("scene.octree.maxstars", Long.toString(GlobalConf.scene.MAX_LOADED_STARS));
+        p.setProperty("scene.octree.maxmemory.soft", Long.toString(GlobalConf.scene.MAX_LOADED_MEMORY_SOFT));
+        p.setProperty("scene.octree.maxmemory.hard", Long.toString(GlobalConf.scene.MAX_LOADED_MEMORY_HARD));
         p.setProperty("scene.elevation.type", GlobalConf.scene.ELEVATION_TYPE.toString().toLowerCase());
         p.setProperty("scene.elevation.multiplier", Double.toString(GlobalConf.scene.ELEVATION_MULTIPLIER));
         p.setProperty("scene.tessellation.quality", Double.toString(GlobalConf.scene.TESSELLATION_QUALITY));
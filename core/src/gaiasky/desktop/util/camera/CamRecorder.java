@@ -5,6 +5,8 @@
 
 package gaiasky.desktop.util.camera;
 
+import gaiasky.DoubleArray;
+import gaiasky.data.StreamingOctreeLoader;
 import gaiasky.desktop.util.SysUtils;
 import gaiasky.event.EventManager;
 import gaiasky.event.Events;
@@ -65,6 +67,8 @@ public class CamRecorder implements IObserver {
 
     private long startMs;
     float time;
+    /** Frame being played **/
+    private int playFrame;
 
     public static void initialize() {
         // Initialize own
@@ -118,6 +122,7 @@ public class CamRecorder implements IObserver {
                                     position.set(Parser.parseDouble(tokens[1]), Parser.parseDouble(tokens[2]), Parser.parseDouble(tokens[3]));
                                     direction.set(dir);
                                     up.set(upp);
+                                    StreamingOctreeLoader.prefetchPathFrame(playFrame++);
                                     break;
                                 }else{
                                     // Skip comment, next line
@@ -127,6 +132,7 @@ public class CamRecorder implements IObserver {
                                 is.close();
                                 is = null;
                                 mode = RecorderState.IDLE;
+                                StreamingOctreeLoader.clearPrefetch();
                                 // Stop camera
                                 EventManager.instance.post(Events.CAMERA_STOP);
                                 // Post notification
@@ -151,6 +157,33 @@ public class CamRecorder implements IObserver {
 
     }
 
+    /**
+     * Reads the positions and directions of the given camera file and passes
+     * them to the octant prefetcher.
+     *
+     * @param file The camera file
+     */
+    private void prefetchPath(Path file) {
+        try (BufferedReader br = Files.newBufferedReader(file)) {
+            DoubleArray positions = new DoubleArray();
+            DoubleArray directions = new DoubleArray();
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.strip();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    String[] tokens = line.split("\\s+");
+                    for (int i = 1; i <= 3; i++)
+                        positions.add(Parser.parseDouble(tokens[i]));
+                    for (int i = 4; i <= 6; i++)
+                        directions.add(Parser.parseDouble(tokens[i]));
+                }
+            }
+            StreamingOctreeLoader.prefetchPath(positions.toArray(), directions.toArray(), GlobalConf.frame.CAMERA_REC_TARGET_FPS);
+        } catch (Exception e) {
+            logger.warn("Could not read camera path for prefetching: " + file);
+        }
+    }
+
     @Override
     public void notify(final Events event, final Object... data) {
         switch (event) {
@@ -244,6 +277,10 @@ public class CamRecorder implements IObserver {
                 }
 
                 try {
+                    // Let the octant prefetcher know where we are going
+                    prefetchPath(file);
+                    playFrame = 0;
+
                     is = new BufferedReader(new InputStreamReader(Files.newInputStream(file)));
 
                     logger.info(I18n.bundle.format("notif.cameraplay.start", file));
@@ -273,6 +310,7 @@ public class CamRecorder implements IObserver {
             case STOP_CAMERA_PLAY:
                 // Stop playing
                 mode = RecorderState.IDLE;
+                StreamingOctreeLoader.clearPrefetch();
                 // Stop camera
                 EventManager.instance.post(Events.CAMERA_STOP);
                 // Post notification
@@ -9,14 +9,28 @@ import com.badlogic.gdx.utils.Pool;
 import com.badlogic.gdx.utils.TimeUtils;
 import gaiasky.GaiaSky;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Event manager that allows for subscription of observers to events (identified
  * by strings), and also for the creation of event objects by anyone.
+ * <p>
+ * Subscriptions are kept in a copy-on-write table indexed by the event ordinal, so that
+ * posting never locks: it iterates over a snapshot of the subscribers of the event
+ * at the time of the post. Observers are notified in the thread which posts the event, unless
+ * they subscribe with {@link #subscribeAsync(IObserver, Events...)}, in which case events posted
+ * from other threads are queued and delivered when the subscribing thread calls
+ * {@link #dispatchMailbox()}.
  *
  * @author Toni Sagrista
  */
@@ -44,24 +58,82 @@ public class EventManager implements IObserver {
 
     private static final long START = TimeUtils.millis();
 
+    private static final Object[] EMPTY_DATA = new Object[0];
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
     /** Holds a priority queue for each time frame **/
     private final Map<TimeFrame, PriorityQueue<Telegram>> queues;
 
     /** Telegram pool **/
     private final Pool<Telegram> pool;
 
-    /** Subscriptions Event-Observers **/
-    private final Map<Integer, Set<IObserver>> subscriptions = new HashMap<>();
+    /**
+     * Subscriptions Event-Observers, indexed by event ordinal. Slots are replaced, never
+     * modified, and only under the lock.
+     **/
+    private final AtomicReferenceArray<Subscription[]> subscriptions;
+    private final Object lock = new Object();
+
+    /** Mailbox of the current thread, for asynchronous subscriptions **/
+    private final ThreadLocal<Mailbox> mailbox = ThreadLocal.withInitial(Mailbox::new);
+
+    /** Posts of the current thread waiting to be delivered, if deferred **/
+    private final ThreadLocal<List<Runnable>> deferred = new ThreadLocal<>();
+
+    /** Dispatch statistics, only collected if enabled **/
+    private volatile boolean statistics = false;
+    private final AtomicLongArray postCounts, postNanos;
+    private final Map<Class<?>, LongAdder[]> observerStats = new ConcurrentHashMap<>();
 
     /** The time frame to use if none is specified **/
     private TimeFrame defaultTimeFrame;
 
+    /**
+     * A subscription of an observer. The mailbox is null for synchronous subscriptions.
+     */
+    private static class Subscription {
+        final IObserver observer;
+        final Mailbox mailbox;
+
+        Subscription(IObserver observer, Mailbox mailbox) {
+            this.observer = observer;
+            this.mailbox = mailbox;
+        }
+    }
+
+    /**
+     * Queue of events pending delivery to the asynchronous subscriptions of a thread.
+     */
+    private static class Mailbox {
+        final Thread owner = Thread.currentThread();
+        final Queue<Delivery> queue = new ConcurrentLinkedQueue<>();
+    }
+
+    private static class Delivery {
+        final IObserver observer;
+        final Events event;
+        final Object[] data;
+
+        Delivery(IObserver observer, Events event, Object[] data) {
+            this.observer = observer;
+            this.event = event;
+            this.data = data;
+        }
+    }
+
     public EventManager() {
         this.pool = new Pool<>(20) {
             protected Telegram newObject() {
                 return new Telegram();
             }
         };
+        int nEvents = Events.values().length;
+        subscriptions = new AtomicReferenceArray<>(nEvents);
+        for (int i = 0; i < nEvents; i++) {
+            subscriptions.set(i, NO_SUBSCRIPTIONS);
+        }
+        postCounts = new AtomicLongArray(nEvents);
+        postNanos = new AtomicLongArray(nEvents);
         // Initialize queues, one for each time frame.
         queues = new HashMap<>(TimeFrame.values().length);
         for (TimeFrame tf : TimeFrame.values()) {
@@ -92,14 +164,36 @@ public class EventManager implements IObserver {
      * @param listener the listener to add
      */
     public void subscribe(IObserver listener, Events msg) {
-        synchronized (subscriptions) {
-            Set<IObserver> listeners = subscriptions.get(msg.ordinal());
-            if (listeners == null) {
-                // Associate an empty ordered array with the message code. Sometimes the order matters
-                listeners = new LinkedHashSet<IObserver>();
-                subscriptions.put(msg.ordinal(), listeners);
+        add(new Subscription(listener, null), msg);
+    }
+
+    /**
+     * Subscribes the given observer to the given event types, with delivery in the
+     * calling thread. Events posted from this thread are delivered immediately, and events
+     * posted from other threads wait until this thread calls {@link #dispatchMailbox()}. The
+     * main thread does so every frame.
+     *
+     * @param observer The observer to subscribe.
+     * @param events   The event types to subscribe to.
+     */
+    public void subscribeAsync(IObserver observer, Events... events) {
+        Mailbox mb = mailbox.get();
+        for (Events event : events) {
+            add(new Subscription(observer, mb), event);
+        }
+    }
+
+    private void add(Subscription subscription, Events msg) {
+        synchronized (lock) {
+            Subscription[] current = subscriptions.get(msg.ordinal());
+            // Subscribing twice has no effect. Keep the subscription order, sometimes it matters
+            for (Subscription s : current) {
+                if (s.observer == subscription.observer)
+                    return;
             }
-            listeners.add(listener);
+            Subscription[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+            subscriptions.set(msg.ordinal(), updated);
         }
     }
 
@@ -116,10 +210,24 @@ public class EventManager implements IObserver {
      * @param listener The listener to remove.
      **/
     public void unsubscribe(IObserver listener, Events events) {
-        synchronized (subscriptions) {
-            Set<IObserver> listeners = subscriptions.get(events.ordinal());
-            if (listeners != null) {
-                listeners.remove(listener);
+        synchronized (lock) {
+            remove(events.ordinal(), listener);
+        }
+    }
+
+    private void remove(int ordinal, IObserver listener) {
+        Subscription[] current = subscriptions.get(ordinal);
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].observer == listener) {
+                if (current.length == 1) {
+                    subscriptions.set(ordinal, NO_SUBSCRIPTIONS);
+                } else {
+                    Subscription[] updated = new Subscription[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    subscriptions.set(ordinal, updated);
+                }
+                return;
             }
         }
     }
@@ -130,11 +238,10 @@ public class EventManager implements IObserver {
      * @param listeners The listeners to remove.
      */
     public void removeAllSubscriptions(IObserver... listeners) {
-        synchronized (subscriptions) {
-            Set<Integer> km = subscriptions.keySet();
-            for (int key : km) {
+        synchronized (lock) {
+            for (int i = 0; i < subscriptions.length(); i++) {
                 for (IObserver listener : listeners) {
-                    subscriptions.get(key).remove(listener);
+                    remove(i, listener);
                 }
             }
         }
@@ -146,17 +253,28 @@ public class EventManager implements IObserver {
      * @param msg the message code
      */
     public void clearSubscriptions(Events msg) {
-        synchronized (subscriptions) {
-            subscriptions.remove(msg.ordinal());
+        synchronized (lock) {
+            subscriptions.set(msg.ordinal(), NO_SUBSCRIPTIONS);
         }
     }
 
     public void clearAllSubscriptions() {
-        synchronized (subscriptions) {
-            subscriptions.clear();
+        synchronized (lock) {
+            for (int i = 0; i < subscriptions.length(); i++) {
+                subscriptions.set(i, NO_SUBSCRIPTIONS);
+            }
         }
     }
 
+    /**
+     * Posts or registers a new event type without data.
+     *
+     * @param event The event type.
+     */
+    public void post(final Events event) {
+        post(event, EMPTY_DATA);
+    }
+
     /**
      * Posts or registers a new event type with the given data.
      *
@@ -164,14 +282,139 @@ public class EventManager implements IObserver {
      * @param data  The event data.
      */
     public void post(final Events event, final Object... data) {
-        synchronized (subscriptions) {
-            Set<IObserver> observers = subscriptions.get(event.ordinal());
-            if (observers != null && observers.size() > 0) {
-                for (IObserver observer : observers) {
-                    observer.notify(event, data);
-                }
+        Subscription[] subs = subscriptions.get(event.ordinal());
+        if (subs.length == 0)
+            return;
+        List<Runnable> def = deferred.get();
+        if (def != null) {
+            def.add(() -> post(event, data));
+            return;
+        }
+        if (statistics) {
+            long start = System.nanoTime();
+            for (Subscription sub : subs) {
+                long t = System.nanoTime();
+                deliver(sub, event, data);
+                observerStats(sub.observer).add(System.nanoTime() - t);
             }
+            postCounts.incrementAndGet(event.ordinal());
+            postNanos.addAndGet(event.ordinal(), System.nanoTime() - start);
+        } else {
+            for (Subscription sub : subs) {
+                deliver(sub, event, data);
+            }
+        }
+    }
+
+    private void deliver(Subscription sub, Events event, Object[] data) {
+        if (sub.mailbox == null || sub.mailbox.owner == Thread.currentThread()) {
+            sub.observer.notify(event, data);
+        } else {
+            sub.mailbox.queue.add(new Delivery(sub.observer, event, data));
+        }
+    }
+
+    /**
+     * Delivers the events queued for the asynchronous subscriptions of the calling thread.
+     */
+    public void dispatchMailbox() {
+        Queue<Delivery> queue = mailbox.get().queue;
+        Delivery d;
+        while ((d = queue.poll()) != null) {
+            d.observer.notify(d.event, d.data);
+        }
+    }
+
+    /**
+     * Defers the posts of the calling thread: instead of being delivered, they are added to
+     * the given list in order, to be run later in another thread. Null delivers them again.
+     * Used by the tasks of the parallel scene graph update, whose observers expect the main thread.
+     *
+     * @param list The list of deferred posts of the calling thread, or null
+     * @return The list of the calling thread before the call
+     */
+    public List<Runnable> setDeferred(List<Runnable> list) {
+        List<Runnable> previous = deferred.get();
+        deferred.set(list);
+        return previous;
+    }
+
+    private LongAdder observerStats(IObserver observer) {
+        LongAdder[] stats = observerStats.computeIfAbsent(observer.getClass(), c -> new LongAdder[] { new LongAdder(), new LongAdder() });
+        stats[0].increment();
+        return stats[1];
+    }
+
+    /**
+     * Enables or disables the collection of dispatch statistics. Enabling them adds
+     * two timer reads per notified observer.
+     *
+     * @param statistics Whether to collect statistics
+     */
+    public void setStatistics(boolean statistics) {
+        this.statistics = statistics;
+    }
+
+    public boolean isStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Number of posts of the given event with at least one subscriber since statistics were enabled
+     */
+    public long getPostCount(Events event) {
+        return postCounts.get(event.ordinal());
+    }
+
+    /**
+     * Total time spent notifying the subscribers of the given event, in nanoseconds
+     */
+    public long getPostNanos(Events event) {
+        return postNanos.get(event.ordinal());
+    }
+
+    /**
+     * Creates a report with the events and the observer classes which took the most
+     * dispatch time, in descending order of time.
+     *
+     * @param n Maximum number of events and observers to list
+     * @return The report
+     */
+    public String getStatisticsReport(int n) {
+        StringBuilder sb = new StringBuilder();
+        Events[] events = Events.values();
+        Integer[] order = new Integer[events.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(postNanos.get(b), postNanos.get(a)));
+        sb.append("Events by dispatch time (posts, total ms, mean us):");
+        for (int i = 0; i < Math.min(n, order.length) && postCounts.get(order[i]) > 0; i++) {
+            int e = order[i];
+            long count = postCounts.get(e);
+            long nanos = postNanos.get(e);
+            sb.append("\n  ").append(events[e]).append(": ").append(count).append(", ").append(nanos / 1e6).append(", ").append(nanos / 1e3 / count);
+        }
+        List<Map.Entry<Class<?>, LongAdder[]>> observers = new ArrayList<>(observerStats.entrySet());
+        observers.sort((a, b) -> Long.compare(b.getValue()[1].sum(), a.getValue()[1].sum()));
+        sb.append("\nObservers by notify time (notifications, total ms, mean us):");
+        for (int i = 0; i < Math.min(n, observers.size()); i++) {
+            Map.Entry<Class<?>, LongAdder[]> entry = observers.get(i);
+            long count = entry.getValue()[0].sum();
+            long nanos = entry.getValue()[1].sum();
+            sb.append("\n  ").append(entry.getKey().getName()).append(": ").append(count).append(", ").append(nanos / 1e6).append(", ").append(nanos / 1e3 / Math.max(1, count));
         }
+        return sb.toString();
+    }
+
+    /**
+     * Resets the dispatch statistics
+     */
+    public void resetStatistics() {
+        for (int i = 0; i < postCounts.length(); i++) {
+            postCounts.set(i, 0);
+            postNanos.set(i, 0);
+        }
+        observerStats.clear();
     }
 
     /**
@@ -234,12 +477,14 @@ public class EventManager implements IObserver {
      * Dispatches any telegrams with a timestamp that has expired. Any
      * dispatched telegrams are removed from the queue.
      * <p>
-     * This method must be called each time through the main loop.
+     * This method must be called each time through the main loop. It also
+     * delivers the events queued for the asynchronous subscriptions of the main thread.
      */
     public void dispatchDelayedMessages() {
         for (TimeFrame tf : queues.keySet()) {
             dispatch(queues.get(tf), tf.getCurrentTimeMs());
         }
+        dispatchMailbox();
     }
 
     private void dispatch(PriorityQueue<Telegram> queue, long currentTime) {
@@ -270,17 +515,14 @@ public class EventManager implements IObserver {
     }
 
     public boolean hasSubscriptors(Events event) {
-        Set<IObserver> scr = subscriptions.get(event.ordinal());
-        return scr != null && !scr.isEmpty();
+        return subscriptions.get(event.ordinal()).length > 0;
     }
 
     public boolean isSubscribedToAny(IObserver o) {
-        Set<Integer> keys = subscriptions.keySet();
-
-        for (int key : keys) {
-            Set<IObserver> set = subscriptions.get(key);
-            if (set.contains(o)) {
-                return true;
+        for (int i = 0; i < subscriptions.length(); i++) {
+            for (Subscription s : subscriptions.get(i)) {
+                if (s.observer == o)
+                    return true;
             }
         }
         return false;
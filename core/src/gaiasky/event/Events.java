@@ -285,6 +285,11 @@ public enum Events {
      * Debug info
      **/
     DEBUG_TIME,
+    /**
+     * Scene graph update info. Contains a double with the smoothed update time per frame in ms,
+     * and an integer with the number of threads of the parallel update, or 0 if serial
+     **/
+    DEBUG_UPDATE,
     DEBUG_VRAM,
     /**
      * Toggles whole GUI display. Contains the a boolean
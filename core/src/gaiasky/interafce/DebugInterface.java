@@ -34,6 +34,9 @@ public class DebugInterface extends TableGuiInterface implements IObserver {
     private final OwnLabel debugObjectsLoaded;
     private final OwnLabel debugOcObserved;
     private final OwnLabel debugOcQueue;
+    private final OwnLabel debugOcMemory;
+    private final OwnLabel debugUpdateTime;
+    private final OwnLabel debugUpdateMode;
     private final OwnLabel debugSamp;
     private final OwnLabel fps;
     private final OwnLabel spf;
@@ -221,17 +224,37 @@ public class DebugInterface extends TableGuiInterface implements IObserver {
         extra.add(objectsLabel).left().padBottom(pad20);
         extra.row();
 
+        /* UPDATE */
+        debugUpdateTime = new OwnLabel("", skin, "hud");
+        debugUpdateMode = new OwnLabel("", skin, "hud");
+
+        Table updateTable = new Table(skin);
+        updateTable.add(new OwnLabel(I18n.txt("gui.debug.update.time"), skin, "hud")).right().padRight(pad10);
+        updateTable.add(debugUpdateTime).right().row();
+        updateTable.add(new OwnLabel(I18n.txt("gui.debug.update.mode"), skin, "hud")).right().padRight(pad10);
+        updateTable.add(debugUpdateMode).right();
+
+        Label updateLabel = new OwnLabel(I18n.txt("gui.debug.update"), skin, "hud-big");
+        updateLabel.addListener(new OwnTextTooltip(I18n.txt("gui.debug.update.info"), skin));
+        updateLabel.setColor(skin.getColor("theme"));
+        extra.add(updateTable).right().padRight(pad10).padBottom(pad20);
+        extra.add(updateLabel).left().padBottom(pad20);
+        extra.row();
+
         /* OCTANTS */
         debugOcObserved = new OwnLabel("", skin, "hud");
         debugOcQueue = new OwnLabel("", skin, "hud");
+        debugOcMemory = new OwnLabel("", skin, "hud");
         queueStatus = new OwnSlider(0, 100, 1, false, skin, "default-horizontal");
         queueStatus.setValue(0);
 
         Table octantsTable = new Table(skin);
         octantsTable.add(new OwnLabel(I18n.txt("gui.debug.lod.observed"), skin, "hud")).right().padRight(pad10);
         octantsTable.add(debugOcObserved).right().row();
-        octantsTable.add(new OwnLabel(I18n.txt("gui.debug.lod.queue"), skin, "hud")).right().padRight(pad10).padBottom(pad05);
-        octantsTable.add(debugOcQueue).right().padBottom(pad05).row();
+        octantsTable.add(new OwnLabel(I18n.txt("gui.debug.lod.queue"), skin, "hud")).right().padRight(pad10);
+        octantsTable.add(debugOcQueue).right().row();
+        octantsTable.add(new OwnLabel(I18n.txt("gui.debug.lod.memory"), skin, "hud")).right().padRight(pad10).padBottom(pad05);
+        octantsTable.add(debugOcMemory).right().padBottom(pad05).row();
         octantsTable.add(queueStatus).center().colspan(2).padTop(pad05);
 
         Label lodLabel = new OwnLabel(I18n.txt("gui.debug.lod"), skin, "hud-big");
@@ -256,7 +279,7 @@ public class DebugInterface extends TableGuiInterface implements IObserver {
 
         this.setVisible(GlobalConf.program.SHOW_DEBUG_INFO);
         this.lock = lock;
-        EventManager.instance.subscribe(this, Events.DEBUG_TIME, Events.DEBUG_RAM, Events.DEBUG_VRAM, Events.DEBUG_OBJECTS, Events.DEBUG_QUEUE, Events.FPS_INFO, Events.SHOW_DEBUG_CMD, Events.SAMP_INFO);
+        EventManager.instance.subscribe(this, Events.DEBUG_TIME, Events.DEBUG_RAM, Events.DEBUG_VRAM, Events.DEBUG_OBJECTS, Events.DEBUG_UPDATE, Events.DEBUG_QUEUE, Events.FPS_INFO, Events.SHOW_DEBUG_CMD, Events.SAMP_INFO);
     }
 
     private void unsubscribe() {
@@ -327,6 +350,14 @@ public class DebugInterface extends TableGuiInterface implements IObserver {
                     debugObjectsLoaded.setText(loaded);
                 }
                 break;
+            case DEBUG_UPDATE:
+                if (GlobalConf.program.SHOW_DEBUG_INFO && data.length > 1) {
+                    double ms = (Double) data[0];
+                    int threads = (Integer) data[1];
+                    debugUpdateTime.setText(spfFormatter.format(ms) + " " + I18n.txt("gui.debug.ms"));
+                    debugUpdateMode.setText(threads > 0 ? I18n.txt("gui.debug.update.parallel", threads) : I18n.txt("gui.debug.update.serial"));
+                }
+                break;
             case DEBUG_QUEUE:
                 if (GlobalConf.program.SHOW_DEBUG_INFO && data.length > 0) {
                     int observed = (Integer) data[0];
@@ -334,6 +365,15 @@ public class DebugInterface extends TableGuiInterface implements IObserver {
                     // Text
                     debugOcObserved.setText(observed);
                     debugOcQueue.setText(queueSize);
+                    if (data.length > 3) {
+                        double used = (Double) data[2];
+                        double budget = (Double) data[3];
+                        if (used >= 0) {
+                            String unit = " " + I18n.txt("gui.debug.ram.unit");
+                            debugOcMemory.setText(memFormatter.format(used) + "/" + memFormatter.format(budget) + unit);
+                            debugOcMemory.setColor(getColor(used, budget));
+                        }
+                    }
 
                     // Slider
                     if (previousQueueSize < queueSize) {
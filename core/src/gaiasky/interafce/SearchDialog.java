@@ -17,7 +17,10 @@ import com.badlogic.gdx.scenes.scene2d.ui.Skin;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.utils.Align;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Timer;
+import com.badlogic.gdx.utils.Timer.Task;
 import gaiasky.GaiaSky;
+import gaiasky.data.StreamingOctreeLoader;
 import gaiasky.event.EventManager;
 import gaiasky.event.Events;
 import gaiasky.scenegraph.IFocus;
@@ -36,6 +39,10 @@ import gaiasky.util.scene2d.OwnTextField;
 public class SearchDialog extends GenericDialog {
     private static final Log logger = Logger.getLogger(SearchDialog.class);
 
+    /** Checks of whether a star being loaded is in the scene graph, and their interval in seconds **/
+    private static final int LOAD_TRIES = 200;
+    private static final float LOAD_INTERVAL_S = 0.1f;
+
     private OwnTextField searchInput;
     private String currentInputText = "";
     private Cell<OwnLabel> infoCell;
@@ -98,6 +105,9 @@ public class SearchDialog extends GenericDialog {
                         if(cIdx >= 0){
                             checkString(searchInput.getText(), sg);
                         }
+                        if (code == Keys.ENTER) {
+                            loadObject(searchInput.getText(), sg);
+                        }
                         removeCandidates();
                         me.remove();
                         return true;
@@ -250,6 +260,41 @@ public class SearchDialog extends GenericDialog {
         return false;
     }
 
+    /**
+     * Loads the star with the given name if it is in a LOD catalog and is not loaded yet, and
+     * focuses it once it is loaded
+     *
+     * @param text The name
+     * @param sg   The scene graph
+     */
+    private void loadObject(String text, ISceneGraph sg) {
+        String name = text.toLowerCase().trim();
+        if (name.isEmpty() || sg.containsNode(name) || (name.matches("[0-9]+") && sg.containsNode("hip " + name)))
+            return;
+        String key;
+        if (StreamingOctreeLoader.loadObject(name)) {
+            key = name;
+        } else if (name.matches("[0-9]+") && StreamingOctreeLoader.loadObject("hip " + name)) {
+            key = "hip " + name;
+        } else {
+            return;
+        }
+        logger.info(I18n.txt("gui.objects.search.loading", text));
+        Timer.schedule(new Task() {
+            int tries = 0;
+
+            @Override
+            public void run() {
+                if (sg.containsNode(key)) {
+                    cancel();
+                    checkString(key, sg);
+                } else if (++tries >= LOAD_TRIES) {
+                    cancel();
+                }
+            }
+        }, LOAD_INTERVAL_S, LOAD_INTERVAL_S);
+    }
+
     private void info(String info) {
         if (info == null) {
             infoMessage.setText("");
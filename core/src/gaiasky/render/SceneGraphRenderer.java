@@ -246,8 +246,25 @@ public class SceneGraphRenderer extends AbstractRenderer implements IProcessRend
         instance.initialize(manager);
     }
 
+    /** Render lists of the tasks of the parallel update, confined to the thread running each task **/
+    private static final ThreadLocal<Array<Array<IRenderable>>> threadRenderLists = new ThreadLocal<>();
+
     public static Array<Array<IRenderable>> renderLists(){
-        return instance.renderLists;
+        Array<Array<IRenderable>> lists = threadRenderLists.get();
+        return lists != null ? lists : instance.renderLists;
+    }
+
+    /**
+     * Sets the render lists returned by {@link #renderLists()} in the calling thread, so that
+     * the tasks of the parallel update do not add to the shared lists. Null restores the shared lists.
+     *
+     * @param lists The render lists of the calling thread, or null
+     * @return The render lists of the calling thread before the call
+     */
+    public static Array<Array<IRenderable>> setThreadRenderLists(Array<Array<IRenderable>> lists) {
+        Array<Array<IRenderable>> previous = threadRenderLists.get();
+        threadRenderLists.set(lists);
+        return previous;
     }
 
     /**
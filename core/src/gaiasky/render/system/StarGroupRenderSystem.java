@@ -144,7 +144,8 @@ public class StarGroupRenderSystem extends ImmediateRenderSystem implements IObs
                             int nadded = 0;
                             for (int i = 0; i < n; i++) {
                                 if (starGroup.filter(i)) {
-                                    IParticleRecord sb = starGroup.data().get(i);
+                                    // Reused view, no object per star
+                                    IParticleRecord sb = starGroup.cursor(i);
                                     if (!Double.isFinite(sb.size())) {
                                         logger.debug("Star " + sb.id() + " has a non-finite size");
                                         continue;
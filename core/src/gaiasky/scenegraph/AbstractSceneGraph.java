@@ -13,6 +13,7 @@ import gaiasky.scenegraph.particle.IParticleRecord;
 import gaiasky.util.I18n;
 import gaiasky.util.Logger;
 import gaiasky.util.Logger.Log;
+import gaiasky.util.ds.SearchIndex;
 import gaiasky.util.math.Vector3d;
 import gaiasky.util.time.ITimeFrameProvider;
 import gaiasky.util.tree.IPosition;
@@ -26,6 +27,8 @@ public abstract class AbstractSceneGraph implements ISceneGraph {
     public SceneGraphNode root;
     /** Quick lookup map. Name to node. **/
     protected ObjectMap<String, SceneGraphNode> stringToNode;
+    /** Search index with the names of the lookup map, kept up to date by it **/
+    protected SearchIndex<SceneGraphNode> searchIndex;
     /**
      * Map from integer to position with all Hipparcos stars, for the
      * constellations
@@ -72,7 +75,8 @@ public abstract class AbstractSceneGraph implements ISceneGraph {
         this.hasStarGroup = hasStarGroup;
 
         // Initialize stringToNode and starMap maps
-        stringToNode = new ObjectMap<>(nodes.size);
+        searchIndex = new SearchIndex<>();
+        stringToNode = new IndexedMap(nodes.size);
         stringToNode.put(root.names[0].toLowerCase().trim(), root);
         hipMap = new ObjectMap<>();
         for (SceneGraphNode node : nodes) {
@@ -247,32 +251,10 @@ public abstract class AbstractSceneGraph implements ISceneGraph {
     }
 
     public void matchingFocusableNodes(String name, Array<String> results, int maxResults) {
-        synchronized (stringToNode) {
-            ObjectMap.Keys<String> keys = new ObjectMap.Keys<>(stringToNode);
-            name = name.toLowerCase().trim();
-
-            int i = 0;
-            // Starts with
-            for (String key : keys) {
-                SceneGraphNode sgn = stringToNode.get(key);
-                if (sgn instanceof IFocus && key.startsWith(name)) {
-                    results.add(key);
-                    i++;
-                }
-                if (i >= maxResults)
-                    return;
-            }
-            // Contains
-            for (String key : keys) {
-                SceneGraphNode sgn = stringToNode.get(key);
-                if (sgn instanceof IFocus && key.contains(name)) {
-                    results.add(key);
-                    i++;
-                }
-                if (i >= maxResults)
-                    return;
-            }
-        }
+        // The search index has its own lock, so this does not block the loading of names
+        List<String> keys = searchIndex.search(name.toLowerCase().trim(), maxResults, sgn -> sgn instanceof IFocus);
+        for (String key : keys)
+            results.add(key);
     }
 
     public boolean containsNode(String name) {
@@ -362,4 +344,36 @@ public abstract class AbstractSceneGraph implements ISceneGraph {
         }
         return null;
     }
+
+    /**
+     * Lookup map which adds and removes its names in the search index too, with the search
+     * rank of the nodes
+     */
+    private class IndexedMap extends ObjectMap<String, SceneGraphNode> {
+
+        IndexedMap(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        @Override
+        public SceneGraphNode put(String key, SceneGraphNode value) {
+            SceneGraphNode old = super.put(key, value);
+            searchIndex.put(key, value, value.getSearchRank(key));
+            return old;
+        }
+
+        @Override
+        public SceneGraphNode remove(String key) {
+            SceneGraphNode old = super.remove(key);
+            if (old != null)
+                searchIndex.remove(key);
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            searchIndex.clear();
+        }
+    }
 }
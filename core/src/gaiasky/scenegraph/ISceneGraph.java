@@ -54,6 +54,13 @@ public interface ISceneGraph extends Disposable {
      */
     void update(ITimeFrameProvider time, ICamera camera);
 
+    /**
+     * Returns the smoothed time of the update of the scene graph in the last frames
+     *
+     * @return The update time in milliseconds
+     */
+    double getUpdateMs();
+
     /**
      * Returns focusable nodes matching the given string, to a maximum
      * of 10
@@ -64,7 +71,9 @@ public interface ISceneGraph extends Disposable {
 
     /**
      * Returns focusable nodes matching the given string, to a maximum
-     * of <code>maxResults</code>
+     * of <code>maxResults</code>. Names starting with the string go first,
+     * then names containing it, each sorted by search rank (single objects,
+     * then stars by brightness, then other particles) and name
      * @param str The name
      * @param results The results
      * @param maxResults The maximum number of results
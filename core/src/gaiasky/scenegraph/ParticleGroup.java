@@ -32,6 +32,7 @@ import gaiasky.scenegraph.component.RotationComponent;
 import gaiasky.scenegraph.particle.IParticleRecord;
 import gaiasky.util.*;
 import gaiasky.util.CatalogInfo.CatalogInfoType;
+import gaiasky.util.Logger.Log;
 import gaiasky.util.coord.Coordinates;
 import gaiasky.util.ds.DatasetUpdater;
 import gaiasky.util.filter.attrib.IAttribute;
@@ -40,9 +41,14 @@ import gaiasky.util.gdx.shader.ExtShaderProgram;
 import gaiasky.util.gravwaves.RelativisticEffectsManager;
 import gaiasky.util.math.*;
 import gaiasky.util.time.ITimeFrameProvider;
+import gaiasky.util.tree.ParticleKdTree;
 import net.jafama.FastMath;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 /**
  * This class represents a group of non-focusable particles, all with the same
@@ -54,9 +60,10 @@ import java.util.*;
  * @author tsagrista
  */
 public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus, IObserver {
+    private static final Log logger = Logger.getLogger(ParticleGroup.class);
 
     // Sequence id
-    private static long idSeq = 0;
+    private static final AtomicLong idSeq = new AtomicLong(0);
 
     /**
      * List that contains the point data. It contains only [x y z]
@@ -178,17 +185,17 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
     // Metadata, for sorting - holds distances from each particle to the camera, squared
     protected double[] metadata;
 
-    // Comparator
-    private final Comparator<Integer> comp;
+    // Sorts the indices by metadata
+    protected IndexSorter sorter;
 
     // Indices list buffer 1
-    protected Integer[] indices1;
+    protected int[] indices1;
     // Indices list buffer 2
-    protected Integer[] indices2;
+    protected int[] indices2;
     // Active indices list
-    protected Integer[] active;
+    protected int[] active;
     // Background indices list (the one we sort)
-    protected Integer[] background;
+    protected int[] background;
 
     // Is it updating?
     protected volatile boolean updating = false;
@@ -196,21 +203,30 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
     // Updater task
     protected UpdaterTask updaterTask;
 
+    // Below this number of particles, the metadata is computed in the calling thread
+    protected static final int PARALLEL_METADATA_THRESHOLD = 1 << 15;
+
+    // Below this number of particles, the picking tests all the particles without a spatial index
+    protected static final int PICK_INDEX_THRESHOLD = 1 << 12;
+
+    // Spatial index for the picking, and the data it was built for. Null until it is needed
+    private ParticleKdTree pickIndex;
+    private List<IParticleRecord> pickIndexData;
+    // Data of the spatial index being built, if any
+    private List<IParticleRecord> pickIndexPending;
+
+    // Best hit of the picking, and its angle
+    private int hitIndex;
+    private double hitAngle;
+
+    // Duration of the last metadata update and sort, in ms
+    protected volatile double lastMetadataMs, lastSortMs;
+
     // Camera dx threshold
     protected static final double CAM_DX_TH = 100 * Constants.PC_TO_U;
     // Last sort position
     protected Vector3d lastSortCameraPos;
 
-    /**
-     * User order in metadata arrays to compare indices
-     */
-    private class ParticleGroupComparator implements Comparator<Integer> {
-        @Override
-        public int compare(Integer i1, Integer i2) {
-            return Double.compare(metadata[i1], metadata[i2]);
-        }
-    }
-
     // Updates the group
     public class UpdaterTask implements Runnable {
 
@@ -229,7 +245,7 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
 
     public ParticleGroup() {
         super();
-        id = idSeq++;
+        id = idSeq.getAndIncrement();
         inGpu = false;
         focusIndex = -1;
         closestPos = new Vector3d();
@@ -237,7 +253,6 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
         focusPosition = new Vector3d();
         focusPositionSph = new Vector2d();
         lastSortCameraPos = new Vector3d(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
-        this.comp = new ParticleGroupComparator();
         EventManager.instance.subscribe(this, Events.FOCUS_CHANGED, Events.CAMERA_MOTION_UPDATE);
     }
 
@@ -282,29 +297,32 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
         meanDistance = 0;
         maxDistance = Double.MIN_VALUE;
         minDistance = Double.MAX_VALUE;
-        List<Double> distances = new ArrayList<>();
-        for (IParticleRecord point : pointData) {
+        int n = pointData.size();
+        double[] distances = new double[n];
+        int nDistances = 0;
+        for (int i = 0; i < n; i++) {
             // Add sample to mean distance
-            double dist = len(point.x(), point.y(), point.z());
+            double dist = len(getX(i), getY(i), getZ(i));
             if (Double.isFinite(dist)) {
-                distances.add(dist);
+                distances[nDistances++] = dist;
                 maxDistance = Math.max(maxDistance, dist);
                 minDistance = Math.min(minDistance, dist);
             }
         }
         // Mean is computed as half of the 90th percentile to avoid outliers
-        distances.sort(Double::compare);
-        int idx = (int) Math.ceil((90d / 100d) * (double) distances.size());
-        meanDistance = distances.get(idx - 1) / 2d;
+        Arrays.sort(distances, 0, nDistances);
+        int idx = (int) Math.ceil((90d / 100d) * (double) nDistances);
+        meanDistance = distances[idx - 1] / 2d;
     }
 
     public void computeMeanPosition() {
         if (!fixedMeanPosition) {
             // Mean position
-            for (IParticleRecord point : data()) {
-                pos.add(point.x(), point.y(), point.z());
+            int n = pointData.size();
+            for (int i = 0; i < n; i++) {
+                pos.add(getX(i), getY(i), getZ(i));
             }
-            pos.scl(1d / pointData.size());
+            pos.scl(1d / n);
         }
     }
 
@@ -328,14 +346,15 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
         metadata = new double[pointData.size()];
 
         // Initialise indices list with natural order
-        indices1 = new Integer[pointData.size()];
-        indices2 = new Integer[pointData.size()];
+        indices1 = new int[pointData.size()];
+        indices2 = new int[pointData.size()];
         for (int i = 0; i < pointData.size(); i++) {
             indices1[i] = i;
             indices2[i] = i;
         }
         active = indices1;
         background = indices2;
+        sorter = new IndexSorter(GlobalConf.performance.MULTITHREADING ? ForkJoinPool.commonPool().getParallelism() : 1);
 
         // Initialize updater task
         updaterTask = new UpdaterTask(this);
@@ -356,6 +375,7 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
 
     public void setData(List<IParticleRecord> pointData, boolean regenerateIndex) {
         this.pointData = pointData;
+        invalidatePickIndex();
 
         // Regenerate index
         if (regenerateIndex)
@@ -411,10 +431,58 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
         }
     }
 
+    @Override
+    public float getSearchRank(String name) {
+        Integer i = index != null ? index.get(name) : null;
+        return i != null ? getParticleSearchRank(i) : super.getSearchRank(name);
+    }
+
+    /**
+     * Rank of the particle at the given index in the search results. Particles have no
+     * magnitude, so they go after the stars.
+     *
+     * @param i The index
+     * @return The rank
+     */
+    protected float getParticleSearchRank(int i) {
+        return 30f;
+    }
+
     public IParticleRecord get(int index) {
         return pointData.get(index);
     }
 
+    /**
+     * Returns the x coordinate of the particle at the given index. Groups with
+     * primitive storage override this to avoid going through the record objects.
+     *
+     * @param i The index
+     * @return The x coordinate, in internal units
+     */
+    public double getX(int i) {
+        return pointData.get(i).x();
+    }
+
+    /**
+     * Returns the y coordinate of the particle at the given index.
+     *
+     * @param i The index
+     * @return The y coordinate, in internal units
+     */
+    public double getY(int i) {
+        return pointData.get(i).y();
+    }
+
+    /**
+     * Returns the z coordinate of the particle at the given index.
+     *
+     * @param i The index
+     * @return The z coordinate, in internal units
+     */
+    public double getZ(int i) {
+        return pointData.get(i).z();
+    }
+
     /**
      * Gets the name of a random particle in this group
      *
@@ -446,8 +514,7 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
             geomCentre = new Vector3d(0, 0, 0);
             int n = pointData.size();
             for (int i = 0; i < n; i++) {
-                IParticleRecord pb = pointData.get(i);
-                geomCentre.add(pb.x(), pb.y(), pb.z());
+                geomCentre.add(getX(i), getY(i), getZ(i));
             }
             geomCentre.scl(1d / (double) n);
         }
@@ -829,62 +896,38 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
     public void addHit(int screenX, int screenY, int w, int h, int pxdist, NaturalCamera camera, Array<IFocus> hits) {
         int n = pointData.size();
         if (GaiaSky.instance.isOn(ct) && this.opacity > 0) {
-            Array<Pair<Integer, Double>> temporalHits = new Array<>();
-            for (int i = 0; i < n; i++) {
-                if (filter(i)) {
-                    IParticleRecord pb = pointData.get(i);
-                    Vector3 pos = aux3f1.get();
-                    Vector3d posd = fetchPosition(pb, camera.getPos(), aux3d1.get(), getDeltaYears());
-                    pos.set(posd.valuesf());
-
-                    if (camera.direction.dot(posd) > 0) {
-                        // The particle is in front of us
-                        // Diminish the size of the star
-                        // when we are close by
-                        double dist = posd.len();
-                        double angle = getRadius(i) / dist / camera.getFovFactor();
-
-                        PerspectiveCamera pcamera;
-                        if (GlobalConf.program.STEREOSCOPIC_MODE) {
-                            if (screenX < Gdx.graphics.getWidth() / 2f) {
-                                pcamera = camera.getCameraStereoLeft();
-                                pcamera.update();
-                            } else {
-                                pcamera = camera.getCameraStereoRight();
-                                pcamera.update();
-                            }
-                        } else {
-                            pcamera = camera.camera;
-                        }
-
-                        angle = (float) Math.toDegrees(angle * camera.fovFactor) * (40f / pcamera.fieldOfView);
-                        double pixelSize = Math.max(pxdist, ((angle * pcamera.viewportHeight) / pcamera.fieldOfView) / 2);
-                        pcamera.project(pos);
-                        pos.y = pcamera.viewportHeight - pos.y;
-                        if (GlobalConf.program.STEREOSCOPIC_MODE) {
-                            pos.x /= 2;
-                        }
-
-                        // Check click distance
-                        if (pos.dst(screenX % pcamera.viewportWidth, screenY, pos.z) <= pixelSize) {
-                            //Hit
-                            temporalHits.add(new Pair<>(i, angle));
-                        }
-                    }
+            hitIndex = -1;
+            ParticleKdTree index = GlobalConf.program.STEREOSCOPIC_MODE ? null : getPickIndex();
+            if (index != null) {
+                // Only test the particles close to the ray of the click. The pixel distance to the click is
+                // at least the angle to the ray times the focal length in pixels, so the cone is conservative
+                PerspectiveCamera pcamera = camera.camera;
+                Vector3d dir = aux3d1.get().set(pcamera.direction.x, pcamera.direction.y, pcamera.direction.z).nor();
+                Vector3d up = aux3d2.get().set(pcamera.up.x, pcamera.up.y, pcamera.up.z);
+                Vector3d right = aux3d3.get().set(dir).crs(up).nor();
+                up.set(right).crs(dir).nor();
+                double tan = Math.tan(Math.toRadians(pcamera.fieldOfView) / 2);
+                double aspect = pcamera.viewportWidth / pcamera.viewportHeight;
+                // The projection of the camera uses the size of the window
+                int ww = Gdx.graphics.getWidth(), wh = Gdx.graphics.getHeight();
+                double x = (2d * (screenX % pcamera.viewportWidth) / ww - 1) * tan * aspect;
+                double y = (2d * (pcamera.viewportHeight - screenY) / wh - 1) * tan;
+                dir.add(right.scl(x)).add(up.scl(y));
+                double focal = Math.min(ww / (2 * tan * aspect), wh / (2 * tan));
+                // Apparent radius in pixels per radian of angular radius
+                double radiusPixels = Math.toDegrees(1) * (40f / pcamera.fieldOfView) * pcamera.viewportHeight / pcamera.fieldOfView / 2;
+
+                Vector3d campos = camera.getPos();
+                index.cone(campos.x, campos.y, campos.z, dir.x, dir.y, dir.z, pxdist / focal, radiusPixels / focal, getPickRadiusScale(), getDeltaYears(), i -> screenHit(i, screenX, screenY, pxdist, camera));
+            } else {
+                for (int i = 0; i < n; i++) {
+                    screenHit(i, screenX, screenY, pxdist, camera);
                 }
             }
 
-            Pair<Integer, Double> best = null;
-            for (Pair<Integer, Double> hit : temporalHits) {
-                if (best == null)
-                    best = hit;
-                else if (hit.getSecond() > best.getSecond()) {
-                    best = hit;
-                }
-            }
-            if (best != null) {
+            if (hitIndex >= 0) {
                 // We found the best hit
-                candidateFocusIndex = best.getFirst();
+                candidateFocusIndex = hitIndex;
                 updateFocusDataPos();
                 hits.add(this);
                 return;
@@ -895,43 +938,72 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
         updateFocusDataPos();
     }
 
-    public void addHit(Vector3d p0, Vector3d p1, NaturalCamera camera, Array<IFocus> hits) {
-        int n = pointData.size();
-        if (GaiaSky.instance.isOn(ct) && this.opacity > 0) {
-            Vector3d beamDir = new Vector3d();
-            Array<Pair<Integer, Double>> temporalHits = new Array<Pair<Integer, Double>>();
-            for (int i = 0; i < n; i++) {
-                if (filter(i)) {
-                    IParticleRecord pb = pointData.get(i);
-                    Vector3d posd = fetchPosition(pb, camera.getPos(), aux3d1.get(), getDeltaYears());
-                    beamDir.set(p1).sub(p0);
-                    if (camera.direction.dot(posd) > 0) {
-                        // The star is in front of us
-                        // Diminish the size of the star
-                        // when we are close by
-                        double dist = posd.len();
-                        double angle = getRadius(i) / dist / camera.getFovFactor();
-                        double distToLine = Intersectord.distanceLinePoint(p0, p1, posd);
-                        double value = distToLine / dist;
-
-                        if (value < 0.01) {
-                            temporalHits.add(new Pair<Integer, Double>(i, angle));
-                        }
+    /**
+     * Tests whether the particle at the given index is under the click, and keeps it if it is the
+     * best hit so far. Ties go to the lowest index, so the result does not depend on the order of
+     * the tests.
+     */
+    private void screenHit(int i, int screenX, int screenY, int pxdist, NaturalCamera camera) {
+        if (filter(i)) {
+            Vector3 pos = aux3f1.get();
+            Vector3d posd = fetchPosition(i, camera.getPos(), aux3d1.get(), getDeltaYears());
+            pos.set(posd.valuesf());
+
+            if (camera.direction.dot(posd) > 0) {
+                // The particle is in front of us
+                // Diminish the size of the star
+                // when we are close by
+                double dist = posd.len();
+                double angle = getRadius(i) / dist / camera.getFovFactor();
+
+                PerspectiveCamera pcamera;
+                if (GlobalConf.program.STEREOSCOPIC_MODE) {
+                    if (screenX < Gdx.graphics.getWidth() / 2f) {
+                        pcamera = camera.getCameraStereoLeft();
+                        pcamera.update();
+                    } else {
+                        pcamera = camera.getCameraStereoRight();
+                        pcamera.update();
                     }
+                } else {
+                    pcamera = camera.camera;
+                }
+
+                angle = (float) Math.toDegrees(angle * camera.fovFactor) * (40f / pcamera.fieldOfView);
+                double pixelSize = Math.max(pxdist, ((angle * pcamera.viewportHeight) / pcamera.fieldOfView) / 2);
+                pcamera.project(pos);
+                pos.y = pcamera.viewportHeight - pos.y;
+                if (GlobalConf.program.STEREOSCOPIC_MODE) {
+                    pos.x /= 2;
+                }
+
+                // Check click distance
+                if (pos.dst(screenX % pcamera.viewportWidth, screenY, pos.z) <= pixelSize) {
+                    //Hit
+                    keepHit(i, angle);
                 }
             }
+        }
+    }
 
-            Pair<Integer, Double> best = null;
-            for (Pair<Integer, Double> hit : temporalHits) {
-                if (best == null)
-                    best = hit;
-                else if (hit.getSecond() > best.getSecond()) {
-                    best = hit;
+    public void addHit(Vector3d p0, Vector3d p1, NaturalCamera camera, Array<IFocus> hits) {
+        int n = pointData.size();
+        if (GaiaSky.instance.isOn(ct) && this.opacity > 0) {
+            hitIndex = -1;
+            ParticleKdTree index = getPickIndex();
+            if (index != null) {
+                // Only test the particles close to the beam
+                Vector3d campos = camera.getPos();
+                index.line(campos.x, campos.y, campos.z, p0.x, p0.y, p0.z, p1.x, p1.y, p1.z, 0.01, getDeltaYears(), i -> lineHit(i, p0, p1, camera));
+            } else {
+                for (int i = 0; i < n; i++) {
+                    lineHit(i, p0, p1, camera);
                 }
             }
-            if (best != null) {
+
+            if (hitIndex >= 0) {
                 // We found the best hit
-                candidateFocusIndex = best.getFirst();
+                candidateFocusIndex = hitIndex;
                 updateFocusDataPos();
                 hits.add(this);
                 return;
@@ -942,6 +1014,121 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
         updateFocusDataPos();
     }
 
+    /**
+     * Tests whether the particle at the given index is close to the beam p0-p1, and keeps it if it
+     * is the best hit so far
+     */
+    private void lineHit(int i, Vector3d p0, Vector3d p1, NaturalCamera camera) {
+        if (filter(i)) {
+            Vector3d posd = fetchPosition(i, camera.getPos(), aux3d1.get(), getDeltaYears());
+            if (camera.direction.dot(posd) > 0) {
+                // The star is in front of us
+                // Diminish the size of the star
+                // when we are close by
+                double dist = posd.len();
+                double angle = getRadius(i) / dist / camera.getFovFactor();
+                double distToLine = Intersectord.distanceLinePoint(p0, p1, posd);
+                double value = distToLine / dist;
+
+                if (value < 0.01) {
+                    keepHit(i, angle);
+                }
+            }
+        }
+    }
+
+    private void keepHit(int i, double angle) {
+        if (hitIndex < 0 || angle > hitAngle || (angle == hitAngle && i < hitIndex)) {
+            hitIndex = i;
+            hitAngle = angle;
+        }
+    }
+
+    /**
+     * Gets the spatial index of the particles for the picking. The index is built in the
+     * background the first time it is needed for the current data, and until it is ready
+     * this returns null and the picking tests all the particles.
+     *
+     * @return The index, or null if it is not ready or the group is too small to need one
+     */
+    protected synchronized ParticleKdTree getPickIndex() {
+        List<IParticleRecord> data = pointData;
+        if (data == null || data.size() < PICK_INDEX_THRESHOLD)
+            return null;
+        if (pickIndexData == data)
+            return pickIndex;
+        if (pickIndexPending != data) {
+            pickIndexPending = data;
+            ParticleKdTree.Source source = getPickIndexSource(data);
+            ForkJoinPool.commonPool().execute(() -> {
+                ParticleKdTree index = null;
+                try {
+                    long start = TimeUtils.millis();
+                    index = new ParticleKdTree(data.size(), source);
+                    logger.debug(I18n.txt("notif.pickindex.built", getName(), data.size(), TimeUtils.millis() - start));
+                } catch (Exception e) {
+                    logger.error(e);
+                }
+                setPickIndex(data, index);
+            });
+        }
+        return null;
+    }
+
+    private synchronized void setPickIndex(List<IParticleRecord> data, ParticleKdTree index) {
+        if (pickIndexPending == data)
+            pickIndexPending = null;
+        if (pointData == data && index != null) {
+            pickIndex = index;
+            pickIndexData = data;
+        }
+    }
+
+    /**
+     * Drops the spatial index of the picking, which is built again for the new data when needed
+     */
+    protected synchronized void invalidatePickIndex() {
+        pickIndex = null;
+        pickIndexData = null;
+    }
+
+    /**
+     * Gets the data of the particles for the spatial index of the picking. It is read
+     * in a background thread, so it must not use the state of the group, only the given data.
+     * The radius of particle i must be its size times {@link #getPickRadiusScale()}.
+     *
+     * @param data The data of the group
+     * @return The source of the index
+     */
+    protected ParticleKdTree.Source getPickIndexSource(List<IParticleRecord> data) {
+        return new ParticleKdTree.Source() {
+            @Override
+            public double x(int i) {
+                return data.get(i).x();
+            }
+
+            @Override
+            public double y(int i) {
+                return data.get(i).y();
+            }
+
+            @Override
+            public double z(int i) {
+                return data.get(i).z();
+            }
+        };
+    }
+
+    /**
+     * The factor from the sizes of the spatial index of the picking to the radii of the particles
+     *
+     * @return The radius scale
+     */
+    protected double getPickRadiusScale() {
+        // All particles have the same radius
+        return getRadius();
+    }
+
     @Override
     public void notify(final Events event, final Object... data) {
         switch (event) {
@@ -1070,6 +1257,22 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
             return destination.set(pb.x(), pb.y(), pb.z());
     }
 
+    /**
+     * Fetches the real position of the particle at the given index. Same as
+     * {@link #fetchPosition(IParticleRecord, Vector3d, Vector3d, double)}, but
+     * groups with primitive storage can override it to avoid going through the
+     * record objects.
+     *
+     * @param i           The index of the particle
+     * @param campos      The position of the camera, or null
+     * @param destination The destination factor
+     * @param deltaYears  The delta years
+     * @return The vector for chaining
+     */
+    protected Vector3d fetchPosition(int i, Vector3d campos, Vector3d destination, double deltaYears) {
+        return fetchPosition(pointData.get(i), campos, destination, deltaYears);
+    }
+
     public double getMeanDistance() {
         return meanDistance;
     }
@@ -1192,6 +1395,46 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
         return true;
     }
 
+    /**
+     * Takes a snapshot of the filter of the catalog of this group, if any, to
+     * evaluate it in parallel loops. See {@link gaiasky.util.filter.Filter#compile()}.
+     *
+     * @return The filter predicate, or null if there is no filter
+     */
+    protected Predicate<IParticleRecord> compileFilter() {
+        if (catalogInfo != null && catalogInfo.filter != null) {
+            return catalogInfo.filter.compile();
+        }
+        return null;
+    }
+
+    /**
+     * A task over a range of particle indices
+     */
+    protected interface IndexRangeTask {
+        /**
+         * @param from The first index, inclusive
+         * @param to   The last index, exclusive
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Splits the range [0, n) in chunks and runs the task on them, in parallel in the
+     * fork-join common pool if multithreading is on and the range is large enough.
+     *
+     * @param n    The number of indices
+     * @param task The task
+     */
+    protected void forEachChunk(int n, IndexRangeTask task) {
+        int chunks = GlobalConf.performance.MULTITHREADING && n >= PARALLEL_METADATA_THRESHOLD ? ForkJoinPool.commonPool().getParallelism() : 1;
+        if (chunks > 1) {
+            IntStream.range(0, chunks).parallel().forEach(c -> task.run((int) ((long) n * c / chunks), (int) ((long) n * (c + 1) / chunks)));
+        } else {
+            task.run(0, n);
+        }
+    }
+
     /**
      * Creates a default particle group with some parameters, given the name and data
      *
@@ -1238,21 +1481,33 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
      */
     public void updateMetadata(ITimeFrameProvider time, ICamera camera) {
         Vector3d camPos = camera.getPos();
-        int n = pointData.size();
-        for (int i = 0; i < n; i++) {
-            IParticleRecord d = pointData.get(i);
-            // Pos
-            Vector3d x = aux3d1.get().set(d.x(), d.y(), d.z());
-            metadata[i] = filter(i) ? camPos.dst2(x) : Double.MAX_VALUE;
-        }
+        double cx = camPos.x, cy = camPos.y, cz = camPos.z;
+        Predicate<IParticleRecord> filter = compileFilter();
+        forEachChunk(pointData.size(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                // Pos
+                double dx = getX(i) - cx;
+                double dy = getY(i) - cy;
+                double dz = getZ(i) - cz;
+                metadata[i] = filter == null || filter.test(get(i)) ? dx * dx + dy * dy + dz * dz : Double.MAX_VALUE;
+            }
+        });
     }
 
     public void updateSorter(ITimeFrameProvider time, ICamera camera) {
         // Prepare metadata to sort
+        long start = System.nanoTime();
         updateMetadata(time, camera);
+        long metadataEnd = System.nanoTime();
 
-        // Sort background list of indices
-        Arrays.sort(background, comp);
+        // Sort background list of indices, starting from the last order, which is usually close
+        System.arraycopy(active, 0, background, 0, background.length);
+        boolean incremental = sorter.sortIncremental(metadata, background, background.length);
+        long sortEnd = System.nanoTime();
+
+        lastMetadataMs = (metadataEnd - start) / 1e6;
+        lastSortMs = (sortEnd - metadataEnd) / 1e6;
+        logger.debug(getName() + ": " + background.length + " particles, metadata " + String.format("%.2f", lastMetadataMs) + " ms, sort " + String.format("%.2f", lastSortMs) + " ms" + (incremental ? " (incremental)" : ""));
 
         // Synchronously with the render thread, update indices, lastSortTime and updating state
         GaiaSky.postRunnable(() -> {
@@ -1262,6 +1517,24 @@ public class ParticleGroup extends FadeNode implements I3DTextRenderable, IFocus
         });
     }
 
+    /**
+     * Gets the duration of the last metadata update of this group
+     *
+     * @return The duration in ms
+     */
+    public double getLastMetadataMs() {
+        return lastMetadataMs;
+    }
+
+    /**
+     * Gets the duration of the last sort of this group
+     *
+     * @return The duration in ms
+     */
+    public double getLastSortMs() {
+        return lastSortMs;
+    }
+
     protected void swapBuffers() {
         if (active == indices1) { //-V6013
             active = indices2;
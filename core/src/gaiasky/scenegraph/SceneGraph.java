@@ -5,13 +5,29 @@
 
 package gaiasky.scenegraph;
 
+import com.badlogic.gdx.utils.Array;
+import gaiasky.desktop.concurrent.ThreadPoolManager;
+import gaiasky.desktop.concurrent.UpdaterTask;
 import gaiasky.event.EventManager;
 import gaiasky.event.Events;
 import gaiasky.scenegraph.camera.ICamera;
+import gaiasky.scenegraph.octreewrapper.AbstractOctreeWrapper;
+import gaiasky.util.GlobalConf;
 import gaiasky.util.time.ITimeFrameProvider;
+import gaiasky.util.tree.OctreeNode;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Implementation of a 3D scene graph.
+ * <p>
+ * If the parallel update is on ({@link GlobalConf.PerformanceConf#PARALLEL_UPDATE()}), the
+ * children of the root are split into ranges of about the same update time in the last frame,
+ * which are updated with their subtrees in the pool of {@link ThreadPoolManager}. The update
+ * returns when all ranges are done, before rendering. The subtrees of the children of the root
+ * are assumed to be independent: a node which reads the state of a node of another subtree
+ * (other than its ancestors) may get the state of the previous or of the current frame.
  *
  * @author Toni Sagrista
  */
@@ -19,14 +35,28 @@ public class SceneGraph extends AbstractSceneGraph {
 
     int nobjects = -1;
 
+    /** Tasks of the parallel update, reused every frame **/
+    private final List<UpdaterTask<SceneGraphNode>> tasks = new ArrayList<>();
+    /** Update time of each child of the root in the last frame, in nanoseconds **/
+    private long[] childNanos = new long[0];
+    /** Smoothed update time, in milliseconds **/
+    private double updateMs = 0;
+
     public SceneGraph() {
         super();
     }
 
     public void update(ITimeFrameProvider time, ICamera camera) {
+        long start = System.nanoTime();
         root.translation.set(camera.getInversePos());
-        root.update(time, null, camera);
+        if (GlobalConf.performance.PARALLEL_UPDATE() && ThreadPoolManager.pool != null && root.children != null && root.children.size > 1) {
+            updateParallel(time, camera);
+        } else {
+            root.update(time, null, camera);
+        }
+        sumOctreeCounts();
         objectsPerThread[0] = root.numChildren;
+        updateMs = updateMs * 0.9 + (System.nanoTime() - start) * 1e-7;
 
         if (!hasOctree) {
             if (nobjects < 0)
@@ -35,6 +65,78 @@ public class SceneGraph extends AbstractSceneGraph {
         }
     }
 
+    private void updateParallel(ITimeFrameProvider time, ICamera camera) {
+        // Same as root.update(), with the children in the pool
+        root.opacity = 1f;
+        root.updateLocal(time, camera);
+
+        Array<SceneGraphNode> children = root.children;
+        int n = children.size;
+        if (childNanos.length != n)
+            childNanos = new long[n];
+        int nTasks = Math.min(n, ThreadPoolManager.pool.getCorePoolSize() * 2);
+
+        // Contiguous ranges of about the same time in the last frame, so that renderables and events keep their order
+        long total = 0;
+        for (int i = 0; i < n; i++)
+            total += childNanos[i] + 1;
+        long perTask = total / nTasks + 1;
+        int t = 0, from = 0;
+        long acc = 0;
+        for (int i = 0; i < n; i++) {
+            acc += childNanos[i] + 1;
+            if (acc >= perTask || i == n - 1) {
+                if (t == tasks.size())
+                    tasks.add(new UpdaterTask<>(children, from, i + 1));
+                UpdaterTask<SceneGraphNode> task = tasks.get(t++);
+                task.setNodesToProcess(children);
+                task.setRange(from, i + 1);
+                task.setParameters(camera, time, root.translation, root.opacity);
+                from = i + 1;
+                acc = 0;
+            }
+        }
+        List<UpdaterTask<SceneGraphNode>> active = tasks.subList(0, t);
+
+        ThreadPoolManager.invokeAll(active);
+
+        // Barrier passed, back in the main thread
+        int i = 0;
+        for (UpdaterTask<SceneGraphNode> task : active) {
+            task.flush();
+            for (; i < task.getTo(); i++)
+                childNanos[i] = task.getNanos(i);
+        }
+    }
+
+    /**
+     * Sums the observed octants and objects of the octrees, in the main thread, since
+     * the octrees may have been updated in parallel
+     */
+    private void sumOctreeCounts() {
+        int nOctants = 0, nObjects = 0;
+        if (root.children != null) {
+            for (SceneGraphNode node : root.children) {
+                if (node instanceof AbstractOctreeWrapper) {
+                    AbstractOctreeWrapper octree = (AbstractOctreeWrapper) node;
+                    nOctants += octree.getNOctantsObserved();
+                    nObjects += octree.getNObjectsObserved();
+                }
+            }
+        }
+        OctreeNode.nOctantsObserved = nOctants;
+        OctreeNode.nObjectsObserved = nObjects;
+    }
+
+    /**
+     * Smoothed time of the update of the scene graph in the last frames
+     *
+     * @return The time in milliseconds
+     */
+    public double getUpdateMs() {
+        return updateMs;
+    }
+
     public void dispose() {
         super.dispose();
     }
@@ -876,6 +876,18 @@ public class SceneGraphNode implements IStarContainer, IPosition {
     protected void removeFromIndex(ObjectMap<String, SceneGraphNode> map) {
     }
 
+    /**
+     * Rank of the given name of this node in the search results, lower first. Ranks are on
+     * the scale of apparent magnitudes, so that the stars of groups are ranked by brightness.
+     * Single objects go before them.
+     *
+     * @param name The name, in lower case
+     * @return The rank
+     */
+    public float getSearchRank(String name) {
+        return -30f;
+    }
+
     /**
      * Whether to add this node to the index
      *
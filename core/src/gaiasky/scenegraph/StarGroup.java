@@ -36,6 +36,9 @@ import gaiasky.scenegraph.camera.FovCamera;
 import gaiasky.scenegraph.camera.ICamera;
 import gaiasky.scenegraph.component.ModelComponent;
 import gaiasky.scenegraph.particle.IParticleRecord;
+import gaiasky.scenegraph.particle.ParticleColumnList;
+import gaiasky.scenegraph.particle.ParticleColumnRecord;
+import gaiasky.scenegraph.particle.ParticleColumns;
 import gaiasky.util.*;
 import gaiasky.util.color.ColorUtils;
 import gaiasky.util.coord.AstroUtils;
@@ -48,12 +51,14 @@ import gaiasky.util.gdx.shader.ExtShaderProgram;
 import gaiasky.util.math.MathUtilsd;
 import gaiasky.util.math.Vector3d;
 import gaiasky.util.time.ITimeFrameProvider;
+import gaiasky.util.tree.ParticleKdTree;
 import net.jafama.FastMath;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Predicate;
 
 /**
  * A particle group which additionally to the xyz position, supports color and
@@ -63,6 +68,11 @@ import java.util.TreeMap;
  */
 public class StarGroup extends ParticleGroup implements ILineRenderable, IStarFocus, IQuadRenderable, IModelRenderable, IObserver {
 
+    /**
+     * Size of a star in the vertex buffer, in bytes: position, proper motion, packed colour and size
+     **/
+    public static final int GPU_BYTES_PER_STAR = 8 * Float.BYTES;
+
     /**
      * Star model
      **/
@@ -121,6 +131,16 @@ public class StarGroup extends ParticleGroup implements ILineRenderable, IStarFo
 
     private double modelDist;
 
+    /**
+     * Columnar store backing {@link #pointData}, if any. Hot loops read it directly
+     **/
+    protected ParticleColumns columns;
+
+    /**
+     * Reusable per-thread view for evaluating filters and attributes over the columns
+     **/
+    private static final ThreadLocal<ParticleColumnRecord> cursor = ThreadLocal.withInitial(() -> new ParticleColumnRecord(null, 0));
+
     public StarGroup() {
         super();
         closestPm = new Vector3d();
@@ -153,9 +173,10 @@ public class StarGroup extends ParticleGroup implements ILineRenderable, IStarFo
 
     @Override
     public void doneLoading(AssetManager manager) {
+        toColumnar();
         super.doneLoading(manager);
         initSortingData();
-        initModel();
+        // The model is created in the render thread, doneLoading also runs in the octant decoders
     }
 
     /**
@@ -170,6 +191,64 @@ public class StarGroup extends ParticleGroup implements ILineRenderable, IStarFo
 
     public void setData(List<IParticleRecord> pointData, boolean regenerateIndex) {
         super.setData(pointData, regenerateIndex);
+        this.columns = pointData instanceof ParticleColumnList ? ((ParticleColumnList) pointData).columns() : null;
+    }
+
+    /**
+     * Moves the data of this group to a columnar store, if it is not there yet. The
+     * order of the stars is kept, so the name index stays valid.
+     */
+    public void toColumnar() {
+        if (columns == null && pointData != null) {
+            columns = ParticleColumns.of(pointData);
+            pointData = new ParticleColumnList(columns);
+        }
+    }
+
+    /**
+     * Returns the columnar store backing this group, if any.
+     *
+     * @return The columns, or null if the data is not columnar
+     */
+    public ParticleColumns columns() {
+        return columns;
+    }
+
+    /**
+     * Approximate main memory taken by the stars of this group and their sorting data, in bytes
+     *
+     * @return The size in bytes
+     */
+    public long getCpuBytes() {
+        int n = size();
+        // Metadata, the two index arrays and the sorter buffers
+        long sorting = (long) n * (Double.BYTES + 5 * Integer.BYTES);
+        if (columns != null) {
+            return columns.memoryBytes() + sorting;
+        } else {
+            return (long) n * ParticleColumns.BYTES_PER_STAR * 2 + sorting;
+        }
+    }
+
+    /**
+     * Graphics memory taken by the stars of this group, in bytes. If the group has not
+     * been sent to the GPU yet, this is an estimate of what it will take
+     *
+     * @return The size in bytes
+     */
+    public long getGpuBytes() {
+        return inGpu() ? (long) count * Float.BYTES : (long) size() * GPU_BYTES_PER_STAR;
+    }
+
+    /**
+     * Returns a view of the star at the given index. If the data is columnar, the view
+     * is reused by the calling thread, so references to it must not be kept.
+     *
+     * @param i The index
+     * @return The star
+     */
+    public IParticleRecord cursor(int i) {
+        return columns != null ? cursor.get().moveTo(columns, i) : pointData.get(i);
     }
 
     /**
@@ -360,6 +439,7 @@ public class StarGroup extends ParticleGroup implements ILineRenderable, IStarFo
      */
     @Override
     public void render(IntModelBatch modelBatch, float alpha, double t, RenderingContext rc) {
+        initModel();
         mc.touch();
         float opct = (float) MathUtilsd.lint(closestDist, modelDist / 50f, modelDist, 1f, 0f);
         if (alpha * opct > 0) {
@@ -618,7 +698,132 @@ public class StarGroup extends ParticleGroup implements ILineRenderable, IStarFo
      * @return The size
      */
     public double getSize(int i) {
-        return pointData.get(i).size();
+        return columns != null ? columns.size[i] : pointData.get(i).size();
+    }
+
+    @Override
+    public double getX(int i) {
+        return columns != null ? columns.x[i] : pointData.get(i).x();
+    }
+
+    @Override
+    public double getY(int i) {
+        return columns != null ? columns.y[i] : pointData.get(i).y();
+    }
+
+    @Override
+    public double getZ(int i) {
+        return columns != null ? columns.z[i] : pointData.get(i).z();
+    }
+
+    @Override
+    protected ParticleKdTree.Source getPickIndexSource(List<IParticleRecord> data) {
+        ParticleColumns c = columns;
+        if (c != null) {
+            return new ParticleKdTree.Source() {
+                @Override
+                public double x(int i) {
+                    return c.x[i];
+                }
+
+                @Override
+                public double y(int i) {
+                    return c.y[i];
+                }
+
+                @Override
+                public double z(int i) {
+                    return c.z[i];
+                }
+
+                @Override
+                public boolean hasProperMotions() {
+                    return true;
+                }
+
+                @Override
+                public double pmx(int i) {
+                    return c.pmx[i];
+                }
+
+                @Override
+                public double pmy(int i) {
+                    return c.pmy[i];
+                }
+
+                @Override
+                public double pmz(int i) {
+                    return c.pmz[i];
+                }
+
+                @Override
+                public double size(int i) {
+                    return c.size[i];
+                }
+            };
+        } else {
+            return new ParticleKdTree.Source() {
+                @Override
+                public double x(int i) {
+                    return data.get(i).x();
+                }
+
+                @Override
+                public double y(int i) {
+                    return data.get(i).y();
+                }
+
+                @Override
+                public double z(int i) {
+                    return data.get(i).z();
+                }
+
+                @Override
+                public boolean hasProperMotions() {
+                    return true;
+                }
+
+                @Override
+                public double pmx(int i) {
+                    return data.get(i).pmx();
+                }
+
+                @Override
+                public double pmy(int i) {
+                    return data.get(i).pmy();
+                }
+
+                @Override
+                public double pmz(int i) {
+                    return data.get(i).pmz();
+                }
+
+                @Override
+                public double size(int i) {
+                    return data.get(i).size();
+                }
+            };
+        }
+    }
+
+    @Override
+    protected float getParticleSearchRank(int i) {
+        // Brightest first
+        return columns != null ? columns.appmag[i] : pointData.get(i).appmag();
+    }
+
+    @Override
+    protected double getPickRadiusScale() {
+        // Radius in stars is different!
+        return Constants.STAR_SIZE_FACTOR;
+    }
+
+    @Override
+    public boolean filter(int index) {
+        if (catalogInfo != null && catalogInfo.filter != null) {
+            return catalogInfo.filter.evaluate(cursor(index));
+        }
+        return true;
     }
 
     @Override
@@ -727,6 +932,17 @@ public class StarGroup extends ParticleGroup implements ILineRenderable, IStarFo
             return destination.set(sb.x(), sb.y(), sb.z()).add(pm);
     }
 
+    @Override
+    protected Vector3d fetchPosition(int i, Vector3d campos, Vector3d destination, double deltaYears) {
+        if (columns == null)
+            return super.fetchPosition(i, campos, destination, deltaYears);
+        ParticleColumns c = columns;
+        destination.set(c.x[i] + c.pmx[i] * deltaYears, c.y[i] + c.pmy[i] * deltaYears, c.z[i] + c.pmz[i] * deltaYears);
+        if (campos != null && !campos.hasNaN())
+            destination.sub(campos);
+        return destination;
+    }
+
     @Override
     protected double getDeltaYears() {
         return currDeltaYears;
@@ -760,6 +976,7 @@ public class StarGroup extends ParticleGroup implements ILineRenderable, IStarFo
         EventManager.instance.post(Events.DISPOSE_STAR_GROUP_GPU_MESH, this.offset);
         // Data to be gc'd
         this.pointData = null;
+        this.columns = null;
         // Remove focus if needed
         CameraManager cam = GaiaSky.instance.getCameraManager();
         if (cam != null && cam.getFocus() != null && cam.getFocus() == this) {
@@ -769,7 +986,7 @@ public class StarGroup extends ParticleGroup implements ILineRenderable, IStarFo
     }
 
     public float getColor(int index) {
-        return highlighted ? Color.toFloatBits(hlc[0], hlc[1], hlc[2], hlc[3]) : (float) pointData.get(index).col();
+        return highlighted ? Color.toFloatBits(hlc[0], hlc[1], hlc[2], hlc[3]) : columns != null ? columns.col[index] : pointData.get(index).col();
     }
 
     /**
@@ -844,19 +1061,40 @@ public class StarGroup extends ParticleGroup implements ILineRenderable, IStarFo
      */
     public void updateMetadata(ITimeFrameProvider time, ICamera camera) {
         Vector3d camPos = camera.getPos();
+        double cx = camPos.x, cy = camPos.y, cz = camPos.z;
         double deltaYears = AstroUtils.getMsSince(time.getTime(), epoch_jd) * Nature.MS_TO_Y;
-        if (pointData != null) {
-            int n = pointData.size();
-            for (int i = 0; i < n; i++) {
-                IParticleRecord d = pointData.get(i);
-
-                // Pm
-                Vector3d dx = aux3d2.get().set(d.pmx(), d.pmy(), d.pmz()).scl(deltaYears);
-                // Pos
-                Vector3d x = aux3d1.get().set(d.x(), d.y(), d.z()).add(dx);
-
-                metadata[i] = filter(i) ? (-(((d.size() * Constants.STAR_SIZE_FACTOR) / camPos.dst(x)) / camera.getFovFactor()) * GlobalConf.scene.STAR_BRIGHTNESS) : Double.MAX_VALUE;
-            }
+        // Brightness metric is -(size / dist) * factor
+        double factor = Constants.STAR_SIZE_FACTOR / camera.getFovFactor() * GlobalConf.scene.STAR_BRIGHTNESS;
+        Predicate<IParticleRecord> filter = compileFilter();
+        ParticleColumns c = columns;
+        if (c != null) {
+            forEachChunk(c.n, (from, to) -> {
+                // One view per chunk, only used by the filter
+                ParticleColumnRecord view = filter != null ? new ParticleColumnRecord(c, from) : null;
+                for (int i = from; i < to; i++) {
+                    // Pos, with proper motion
+                    double dx = c.x[i] + c.pmx[i] * deltaYears - cx;
+                    double dy = c.y[i] + c.pmy[i] * deltaYears - cy;
+                    double dz = c.z[i] + c.pmz[i] * deltaYears - cz;
+                    double dist = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+                    metadata[i] = filter == null || filter.test(view.moveTo(i)) ? -(c.size[i] / dist) * factor : Double.MAX_VALUE;
+                }
+            });
+        } else if (pointData != null) {
+            forEachChunk(pointData.size(), (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    IParticleRecord d = pointData.get(i);
+
+                    // Pos, with proper motion
+                    double dx = d.x() + d.pmx() * deltaYears - cx;
+                    double dy = d.y() + d.pmy() * deltaYears - cy;
+                    double dz = d.z() + d.pmz() * deltaYears - cz;
+                    double dist = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+                    metadata[i] = filter == null || filter.test(d) ? -(d.size() / dist) * factor : Double.MAX_VALUE;
+                }
+            });
         }
     }
 }
@@ -269,7 +269,7 @@ public abstract class AbstractCamera implements ICamera {
     }
 
     @Override
-    public void checkClosestBody(IFocus cb) {
+    public synchronized void checkClosestBody(IFocus cb) {
         // A copy can never bee the closest
         if (!cb.isCopy())
             if (closestBody == null) {
@@ -295,7 +295,7 @@ public abstract class AbstractCamera implements ICamera {
         return closestStar;
     }
 
-    public void checkClosestParticle(IFocus star) {
+    public synchronized void checkClosestParticle(IFocus star) {
         if (closestStar == null || closestStar.getClosestDistToCamera() > star.getClosestDistToCamera()) {
             closestStar = star;
         }
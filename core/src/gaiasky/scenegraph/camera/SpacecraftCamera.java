@@ -478,7 +478,7 @@ public class SpacecraftCamera extends AbstractCamera implements IObserver {
 
 
     @Override
-    public void checkClosestBody(IFocus cb) {
+    public synchronized void checkClosestBody(IFocus cb) {
         super.checkClosestBody(cb);
         if (sc != null)
             if (secondClosest == null || (cb != sc && cb.getDistToCamera() < secondClosest.getDistToCamera())) //-V6007
@@ -7,6 +7,7 @@ package gaiasky.scenegraph.octreewrapper;
 
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Pool;
+import gaiasky.data.StreamingOctreeLoader;
 import gaiasky.event.EventManager;
 import gaiasky.event.Events;
 import gaiasky.render.ComponentTypes;
@@ -46,6 +47,10 @@ public abstract class AbstractOctreeWrapper extends FadeNode implements Iterable
     public Map<SceneGraphNode, OctreeNode> parenthood;
     /** The number of objects added to render in the last frame **/
     protected int lastNumberObjects = 0;
+    /** State of the octree update, owned by this wrapper since octrees may be updated in parallel **/
+    protected final OctreeNode.UpdateState updateState = new OctreeNode.UpdateState();
+    /** Observed octants and objects in the last frame **/
+    protected int nOctantsObserved = 0, nObjectsObserved = 0;
     /**
      * Is this just a copy?
      */
@@ -122,6 +127,8 @@ public abstract class AbstractOctreeWrapper extends FadeNode implements Iterable
     public void update(ITimeFrameProvider time, final Vector3d parentTransform, ICamera camera, float opacity) {
         this.opacity = opacity;
         translation.set(parentTransform);
+        nOctantsObserved = 0;
+        nObjectsObserved = 0;
 
         // Fade node visibility applies here
         if (this.isVisible()) {
@@ -129,15 +136,16 @@ public abstract class AbstractOctreeWrapper extends FadeNode implements Iterable
             if (!copy) {
 
                 // Compute observed octants and fill roulette list
-                OctreeNode.nOctantsObserved = 0;
-                OctreeNode.nObjectsObserved = 0;
+                root.update(translation, camera, roulette, opacity, updateState);
+                nOctantsObserved = updateState.getNOctants();
+                nObjectsObserved = updateState.getNObjects();
+                // Load what comes next
+                StreamingOctreeLoader.prefetch(camera);
 
-                root.update(translation, camera, roulette, opacity);
-
-                if (OctreeNode.nObjectsObserved != lastNumberObjects) {
+                if (nObjectsObserved != lastNumberObjects) {
                     // Need to update the points in renderer
                     AbstractRenderSystem.POINT_UPDATE_FLAG = true;
-                    lastNumberObjects = OctreeNode.nObjectsObserved;
+                    lastNumberObjects = nObjectsObserved;
                 }
 
                 updateLocal(time, camera);
@@ -193,6 +201,20 @@ public abstract class AbstractOctreeWrapper extends FadeNode implements Iterable
         }
     }
 
+    /**
+     * Number of octants of this octree observed in the last frame
+     */
+    public int getNOctantsObserved() {
+        return nOctantsObserved;
+    }
+
+    /**
+     * Number of objects of this octree observed in the last frame
+     */
+    public int getNObjectsObserved() {
+        return nObjectsObserved;
+    }
+
     @Override
     /** Not implemented **/ public Iterator<OctreeNode> iterator() {
         return null;
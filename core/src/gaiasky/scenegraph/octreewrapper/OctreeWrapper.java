@@ -5,23 +5,31 @@
 
 package gaiasky.scenegraph.octreewrapper;
 
+import gaiasky.desktop.concurrent.ThreadPoolManager;
+import gaiasky.desktop.concurrent.UpdaterTask;
 import gaiasky.scenegraph.SceneGraphNode;
 import gaiasky.scenegraph.camera.ICamera;
+import gaiasky.util.GlobalConf;
 import gaiasky.util.math.Vector3d;
 import gaiasky.util.time.ITimeFrameProvider;
 import gaiasky.util.tree.OctreeNode;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Static Octree wrapper that can be inserted into the scene graph. This
- * implementation is single-threaded.
+ * Static Octree wrapper that can be inserted into the scene graph. The objects
+ * of the octree are updated in the pool of {@link ThreadPoolManager} if the parallel
+ * update is on, and in the calling thread otherwise.
  * 
  * @author Toni Sagrista
  *
  */
 public class OctreeWrapper extends AbstractOctreeWrapper {
 
+    /** Tasks of the parallel update, reused every frame **/
+    private final List<UpdaterTask<SceneGraphNode>> tasks = new ArrayList<>();
+
     public OctreeWrapper() {
         super();
     }
@@ -34,9 +42,28 @@ public class OctreeWrapper extends AbstractOctreeWrapper {
     @Override
     protected void updateOctreeObjects(ITimeFrameProvider time, Vector3d parentTransform, ICamera camera) {
         int size = roulette.size();
-        for (int i = 0; i < size; i++) {
-            SceneGraphNode sgn = roulette.get(i);
-            sgn.update(time, parentTransform, camera, this.opacity * sgn.octant.opacity);
+        if (GlobalConf.performance.PARALLEL_UPDATE() && ThreadPoolManager.pool != null && size > 1) {
+            // Equal ranges, the objects of the roulette change every frame
+            int nTasks = Math.min(size, ThreadPoolManager.pool.getCorePoolSize() * 2);
+            for (int t = 0; t < nTasks; t++) {
+                int from = (int) ((long) size * t / nTasks);
+                int to = (int) ((long) size * (t + 1) / nTasks);
+                if (t == tasks.size())
+                    tasks.add(new UpdaterTask<>(roulette, from, to));
+                UpdaterTask<SceneGraphNode> task = tasks.get(t);
+                task.setNodesToProcess(roulette);
+                task.setRange(from, to);
+                task.setParameters(camera, time, parentTransform, this.opacity);
+            }
+            List<UpdaterTask<SceneGraphNode>> active = tasks.subList(0, nTasks);
+            ThreadPoolManager.invokeAll(active);
+            for (UpdaterTask<SceneGraphNode> task : active)
+                task.flush();
+        } else {
+            for (int i = 0; i < size; i++) {
+                SceneGraphNode sgn = roulette.get(i);
+                sgn.update(time, parentTransform, camera, this.opacity * sgn.octant.opacity);
+            }
         }
     }
 
@@ -0,0 +1,39 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.scenegraph.particle;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list adapter over a {@link ParticleColumns} object. Elements are
+ * {@link ParticleColumnRecord} views created on access, so that code which works
+ * with {@code List<IParticleRecord>} can consume columnar data unchanged.
+ */
+public class ParticleColumnList extends AbstractList<IParticleRecord> implements RandomAccess {
+
+    private final ParticleColumns columns;
+
+    public ParticleColumnList(ParticleColumns columns) {
+        this.columns = columns;
+    }
+
+    public ParticleColumns columns() {
+        return columns;
+    }
+
+    @Override
+    public IParticleRecord get(int index) {
+        if (index < 0 || index >= columns.n)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + columns.n);
+        return columns.get(index);
+    }
+
+    @Override
+    public int size() {
+        return columns.n;
+    }
+}
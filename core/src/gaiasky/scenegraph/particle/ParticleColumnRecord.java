@@ -0,0 +1,392 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.scenegraph.particle;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.utils.NumberUtils;
+import gaiasky.util.Constants;
+import gaiasky.util.ObjectDoubleMap.Keys;
+import gaiasky.util.TLV3D;
+import gaiasky.util.coord.Coordinates;
+import gaiasky.util.math.MathUtilsd;
+import gaiasky.util.math.Vector3d;
+import gaiasky.util.tree.OctreeNode;
+import gaiasky.util.ucd.UCD;
+import net.jafama.FastMath;
+
+/**
+ * Lightweight view of a single star stored in a {@link ParticleColumns} object.
+ * It holds no data of its own, all reads and writes go to the backing columns.
+ */
+public class ParticleColumnRecord implements IParticleRecord {
+    protected static TLV3D aux3d1 = new TLV3D(), aux3d2 = new TLV3D();
+
+    private ParticleColumns columns;
+    private int index;
+
+    public ParticleColumnRecord(ParticleColumns columns, int index) {
+        this.columns = columns;
+        this.index = index;
+    }
+
+    /**
+     * Points this view to another star of the same columns. Useful to iterate
+     * over the columns reusing a single view.
+     *
+     * @param index The new index
+     * @return This view, for chaining
+     */
+    public ParticleColumnRecord moveTo(int index) {
+        this.index = index;
+        return this;
+    }
+
+    /**
+     * Points this view to a star of the given columns.
+     *
+     * @param columns The columns
+     * @param index   The index
+     * @return This view, for chaining
+     */
+    public ParticleColumnRecord moveTo(ParticleColumns columns, int index) {
+        this.columns = columns;
+        this.index = index;
+        return this;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    public ParticleColumns columns() {
+        return columns;
+    }
+
+    /**
+     * Returns a copy of the position, in the layout of {@link ParticleRecord#dataD}.
+     */
+    @Override
+    public double[] rawDoubleData() {
+        return new double[] { x(), y(), z() };
+    }
+
+    /**
+     * Returns a copy of the float attributes, in the layout of {@link ParticleRecord#dataF}.
+     */
+    @Override
+    public float[] rawFloatData() {
+        float[] dataF = new float[ParticleRecord.STAR_SIZE_F];
+        dataF[ParticleRecord.I_FPMX] = columns.pmx[index];
+        dataF[ParticleRecord.I_FPMY] = columns.pmy[index];
+        dataF[ParticleRecord.I_FPMZ] = columns.pmz[index];
+        dataF[ParticleRecord.I_FMUALPHA] = columns.mualpha[index];
+        dataF[ParticleRecord.I_FMUDELTA] = columns.mudelta[index];
+        dataF[ParticleRecord.I_FRADVEL] = columns.radvel[index];
+        dataF[ParticleRecord.I_FAPPMAG] = columns.appmag[index];
+        dataF[ParticleRecord.I_FABSMAG] = columns.absmag[index];
+        dataF[ParticleRecord.I_FCOL] = columns.col[index];
+        dataF[ParticleRecord.I_FSIZE] = columns.size[index];
+        dataF[ParticleRecord.I_FHIP] = columns.hip[index];
+        return dataF;
+    }
+
+    @Override
+    public double x() {
+        return columns.x[index];
+    }
+
+    @Override
+    public double y() {
+        return columns.y[index];
+    }
+
+    @Override
+    public double z() {
+        return columns.z[index];
+    }
+
+    @Override
+    public void setPos(double x, double y, double z) {
+        columns.x[index] = x;
+        columns.y[index] = y;
+        columns.z[index] = z;
+    }
+
+    @Override
+    public Vector3d pos(Vector3d aux) {
+        return aux.set(x(), y(), z());
+    }
+
+    @Override
+    public double pmx() {
+        return columns.pmx[index];
+    }
+
+    @Override
+    public double pmy() {
+        return columns.pmy[index];
+    }
+
+    @Override
+    public double pmz() {
+        return columns.pmz[index];
+    }
+
+    @Override
+    public void setVelocityVector(double vx, double vy, double vz) {
+        columns.pmx[index] = (float) vx;
+        columns.pmy[index] = (float) vy;
+        columns.pmz[index] = (float) vz;
+    }
+
+    @Override
+    public String[] names() {
+        return columns.names(index);
+    }
+
+    @Override
+    public String namesConcat() {
+        return columns.namesConcat(index);
+    }
+
+    @Override
+    public boolean hasName(String candidate) {
+        return hasName(candidate, false);
+    }
+
+    @Override
+    public boolean hasName(String candidate, boolean matchCase) {
+        for (String name : names()) {
+            if (matchCase ? name.equals(candidate) : name.equalsIgnoreCase(candidate))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void setNames(String... names) {
+        columns.setNames(index, names);
+    }
+
+    @Override
+    public void setName(String name) {
+        String[] names = names();
+        names[0] = name;
+    }
+
+    @Override
+    public void addName(String name) {
+        name = name.strip();
+        if (!hasName(name)) {
+            String[] names = names();
+            String[] newNames = new String[names.length + 1];
+            System.arraycopy(names, 0, newNames, 0, names.length);
+            newNames[names.length] = name;
+            setNames(newNames);
+        }
+    }
+
+    @Override
+    public void addNames(String... names) {
+        for (String name : names)
+            addName(name);
+    }
+
+    @Override
+    public float appmag() {
+        return columns.appmag[index];
+    }
+
+    @Override
+    public float absmag() {
+        return columns.absmag[index];
+    }
+
+    @Override
+    public void setMag(float appmag, float absmag) {
+        columns.appmag[index] = appmag;
+        columns.absmag[index] = absmag;
+    }
+
+    @Override
+    public boolean hasCol() {
+        return true;
+    }
+
+    @Override
+    public float col() {
+        return columns.col[index];
+    }
+
+    @Override
+    public void setCol(float col) {
+        columns.col[index] = col;
+    }
+
+    @Override
+    public double[] rgb() {
+        Color c = new Color(NumberUtils.floatToIntColor(col()));
+        return new double[] { c.r, c.g, c.b };
+    }
+
+    @Override
+    public float size() {
+        return columns.size[index];
+    }
+
+    @Override
+    public void setSize(float size) {
+        columns.size[index] = size;
+    }
+
+    @Override
+    public double radius() {
+        return size() * Constants.STAR_SIZE_FACTOR;
+    }
+
+    @Override
+    public void setId(long id) {
+        columns.id[index] = id;
+    }
+
+    @Override
+    public long id() {
+        return columns.id[index];
+    }
+
+    @Override
+    public void setHip(int hip) {
+        columns.hip[index] = hip;
+    }
+
+    @Override
+    public int hip() {
+        return columns.hip[index];
+    }
+
+    @Override
+    public float mualpha() {
+        return columns.mualpha[index];
+    }
+
+    @Override
+    public float mudelta() {
+        return columns.mudelta[index];
+    }
+
+    @Override
+    public float radvel() {
+        return columns.radvel[index];
+    }
+
+    @Override
+    public void setProperMotion(float mualpha, float mudelta, float radvel) {
+        columns.mualpha[index] = mualpha;
+        columns.mudelta[index] = mudelta;
+        columns.radvel[index] = radvel;
+    }
+
+    @Override
+    public OctreeNode octant() {
+        return columns.octant;
+    }
+
+    @Override
+    public void setOctant(OctreeNode octant) {
+        columns.octant = octant;
+    }
+
+    @Override
+    public double distance() {
+        return FastMath.sqrt(x() * x() + y() * y() + z() * z());
+    }
+
+    @Override
+    public double parallax() {
+        return 1000d / (distance() * Constants.U_TO_PC);
+    }
+
+    @Override
+    public double ra() {
+        Vector3d sphPos = Coordinates.cartesianToSpherical(pos(aux3d1.get()), aux3d2.get());
+        return MathUtilsd.radDeg * sphPos.x;
+    }
+
+    @Override
+    public double dec() {
+        Vector3d sphPos = Coordinates.cartesianToSpherical(pos(aux3d1.get()), aux3d2.get());
+        return MathUtilsd.radDeg * sphPos.y;
+    }
+
+    @Override
+    public double lambda() {
+        Vector3d sphPos = Coordinates.cartesianToSpherical(pos(aux3d1.get()).mul(Coordinates.eqToEcl()), aux3d2.get());
+        return MathUtilsd.radDeg * sphPos.x;
+    }
+
+    @Override
+    public double beta() {
+        Vector3d sphPos = Coordinates.cartesianToSpherical(pos(aux3d1.get()).mul(Coordinates.eqToEcl()), aux3d2.get());
+        return MathUtilsd.radDeg * sphPos.y;
+    }
+
+    @Override
+    public double l() {
+        Vector3d sphPos = Coordinates.cartesianToSpherical(pos(aux3d1.get()).mul(Coordinates.eqToGal()), aux3d2.get());
+        return MathUtilsd.radDeg * sphPos.x;
+    }
+
+    @Override
+    public double b() {
+        Vector3d sphPos = Coordinates.cartesianToSpherical(pos(aux3d1.get()).mul(Coordinates.eqToGal()), aux3d2.get());
+        return MathUtilsd.radDeg * sphPos.y;
+    }
+
+    @Override
+    public boolean hasExtra() {
+        return columns.hasExtra();
+    }
+
+    @Override
+    public boolean hasExtra(String name) {
+        return columns.extraIndex(name) >= 0;
+    }
+
+    @Override
+    public boolean hasExtra(UCD ucd) {
+        return columns.hasExtra(ucd);
+    }
+
+    @Override
+    public double getExtra(String name) {
+        return columns.getExtra(columns.extraIndex(name), index);
+    }
+
+    @Override
+    public double getExtra(UCD ucd) {
+        return columns.getExtra(columns.extraIndex(ucd), index);
+    }
+
+    @Override
+    public Keys<UCD> extraKeys() {
+        return columns.extraKeys();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ParticleColumnRecord))
+            return false;
+        ParticleColumnRecord that = (ParticleColumnRecord) o;
+        return index == that.index && columns == that.columns;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(columns) + index;
+    }
+}
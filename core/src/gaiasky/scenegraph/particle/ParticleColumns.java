@@ -0,0 +1,336 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.scenegraph.particle;
+
+import gaiasky.util.Constants;
+import gaiasky.util.ObjectDoubleMap;
+import gaiasky.util.ObjectDoubleMap.Keys;
+import gaiasky.util.TextUtils;
+import gaiasky.util.tree.OctreeNode;
+import gaiasky.util.ucd.UCD;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Structure-of-arrays store for stars. Holds the data of a set of stars as
+ * contiguous primitive columns, one array per attribute. Names are kept in a
+ * single string table (one char array plus an offsets array) and are only decoded
+ * into {@link String} arrays when requested. Extra attributes, if any, are stored
+ * as one column per {@link UCD}.
+ * Records are accessed through lightweight {@link ParticleColumnRecord} views, so
+ * that no per-star objects need to be kept in memory. Hot loops should read the
+ * columns directly.
+ *
+ * @author tsagrista
+ */
+public class ParticleColumns {
+
+    /** Approximate size in bytes of the primitive columns of a star, excluding names and extras **/
+    public static final int BYTES_PER_STAR = 3 * Double.BYTES + 10 * Float.BYTES + Integer.BYTES + Long.BYTES;
+
+    /** Number of stars **/
+    public final int n;
+
+    /** Positions, in internal units **/
+    public final double[] x, y, z;
+    /** Velocity vectors, in internal units per year **/
+    public final float[] pmx, pmy, pmz;
+    /** Proper motions in mas/yr and radial velocity in km/s **/
+    public final float[] mualpha, mudelta, radvel;
+    /** Magnitudes, packed colors and sizes **/
+    public final float[] appmag, absmag, col, size;
+    /** Hipparcos numbers **/
+    public final int[] hip;
+    /** Source identifiers **/
+    public final long[] id;
+
+    /**
+     * Name string table. The names of the star i are in nameChars[nameOffsets[i]..nameOffsets[i+1]),
+     * concatenated with {@link Constants#nameSeparator}.
+     */
+    private char[] nameChars;
+    private int[] nameOffsets;
+
+    /** Decoded (or overridden) names, created lazily **/
+    private String[][] names;
+
+    /** Extra attributes, one column per UCD **/
+    private UCD[] extraUcds;
+    private double[][] extras;
+    private ObjectDoubleMap<UCD> extraKeys;
+
+    /** Octant the stars belong to, if in an octree **/
+    public OctreeNode octant;
+
+    public ParticleColumns(int n) {
+        this.n = n;
+        this.x = new double[n];
+        this.y = new double[n];
+        this.z = new double[n];
+        this.pmx = new float[n];
+        this.pmy = new float[n];
+        this.pmz = new float[n];
+        this.mualpha = new float[n];
+        this.mudelta = new float[n];
+        this.radvel = new float[n];
+        this.appmag = new float[n];
+        this.absmag = new float[n];
+        this.col = new float[n];
+        this.size = new float[n];
+        this.hip = new int[n];
+        this.id = new long[n];
+    }
+
+    /**
+     * Copies the given star records into a new columnar store. The names of the records
+     * are kept as they are, and all the extra attributes found are converted to columns.
+     *
+     * @param records The records
+     * @return The columnar store
+     */
+    public static ParticleColumns of(List<IParticleRecord> records) {
+        if (records instanceof ParticleColumnList) {
+            return ((ParticleColumnList) records).columns();
+        }
+        int n = records.size();
+        ParticleColumns c = new ParticleColumns(n);
+        List<UCD> ucds = null;
+        for (int i = 0; i < n; i++) {
+            IParticleRecord r = records.get(i);
+            c.x[i] = r.x();
+            c.y[i] = r.y();
+            c.z[i] = r.z();
+            c.pmx[i] = (float) r.pmx();
+            c.pmy[i] = (float) r.pmy();
+            c.pmz[i] = (float) r.pmz();
+            c.mualpha[i] = r.mualpha();
+            c.mudelta[i] = r.mudelta();
+            c.radvel[i] = r.radvel();
+            c.appmag[i] = r.appmag();
+            c.absmag[i] = r.absmag();
+            c.col[i] = r.col();
+            c.size[i] = r.size();
+            c.hip[i] = r.hip();
+            c.id[i] = r.id();
+            if (r.names() != null) {
+                if (c.names == null)
+                    c.names = new String[n][];
+                c.names[i] = r.names();
+            }
+            if (r.hasExtra()) {
+                if (ucds == null)
+                    ucds = new ArrayList<>();
+                for (UCD ucd : r.extraKeys()) {
+                    if (!ucds.contains(ucd))
+                        ucds.add(ucd);
+                }
+            }
+        }
+        if (ucds != null) {
+            c.extraUcds = ucds.toArray(new UCD[0]);
+            c.extras = new double[c.extraUcds.length][n];
+            for (int j = 0; j < c.extraUcds.length; j++) {
+                UCD ucd = c.extraUcds[j];
+                double[] column = c.extras[j];
+                for (int i = 0; i < n; i++) {
+                    column[i] = records.get(i).getExtra(ucd);
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Sets the name string table.
+     *
+     * @param nameChars   The concatenated names of all stars
+     * @param nameOffsets The offsets of each star in the char array, with n+1 elements
+     */
+    public void setNameTable(char[] nameChars, int[] nameOffsets) {
+        this.nameChars = nameChars;
+        this.nameOffsets = nameOffsets;
+        this.names = null;
+    }
+
+    /**
+     * Appends the names of the star i, read from the buffer as len chars, to the name string
+     * table. Stars must be appended in order, starting at 0.
+     *
+     * @param i   The index of the star
+     * @param mem The buffer, positioned at the first char
+     * @param len The number of chars to read
+     */
+    public void appendNames(int i, ByteBuffer mem, int len) {
+        if (nameOffsets == null) {
+            nameOffsets = new int[n + 1];
+            nameChars = new char[Math.max(16, n * 8)];
+        }
+        int start = nameOffsets[i];
+        if (start + len > nameChars.length) {
+            char[] grown = new char[Math.max(nameChars.length * 2, start + len)];
+            System.arraycopy(nameChars, 0, grown, 0, start);
+            nameChars = grown;
+        }
+        for (int k = 0; k < len; k++)
+            nameChars[start + k] = mem.getChar();
+        nameOffsets[i + 1] = start + len;
+    }
+
+    /**
+     * Returns the names of the star at the given index. If the star has no name
+     * in the string table, its id is used as name.
+     *
+     * @param i The index
+     * @return The names of the star
+     */
+    public String[] names(int i) {
+        if (names == null) {
+            synchronized (this) {
+                if (names == null)
+                    names = new String[n][];
+            }
+        }
+        String[] result = names[i];
+        if (result == null) {
+            int start = nameOffsets != null ? nameOffsets[i] : 0;
+            int len = nameOffsets != null ? nameOffsets[i + 1] - start : 0;
+            if (len == 0) {
+                result = new String[] { Long.toString(id[i]) };
+            } else {
+                result = new String(nameChars, start, len).split(Constants.nameSeparatorRegex);
+            }
+            names[i] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the names of the star at the given index concatenated with {@link Constants#nameSeparator}.
+     *
+     * @param i The index
+     * @return The concatenated names, or null if there are none
+     */
+    public String namesConcat(int i) {
+        if ((names == null || names[i] == null) && nameOffsets != null) {
+            int start = nameOffsets[i];
+            int len = nameOffsets[i + 1] - start;
+            return len > 0 ? new String(nameChars, start, len) : null;
+        }
+        return TextUtils.concatenate(Constants.nameSeparator, names(i));
+    }
+
+    /**
+     * Overrides the names of the star at the given index.
+     *
+     * @param i     The index
+     * @param names The new names
+     */
+    public void setNames(int i, String... names) {
+        // Make sure the cache exists
+        names(i);
+        this.names[i] = names;
+    }
+
+    /**
+     * Checks whether there is a column for the given extra attribute.
+     *
+     * @param ucd The UCD
+     * @return Whether the column exists
+     */
+    public boolean hasExtra(UCD ucd) {
+        return extraIndex(ucd) >= 0;
+    }
+
+    public boolean hasExtra() {
+        return extraUcds != null && extraUcds.length > 0;
+    }
+
+    /**
+     * Returns the index of the extra column with the given UCD, or with an original UCD or
+     * column name equal to the given name.
+     *
+     * @param ucd  The UCD, may be null
+     * @param name The name, may be null
+     * @return The column index, or -1 if not found
+     */
+    private int extraIndex(UCD ucd, String name) {
+        if (extraUcds != null) {
+            for (int j = 0; j < extraUcds.length; j++) {
+                UCD candidate = extraUcds[j];
+                if (ucd != null && candidate.equals(ucd))
+                    return j;
+                if (name != null && (name.equals(candidate.originalucd) || name.equals(candidate.colname)))
+                    return j;
+            }
+        }
+        return -1;
+    }
+
+    public int extraIndex(UCD ucd) {
+        return extraIndex(ucd, null);
+    }
+
+    public int extraIndex(String name) {
+        return extraIndex(null, name);
+    }
+
+    /**
+     * Gets the value of the extra attribute in the given column for the star i.
+     *
+     * @param column The column index, as returned by {@link #extraIndex(UCD)}
+     * @param i      The star index
+     * @return The value, or NaN if the column does not exist
+     */
+    public double getExtra(int column, int i) {
+        return column >= 0 ? extras[column][i] : Double.NaN;
+    }
+
+    /**
+     * Returns the keys of the extra attributes, with the same semantics as
+     * {@link ParticleRecord#extraKeys()}.
+     *
+     * @return The keys, or null if there are no extra attributes
+     */
+    public Keys<UCD> extraKeys() {
+        if (!hasExtra())
+            return null;
+        if (extraKeys == null) {
+            ObjectDoubleMap<UCD> keys = new ObjectDoubleMap<>(extraUcds.length);
+            for (UCD ucd : extraUcds)
+                keys.put(ucd, 0);
+            extraKeys = keys;
+        }
+        return extraKeys.keys();
+    }
+
+    /**
+     * Computes the approximate main memory taken by these columns, including the name
+     * table and the extra attributes, in bytes.
+     *
+     * @return The size in bytes
+     */
+    public long memoryBytes() {
+        long bytes = (long) n * BYTES_PER_STAR;
+        if (nameChars != null)
+            bytes += (long) nameChars.length * Character.BYTES + (long) nameOffsets.length * Integer.BYTES;
+        if (extras != null)
+            bytes += (long) extras.length * n * Double.BYTES;
+        return bytes;
+    }
+
+    /**
+     * Returns a view of the star at the given index.
+     *
+     * @param i The index
+     * @return A record backed by these columns
+     */
+    public ParticleColumnRecord get(int i) {
+        return new ParticleColumnRecord(this, i);
+    }
+
+}
@@ -78,35 +78,54 @@ public class ImageRenderer {
     }
 
     private static Pixmap getScreenshot(int x, int y, int w, int h, boolean flipY) {
-        Gdx.gl.glPixelStorei(GL20.GL_PACK_ALIGNMENT, 1);
-
         final Pixmap pixmap = new Pixmap(w, h, Format.RGBA8888);
+        readPixels(pixmap, x, y, w, h);
+        if (flipY)
+            flipAndOpaque(pixmap.getPixels(), w, h);
+        return pixmap;
+    }
+
+    /**
+     * Reads the pixels of the current frame buffer into the given RGBA8888 pixmap, which
+     * must have the given size. The rows come bottom to top.
+     */
+    static void readPixels(Pixmap pixmap, int x, int y, int w, int h) {
+        Gdx.gl.glPixelStorei(GL20.GL_PACK_ALIGNMENT, 1);
         ByteBuffer pixels = pixmap.getPixels();
+        pixels.clear();
         Gdx.gl.glReadPixels(x, y, w, h, GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, pixels);
+    }
 
-        final int numBytes = w * h * 4;
-        byte[] lines = new byte[numBytes];
-        if (flipY) {
-            final int numBytesPerLine = w * 4;
-            for (int i = 0; i < h; i++) {
-                pixels.position((h - i - 1) * numBytesPerLine);
-                pixels.get(lines, i * numBytesPerLine, numBytesPerLine);
-
-                for (int j = 3; j < w * 4; j += 4) {
-                    lines[j + i * w * 4] = (byte) 255;
-                }
+    /**
+     * Flips the rows of the RGBA pixels in place and sets the alpha to 1. Does not
+     * use the GL context.
+     */
+    static void flipAndOpaque(ByteBuffer pixels, int w, int h) {
+        final int numBytesPerLine = w * 4;
+        byte[] top = new byte[numBytesPerLine];
+        byte[] bottom = new byte[numBytesPerLine];
+        for (int i = 0; i < (h + 1) / 2; i++) {
+            int j = h - i - 1;
+            pixels.position(i * numBytesPerLine);
+            pixels.get(top);
+            pixels.position(j * numBytesPerLine);
+            pixels.get(bottom);
+            for (int k = 3; k < numBytesPerLine; k += 4) {
+                top[k] = (byte) 255;
+                bottom[k] = (byte) 255;
             }
-            pixels.clear();
-            pixels.put(lines);
-        } else {
-            pixels.clear();
-            pixels.get(lines);
+            pixels.position(i * numBytesPerLine);
+            pixels.put(bottom);
+            pixels.position(j * numBytesPerLine);
+            pixels.put(top);
         }
-
-        return pixmap;
+        pixels.clear();
     }
 
-    private static FileHandle getTarget(String absoluteLocation, String baseFileName, ImageFormat type) {
+    /**
+     * Gets the next free file in the sequence. Must be called from a single thread, in frame order.
+     */
+    static FileHandle getTarget(String absoluteLocation, String baseFileName, ImageFormat type) {
         FileHandle fh = Gdx.files.absolute(absoluteLocation + File.separator + baseFileName + getNextSeqNumSuffix() + "." + type.toString().toLowerCase());
         while (fh.exists()) {
             fh = Gdx.files.absolute(absoluteLocation + File.separator + baseFileName + getNextSeqNumSuffix() + "." + type.toString().toLowerCase());
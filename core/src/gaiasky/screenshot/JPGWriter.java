@@ -17,7 +17,11 @@ import javax.imageio.ImageWriter;
 import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
 import javax.imageio.stream.FileImageOutputStream;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 
 /**
  * Writes JPG images
@@ -57,44 +61,64 @@ public class JPGWriter {
     }
 
     public static void write(FileHandle file, Pixmap pix) {
-        FileImageOutputStream fios = null;
-        try {
-            final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-            fios = new FileImageOutputStream(file.file());
-            writer.setOutput(fios);
-            writer.write(null, new IIOImage(pixmapToBufferedImage(pix), null, null), jpegParams);
+        write(file, pixmapToBufferedImage(pix), jpegParams);
+    }
 
+    /**
+     * Writes the image with the given quality. Unlike {@link #write(FileHandle, Pixmap)}, this
+     * does not use the shared quality setting, so it can be called from several threads at once.
+     *
+     * @param file    The file
+     * @param img     The image
+     * @param quality The quality, from 0 to 1
+     */
+    public static void write(FileHandle file, BufferedImage img, float quality) {
+        JPEGImageWriteParam params = new JPEGImageWriteParam(null);
+        params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        params.setCompressionQuality(quality);
+        write(file, img, params);
+    }
+
+    private static void write(FileHandle file, BufferedImage img, JPEGImageWriteParam params) {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        try (FileImageOutputStream fios = new FileImageOutputStream(file.file())) {
+            writer.setOutput(fios);
+            writer.write(null, new IIOImage(img, null, null), params);
         } catch (IOException e) {
             logger.error(e);
         } finally {
-            try {
-                fios.close();
-            } catch (IOException e) {
-                logger.error(e);
-            }
-
+            writer.dispose();
         }
     }
 
     static BufferedImage pixmapToBufferedImage(Pixmap p) {
-        int w = p.getWidth();
-        int h = p.getHeight();
+        return toRGBImage(p.getPixels(), p.getWidth(), p.getHeight(), false);
+    }
+
+    /**
+     * Converts RGBA8888 pixels to an RGB image in bulk, writing straight into the raster of the image.
+     *
+     * @param rgba  The pixels, row by row. Not modified
+     * @param w     The width
+     * @param h     The height
+     * @param flipY Whether the rows come bottom to top, as read from OpenGL
+     * @return The image
+     */
+    static BufferedImage toRGBImage(ByteBuffer rgba, int w, int h, boolean flipY) {
         BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
 
-        int[] pixels = new int[w * h];
+        ByteBuffer src = rgba.duplicate();
+        src.clear();
+        IntBuffer rows = src.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
         for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                //convert RGBA to RGB
-                int value = p.getPixel(x, y);
-                int R = ((value & 0xff000000) >>> 24);
-                int G = ((value & 0x00ff0000) >>> 16);
-                int B = ((value & 0x0000ff00) >>> 8);
-
-                int i = x + (y * w);
-                pixels[i] = (R << 16) | (G << 8) | B;
-            }
+            rows.position((flipY ? h - y - 1 : y) * w);
+            rows.get(pixels, y * w, w);
+        }
+        // RGBA to RGB
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] >>>= 8;
         }
-        img.setRGB(0, 0, w, h, pixels, 0, w);
         return img;
     }
 }
@@ -0,0 +1,201 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.screenshot;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Pixmap.Format;
+import com.badlogic.gdx.graphics.PixmapIO;
+import gaiasky.util.GlobalConf.ImageFormat;
+import gaiasky.util.Logger;
+import gaiasky.util.Logger.Log;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Renders image files in a pool of encoder threads. The render thread only reads the
+ * pixels back into a pooled pixmap and picks the file name, so that the sequence numbers
+ * follow the frame order regardless of which encoder finishes first. Flipping, RGBA to RGB
+ * conversion and encoding happen in the encoders. The number of frames pending encoding
+ * is bounded by the number of encoders and by {@link #MAX_PENDING_BYTES}; when the bound
+ * is reached the render thread waits, so memory stays bounded when the encoders can't keep up.
+ *
+ * @author tsagrista
+ */
+public class ParallelFileImageRenderer implements IFileImageRenderer {
+    private static final Log logger = Logger.getLogger(ParallelFileImageRenderer.class);
+
+    /** Maximum size of the pixels pending encoding **/
+    private static final long MAX_PENDING_BYTES = 512L * 1024L * 1024L;
+    /** Interval between throughput reports **/
+    private static final long REPORT_INTERVAL_NS = 10_000_000_000L;
+
+    private static class EncoderThreadFactory implements ThreadFactory {
+        private int sequence = 0;
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "gaiasky-worker-frameencoder-" + sequence);
+            sequence++;
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    private final int nEncoders;
+    private final ExecutorService pool;
+    private final Queue<Pixmap> pixmaps = new ConcurrentLinkedQueue<>();
+
+    private final Object lock = new Object();
+    /** Frames read back and not written yet **/
+    private int pending;
+
+    /** Statistics since the last flush **/
+    private long nSubmitted, nWritten, startNs, lastWrittenNs, lastReportNs, lastReportWritten;
+    private int maxPending;
+    private long waitNs;
+
+    /**
+     * Creates a renderer with the given number of encoder threads
+     *
+     * @param nEncoders The number of encoder threads
+     */
+    public ParallelFileImageRenderer(int nEncoders) {
+        this.nEncoders = Math.max(1, nEncoders);
+        this.pool = Executors.newFixedThreadPool(this.nEncoders, new EncoderThreadFactory());
+    }
+
+    @Override
+    public String saveScreenshot(String absoluteLocation, String baseFileName, int w, int h, boolean immediate, ImageFormat type, float quality) {
+        // Backpressure
+        long frameBytes = (long) w * h * 4L;
+        int maxFrames = (int) Math.max(1L, Math.min(2L * nEncoders, MAX_PENDING_BYTES / frameBytes));
+        long t0 = System.nanoTime();
+        synchronized (lock) {
+            while (pending >= maxFrames) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        long now = System.nanoTime();
+
+        // Read back and assign the file in the render thread
+        final Pixmap pixmap = obtain(w, h);
+        ImageRenderer.readPixels(pixmap, 0, 0, w, h);
+        Gdx.files.absolute(absoluteLocation).mkdirs();
+        final FileHandle fh = ImageRenderer.getTarget(absoluteLocation, baseFileName, type);
+
+        synchronized (lock) {
+            if (nSubmitted == 0) {
+                startNs = lastReportNs = now;
+            }
+            waitNs += now - t0;
+            pending++;
+            nSubmitted++;
+            maxPending = Math.max(maxPending, pending);
+        }
+        pool.execute(() -> encode(pixmap, fh, w, h, type, quality));
+
+        report(now);
+        return fh.path();
+    }
+
+    private void encode(Pixmap pixmap, FileHandle fh, int w, int h, ImageFormat type, float quality) {
+        try {
+            switch (type) {
+            case PNG:
+                ImageRenderer.flipAndOpaque(pixmap.getPixels(), w, h);
+                PixmapIO.writePNG(fh, pixmap);
+                break;
+            case JPG:
+                JPGWriter.write(fh, JPGWriter.toRGBImage(pixmap.getPixels(), w, h, true), quality);
+                break;
+            }
+        } catch (Exception e) {
+            logger.error(e, "Error writing frame " + fh.path());
+        } finally {
+            pixmaps.add(pixmap);
+            synchronized (lock) {
+                pending--;
+                nWritten++;
+                lastWrittenNs = System.nanoTime();
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private Pixmap obtain(int w, int h) {
+        Pixmap pixmap;
+        while ((pixmap = pixmaps.poll()) != null) {
+            if (pixmap.getWidth() == w && pixmap.getHeight() == h)
+                return pixmap;
+            // Size changed
+            pixmap.dispose();
+        }
+        return new Pixmap(w, h, Format.RGBA8888);
+    }
+
+    private void report(long now) {
+        if (now - lastReportNs > REPORT_INTERVAL_NS) {
+            long written;
+            int depth;
+            synchronized (lock) {
+                written = nWritten - lastReportWritten;
+                lastReportWritten = nWritten;
+                depth = pending;
+            }
+            logger.debug(String.format("Frame output: %.1f fps over the last %.0f s, queue depth %d/%d", written * 1e9 / (now - lastReportNs), (now - lastReportNs) * 1e-9, depth, maxPending));
+            lastReportNs = now;
+        }
+    }
+
+    /**
+     * Waits until all pending frames are written, and logs the throughput since the previous flush
+     */
+    @Override
+    public void flush() {
+        synchronized (lock) {
+            while (pending > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (nWritten > 0) {
+                double seconds = (lastWrittenNs - startNs) * 1e-9;
+                logger.info(String.format("Frame output: %d frames in %.2f s (%.1f fps) with %d encoders, max queue depth %d, render thread waited %.2f s", nWritten, seconds, nWritten / Math.max(seconds, 1e-9), nEncoders, maxPending, waitNs * 1e-9));
+            }
+            nSubmitted = nWritten = lastReportWritten = waitNs = 0;
+            maxPending = 0;
+        }
+        // Release the pooled pixels
+        Pixmap pixmap;
+        while ((pixmap = pixmaps.poll()) != null) {
+            pixmap.dispose();
+        }
+    }
+
+    public int getPending() {
+        synchronized (lock) {
+            return pending;
+        }
+    }
+
+    public int getMaxPending() {
+        synchronized (lock) {
+            return maxPending;
+        }
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.screenshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Streams raw frames of a fixed size to a file, a named pipe or the standard input of
+ * a child process, with no container and no compression. Each frame is written as
+ * <code>width * height * 3</code> bytes of RGB, rows top to bottom, which is what
+ * <code>ffmpeg -f rawvideo -pix_fmt rgb24 -s WxH -i -</code> expects.
+ * <p>
+ * Frames are handed over as RGBA8888 buffers, as read from OpenGL (rows bottom to top), and are
+ * converted and written by a writer thread. At most <code>capacity</code> frames wait to be
+ * written; {@link #obtain()} blocks when they are all in use.
+ *
+ * @author tsagrista
+ */
+public class RawFrameStream implements AutoCloseable {
+    /** Maximum time to wait for a child process to finish when closing **/
+    private static final long PROCESS_WAIT_S = 60;
+
+    private final int width, height;
+    private final WritableByteChannel channel;
+    private final Process process;
+    private final String description;
+
+    /** Free and full buffers, each with room for one RGBA frame **/
+    private final BlockingQueue<ByteBuffer> free, full;
+    /** Marks the end of the stream in the full queue **/
+    private final ByteBuffer eos = ByteBuffer.allocate(0);
+    private final Thread writer;
+    private final CRC32 crc;
+    private final ConcurrentLinkedQueue<Long> checksums;
+
+    private volatile IOException error;
+    private volatile long nWritten;
+    private boolean closed = false;
+
+    /**
+     * Opens a stream. If the target starts with '|', the rest is a command line which is started
+     * as a child process, with the placeholders <code>{width}</code>, <code>{height}</code> and <code>{fps}</code>
+     * replaced. Otherwise, the target is a path. Existing regular files are not overwritten, a
+     * sequence number is added to the name instead. Named pipes and devices are written as they are.
+     *
+     * @param target    The target
+     * @param width     The frame width
+     * @param height    The frame height
+     * @param fps       The frame rate, only used in the command line placeholders
+     * @param capacity  The maximum number of frames waiting to be written
+     * @param checksums Whether to compute the CRC32 of every frame written, see {@link #pollChecksum()}
+     * @throws IOException If the target can't be opened
+     */
+    public RawFrameStream(String target, int width, int height, double fps, int capacity, boolean checksums) throws IOException {
+        this.width = width;
+        this.height = height;
+        target = target.strip();
+        if (target.startsWith("|")) {
+            String command = target.substring(1).replace("{width}", Integer.toString(width)).replace("{height}", Integer.toString(height)).replace("{fps}", Double.toString(fps));
+            ProcessBuilder pb = new ProcessBuilder(tokenize(command));
+            pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            this.process = pb.start();
+            this.channel = Channels.newChannel(process.getOutputStream());
+            this.description = "process: " + command;
+        } else {
+            Path path = Path.of(target);
+            if (Files.isRegularFile(path)) {
+                path = nextFree(path);
+            }
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            this.process = null;
+            this.channel = Files.exists(path) ? FileChannel.open(path, StandardOpenOption.WRITE) : FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+            this.description = path.toString();
+        }
+
+        capacity = Math.max(1, capacity);
+        this.free = new ArrayBlockingQueue<>(capacity);
+        this.full = new ArrayBlockingQueue<>(capacity + 1);
+        for (int i = 0; i < capacity; i++) {
+            free.add(ByteBuffer.allocateDirect(width * height * 4));
+        }
+        this.crc = checksums ? new CRC32() : null;
+        this.checksums = checksums ? new ConcurrentLinkedQueue<>() : null;
+
+        this.writer = new Thread(this::writeLoop, "gaiasky-worker-framestream");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public long getNWritten() {
+        return nWritten;
+    }
+
+    /**
+     * Number of frames waiting to be written
+     */
+    public int getQueueDepth() {
+        return full.size();
+    }
+
+    /**
+     * Gets a free buffer to fill with an RGBA frame, rows bottom to top. Blocks
+     * until one is available.
+     *
+     * @return The buffer, cleared
+     * @throws IOException If the writer failed
+     */
+    public ByteBuffer obtain() throws IOException {
+        checkError();
+        try {
+            ByteBuffer buffer;
+            while ((buffer = free.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                checkError();
+            }
+            buffer.clear();
+            return buffer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Queues a buffer obtained with {@link #obtain()} to be written
+     *
+     * @param buffer The buffer
+     * @throws IOException If the writer failed
+     */
+    public void submit(ByteBuffer buffer) throws IOException {
+        checkError();
+        full.add(buffer);
+    }
+
+    /**
+     * Gets the checksum of the next written frame, in order, if checksums are enabled
+     *
+     * @return The CRC32 of the RGB frame, or null if no more frames have been written
+     */
+    public Long pollChecksum() {
+        return checksums != null ? checksums.poll() : null;
+    }
+
+    private void writeLoop() {
+        final int rowBytes = width * 3;
+        final ByteBuffer out = ByteBuffer.allocateDirect(rowBytes * height);
+        final byte[] rgba = new byte[width * 4];
+        final byte[] rgb = new byte[rowBytes];
+        try {
+            ByteBuffer frame;
+            while ((frame = full.take()) != eos) {
+                // Flip and drop alpha
+                out.clear();
+                for (int y = height - 1; y >= 0; y--) {
+                    frame.position(y * width * 4);
+                    frame.get(rgba);
+                    for (int i = 0, j = 0; i < rowBytes; i += 3, j += 4) {
+                        rgb[i] = rgba[j];
+                        rgb[i + 1] = rgba[j + 1];
+                        rgb[i + 2] = rgba[j + 2];
+                    }
+                    out.put(rgb);
+                }
+                free.add(frame);
+                out.flip();
+                if (crc != null) {
+                    crc.reset();
+                    crc.update(out.duplicate());
+                }
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                if (crc != null) {
+                    checksums.add(crc.getValue());
+                }
+                nWritten++;
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            error = new IOException(e);
+        }
+    }
+
+    private void checkError() throws IOException {
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Writes the pending frames and closes the target. If the target is a process, waits for it to finish.
+     *
+     * @throws IOException If the writer failed or the target could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            full.put(eos);
+            writer.join();
+            channel.close();
+            if (process != null && !process.waitFor(PROCESS_WAIT_S, TimeUnit.SECONDS)) {
+                process.destroy();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkError();
+    }
+
+    private static Path nextFree(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        Path candidate = path;
+        for (int i = 1; Files.exists(candidate); i++) {
+            candidate = path.resolveSibling(String.format("%s_%05d%s", base, i, ext));
+        }
+        return candidate;
+    }
+
+    /**
+     * Splits a command line by white space, keeping double-quoted strings together
+     */
+    private static List<String> tokenize(String command) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false, token = false;
+        for (char c : command.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                token = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (token) {
+                    tokens.add(sb.toString());
+                    sb.setLength(0);
+                    token = false;
+                }
+            } else {
+                sb.append(c);
+                token = true;
+            }
+        }
+        if (token)
+            tokens.add(sb.toString());
+        return tokens;
+    }
+}
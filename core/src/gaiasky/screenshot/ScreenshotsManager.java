@@ -53,14 +53,17 @@ public class ScreenshotsManager implements IObserver {
     }
 
     public IFileImageRenderer frameRenderer, screenshotRenderer;
+    /** Frame renderer used when the frames are streamed, null otherwise **/
+    private IFileImageRenderer streamRenderer;
     private final ScreenshotCmd screenshot;
     private IGui renderGui;
 
     public ScreenshotsManager() {
         super();
-        //frameRenderer = new BufferedFileImageRenderer(GlobalConf.runtime.OUTPUT_FRAME_BUFFER_SIZE);
-        frameRenderer = new BasicFileImageRenderer();
+        frameRenderer = new ParallelFileImageRenderer(GlobalConf.performance.MULTITHREADING ? Math.max(1, GlobalConf.performance.NUMBER_THREADS() / 2) : 1);
         screenshotRenderer = new BasicFileImageRenderer();
+        if (GlobalConf.frame.RENDER_STREAM != null && !GlobalConf.frame.RENDER_STREAM.isBlank())
+            streamRenderer = new StreamImageRenderer(GlobalConf.frame.RENDER_STREAM);
         screenshot = new ScreenshotCmd();
 
         EventManager.instance.subscribe(this, Events.RENDER_FRAME, Events.RENDER_SCREENSHOT, Events.RENDER_FRAME_BUFFER, Events.FLUSH_FRAMES, Events.SCREENSHOT_CMD, Events.UPDATE_GUI, Events.DISPOSE);
@@ -68,6 +71,7 @@ public class ScreenshotsManager implements IObserver {
 
     public void renderFrame(IMainRenderer mr) {
         if (GlobalConf.frame.RENDER_OUTPUT) {
+            IFileImageRenderer frameRenderer = streamRenderer != null ? streamRenderer : this.frameRenderer;
             switch (GlobalConf.frame.FRAME_MODE) {
             case simple:
                 frameRenderer.saveScreenshot(GlobalConf.frame.RENDER_FOLDER, GlobalConf.frame.RENDER_FILE_NAME, Gdx.graphics.getWidth(), Gdx.graphics.getHeight(), true, GlobalConf.frame.FRAME_FORMAT, GlobalConf.frame.FRAME_QUALITY);
@@ -178,6 +182,8 @@ public class ScreenshotsManager implements IObserver {
             break;
         case FLUSH_FRAMES:
             frameRenderer.flush();
+            if (streamRenderer != null)
+                streamRenderer.flush();
             break;
         case SCREENSHOT_CMD:
             screenshot.takeScreenshot((int) data[0], (int) data[1], (String) data[2]);
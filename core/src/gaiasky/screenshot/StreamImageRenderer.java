@@ -0,0 +1,101 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.screenshot;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import gaiasky.util.GlobalConf;
+import gaiasky.util.GlobalConf.ImageFormat;
+import gaiasky.util.Logger;
+import gaiasky.util.Logger.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Renders frames to a single raw RGB stream, see {@link RawFrameStream}, instead of one
+ * image file per frame. The stream is opened with the size of the first frame and closed on flush,
+ * when the frame output is turned off. Frames of a different size are dropped.
+ *
+ * @author tsagrista
+ */
+public class StreamImageRenderer implements IFileImageRenderer {
+    private static final Log logger = Logger.getLogger(StreamImageRenderer.class);
+
+    /** Maximum size of the frames waiting to be written **/
+    private static final long MAX_PENDING_BYTES = 256L * 1024L * 1024L;
+    private static final int MAX_PENDING_FRAMES = 8;
+
+    private final String target;
+    private RawFrameStream stream;
+    private boolean failed = false;
+    private long nDropped, startNs;
+    private int maxQueueDepth;
+
+    /**
+     * Creates a renderer
+     *
+     * @param target The file, pipe or command, see {@link RawFrameStream#RawFrameStream(String, int, int, double, int, boolean)}
+     */
+    public StreamImageRenderer(String target) {
+        this.target = target;
+    }
+
+    @Override
+    public String saveScreenshot(String absoluteLocation, String baseFileName, int w, int h, boolean immediate, ImageFormat type, float quality) {
+        if (failed)
+            return null;
+        try {
+            if (stream == null) {
+                int capacity = (int) Math.max(1L, Math.min(MAX_PENDING_FRAMES, MAX_PENDING_BYTES / ((long) w * h * 4L)));
+                stream = new RawFrameStream(target, w, h, GlobalConf.frame.RENDER_TARGET_FPS, capacity, false);
+                startNs = System.nanoTime();
+                logger.info("Frame output: streaming raw rgb24 " + w + "x" + h + " frames to " + stream.getDescription());
+            }
+            if (w != stream.getWidth() || h != stream.getHeight()) {
+                if (nDropped++ == 0)
+                    logger.warn("Frame output: frame size changed to " + w + "x" + h + ", dropping frames until the stream is closed");
+                return null;
+            }
+            ByteBuffer buffer = stream.obtain();
+            Gdx.gl.glPixelStorei(GL20.GL_PACK_ALIGNMENT, 1);
+            Gdx.gl.glReadPixels(0, 0, w, h, GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, buffer);
+            stream.submit(buffer);
+            maxQueueDepth = Math.max(maxQueueDepth, stream.getQueueDepth());
+            return stream.getDescription();
+        } catch (IOException e) {
+            logger.error(e, "Frame output: streaming to " + target + " failed");
+            failed = true;
+            closeStream();
+            return null;
+        }
+    }
+
+    /**
+     * Writes the pending frames and closes the stream. The next frame opens a new one.
+     */
+    @Override
+    public void flush() {
+        closeStream();
+        failed = false;
+    }
+
+    private void closeStream() {
+        if (stream != null) {
+            try {
+                stream.close();
+                double seconds = (System.nanoTime() - startNs) * 1e-9;
+                logger.info(String.format("Frame output: %d frames streamed to %s in %.2f s (%.1f fps), max queue depth %d, %d dropped", stream.getNWritten(), stream.getDescription(), seconds, stream.getNWritten() / Math.max(seconds, 1e-9), maxQueueDepth, nDropped));
+            } catch (IOException e) {
+                logger.error(e, "Frame output: error closing " + stream.getDescription());
+            }
+            stream = null;
+            nDropped = 0;
+            maxQueueDepth = 0;
+        }
+    }
+
+}
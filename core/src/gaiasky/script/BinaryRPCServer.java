@@ -0,0 +1,537 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.script;
+
+import gaiasky.util.Logger;
+import gaiasky.util.Logger.Log;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Binary remote procedure call server over persistent TCP connections. It exposes the public
+ * methods of an interface, bound to a target object. Method handles are resolved once at startup
+ * and calls are addressed by a numeric method id, which clients get from a describe request.
+ * <p>
+ * All values are in network byte order. On connection, the server sends the magic number
+ * ('GSRP', int) and the protocol version (byte). Then, each request is
+ * <ul>
+ * <li>request id (int), chosen by the client and echoed in the response</li>
+ * <li>request type (byte), one of {@link #REQ_DESCRIBE}, {@link #REQ_CALL}, {@link #REQ_BATCH}</li>
+ * <li>payload:
+ * <ul>
+ * <li>describe: nothing</li>
+ * <li>call: method id (short), number of arguments (byte), and the tagged arguments</li>
+ * <li>batch: number of calls (short), and each call as above</li>
+ * </ul>
+ * </li>
+ * </ul>
+ * Each response is the request id (int), the status (byte, {@link #ST_OK} or {@link #ST_ERROR})
+ * and, on error, the message (UTF). On success, the payload is
+ * <ul>
+ * <li>describe: number of methods (short), and for each in id order the name and the signature (UTF)</li>
+ * <li>call: the tagged return value, {@link #T_NULL} for void methods</li>
+ * <li>batch: number of calls (short), and for each its status and tagged value or message</li>
+ * </ul>
+ * A tagged value is its type tag (byte, <code>T_*</code>) followed by the value. Arrays are
+ * the length (int) followed by the elements. Numeric arguments are converted to the type of the parameter.
+ * Arrays may have at most {@link #MAX_ARRAY_LENGTH} elements, and the arrays of a request at most
+ * {@link #MAX_REQUEST_ELEMENTS} elements in total. Requests over these limits close the connection.
+ * <p>
+ * Requests of a connection are processed in order, in the connection thread, and clients
+ * may send requests without waiting for the responses. The calls of a batch run together in a single
+ * runnable of the batch executor, usually the main loop, so they take effect in the same frame.
+ * Calls which wait for something to happen in the main loop must not be batched.
+ * <p>
+ * WARNING: like the REST server, this permits remote code execution. Only use it in a trusted environment.
+ *
+ * @author tsagrista
+ */
+public class BinaryRPCServer implements Closeable {
+    private static final Log logger = Logger.getLogger(BinaryRPCServer.class);
+
+    public static final int MAGIC = 0x47535250;
+    public static final byte VERSION = 1;
+
+    /** Request types **/
+    public static final byte REQ_DESCRIBE = 0;
+    public static final byte REQ_CALL = 1;
+    public static final byte REQ_BATCH = 2;
+
+    /** Response status **/
+    public static final byte ST_OK = 0;
+    public static final byte ST_ERROR = 1;
+
+    /** Value type tags **/
+    public static final byte T_NULL = 0;
+    public static final byte T_BOOLEAN = 1;
+    public static final byte T_INT = 2;
+    public static final byte T_LONG = 3;
+    public static final byte T_FLOAT = 4;
+    public static final byte T_DOUBLE = 5;
+    public static final byte T_STRING = 6;
+    public static final byte T_INT_ARRAY = 7;
+    public static final byte T_FLOAT_ARRAY = 8;
+    public static final byte T_DOUBLE_ARRAY = 9;
+    public static final byte T_STRING_ARRAY = 10;
+
+    /** Maximum length of an array value **/
+    public static final int MAX_ARRAY_LENGTH = 1 << 22;
+    /** Maximum number of array elements in all the values of a request **/
+    public static final int MAX_REQUEST_ELEMENTS = 1 << 24;
+
+    private static final Set<Class<?>> SUPPORTED_TYPES = Set.of(boolean.class, Boolean.class, int.class, Integer.class, long.class, Long.class, float.class, Float.class, double.class, Double.class, String.class, int[].class, float[].class, double[].class, String[].class);
+
+    /** A method, bound to the target and taking its arguments in an array **/
+    private static class BoundMethod {
+        final String name, signature;
+        final Class<?>[] parameters;
+        final MethodHandle handle;
+
+        BoundMethod(Method m, Object target) throws IllegalAccessException {
+            this.name = m.getName();
+            this.parameters = m.getParameterTypes();
+            this.signature = signature(m);
+            this.handle = MethodHandles.publicLookup().unreflect(m).bindTo(target).asSpreader(Object[].class, parameters.length).asType(MethodType.methodType(Object.class, Object[].class));
+        }
+
+        Object invoke(Object[] args) throws Throwable {
+            return (Object) handle.invokeExact(args);
+        }
+    }
+
+    /** A call read from the connection **/
+    private static class Call {
+        BoundMethod method;
+        Object[] args;
+        byte status;
+        Object result;
+        String error;
+
+        void run() {
+            try {
+                result = method.invoke(args);
+                status = ST_OK;
+            } catch (Throwable t) {
+                if (t instanceof InvocationTargetException && t.getCause() != null)
+                    t = t.getCause();
+                status = ST_ERROR;
+                error = method.name + ": " + t;
+            }
+        }
+    }
+
+    private final BoundMethod[] methods;
+    private final Executor batchExecutor;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    /**
+     * Creates the server and starts accepting connections
+     *
+     * @param iface         The interface whose methods are exposed. Methods with unsupported parameter types are skipped
+     * @param target        The object the calls go to
+     * @param batchExecutor The executor of the batches
+     * @param port          The TCP port, 0 to pick a free one
+     * @param local         Whether to listen only on the loopback interface
+     * @throws IOException If the server socket can't be opened
+     */
+    public BinaryRPCServer(Class<?> iface, Object target, Executor batchExecutor, int port, boolean local) throws IOException {
+        this.batchExecutor = batchExecutor;
+        this.methods = bind(iface, target);
+        this.serverSocket = local ? new ServerSocket(port, 50, InetAddress.getLoopbackAddress()) : new ServerSocket(port);
+        this.acceptor = new Thread(this::acceptLoop, "gaiasky-worker-rpc");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+        logger.info("Binary RPC server listening on " + serverSocket.getLocalSocketAddress() + " with " + methods.length + " methods");
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getNMethods() {
+        return methods.length;
+    }
+
+    private static BoundMethod[] bind(Class<?> iface, Object target) {
+        List<Method> candidates = new ArrayList<>();
+        for (Method m : iface.getMethods()) {
+            if (Modifier.isStatic(m.getModifiers()))
+                continue;
+            boolean supported = true;
+            for (Class<?> p : m.getParameterTypes()) {
+                supported = supported && SUPPORTED_TYPES.contains(p);
+            }
+            if (supported)
+                candidates.add(m);
+        }
+        // Stable ids across runs of the same version
+        candidates.sort(Comparator.comparing(BinaryRPCServer::signature));
+        List<BoundMethod> bound = new ArrayList<>(candidates.size());
+        for (Method m : candidates) {
+            try {
+                bound.add(new BoundMethod(m, target));
+            } catch (IllegalAccessException e) {
+                logger.warn("Can't bind " + signature(m) + ": " + e.getMessage());
+            }
+        }
+        return bound.toArray(new BoundMethod[0]);
+    }
+
+    private static String signature(Method m) {
+        StringBuilder sb = new StringBuilder(m.getName()).append('(');
+        Class<?>[] params = m.getParameterTypes();
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(params[i].getSimpleName());
+        }
+        return sb.append(')').append(m.getReturnType().getSimpleName()).toString();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                Thread t = new Thread(() -> serve(socket), "gaiasky-worker-rpc-" + socket.getPort());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                if (running)
+                    logger.error(e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        logger.info("Binary RPC connection started: " + socket);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.flush();
+            while (running) {
+                int requestId;
+                try {
+                    requestId = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte type = in.readByte();
+                // Elements left for the arrays of this request
+                int[] budget = { MAX_REQUEST_ELEMENTS };
+                switch (type) {
+                case REQ_DESCRIBE:
+                    out.writeInt(requestId);
+                    out.writeByte(ST_OK);
+                    out.writeShort(methods.length);
+                    for (BoundMethod m : methods) {
+                        out.writeUTF(m.name);
+                        out.writeUTF(m.signature);
+                    }
+                    break;
+                case REQ_CALL:
+                    Call call = readCall(in, budget);
+                    if (call.method != null)
+                        call.run();
+                    out.writeInt(requestId);
+                    writeResult(out, call);
+                    break;
+                case REQ_BATCH:
+                    int n = in.readUnsignedShort();
+                    Call[] calls = new Call[n];
+                    for (int i = 0; i < n; i++) {
+                        calls[i] = readCall(in, budget);
+                    }
+                    runBatch(calls);
+                    out.writeInt(requestId);
+                    out.writeByte(ST_OK);
+                    out.writeShort(n);
+                    for (Call c : calls) {
+                        writeResult(out, c);
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown request type: " + type);
+                }
+                // Coalesce the responses of pipelined requests
+                if (in.available() == 0)
+                    out.flush();
+            }
+        } catch (SocketException | EOFException e) {
+            // Closed
+        } catch (IOException e) {
+            logger.error(e, "Binary RPC connection error: " + socket);
+        } finally {
+            connections.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing
+            }
+            logger.info("Binary RPC connection stopped: " + socket);
+        }
+    }
+
+    /**
+     * Reads a call. The arguments are always consumed, so that the stream stays in sync
+     * even if the method id or the arguments are wrong, in which case the call has an error.
+     *
+     * @param budget The number of array elements the request may still read, updated
+     * @throws IOException If the stream fails or an array length is out of the limits
+     */
+    private Call readCall(DataInputStream in, int[] budget) throws IOException {
+        Call call = new Call();
+        int id = in.readUnsignedShort();
+        int nArgs = in.readUnsignedByte();
+        Object[] raw = new Object[nArgs];
+        for (int i = 0; i < nArgs; i++) {
+            raw[i] = readValue(in, budget);
+        }
+        if (id >= methods.length) {
+            call.status = ST_ERROR;
+            call.error = "Unknown method id: " + id;
+            return call;
+        }
+        BoundMethod m = methods[id];
+        if (nArgs != m.parameters.length) {
+            call.status = ST_ERROR;
+            call.error = m.signature + ": expected " + m.parameters.length + " arguments, got " + nArgs;
+            return call;
+        }
+        try {
+            for (int i = 0; i < nArgs; i++) {
+                raw[i] = coerce(raw[i], m.parameters[i]);
+            }
+        } catch (IllegalArgumentException e) {
+            call.status = ST_ERROR;
+            call.error = m.signature + ": " + e.getMessage();
+            return call;
+        }
+        call.method = m;
+        call.args = raw;
+        return call;
+    }
+
+    private void runBatch(Call[] calls) {
+        CountDownLatch done = new CountDownLatch(1);
+        batchExecutor.execute(() -> {
+            try {
+                for (Call c : calls) {
+                    if (c.method != null)
+                        c.run();
+                }
+            } finally {
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeResult(DataOutputStream out, Call call) throws IOException {
+        out.writeByte(call.status);
+        if (call.status == ST_OK)
+            writeValue(out, call.result);
+        else
+            out.writeUTF(call.error);
+    }
+
+    private static Object readValue(DataInputStream in, int[] budget) throws IOException {
+        byte tag = in.readByte();
+        int len;
+        switch (tag) {
+        case T_NULL:
+            return null;
+        case T_BOOLEAN:
+            return in.readBoolean();
+        case T_INT:
+            return in.readInt();
+        case T_LONG:
+            return in.readLong();
+        case T_FLOAT:
+            return in.readFloat();
+        case T_DOUBLE:
+            return in.readDouble();
+        case T_STRING:
+            return in.readUTF();
+        case T_INT_ARRAY:
+            len = readLength(in, budget);
+            int[] ia = new int[len];
+            for (int i = 0; i < len; i++)
+                ia[i] = in.readInt();
+            return ia;
+        case T_FLOAT_ARRAY:
+            len = readLength(in, budget);
+            float[] fa = new float[len];
+            for (int i = 0; i < len; i++)
+                fa[i] = in.readFloat();
+            return fa;
+        case T_DOUBLE_ARRAY:
+            len = readLength(in, budget);
+            double[] da = new double[len];
+            for (int i = 0; i < len; i++)
+                da[i] = in.readDouble();
+            return da;
+        case T_STRING_ARRAY:
+            len = readLength(in, budget);
+            String[] sa = new String[len];
+            for (int i = 0; i < len; i++)
+                sa[i] = in.readUTF();
+            return sa;
+        default:
+            throw new IOException("Unknown value tag: " + tag);
+        }
+    }
+
+    /**
+     * Reads the length of an array and checks it before anything is allocated, since it comes
+     * straight from the connection.
+     */
+    private static int readLength(DataInputStream in, int[] budget) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > MAX_ARRAY_LENGTH || len > budget[0])
+            throw new IOException("Array length out of limits: " + len);
+        budget[0] -= len;
+        return len;
+    }
+
+    /**
+     * Writes a value with its tag. Values of unsupported types are written as their string representation.
+     */
+    public static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(T_NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(T_INT);
+            out.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(T_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof int[]) {
+            int[] a = (int[]) value;
+            out.writeByte(T_INT_ARRAY);
+            out.writeInt(a.length);
+            for (int v : a)
+                out.writeInt(v);
+        } else if (value instanceof float[]) {
+            float[] a = (float[]) value;
+            out.writeByte(T_FLOAT_ARRAY);
+            out.writeInt(a.length);
+            for (float v : a)
+                out.writeFloat(v);
+        } else if (value instanceof double[]) {
+            double[] a = (double[]) value;
+            out.writeByte(T_DOUBLE_ARRAY);
+            out.writeInt(a.length);
+            for (double v : a)
+                out.writeDouble(v);
+        } else if (value instanceof Object[]) {
+            Object[] a = (Object[]) value;
+            out.writeByte(T_STRING_ARRAY);
+            out.writeInt(a.length);
+            for (Object v : a)
+                out.writeUTF(String.valueOf(v));
+        } else if (value instanceof Collection) {
+            Collection<?> c = (Collection<?>) value;
+            out.writeByte(T_STRING_ARRAY);
+            out.writeInt(c.size());
+            for (Object v : c)
+                out.writeUTF(String.valueOf(v));
+        } else {
+            out.writeByte(T_STRING);
+            out.writeUTF(value.toString());
+        }
+    }
+
+    /**
+     * Converts a received argument to the type of the parameter
+     */
+    private static Object coerce(Object value, Class<?> type) {
+        if (value == null) {
+            if (type.isPrimitive())
+                throw new IllegalArgumentException("null for a parameter of type " + type.getSimpleName());
+            return null;
+        }
+        if (type == double.class || type == Double.class)
+            return number(value, type).doubleValue();
+        if (type == float.class || type == Float.class)
+            return number(value, type).floatValue();
+        if (type == long.class || type == Long.class)
+            return number(value, type).longValue();
+        if (type == int.class || type == Integer.class)
+            return number(value, type).intValue();
+        if (type == double[].class) {
+            if (value instanceof double[])
+                return value;
+            if (value instanceof float[]) {
+                float[] f = (float[]) value;
+                double[] d = new double[f.length];
+                for (int i = 0; i < f.length; i++)
+                    d[i] = f[i];
+                return d;
+            }
+            if (value instanceof int[])
+                return Arrays.stream((int[]) value).asDoubleStream().toArray();
+        }
+        if (type == float[].class && value instanceof double[]) {
+            double[] d = (double[]) value;
+            float[] f = new float[d.length];
+            for (int i = 0; i < d.length; i++)
+                f[i] = (float) d[i];
+            return f;
+        }
+        Class<?> boxed = type == boolean.class ? Boolean.class : type;
+        if (!boxed.isInstance(value))
+            throw new IllegalArgumentException(value.getClass().getSimpleName() + " for a parameter of type " + type.getSimpleName());
+        return value;
+    }
+
+    private static Number number(Object value, Class<?> type) {
+        if (value instanceof Number)
+            return (Number) value;
+        throw new IllegalArgumentException(value.getClass().getSimpleName() + " for a parameter of type " + type.getSimpleName());
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        for (Socket s : connections) {
+            s.close();
+        }
+    }
+}
@@ -15,6 +15,7 @@ import com.badlogic.gdx.scenes.scene2d.Group;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.TimeUtils;
 import gaiasky.GaiaSky;
+import gaiasky.data.StreamingOctreeLoader;
 import gaiasky.data.cluster.StarClusterLoader;
 import gaiasky.data.group.DatasetOptions;
 import gaiasky.data.group.STILDataProvider;
@@ -68,6 +69,9 @@ import java.util.concurrent.atomic.AtomicReference;
 public class EventScriptingInterface implements IScriptingInterface, IObserver {
     private static final Log logger = Logger.getLogger(EventScriptingInterface.class);
 
+    /** Time to wait for a star of a LOD catalog to be loaded, in seconds **/
+    private static final double LOAD_OBJECT_TIMEOUT_S = 20;
+
     private final EventManager em;
     private final AssetManager manager;
     private LruCache<String, Texture> textures;
@@ -964,6 +968,10 @@ public class EventScriptingInterface implements IScriptingInterface, IObserver {
                 obj = sg.getNode(name.substring(4));
             }
         }
+        if (obj == null) {
+            // Stars of LOD catalogs which are not loaded yet, see the name index
+            StreamingOctreeLoader.loadObject(name);
+        }
 
         // If negative, no limit in waiting
         if (timeOutSeconds < 0)
@@ -1068,6 +1076,10 @@ public class EventScriptingInterface implements IScriptingInterface, IObserver {
             if (sg.containsNode(namelc)) {
                 IFocus focus = sg.findFocus(namelc);
                 goToObject(focus, viewAngle, waitTimeSeconds, stop);
+            } else if (StreamingOctreeLoader.loadObject(namelc) && getObject(namelc, LOAD_OBJECT_TIMEOUT_S) != null) {
+                // Star of a LOD catalog, loaded now
+                IFocus focus = sg.findFocus(namelc);
+                goToObject(focus, viewAngle, waitTimeSeconds, stop);
             } else {
                 logger.info("FOCUS_MODE object does not exist: " + name);
             }
@@ -1086,6 +1098,9 @@ public class EventScriptingInterface implements IScriptingInterface, IObserver {
 
             changeFocus(object, cam, waitTimeSeconds);
 
+            // Start loading the octants around the destination
+            StreamingOctreeLoader.prefetchTarget(object.getAbsolutePosition(new Vector3d()), 30000);
+
             /* target angle */
             double target = Math.toRadians(viewAngle);
             if (target < 0)
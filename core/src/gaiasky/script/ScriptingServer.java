@@ -18,7 +18,8 @@ import py4j.Py4JServerConnection;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * The scripting server of Gaia Sky, backed by a Py4J {@link py4j.GatewayServer}.
+ * The scripting server of Gaia Sky, backed by a Py4J {@link py4j.GatewayServer}. If
+ * configured, a {@link BinaryRPCServer} is also started for low-overhead remote calls.
  */
 public class ScriptingServer {
     private static final Logger.Log logger = Logger.getLogger(ScriptingServer.class);
@@ -26,6 +27,7 @@ public class ScriptingServer {
     private static ClientServer gatewayServer;
     private static GatewayServerListener listener;
     private static final AtomicInteger connections = new AtomicInteger(0);
+    private static BinaryRPCServer rpcServer;
 
     public static void initialize() {
         initialize(false);
@@ -102,10 +104,26 @@ public class ScriptingServer {
                 logger.error("Could not initialize the Py4J gateway server, is there another instance of Gaia Sky running? Proceeding without scripting...");
                 logger.error(e);
             }
+            if (rpcServer == null && GlobalConf.program.RPC_PORT >= 0) {
+                try {
+                    logger.warn("*** Warning: the binary RPC server permits remote code execution! Only use it in a trusted environment! ***");
+                    rpcServer = new BinaryRPCServer(IScriptingInterface.class, EventScriptingInterface.instance(), GaiaSky::postRunnable, GlobalConf.program.RPC_PORT, !GlobalConf.program.RPC_REMOTE);
+                } catch (Exception e) {
+                    logger.error(e, "Could not initialize the binary RPC server on port " + GlobalConf.program.RPC_PORT);
+                }
+            }
         }
     }
 
     public static void dispose() {
+        if (rpcServer != null) {
+            try {
+                rpcServer.close();
+            } catch (Exception e) {
+                logger.error(e);
+            }
+            rpcServer = null;
+        }
         if (gatewayServer != null) {
             if (listener != null) {
                 gatewayServer.getJavaServer().removeListener(listener);
@@ -136,10 +136,55 @@ public class GlobalConf {
 
         public boolean MULTITHREADING;
         public int NUMBER_THREADS;
+        /**
+         * Number of threads decoding octree pages in the background. If zero or
+         * negative, it is derived from the number of threads
+         */
+        public int NUMBER_LOAD_THREADS;
+        /**
+         * Time horizon, in seconds, of the octant prefetcher. Octants which are expected to
+         * become visible within this time are loaded in advance. Zero or negative disables it
+         */
+        public double PREFETCH_HORIZON;
+        /**
+         * Maximum number of octants per second read by the prefetcher
+         */
+        public int PREFETCH_BUDGET;
+        /**
+         * Octree depth at which the octree update is split into parallel tasks, one
+         * per octant. Zero or negative disables the parallel update
+         */
+        public int OCTREE_SPLIT_DEPTH;
+        /**
+         * Whether the independent subtrees of the scene graph, the children of the root
+         * and the objects of the octrees, are updated in parallel. Only if multithreading is on
+         */
+        public boolean PARALLEL_UPDATE;
+        /**
+         * Largest error, in km, of the cached positions of the bodies with analytic
+         * series (VSOP87, the Moon and Pluto) with respect to the series. Zero or
+         * negative disables the cache. See {@link gaiasky.util.coord.ChebyshevEphemeris}
+         */
+        public double EPHEMERIS_TOLERANCE_KM;
 
-        public void initialize(boolean MULTITHREADING, int NUMBER_THREADS) {
+        public void initialize(boolean MULTITHREADING, int NUMBER_THREADS, int NUMBER_LOAD_THREADS, double PREFETCH_HORIZON, int PREFETCH_BUDGET, int OCTREE_SPLIT_DEPTH, boolean PARALLEL_UPDATE, double EPHEMERIS_TOLERANCE_KM) {
             this.MULTITHREADING = MULTITHREADING;
             this.NUMBER_THREADS = NUMBER_THREADS;
+            this.NUMBER_LOAD_THREADS = NUMBER_LOAD_THREADS;
+            this.PREFETCH_HORIZON = PREFETCH_HORIZON;
+            this.PREFETCH_BUDGET = PREFETCH_BUDGET;
+            this.OCTREE_SPLIT_DEPTH = OCTREE_SPLIT_DEPTH;
+            this.PARALLEL_UPDATE = PARALLEL_UPDATE;
+            this.EPHEMERIS_TOLERANCE_KM = EPHEMERIS_TOLERANCE_KM;
+        }
+
+        /**
+         * Whether the scene graph is updated in parallel, which requires multithreading
+         *
+         * @return Whether the parallel update is on
+         */
+        public boolean PARALLEL_UPDATE() {
+            return MULTITHREADING && PARALLEL_UPDATE;
         }
 
         /**
@@ -156,6 +201,22 @@ public class GlobalConf {
                 return NUMBER_THREADS;
         }
 
+        /**
+         * Returns the actual number of octree page decoding threads. If multithreading
+         * is off, this is always 1. If the setting is 0 or less, half the number of
+         * threads is used, so that rendering and updating are not starved
+         *
+         * @return The number of load threads
+         */
+        public int NUMBER_LOAD_THREADS() {
+            if (!MULTITHREADING)
+                return 1;
+            else if (NUMBER_LOAD_THREADS <= 0)
+                return Math.max(1, NUMBER_THREADS() / 2);
+            else
+                return NUMBER_LOAD_THREADS;
+        }
+
     }
 
     public static class PostprocessConf implements IConf, IObserver {
@@ -628,6 +689,11 @@ public class GlobalConf {
          * Quality, in case format is JPG
          **/
         public float FRAME_QUALITY;
+        /**
+         * File, pipe or command ('|' prefix) to stream raw frames to, instead of writing
+         * image files. Empty to write image files
+         **/
+        public String RENDER_STREAM;
 
         /**
          * Path type of camera position
@@ -650,7 +716,7 @@ public class GlobalConf {
             return FRAME_MODE.equals(ScreenshotMode.redraw);
         }
 
-        public void initialize(int rENDER_WIDTH, int rENDER_HEIGHT, double rENDER_TARGET_FPS, double cAMERA_REC_TARGET_FPS, boolean aUTO_FRAME_OUTPUT_CAMERA_PLAY, String rENDER_FOLDER, String rENDER_FILE_NAME, boolean rENDER_SCREENSHOT_TIME, boolean rENDER_OUTPUT, ScreenshotMode fRAME_MODE, ImageFormat fRAME_FORMAT, float fRAME_QUALITY, CameraKeyframeManager.PathType kF_PATH_TYPE_POSITION, CameraKeyframeManager.PathType kF_PATH_TYPE_ORIENTATION) {
+        public void initialize(int rENDER_WIDTH, int rENDER_HEIGHT, double rENDER_TARGET_FPS, double cAMERA_REC_TARGET_FPS, boolean aUTO_FRAME_OUTPUT_CAMERA_PLAY, String rENDER_FOLDER, String rENDER_FILE_NAME, boolean rENDER_SCREENSHOT_TIME, boolean rENDER_OUTPUT, ScreenshotMode fRAME_MODE, ImageFormat fRAME_FORMAT, float fRAME_QUALITY, CameraKeyframeManager.PathType kF_PATH_TYPE_POSITION, CameraKeyframeManager.PathType kF_PATH_TYPE_ORIENTATION, String rENDER_STREAM) {
             RENDER_WIDTH = rENDER_WIDTH;
             RENDER_HEIGHT = rENDER_HEIGHT;
             RENDER_TARGET_FPS = rENDER_TARGET_FPS;
@@ -665,6 +731,7 @@ public class GlobalConf {
             FRAME_QUALITY = fRAME_QUALITY;
             KF_PATH_TYPE_ORIENTATION = kF_PATH_TYPE_ORIENTATION;
             KF_PATH_TYPE_POSITION = kF_PATH_TYPE_POSITION;
+            RENDER_STREAM = rENDER_STREAM;
         }
 
         @Override
@@ -984,6 +1051,14 @@ public class GlobalConf {
          * Blend PNG file
          **/
         public String NET_SLAVE_BLEND;
+        /**
+         * Multicast group (or unicast address, in the master) of the binary frame sync. Empty to use HTTP
+         **/
+        public String NET_SYNC_GROUP;
+        /**
+         * Port of the binary frame sync
+         **/
+        public int NET_SYNC_PORT;
 
         // Display debug information box at the top right
         public boolean SHOW_DEBUG_INFO;
@@ -1005,6 +1080,10 @@ public class GlobalConf {
         public String SCRIPT_LOCATION;
         public String LAST_OPEN_LOCATION;
         public int REST_PORT;
+        /** Port of the binary RPC scripting server, negative to disable **/
+        public int RPC_PORT;
+        /** Whether the binary RPC scripting server listens on all interfaces, otherwise only on the loopback one **/
+        public boolean RPC_REMOTE;
         public String LOCALE;
         public boolean DISPLAY_HUD;
         public boolean DISPLAY_POINTER_COORDS;
@@ -1041,7 +1120,7 @@ public class GlobalConf {
 
         public void initialize(boolean sHOW_DEBUG_INFO, Instant lAST_CHECKED, String lAST_VERSION, String vERSION_CHECK_URL, String dATA_DESCRIPTOR_URL, String uI_THEME, float uI_SCALE, String sCRIPT_LOCATION, int rEST_PORT, String lOCALE, boolean sTEREOSCOPIC_MODE, StereoProfile sTEREO_PROFILE, boolean cUBEMAP_MODE, CubemapProjections.CubemapProjection cUBEMAP_PROJECTION, int cUBEMAP_FACE_RESOLUTION, boolean dISPLAY_HUD, boolean dISPLAY_POINTER_COORDS, boolean nET_MASTER, boolean nET_SLAVE,
                 List<String> nET_MASTER_SLAVES, String nET_SLAVE_CONFIG, float nET_SLAVE_YAW, float nET_SLAVE_PITCH, float nET_SLAVE_ROLL, String nET_SLAVE_WARP, String nET_SLAVE_BLEND, String lAST_OPEN_LOCATION, boolean dISPLAY_MINIMAP, float mINIMAP_SIZE, float pLANETARIUM_APERTURE, float pLANETARIUM_ANGLE, boolean dISPLAY_POINTER_GUIDES, float[] pOINTER_GUIDES_COLOR, float pOINTER_GUIDES_WIDTH, OriginType rECURSIVE_GRID_ORIGIN, boolean rECURSIVE_GRID_ORIGIN_LINES, boolean eXIT_CONFIRMATION,
-                String mIRROR, boolean sAFE_GRAPHICS_MODE, boolean fILE_CHOOSER_SHOW_HIDDEN) {
+                String mIRROR, boolean sAFE_GRAPHICS_MODE, boolean fILE_CHOOSER_SHOW_HIDDEN, String nET_SYNC_GROUP, int nET_SYNC_PORT, int rPC_PORT, boolean rPC_REMOTE) {
             SHOW_DEBUG_INFO = sHOW_DEBUG_INFO;
             VERSION_LAST_TIME = lAST_CHECKED;
             VERSION_LAST_VERSION = lAST_VERSION;
@@ -1082,6 +1161,10 @@ public class GlobalConf {
             EXIT_CONFIRMATION = eXIT_CONFIRMATION;
             SAFE_GRAPHICS_MODE = sAFE_GRAPHICS_MODE;
             FILE_CHOOSER_SHOW_HIDDEN = fILE_CHOOSER_SHOW_HIDDEN;
+            NET_SYNC_GROUP = nET_SYNC_GROUP;
+            NET_SYNC_PORT = nET_SYNC_PORT;
+            RPC_PORT = rPC_PORT;
+            RPC_REMOTE = rPC_REMOTE;
         }
 
         public void initialize(boolean sHOW_DEBUG_INFO, String uI_THEME, String lOCALE, boolean sTEREOSCOPIC_MODE, StereoProfile sTEREO_PROFILE) {
@@ -1602,6 +1685,14 @@ public class GlobalConf {
          */
         public long MAX_LOADED_STARS;
 
+        /**
+         * In the case of multifile LOD datasets, memory budgets in MB for the loaded octants,
+         * counting both main and graphics memory. Over the soft budget, the least recently used
+         * octants are unloaded. Over the hard budget, no more octants are loaded until memory is
+         * released. If zero or negative, they are derived from the maximum heap size.
+         */
+        public long MAX_LOADED_MEMORY_SOFT, MAX_LOADED_MEMORY_HARD;
+
         /**
          * Distance scaling factor in desktop mode
          **/
@@ -1617,7 +1708,7 @@ public class GlobalConf {
 
         public void initialize(String sTARTUP_OBJECT, GraphicsQuality gRAPHICS_QUALITY, long oBJECT_FADE_MS, float sTAR_BRIGHTNESS, float sTAR_BRIGHTNESS_POWER, int sTAR_TEX_INDEX, int sTAR_GROUP_N_NEAREST, boolean sTAR_GROUP_BILLBOARD_FLAG, float aMBIENT_LIGHT, float cAMERA_FOV, float cAMERA_SPEED, float tURNING_SPEED, float rOTATION_SPEED, int cAMERA_SPEED_LIMIT_IDX, boolean fOCUS_LOCK, boolean fOCUS_LOCK_ORIENTATION, float lABEL_SIZE_FACTOR, float lABEL_NUMBER_FACTOR, float lINE_WIDTH_FACTOR,
                 boolean[] vISIBILITY, int oRBIT_RENDERER, int lINE_RENDERER, double sTAR_TH_ANGLE_NONE, double sTAR_TH_ANGLE_POINT, double sTAR_TH_ANGLE_QUAD, float sTAR_MIN_OPACITY, float sTAR_MAX_OPACITY, boolean oCTREE_PARTICLE_FADE, float oCTANT_TH_ANGLE_0, float oCTANT_TH_ANGLE_1, float pM_NUM_FACTOR, float pM_LEN_FACTOR, long n_PM_STARS, int pM_COLOR_MODE, boolean pM_ARROWHEADS, float sTAR_POINT_SIZE, boolean gALAXY_3D, boolean cROSSHAIR_FOCUS, boolean cROSSHAIR_CLOSEST,
-                boolean cROSSHAIR_HOME, boolean cINEMATIC_CAMERA, boolean lAZY_TEXTURE_INIT, boolean lAZY_MESH_INIT, boolean fREE_CAMERA_TARGET_MODE_ON, boolean sHADOW_MAPPING, int sHADOW_MAPPING_N_SHADOWS, int sHADOW_MAPPING_RESOLUTION, long mAX_LOADED_STARS, ElevationType eLEVATION_TYPE, double eLEVATION_MULTIPLIER, double tESSELLATION_QUALITY, double dIST_SCALE_DESKTOP, double dIST_SCALE_VR) {
+                boolean cROSSHAIR_HOME, boolean cINEMATIC_CAMERA, boolean lAZY_TEXTURE_INIT, boolean lAZY_MESH_INIT, boolean fREE_CAMERA_TARGET_MODE_ON, boolean sHADOW_MAPPING, int sHADOW_MAPPING_N_SHADOWS, int sHADOW_MAPPING_RESOLUTION, long mAX_LOADED_STARS, long mAX_LOADED_MEMORY_SOFT, long mAX_LOADED_MEMORY_HARD, ElevationType eLEVATION_TYPE, double eLEVATION_MULTIPLIER, double tESSELLATION_QUALITY, double dIST_SCALE_DESKTOP, double dIST_SCALE_VR) {
             STARTUP_OBJECT = sTARTUP_OBJECT;
             GRAPHICS_QUALITY = gRAPHICS_QUALITY;
             OBJECT_FADE_MS = oBJECT_FADE_MS;
@@ -1668,6 +1759,8 @@ public class GlobalConf {
             SHADOW_MAPPING_N_SHADOWS = sHADOW_MAPPING_N_SHADOWS;
             SHADOW_MAPPING_RESOLUTION = sHADOW_MAPPING_RESOLUTION;
             MAX_LOADED_STARS = mAX_LOADED_STARS;
+            MAX_LOADED_MEMORY_SOFT = mAX_LOADED_MEMORY_SOFT;
+            MAX_LOADED_MEMORY_HARD = mAX_LOADED_MEMORY_HARD;
             ELEVATION_TYPE = eLEVATION_TYPE;
             ELEVATION_MULTIPLIER = eLEVATION_MULTIPLIER;
             TESSELLATION_QUALITY = tESSELLATION_QUALITY;
@@ -1675,6 +1768,30 @@ public class GlobalConf {
             DIST_SCALE_VR = dIST_SCALE_VR;
         }
 
+        /**
+         * Gets the soft memory budget for loaded octants, in bytes
+         *
+         * @return The soft budget
+         */
+        public long MAX_LOADED_MEMORY_SOFT_BYTES() {
+            if (MAX_LOADED_MEMORY_SOFT <= 0)
+                return (long) (Runtime.getRuntime().maxMemory() * 0.5);
+            else
+                return MAX_LOADED_MEMORY_SOFT * 1024L * 1024L;
+        }
+
+        /**
+         * Gets the hard memory budget for loaded octants, in bytes
+         *
+         * @return The hard budget
+         */
+        public long MAX_LOADED_MEMORY_HARD_BYTES() {
+            if (MAX_LOADED_MEMORY_HARD <= 0)
+                return Math.max(MAX_LOADED_MEMORY_SOFT_BYTES(), (long) (Runtime.getRuntime().maxMemory() * 0.7));
+            else
+                return Math.max(MAX_LOADED_MEMORY_SOFT_BYTES(), MAX_LOADED_MEMORY_HARD * 1024L * 1024L);
+        }
+
         public void updateSpeedLimit() {
             switch (CAMERA_SPEED_LIMIT_IDX) {
             case 0:
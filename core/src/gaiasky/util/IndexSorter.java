@@ -0,0 +1,252 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util;
+
+import java.util.stream.IntStream;
+
+/**
+ * Sorts arrays of primitive indices by the values they point to, in ascending order,
+ * without boxing and without allocating once the buffers have grown to the size of the data.
+ * <p>
+ * Values are sorted with float precision. The full sort is a stable LSD radix sort on
+ * the bits of the float keys, in 4 passes of 8 bits, run in parallel chunks in the
+ * fork-join common pool when the data is large enough. The incremental sort exploits
+ * the temporal coherence between consecutive sorts: it runs an insertion pass over the
+ * previous order, and falls back to the radix sort if too many elements move. After a
+ * fall back, the next few incremental sorts go straight to the radix sort.
+ * <p>
+ * Instances are not thread safe, each thread must use its own.
+ *
+ * @author tsagrista
+ */
+public class IndexSorter {
+    /** Below this size, the radix sort runs in the calling thread **/
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    /** Maximum average number of positions an element may move in the incremental sort **/
+    private static final int MAX_MOVES_PER_ELEMENT = 4;
+    /** Number of sorts which skip the insertion pass after it fails **/
+    private static final int INCREMENTAL_BACKOFF = 4;
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int PASSES = Integer.SIZE / RADIX_BITS;
+
+    private final int parallelism;
+    private int[] keys, keysTmp, indicesTmp;
+    private int[][] counts;
+    /** Remaining sorts which skip the insertion pass **/
+    private int backoff;
+
+    /** Number of sorts resolved incrementally and fully **/
+    private long nIncremental, nFull;
+
+    /**
+     * Creates a sorter
+     *
+     * @param parallelism Maximum number of chunks sorted in parallel. 1 to sort in the calling thread
+     */
+    public IndexSorter(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.counts = new int[this.parallelism][RADIX];
+    }
+
+    /**
+     * Converts the value to an int key with the same order as the value, with float precision
+     *
+     * @param value The value
+     * @return The key
+     */
+    public static int key(double value) {
+        int bits = Float.floatToRawIntBits((float) value);
+        // Negative floats sort in reverse order of their bits
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    /**
+     * Sorts the first n indices by their value with a radix sort. The
+     * initial order of the indices is irrelevant, and equal values keep it.
+     *
+     * @param values  The values, indexed by the indices
+     * @param indices The indices to sort
+     * @param n       The number of indices to sort
+     */
+    public void sort(double[] values, int[] indices, int n) {
+        ensureCapacity(n);
+        computeKeys(values, indices, n);
+        radixSort(indices, n);
+        nFull++;
+    }
+
+    /**
+     * Sorts the first n indices by their value, assuming they are mostly
+     * sorted already, usually by the previous sort.
+     *
+     * @param values  The values, indexed by the indices
+     * @param indices The indices to sort, in the previous order
+     * @param n       The number of indices to sort
+     * @return True if the insertion pass was enough, false if the radix sort was needed
+     */
+    public boolean sortIncremental(double[] values, int[] indices, int n) {
+        ensureCapacity(n);
+        computeKeys(values, indices, n);
+        if (backoff > 0) {
+            backoff--;
+        } else if (insertionSort(indices, n, (long) n * MAX_MOVES_PER_ELEMENT)) {
+            nIncremental++;
+            return true;
+        } else {
+            backoff = INCREMENTAL_BACKOFF;
+        }
+        radixSort(indices, n);
+        nFull++;
+        return false;
+    }
+
+    public long getNIncremental() {
+        return nIncremental;
+    }
+
+    public long getNFull() {
+        return nFull;
+    }
+
+    private void ensureCapacity(int n) {
+        if (keys == null || keys.length < n) {
+            keys = new int[n];
+            keysTmp = new int[n];
+            indicesTmp = new int[n];
+        }
+    }
+
+    private void computeKeys(double[] values, int[] indices, int n) {
+        int chunks = chunks(n);
+        if (chunks > 1) {
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int to = chunkEnd(c, chunks, n);
+                for (int i = chunkStart(c, chunks, n); i < to; i++)
+                    keys[i] = key(values[indices[i]]);
+            });
+        } else {
+            for (int i = 0; i < n; i++)
+                keys[i] = key(values[indices[i]]);
+        }
+    }
+
+    /**
+     * Insertion sort of indices and keys, which gives up after the given number of moves.
+     * Given up or not, the result is a permutation of the input.
+     *
+     * @return Whether the indices are sorted
+     */
+    private boolean insertionSort(int[] indices, int n, long maxMoves) {
+        long moves = 0;
+        for (int i = 1; i < n; i++) {
+            int key = keys[i];
+            if (key >= keys[i - 1])
+                continue;
+            int index = indices[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            indices[j + 1] = index;
+            moves += i - 1 - j;
+            if (moves > maxMoves)
+                return false;
+        }
+        return true;
+    }
+
+    private void radixSort(int[] indices, int n) {
+        int chunks = chunks(n);
+        int[] srcKeys = keys, dstKeys = keysTmp;
+        int[] srcIdx = indices, dstIdx = indicesTmp;
+        for (int pass = 0; pass < PASSES; pass++) {
+            final int shift = pass * RADIX_BITS;
+            final int[] sk = srcKeys, dk = dstKeys, si = srcIdx, di = dstIdx;
+
+            // Histograms
+            if (chunks > 1) {
+                IntStream.range(0, chunks).parallel().forEach(c -> histogram(sk, counts[c], chunkStart(c, chunks, n), chunkEnd(c, chunks, n), shift));
+            } else {
+                histogram(sk, counts[0], 0, n, shift);
+            }
+            // All keys in the same bucket, nothing to do in this pass
+            if (singleBucket(chunks, n))
+                continue;
+            // Offsets, bucket major, chunk minor, so that the sort is stable
+            int offset = 0;
+            for (int b = 0; b < RADIX; b++) {
+                for (int c = 0; c < chunks; c++) {
+                    int count = counts[c][b];
+                    counts[c][b] = offset;
+                    offset += count;
+                }
+            }
+            // Scatter
+            if (chunks > 1) {
+                IntStream.range(0, chunks).parallel().forEach(c -> scatter(sk, si, dk, di, counts[c], chunkStart(c, chunks, n), chunkEnd(c, chunks, n), shift));
+            } else {
+                scatter(sk, si, dk, di, counts[0], 0, n, shift);
+            }
+
+            srcKeys = dk;
+            dstKeys = sk;
+            srcIdx = di;
+            dstIdx = si;
+        }
+        if (srcIdx != indices) {
+            System.arraycopy(srcIdx, 0, indices, 0, n);
+        }
+        // Keep the sorted keys where the incremental sort expects them
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, n);
+        }
+    }
+
+    private static void histogram(int[] keys, int[] count, int from, int to, int shift) {
+        for (int b = 0; b < RADIX; b++)
+            count[b] = 0;
+        for (int i = from; i < to; i++)
+            count[((keys[i] ^ Integer.MIN_VALUE) >>> shift) & (RADIX - 1)]++;
+    }
+
+    private static void scatter(int[] srcKeys, int[] srcIdx, int[] dstKeys, int[] dstIdx, int[] offsets, int from, int to, int shift) {
+        for (int i = from; i < to; i++) {
+            int key = srcKeys[i];
+            int pos = offsets[((key ^ Integer.MIN_VALUE) >>> shift) & (RADIX - 1)]++;
+            dstKeys[pos] = key;
+            dstIdx[pos] = srcIdx[i];
+        }
+    }
+
+    private boolean singleBucket(int chunks, int n) {
+        for (int b = 0; b < RADIX; b++) {
+            int total = 0;
+            for (int c = 0; c < chunks; c++)
+                total += counts[c][b];
+            if (total == n)
+                return true;
+            if (total > 0)
+                return false;
+        }
+        return true;
+    }
+
+    private int chunks(int n) {
+        return n < PARALLEL_THRESHOLD ? 1 : parallelism;
+    }
+
+    private static int chunkStart(int c, int chunks, int n) {
+        return (int) ((long) n * c / chunks);
+    }
+
+    private static int chunkEnd(int c, int chunks, int n) {
+        return (int) ((long) n * (c + 1) / chunks);
+    }
+}
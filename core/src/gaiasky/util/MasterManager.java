@@ -5,6 +5,7 @@
 
 package gaiasky.util;
 
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.net.HttpStatus;
 import gaiasky.event.EventManager;
 import gaiasky.event.Events;
@@ -13,8 +14,13 @@ import gaiasky.render.ComponentTypes.ComponentType;
 import gaiasky.util.Logger.Log;
 import gaiasky.util.math.MathUtilsd;
 import gaiasky.util.math.Vector3d;
+import gaiasky.util.sync.FrameState;
+import gaiasky.util.sync.FrameSyncSender;
 import gaiasky.util.time.ITimeFrameProvider;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
@@ -92,6 +98,10 @@ public class MasterManager implements IObserver {
     // HTTP client
     private final HttpClient http;
 
+    // Binary frame sync, null if no sync group is configured
+    private FrameSyncSender frameSync;
+    private FrameState frameState;
+
     private MasterManager() {
         super();
 
@@ -120,6 +130,20 @@ public class MasterManager implements IObserver {
         // Initialize http client
         http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
 
+        // Initialize binary frame sync
+        String group = GlobalConf.program.NET_SYNC_GROUP;
+        if (group != null && !group.isBlank()) {
+            try {
+                InetSocketAddress target = new InetSocketAddress(InetAddress.getByName(group.strip()), GlobalConf.program.NET_SYNC_PORT);
+                frameSync = new FrameSyncSender(List.of(target));
+                frameState = new FrameState();
+                logger.info("Frame sync: sending to " + target);
+            } catch (IOException e) {
+                logger.error(e, "Frame sync could not be initialized, using HTTP");
+                frameSync = null;
+            }
+        }
+
         // Subscribe to events that need to be broadcasted
         EventManager.instance.subscribe(this, Events.FOV_CHANGED_CMD, Events.TOGGLE_VISIBILITY_CMD, Events.STAR_BRIGHTNESS_CMD, Events.STAR_MIN_OPACITY_CMD, Events.STAR_POINT_SIZE_CMD, Events.DISPOSE);
     }
@@ -133,6 +157,10 @@ public class MasterManager implements IObserver {
      * @param time Current time
      */
     public void boardcastCameraAndTime(Vector3d pos, Vector3d dir, Vector3d up, ITimeFrameProvider time) {
+        if (frameSync != null) {
+            sendFrame(pos, dir, up, time);
+            return;
+        }
         String spos = TextUtils.surround(pos.toString(), "[", "]");
         String sdir = TextUtils.surround(dir.toString(), "[", "]");
         String sup = TextUtils.surround(up.toString(), "[", "]");
@@ -171,6 +199,35 @@ public class MasterManager implements IObserver {
 
     }
 
+    /**
+     * Sends the camera state, time and visibility of the current frame in a single datagram
+     * to the sync group. Visibility travels with every frame, so that a lost packet is
+     * corrected by the next one.
+     */
+    private void sendFrame(Vector3d pos, Vector3d dir, Vector3d up, ITimeFrameProvider time) {
+        FrameState fs = frameState;
+        fs.frameId = Gdx.graphics.getFrameId();
+        fs.time = time.getTime().toEpochMilli();
+        put(pos, fs.pos);
+        put(dir, fs.dir);
+        put(up, fs.up);
+        boolean[] visibility = GlobalConf.scene.VISIBILITY;
+        if (fs.visibility.length != visibility.length)
+            fs.visibility = new boolean[visibility.length];
+        System.arraycopy(visibility, 0, fs.visibility, 0, visibility.length);
+        try {
+            frameSync.send(fs);
+        } catch (IOException e) {
+            logger.error(e);
+        }
+    }
+
+    private void put(Vector3d v, double[] out) {
+        out[0] = v.x;
+        out[1] = v.y;
+        out[2] = v.z;
+    }
+
     /**
      * Broadcasts the given camera state to all the slaves
      *
@@ -256,6 +313,9 @@ public class MasterManager implements IObserver {
             }
             break;
         case TOGGLE_VISIBILITY_CMD:
+            // Visibility goes with every frame in the binary sync
+            if (frameSync != null)
+                break;
             String key = (String) data[0];
             Boolean state = null;
             if (data.length > 2) {
@@ -314,6 +374,13 @@ public class MasterManager implements IObserver {
             }
             break;
         case DISPOSE:
+            if (frameSync != null) {
+                try {
+                    frameSync.close();
+                } catch (IOException e) {
+                    logger.error(e);
+                }
+            }
             i = 0;
             for (String slave : slaves) {
                 if (slaveStates[i] == 0) {
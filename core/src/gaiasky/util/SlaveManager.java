@@ -11,9 +11,14 @@ import com.badlogic.gdx.assets.loaders.TextureLoader.TextureParameter;
 import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Texture;
 import gaiasky.desktop.util.SysUtils;
+import gaiasky.event.EventManager;
+import gaiasky.event.Events;
+import gaiasky.render.ComponentTypes.ComponentType;
 import gaiasky.util.Logger.Log;
 import gaiasky.util.gdx.loader.PFMData;
 import gaiasky.util.gdx.loader.PFMDataLoader.PFMDataParameter;
+import gaiasky.util.sync.FrameState;
+import gaiasky.util.sync.FrameSyncReceiver;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -24,9 +29,11 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
 
 /**
  * Manages a slave instance configured with an MPCDI file.
@@ -67,6 +74,10 @@ public class SlaveManager {
     public float yaw, pitch, roll, upAngle, downAngle, rightAngle, leftAngle;
     public float cameraFov;
 
+    // Binary frame sync, null if no sync group is configured
+    private FrameSyncReceiver frameSync;
+    private FrameState frameState;
+
     public SlaveManager() {
         super();
         if (GlobalConf.program.isSlave()) {
@@ -107,11 +118,48 @@ public class SlaveManager {
                 setDefaultConf();
                 printInfo();
             }
+            initializeFrameSync();
         } else {
             // Not a slave
         }
     }
 
+    private void initializeFrameSync() {
+        String group = GlobalConf.program.NET_SYNC_GROUP;
+        if (group != null && !group.isBlank()) {
+            try {
+                frameSync = new FrameSyncReceiver(InetAddress.getByName(group.strip()), GlobalConf.program.NET_SYNC_PORT, null);
+                frameSync.start();
+                frameState = new FrameState();
+                logger.info("Frame sync: receiving from " + group.strip() + ":" + GlobalConf.program.NET_SYNC_PORT);
+            } catch (IOException e) {
+                logger.error(e, "Frame sync could not be initialized");
+                frameSync = null;
+            }
+        }
+    }
+
+    /**
+     * Applies the latest frame state received from the master, if any. Must be called in the
+     * main thread, once per frame, before the update. Only the visibility flags which differ
+     * from the current ones are posted.
+     */
+    public void presentFrame() {
+        if (frameSync == null || !frameSync.poll(frameState))
+            return;
+        FrameState fs = frameState;
+        EventManager em = EventManager.instance;
+        em.post(Events.CAMERA_PROJECTION_CMD, fs.pos, fs.dir, fs.up);
+        em.post(Events.TIME_CHANGE_CMD, Instant.ofEpochMilli(fs.time));
+        boolean[] visibility = GlobalConf.scene.VISIBILITY;
+        ComponentType[] types = ComponentType.values();
+        int n = Math.min(fs.visibility.length, Math.min(visibility.length, types.length));
+        for (int i = 0; i < n; i++) {
+            if (visibility[i] != fs.visibility[i])
+                em.post(Events.TOGGLE_VISIBILITY_CMD, types[i].key, false, fs.visibility[i]);
+        }
+    }
+
     /**
      * Unpacks the given MPCDI file and returns the unzip location
      *
@@ -9,8 +9,10 @@ import gaiasky.scenegraph.CelestialBody;
 import gaiasky.scenegraph.ISceneGraph;
 import gaiasky.scenegraph.Orbit;
 import gaiasky.scenegraph.SceneGraphNode;
+import gaiasky.util.GlobalConf;
 import gaiasky.util.Logger;
 import gaiasky.util.Logger.Log;
+import gaiasky.util.math.Vector3d;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -19,10 +21,13 @@ public abstract class AbstractOrbitCoordinates implements IBodyCoordinates {
     protected static final Log logger = Logger.getLogger(AbstractOrbitCoordinates.class);
     // Holds all instances
     protected static final List<AbstractOrbitCoordinates> instances = new ArrayList<>();
-    
+    private static final ThreadLocal<double[]> lbr = ThreadLocal.withInitial(() -> new double[3]);
+
     protected String orbitname;
     protected Orbit orbit;
     protected double scaling = 1d;
+    /** Cache of the analytic series of these coordinates, if any, see {@link #initEphemeris(ChebyshevEphemeris.Source, double, double)} **/
+    protected ChebyshevEphemeris ephemeris;
 
     public AbstractOrbitCoordinates(){
         super();
@@ -47,6 +52,35 @@ public abstract class AbstractOrbitCoordinates implements IBodyCoordinates {
         }
     }
 
+    /**
+     * Sets up the cache of the given analytic series with the error bound of the configuration,
+     * unless it is disabled
+     *
+     * @param series      The series
+     * @param segmentDays The initial length of the segments of the cache, in days
+     * @param kmToUnits   The factor from kilometres to the distance units of the series
+     */
+    protected void initEphemeris(ChebyshevEphemeris.Source series, double segmentDays, double kmToUnits) {
+        double tolerance = GlobalConf.performance != null ? GlobalConf.performance.EPHEMERIS_TOLERANCE_KM : 0;
+        ephemeris = tolerance > 0 ? new ChebyshevEphemeris(series, segmentDays, tolerance * kmToUnits) : null;
+    }
+
+    /**
+     * Gets the spherical coordinates given by the series at the given date, from the cache
+     * if it covers the date
+     *
+     * @param julianDate The julian date
+     * @param series     The series
+     * @param out        The out vector with the longitude, latitude and distance of the series
+     * @return The out vector for chaining
+     */
+    protected Vector3d getSeriesCoordinates(double julianDate, ChebyshevEphemeris.Source series, Vector3d out) {
+        double[] c = lbr.get();
+        if (ephemeris == null || !ephemeris.get(julianDate, c))
+            series.eval(julianDate, c);
+        return out.set(c[0], c[1], c[2]);
+    }
+
     public void setOrbitname(String orbitname) {
         this.orbitname = orbitname;
     }
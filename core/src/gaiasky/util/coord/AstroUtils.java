@@ -80,8 +80,17 @@ public class AstroUtils {
      **/
     private static final NslSun nslSun = new NslSun();
 
-    private static final Vector3d aux3 = new Vector3d();
-    private static final Vector2d aux2 = new Vector2d();
+    private static final ThreadLocal<Vector3d> aux3 = ThreadLocal.withInitial(Vector3d::new);
+    private static final ThreadLocal<Vector2d> aux2 = ThreadLocal.withInitial(Vector2d::new);
+
+    /**
+     * Coordinates of the Moon and Pluto of {@link #getEclipticCoordinates(String, Instant, Vector3d, boolean)}, kept for their ephemeris cache.
+     * Created once when first used, also if the first calls come from several threads at the same time.
+     **/
+    private static class BodyCoordinates {
+        private static final MoonAACoordinates moon = new MoonAACoordinates();
+        private static final PlutoCoordinates pluto = new PlutoCoordinates();
+    }
 
     /**
      * Algorithm in "Astronomical Algorithms" book by Jean Meeus. Finds out the
@@ -117,7 +126,7 @@ public class AstroUtils {
      * @param date The time for which the longitude must be calculated
      * @return The Sun's longitude in [deg]
      */
-    public static double getSunLongitude(Instant date) {
+    public static synchronized double getSunLongitude(Instant date) {
         if (!date.equals(cacheSunLongitudeDate)) {
             double julianDate = getJulianDateCache(date);
 
@@ -167,8 +176,9 @@ public class AstroUtils {
      * @param julianDate
      */
     public static void moonEquatorialCoordinates(Vector3d placeholder, double julianDate) {
+        Vector3d aux3 = AstroUtils.aux3.get();
         moonEclipticCoordinates(julianDate, aux3);
-        Vector2d equatorial = Coordinates.eclipticToEquatorial(aux3.x, aux3.y, aux2);
+        Vector2d equatorial = Coordinates.eclipticToEquatorial(aux3.x, aux3.y, aux2.get());
         placeholder.set(equatorial.x, equatorial.y, aux3.z);
     }
 
@@ -384,9 +394,9 @@ public class AstroUtils {
 
         switch (body) {
             case "Moon":
-                return new MoonAACoordinates().getEclipticSphericalCoordinates(instant, out);
+                return BodyCoordinates.moon.getEclipticSphericalCoordinates(instant, out);
             case "Pluto":
-                return new PlutoCoordinates().getEclipticSphericalCoordinates(instant, out);
+                return BodyCoordinates.pluto.getEclipticSphericalCoordinates(instant, out);
             default:
                 iVSOP87 coor = VSOP87.instance.getVOSP87(body);
                 coor.setHighAccuracy(highAccuracy);
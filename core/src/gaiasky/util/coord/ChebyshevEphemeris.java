@@ -0,0 +1,326 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.coord;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Piecewise Chebyshev approximation of the spherical coordinates (longitude, latitude and
+ * distance) given by an analytic series, such as VSOP87, so that the coordinates of a date
+ * are computed with a few multiplications instead of the whole series.
+ * <p>
+ * Time is split into segments of the same length, which are grouped in windows. Windows are
+ * created when they are first used, and only the last used ones are kept. Each segment is
+ * fitted by interpolation at the Chebyshev nodes once it has been requested as many times as
+ * evaluations of the series the fit takes, so that dates which are only seen once (for instance
+ * with a high time warp) cost at most twice the series. The fit is checked against the series
+ * between the nodes, and segments which are not within the error bound are not covered: their
+ * coordinates always come from the series.
+ * <p>
+ * The length of the segments is found with the first fit, halving the initial length until the
+ * fit is within a fourth of the error bound.
+ * <p>
+ * The longitude is unwrapped in each segment, so it may differ from the one of the series by
+ * a multiple of 2&pi;. This class is thread-safe.
+ *
+ * @author tsagrista
+ */
+public class ChebyshevEphemeris {
+    /** Degree of the polynomials **/
+    private static final int DEGREE = 12;
+    private static final int NODES = DEGREE + 1;
+    /** Series evaluations of a fit, at the nodes and between them **/
+    private static final int FIT_EVALUATIONS = 2 * NODES - 1;
+    private static final int WINDOW_SEGMENTS = 64;
+    /** Maximum number of windows kept **/
+    private static final int MAX_WINDOWS = 32;
+    /** Shortest segment, in days **/
+    private static final double MIN_SEGMENT_DAYS = 1d / 32d;
+
+    /** Chebyshev nodes in [-1, 1] and the points between them **/
+    private static final double[] NODE_X = new double[NODES], CHECK_X = new double[NODES - 1];
+
+    static {
+        for (int k = 0; k < NODES; k++)
+            NODE_X[k] = Math.cos(Math.PI * (k + 0.5) / NODES);
+        for (int k = 0; k < NODES - 1; k++)
+            CHECK_X[k] = Math.cos(Math.PI * (k + 1) / NODES);
+    }
+
+    /**
+     * The series to approximate
+     */
+    public interface Source {
+        /**
+         * Computes the spherical coordinates at the given date
+         *
+         * @param julianDate The julian date
+         * @param out        Longitude and latitude in radians, and distance
+         */
+        void eval(double julianDate, double[] out);
+    }
+
+    private final Source source;
+    private final double tolerance;
+    private final double initialSegmentDays;
+
+    private volatile double segmentDays;
+    private volatile boolean calibrated = false;
+    /** No segment length is within the error bound **/
+    private volatile boolean disabled = false;
+
+    private final Map<Long, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an ephemeris for the given series
+     *
+     * @param source      The series
+     * @param segmentDays The initial length of the segments, in days
+     * @param tolerance   The largest error in position, in the units of the distance of the series
+     */
+    public ChebyshevEphemeris(Source source, double segmentDays, double tolerance) {
+        this.source = source;
+        this.initialSegmentDays = segmentDays;
+        this.segmentDays = segmentDays;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Gets the coordinates at the given date, if they are covered
+     *
+     * @param julianDate The julian date
+     * @param out        Longitude and latitude in radians, and distance
+     * @return Whether the date is covered. If not, the coordinates must come from the series
+     */
+    public boolean get(double julianDate, double[] out) {
+        if (disabled || !Double.isFinite(julianDate))
+            return false;
+        double length = segmentDays;
+        double s = Math.floor(julianDate / length);
+        long segment = (long) s;
+        long w = Math.floorDiv(segment, WINDOW_SEGMENTS);
+        int i = (int) (segment - w * WINDOW_SEGMENTS);
+
+        Window window = window(w, length);
+        if (window == null)
+            return false;
+        window.lastUsed = System.nanoTime();
+        Segment seg = window.segments.get(i);
+        if (seg == null) {
+            if (window.misses.incrementAndGet(i) < FIT_EVALUATIONS)
+                return false;
+            if (!calibrated) {
+                calibrate(s * length);
+                return false;
+            }
+            seg = fit(s * length, length);
+            if (!window.segments.compareAndSet(i, null, seg))
+                seg = window.segments.get(i);
+        }
+        if (!seg.covered)
+            return false;
+        seg.eval((julianDate - seg.start) / seg.length * 2 - 1, out);
+        return true;
+    }
+
+    /**
+     * Drops all the segments, for instance because the series has changed
+     */
+    public synchronized void clear() {
+        windows.clear();
+        segmentDays = initialSegmentDays;
+        calibrated = false;
+        disabled = false;
+    }
+
+    /**
+     * Length of the segments, in days
+     */
+    public double getSegmentDays() {
+        return segmentDays;
+    }
+
+    /**
+     * Number of fitted segments, and how many of them are covered, in the windows kept
+     */
+    public int[] countSegments() {
+        int[] counts = new int[2];
+        for (Window window : windows.values()) {
+            for (int i = 0; i < WINDOW_SEGMENTS; i++) {
+                Segment seg = window.segments.get(i);
+                if (seg != null) {
+                    counts[0]++;
+                    if (seg.covered)
+                        counts[1]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    private Window window(long w, double length) {
+        Window window = windows.get(w);
+        if (window == null || window.length != length) {
+            synchronized (this) {
+                if (length != segmentDays)
+                    return null;
+                window = windows.get(w);
+                if (window == null) {
+                    if (windows.size() >= MAX_WINDOWS)
+                        evict();
+                    window = new Window(length);
+                    windows.put(w, window);
+                }
+            }
+        }
+        return window;
+    }
+
+    /**
+     * Drops the least recently used window
+     */
+    private void evict() {
+        Long oldest = null;
+        long oldestUsed = Long.MAX_VALUE;
+        for (Map.Entry<Long, Window> entry : windows.entrySet()) {
+            if (entry.getValue().lastUsed < oldestUsed) {
+                oldestUsed = entry.getValue().lastUsed;
+                oldest = entry.getKey();
+            }
+        }
+        if (oldest != null)
+            windows.remove(oldest);
+    }
+
+    /**
+     * Finds the length of the segments with fits around the given date
+     */
+    private synchronized void calibrate(double start) {
+        if (calibrated)
+            return;
+        double length = segmentDays;
+        while (length >= MIN_SEGMENT_DAYS) {
+            Segment seg = fit(Math.floor(start / length) * length, length);
+            if (seg.error <= tolerance / 4)
+                break;
+            length /= 2;
+        }
+        if (length < MIN_SEGMENT_DAYS) {
+            disabled = true;
+        } else {
+            windows.clear();
+            segmentDays = length;
+        }
+        calibrated = true;
+    }
+
+    /**
+     * Fits the series in the segment [start, start + length) by interpolation at the Chebyshev nodes
+     */
+    private Segment fit(double start, double length) {
+        double[] lon = new double[NODES], lat = new double[NODES], dist = new double[NODES];
+        double[] out = new double[3];
+        // Nodes in increasing time, so that the longitude is unwrapped in order
+        for (int k = NODES - 1; k >= 0; k--) {
+            source.eval(start + (NODE_X[k] + 1) / 2 * length, out);
+            lon[k] = k < NODES - 1 ? unwrap(out[0], lon[k + 1]) : out[0];
+            lat[k] = out[1];
+            dist[k] = out[2];
+        }
+        Segment seg = new Segment(start, length, coefficients(lon), coefficients(lat), coefficients(dist));
+
+        // Error between the nodes
+        double error = 0;
+        double[] approx = new double[3];
+        for (int k = 0; k < NODES - 1; k++) {
+            double x = CHECK_X[k];
+            source.eval(start + (x + 1) / 2 * length, out);
+            seg.eval(x, approx);
+            double dl = angle(approx[0] - out[0]), db = approx[1] - out[1], dr = approx[2] - out[2];
+            double r = Math.abs(out[2]);
+            double e = Math.sqrt(dl * dl * r * r * Math.cos(out[1]) * Math.cos(out[1]) + db * db * r * r + dr * dr);
+            error = Math.max(error, Double.isNaN(e) ? Double.POSITIVE_INFINITY : e);
+        }
+        seg.error = error;
+        seg.covered = error <= tolerance;
+        return seg;
+    }
+
+    /**
+     * Coefficients of the interpolating Chebyshev polynomial of the values at the nodes
+     */
+    private static double[] coefficients(double[] values) {
+        double[] c = new double[NODES];
+        for (int j = 0; j < NODES; j++) {
+            double sum = 0;
+            for (int k = 0; k < NODES; k++)
+                sum += values[k] * Math.cos(Math.PI * j * (k + 0.5) / NODES);
+            c[j] = sum * 2 / NODES;
+        }
+        c[0] /= 2;
+        return c;
+    }
+
+    /**
+     * The angle plus the multiple of 2&pi; closest to the reference
+     */
+    private static double unwrap(double angle, double reference) {
+        return angle + 2 * Math.PI * Math.rint((reference - angle) / (2 * Math.PI));
+    }
+
+    /**
+     * The angle reduced to [-&pi;, &pi;]
+     */
+    private static double angle(double a) {
+        return a - 2 * Math.PI * Math.rint(a / (2 * Math.PI));
+    }
+
+    private static class Window {
+        final double length;
+        final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(WINDOW_SEGMENTS);
+        /** Requests of the segments which are not fitted yet **/
+        final AtomicIntegerArray misses = new AtomicIntegerArray(WINDOW_SEGMENTS);
+        volatile long lastUsed;
+
+        Window(double length) {
+            this.length = length;
+        }
+    }
+
+    private static class Segment {
+        final double start, length;
+        final double[] lon, lat, dist;
+        double error;
+        boolean covered;
+
+        Segment(double start, double length, double[] lon, double[] lat, double[] dist) {
+            this.start = start;
+            this.length = length;
+            this.lon = lon;
+            this.lat = lat;
+            this.dist = dist;
+        }
+
+        void eval(double x, double[] out) {
+            out[0] = clenshaw(lon, x);
+            out[1] = clenshaw(lat, x);
+            out[2] = clenshaw(dist, x);
+        }
+
+        private static double clenshaw(double[] c, double x) {
+            double b1 = 0, b2 = 0, x2 = 2 * x;
+            for (int j = c.length - 1; j > 0; j--) {
+                double b = x2 * b1 - b2 + c[j];
+                b2 = b1;
+                b1 = b;
+            }
+            return x * b1 - b2 + c[0];
+        }
+    }
+}
@@ -17,9 +17,12 @@ import java.time.Instant;
  * @author Toni Sagrista
  *
  */
-public class MoonAACoordinates extends AbstractOrbitCoordinates {
+public class MoonAACoordinates extends AbstractOrbitCoordinates implements ChebyshevEphemeris.Source {
+    private static final ThreadLocal<Vector3d> aux = ThreadLocal.withInitial(Vector3d::new);
+
     public MoonAACoordinates(){
         super();
+        initEphemeris(this, 2, 1);
     }
 
     @Override
@@ -31,12 +34,26 @@ public class MoonAACoordinates extends AbstractOrbitCoordinates {
     public Vector3d getEclipticSphericalCoordinates(Instant date, Vector3d out) {
         if (!Constants.withinVSOPTime(date.toEpochMilli()))
             return null;
-        AstroUtils.moonEclipticCoordinates(date, out);
+        getSeriesCoordinates(AstroUtils.getJulianDateCache(date), this, out);
         // To internal units
         out.z *= Constants.KM_TO_U * scaling;
         return out;
     }
 
+    /**
+     * Evaluates the full algorithm
+     *
+     * @param julianDate The julian date
+     * @param out        The longitude and latitude in radians, and the distance in km
+     */
+    @Override
+    public void eval(double julianDate, double[] out) {
+        Vector3d v = AstroUtils.moonEclipticCoordinates(julianDate, aux.get());
+        out[0] = v.x;
+        out[1] = v.y;
+        out[2] = v.z;
+    }
+
     @Override
     public Vector3d getEclipticCartesianCoordinates(Instant date, Vector3d out) {
         Vector3d v = getEclipticSphericalCoordinates(date, out);
@@ -10,9 +10,12 @@ import gaiasky.util.math.Vector3d;
 
 import java.time.Instant;
 
-public class PlutoCoordinates extends AbstractOrbitCoordinates {
+public class PlutoCoordinates extends AbstractOrbitCoordinates implements ChebyshevEphemeris.Source {
+    private static final ThreadLocal<Vector3d> aux = ThreadLocal.withInitial(Vector3d::new);
+
     public PlutoCoordinates() {
         super();
+        initEphemeris(this, 256, 1);
     }
 
     @Override
@@ -22,12 +25,27 @@ public class PlutoCoordinates extends AbstractOrbitCoordinates {
 
     @Override
     public Vector3d getEclipticSphericalCoordinates(Instant date, Vector3d out) {
-        AstroUtils.plutoEclipticCoordinates(date, out);
+        if (Constants.withinVSOPTime(date.toEpochMilli()))
+            getSeriesCoordinates(AstroUtils.getJulianDateCache(date), this, out);
         // To internal units
         out.z *= Constants.KM_TO_U * scaling;
         return out;
     }
 
+    /**
+     * Evaluates the full algorithm
+     *
+     * @param julianDate The julian date
+     * @param out        The longitude and latitude in radians, and the distance in km
+     */
+    @Override
+    public void eval(double julianDate, double[] out) {
+        Vector3d v = AstroUtils.plutoEclipticCoordinates(julianDate - AstroUtils.JD_J2000, aux.get());
+        out[0] = v.x;
+        out[1] = v.y;
+        out[2] = v.z;
+    }
+
     @Override
     public Vector3d getEclipticCartesianCoordinates(Instant date, Vector3d out) {
         getEclipticSphericalCoordinates(date, out);
@@ -6,19 +6,28 @@
 package gaiasky.util.coord.vsop87;
 
 import gaiasky.util.Constants;
+import gaiasky.util.Nature;
 import gaiasky.util.coord.AbstractOrbitCoordinates;
 import gaiasky.util.coord.AstroUtils;
+import gaiasky.util.coord.ChebyshevEphemeris;
 import gaiasky.util.coord.Coordinates;
 import gaiasky.util.math.Vector3d;
 
 import java.time.Instant;
 
-public abstract class AbstractVSOP87 extends AbstractOrbitCoordinates implements iVSOP87 {
+/**
+ * Coordinates of the VSOP87 series. The series are evaluated through a {@link ChebyshevEphemeris}
+ * cache, if it is enabled.
+ *
+ * @author tsagrista
+ */
+public abstract class AbstractVSOP87 extends AbstractOrbitCoordinates implements iVSOP87, ChebyshevEphemeris.Source {
 
     protected boolean highAccuracy;
 
     public AbstractVSOP87() {
         super();
+        initEphemeris(this, 16, 1 / Nature.AU_TO_KM);
     }
 
     @Override
@@ -31,15 +40,24 @@ public abstract class AbstractVSOP87 extends AbstractOrbitCoordinates implements
         if (!Constants.withinVSOPTime(date.toEpochMilli()))
             return null;
 
-        double tau = AstroUtils.tau(AstroUtils.getJulianDateCache(date));
+        getSeriesCoordinates(AstroUtils.getJulianDateCache(date), this, out);
+        out.z *= Constants.AU_TO_U * scaling;
+        return out;
+    }
 
-        double L = (L0(tau) + L1(tau) + L2(tau) + L3(tau) + L4(tau) + L5(tau));
-        double B = (B0(tau) + B1(tau) + B2(tau) + B3(tau) + B4(tau) + B5(tau));
-        double R = (R0(tau) + R1(tau) + R2(tau) + R3(tau) + R4(tau) + R5(tau));
-        R = R * Constants.AU_TO_U * scaling;
+    /**
+     * Evaluates the full series
+     *
+     * @param julianDate The julian date
+     * @param out        L and B in radians, and R in AU
+     */
+    @Override
+    public void eval(double julianDate, double[] out) {
+        double tau = AstroUtils.tau(julianDate);
 
-        out.set(L, B, R);
-        return out;
+        out[0] = (L0(tau) + L1(tau) + L2(tau) + L3(tau) + L4(tau) + L5(tau));
+        out[1] = (B0(tau) + B1(tau) + B2(tau) + B3(tau) + B4(tau) + B5(tau));
+        out[2] = (R0(tau) + R1(tau) + R2(tau) + R3(tau) + R4(tau) + R5(tau));
     }
 
     @Override
@@ -64,6 +82,10 @@ public abstract class AbstractVSOP87 extends AbstractOrbitCoordinates implements
 
     @Override
     public void setHighAccuracy(boolean highAccuracy) {
+        if (highAccuracy != this.highAccuracy && ephemeris != null) {
+            // Different terms, different series
+            ephemeris.clear();
+        }
         this.highAccuracy = highAccuracy;
     }
 
@@ -0,0 +1,194 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.ds;
+
+import java.util.Arrays;
+
+/**
+ * Maps primitive long keys to non-negative int values, typically row numbers, with
+ * open addressing and linear probing. Keys and values live in flat primitive arrays, so
+ * there are no entry objects and no boxing, and lookups do not allocate.
+ * <p>
+ * The keys are spread over a number of segments by hash, each one an independent table
+ * which grows on its own. This keeps every array well under the maximum array size,
+ * even for billions of keys, and makes growing a segment cheap compared to the whole index.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author tsagrista
+ */
+public class LongIndex {
+    /** Value returned when a key is not in the index **/
+    public static final int NONE = -1;
+
+    private static final float LOAD_FACTOR = 0.7f;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+    /** Marks empty slots. The key with this value is stored apart **/
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private int emptyKeyValue = NONE;
+    private long size;
+
+    private static class Segment {
+        long[] keys;
+        int[] values;
+        int size, threshold, mask;
+
+        Segment(int capacity) {
+            allocate(capacity);
+        }
+
+        void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            mask = capacity - 1;
+            threshold = (int) Math.min((long) (capacity * LOAD_FACTOR), capacity - 1L);
+        }
+    }
+
+    /**
+     * Creates an index sized for the given number of keys. It grows when needed.
+     *
+     * @param expectedSize The expected number of keys
+     */
+    public LongIndex(long expectedSize) {
+        // Aim for segments of up to 2^22 slots, at most 2^12 segments
+        long slots = Math.max(MIN_CAPACITY, (long) (expectedSize / LOAD_FACTOR) + 1);
+        int bits = 0;
+        while (bits < 12 && (slots >> bits) > (1 << 22))
+            bits++;
+        int nSegments = 1 << bits;
+        int capacity = Math.max(MIN_CAPACITY, nextPowerOfTwo(slots >> bits));
+        this.segmentShift = 64 - bits;
+        this.segments = new Segment[nSegments];
+        for (int i = 0; i < nSegments; i++)
+            segments[i] = new Segment(capacity);
+    }
+
+    public LongIndex() {
+        this(0);
+    }
+
+    /**
+     * Maps the key to the value
+     *
+     * @param key   The key
+     * @param value The value, must be non-negative
+     * @return The previous value of the key, or {@link #NONE}
+     */
+    public int put(long key, int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Values must be non-negative: " + value);
+        if (key == EMPTY) {
+            int previous = emptyKeyValue;
+            emptyKeyValue = value;
+            if (previous == NONE)
+                size++;
+            return previous;
+        }
+        long h = hash(key);
+        Segment s = segments[segment(h)];
+        int i = (int) h & s.mask;
+        long k;
+        while ((k = s.keys[i]) != EMPTY) {
+            if (k == key) {
+                int previous = s.values[i];
+                s.values[i] = value;
+                return previous;
+            }
+            i = (i + 1) & s.mask;
+        }
+        s.keys[i] = key;
+        s.values[i] = value;
+        size++;
+        if (++s.size > s.threshold)
+            grow(s);
+        return NONE;
+    }
+
+    /**
+     * Gets the value of the key
+     *
+     * @param key The key
+     * @return The value, or {@link #NONE} if the key is not in the index
+     */
+    public int get(long key) {
+        if (key == EMPTY)
+            return emptyKeyValue;
+        long h = hash(key);
+        Segment s = segments[segment(h)];
+        int i = (int) h & s.mask;
+        long k;
+        while ((k = s.keys[i]) != EMPTY) {
+            if (k == key)
+                return s.values[i];
+            i = (i + 1) & s.mask;
+        }
+        return NONE;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != NONE;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int segment(long hash) {
+        return segmentShift == 64 ? 0 : (int) (hash >>> segmentShift);
+    }
+
+    private void grow(Segment s) {
+        int capacity = s.keys.length;
+        if (capacity >= MAX_CAPACITY) {
+            if (s.size >= capacity - 1)
+                throw new IllegalStateException("Index segment full: " + s.size + " keys");
+            return;
+        }
+        long[] oldKeys = s.keys;
+        int[] oldValues = s.values;
+        s.allocate(capacity << 1);
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key != EMPTY) {
+                int i = (int) hash(key) & s.mask;
+                while (s.keys[i] != EMPTY)
+                    i = (i + 1) & s.mask;
+                s.keys[i] = key;
+                s.values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Mixes the bits of the key (finalizer of MurmurHash3). The high bits select the segment,
+     * the low bits the slot. Source ids encode the sky position in their high bits, so they
+     * can't be used directly.
+     */
+    private static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static int nextPowerOfTwo(long n) {
+        if (n >= MAX_CAPACITY)
+            return MAX_CAPACITY;
+        return (int) Math.max(1, Long.highestOneBit(Math.max(1, n - 1)) << 1);
+    }
+}
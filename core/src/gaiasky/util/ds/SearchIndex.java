@@ -0,0 +1,294 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.ds;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Index of names for the search, which finds the names that start with or contain a text
+ * without visiting all of them. Each name has a value and a rank.
+ * <p>
+ * Names are kept sorted in buckets of rank, so the names that start with a text are found with
+ * a range of each bucket. Names that contain a text are found with an index of the n-grams
+ * (substrings of three characters) of the names: the candidates are the names with the
+ * least common n-gram of the text, which are then checked. Removed names are dropped from the
+ * n-gram index only when there are more removed than live names.
+ * <p>
+ * Ranks are on the scale of magnitudes, lower first, and are grouped in buckets of one unit
+ * in [-5, 25), plus one bucket below and one above. Results are sorted by bucket and then by name.
+ * <p>
+ * This class is thread-safe. Searches run concurrently with each other, updates are exclusive.
+ *
+ * @author tsagrista
+ */
+public class SearchIndex<V> {
+    /** Length of the n-grams of the substring index **/
+    private static final int NGRAM = 3;
+
+    private static final int BUCKETS = 32;
+    private static final int MIN_RANK = -5;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Names sorted in each bucket, with their values **/
+    private final TreeMap<String, V>[] sorted;
+    /** Id of each name in the n-gram index **/
+    private final Map<String, Integer> ids = new HashMap<>();
+    /** Name, value and bucket of each id, null names for removed ids **/
+    private String[] names;
+    private Object[] values;
+    private byte[] buckets;
+    private int nIds, live;
+
+    /** Maps n-grams to their posting lists, which hold the ids of the names with the n-gram in increasing order **/
+    private LongIndex ngrams;
+    private int[][] postings;
+    private int[] postingSizes;
+    private int nPostings;
+
+    @SuppressWarnings("unchecked")
+    public SearchIndex() {
+        sorted = new TreeMap[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++)
+            sorted[b] = new TreeMap<>();
+        reset(16);
+    }
+
+    private void reset(int capacity) {
+        names = new String[capacity];
+        values = new Object[capacity];
+        buckets = new byte[capacity];
+        nIds = 0;
+        ngrams = new LongIndex();
+        postings = new int[16][];
+        postingSizes = new int[16];
+        nPostings = 0;
+    }
+
+    /**
+     * Adds a name, or replaces its value and rank if it is already in the index
+     *
+     * @param name  The name
+     * @param value The value
+     * @param rank  The rank, lower first
+     */
+    public void put(String name, V value, float rank) {
+        lock.writeLock().lock();
+        try {
+            int bucket = bucket(rank);
+            Integer id = ids.get(name);
+            if (id != null) {
+                if (buckets[id] == bucket) {
+                    values[id] = value;
+                    sorted[bucket].put(name, value);
+                    return;
+                }
+                removeId(name, id);
+            }
+            add(name, value, bucket);
+            live++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a name
+     *
+     * @param name The name
+     */
+    public void remove(String name) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.get(name);
+            if (id != null) {
+                removeId(name, id);
+                if (nIds - live > live && nIds > 1024)
+                    compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all the names
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            for (int b = 0; b < BUCKETS; b++)
+                sorted[b].clear();
+            ids.clear();
+            live = 0;
+            reset(16);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Number of names in the index
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the names which start with the text, and then the names which contain it, in
+     * order of bucket of rank and name.
+     *
+     * @param text   The text
+     * @param max    The maximum number of results
+     * @param filter Only the names with values which pass the filter are returned
+     * @return The names found
+     */
+    public List<String> search(String text, int max, Predicate<? super V> filter) {
+        List<String> results = new ArrayList<>();
+        if (max <= 0)
+            return results;
+        lock.readLock().lock();
+        try {
+            // Starts with
+            for (int b = 0; b < BUCKETS; b++) {
+                for (Map.Entry<String, V> entry : sorted[b].tailMap(text).entrySet()) {
+                    String name = entry.getKey();
+                    if (!name.startsWith(text))
+                        break;
+                    if (filter.test(entry.getValue())) {
+                        results.add(name);
+                        if (results.size() >= max)
+                            return results;
+                    }
+                }
+            }
+            // Contains
+            if (text.length() < NGRAM) {
+                // No n-grams, but short texts are found in most names
+                for (int b = 0; b < BUCKETS; b++) {
+                    for (Map.Entry<String, V> entry : sorted[b].entrySet()) {
+                        String name = entry.getKey();
+                        if (name.contains(text) && !name.startsWith(text) && filter.test(entry.getValue())) {
+                            results.add(name);
+                            if (results.size() >= max)
+                                return results;
+                        }
+                    }
+                }
+            } else {
+                // Posting list of the least common n-gram
+                int best = -1;
+                for (int i = 0; i + NGRAM <= text.length(); i++) {
+                    int slot = ngrams.get(ngram(text, i));
+                    if (slot == LongIndex.NONE)
+                        return results;
+                    if (best < 0 || postingSizes[slot] < postingSizes[best])
+                        best = slot;
+                }
+                int[] posting = postings[best];
+                int n = postingSizes[best];
+                List<Integer> found = new ArrayList<>();
+                for (int j = 0; j < n; j++) {
+                    int id = posting[j];
+                    String name = names[id];
+                    if (name != null && name.contains(text) && !name.startsWith(text) && filter.test(value(id)))
+                        found.add(id);
+                }
+                found.sort((a, b) -> buckets[a] != buckets[b] ? Integer.compare(buckets[a], buckets[b]) : names[a].compareTo(names[b]));
+                for (int j = 0; j < found.size() && results.size() < max; j++)
+                    results.add(names[found.get(j)]);
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int id) {
+        return (V) values[id];
+    }
+
+    private void add(String name, V value, int bucket) {
+        if (nIds == names.length) {
+            int capacity = names.length * 2;
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+            buckets = Arrays.copyOf(buckets, capacity);
+        }
+        int id = nIds++;
+        names[id] = name;
+        values[id] = value;
+        buckets[id] = (byte) bucket;
+        ids.put(name, id);
+        sorted[bucket].put(name, value);
+        for (int i = 0; i + NGRAM <= name.length(); i++) {
+            long ngram = ngram(name, i);
+            int slot = ngrams.get(ngram);
+            if (slot == LongIndex.NONE) {
+                if (nPostings == postings.length) {
+                    postings = Arrays.copyOf(postings, nPostings * 2);
+                    postingSizes = Arrays.copyOf(postingSizes, nPostings * 2);
+                }
+                slot = nPostings++;
+                postings[slot] = new int[4];
+                ngrams.put(ngram, slot);
+            }
+            int size = postingSizes[slot];
+            // The same n-gram may appear more than once in the name
+            if (size > 0 && postings[slot][size - 1] == id)
+                continue;
+            if (size == postings[slot].length)
+                postings[slot] = Arrays.copyOf(postings[slot], size * 2);
+            postings[slot][postingSizes[slot]++] = id;
+        }
+    }
+
+    private void removeId(String name, int id) {
+        ids.remove(name);
+        sorted[buckets[id]].remove(name);
+        names[id] = null;
+        values[id] = null;
+        live--;
+    }
+
+    /**
+     * Builds the n-gram index again with the live names only
+     */
+    private void compact() {
+        String[] oldNames = names;
+        Object[] oldValues = values;
+        byte[] oldBuckets = buckets;
+        int n = nIds;
+        reset(Math.max(16, live * 2));
+        ids.clear();
+        for (int id = 0; id < n; id++) {
+            if (oldNames[id] != null) {
+                @SuppressWarnings("unchecked") V value = (V) oldValues[id];
+                add(oldNames[id], value, oldBuckets[id]);
+            }
+        }
+    }
+
+    private static long ngram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    private static int bucket(float rank) {
+        if (Float.isNaN(rank) || rank >= MIN_RANK + BUCKETS - 2)
+            return BUCKETS - 1;
+        if (rank < MIN_RANK)
+            return 0;
+        return (int) Math.floor(rank) - MIN_RANK + 1;
+    }
+}
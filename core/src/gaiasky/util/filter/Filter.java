@@ -8,6 +8,8 @@ package gaiasky.util.filter;
 import com.badlogic.gdx.utils.Array;
 import gaiasky.scenegraph.particle.IParticleRecord;
 
+import java.util.function.Predicate;
+
 /**
  * A filter on a dataset as a set of rules
  */
@@ -57,6 +59,36 @@ public class Filter {
         }
     }
 
+    /**
+     * Takes a snapshot of the current rules and operation and returns a predicate which
+     * evaluates them without locking, so that it can be used from several threads at once.
+     * Later changes to this filter do not affect the predicate.
+     *
+     * @return The predicate
+     */
+    public Predicate<IParticleRecord> compile() {
+        synchronized (this) {
+            final FilterRule[] r = rules.toArray(FilterRule.class);
+            if (operation instanceof OperationOr) {
+                return bean -> {
+                    for (FilterRule rule : r) {
+                        if (rule.evaluate(bean))
+                            return true;
+                    }
+                    return false;
+                };
+            } else {
+                return bean -> {
+                    for (FilterRule rule : r) {
+                        if (!rule.evaluate(bean))
+                            return false;
+                    }
+                    return true;
+                };
+            }
+        }
+    }
+
     public boolean hasRules(){
         return rules != null && rules.size > 0;
     }
@@ -5,6 +5,7 @@
 
 package gaiasky.util.gaia;
 
+import gaiasky.util.TLV3D;
 import gaiasky.util.coord.Coordinates;
 import gaiasky.util.coord.NslSun;
 import gaiasky.util.math.Quaterniond;
@@ -26,9 +27,9 @@ public class AttitudeConverter {
     static final Vector3d Y_AXIS = Vector3d.getUnitY();
     static final Vector3d Z_AXIS = Vector3d.getUnitZ();
 
-    static final Vector3d aux1 = new Vector3d();
-    static final Vector3d aux2 = new Vector3d();
-    static final Vector3d aux3 = new Vector3d();
+    static final TLV3D aux1 = new TLV3D();
+    static final TLV3D aux2 = new TLV3D();
+    static final TLV3D aux3 = new TLV3D();
 
     /** The obliquity of the ecliptic in radians **/
     static final double OBLIQUITY = Coordinates.OBLIQUITY_RAD_J2000;
@@ -83,7 +84,7 @@ public class AttitudeConverter {
          **/
         double sinLSun = Math.sin(lSun);
         double cosLSun = Math.cos(lSun);
-        Vector3d zInSrs = aux1;
+        Vector3d zInSrs = aux1.get();
         zInSrs.set(Y_AXIS).rotateVectorByQuaternion(q);
         double rateX = nuDot * cosLSun + omegaDot * zInSrs.x;
         double rateY = -lSunDot * sinObliquity + nuDot * sinLSun * cosObliquity
@@ -192,10 +193,10 @@ public class AttitudeConverter {
          **/
         double sinLSun = Math.sin(lSun);
         double cosLSun = Math.cos(lSun);
-        Vector3d zInSrs = aux1;
+        Vector3d zInSrs = aux1.get();
         zInSrs.set(Y_AXIS).mul(q);
-        Vector3d sz = aux2;
-        sz.set(sun.getSolarDirection(aux3)).crs(zInSrs).nor();
+        Vector3d sz = aux2.get();
+        sz.set(sun.getSolarDirection(aux3.get())).crs(zInSrs).nor();
         double rateX = h.getNuDot() * cosLSun + h.getOmegaDot() * zInSrs.x
                 + h.getXiDot() * sz.x;
         double rateY = -lSunDot * sinObliquity + h.getNuDot() * sinLSun
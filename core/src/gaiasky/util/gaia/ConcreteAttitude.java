@@ -5,6 +5,7 @@
 
 package gaiasky.util.gaia;
 
+import gaiasky.util.TLV3D;
 import gaiasky.util.coord.Coordinates;
 import gaiasky.util.coord.NslSun;
 import gaiasky.util.math.Quaterniond;
@@ -32,7 +33,7 @@ public class ConcreteAttitude implements Attitude {
     private static final double BASICANGLE_DEGREE = 106.5;
     private static final Vector3d[] xyz = new Vector3d[]{new Vector3d(), new Vector3d(), new Vector3d()};
     private static final Vector3d[] fovDirections = new Vector3d[]{new Vector3d(), new Vector3d()};
-    private static final Vector3d aux = new Vector3d();
+    private static final TLV3D aux = new TLV3D();
     /**
      * time to which the attitude refers, in elapsed ns since the reference epoch
      */
@@ -154,7 +155,7 @@ public class ConcreteAttitude implements Attitude {
 
         // m = s x z is a non-unit vector (of length sinXi) normal to the plane
         // containing s and z:
-        Vector3d m = aux;
+        Vector3d m = aux.get();
         m.set(s);
         m.crs(xyz[2]);
 
@@ -22,6 +22,7 @@ package gaiasky.util.math;
  ******************************************************************************/
 
 import com.badlogic.gdx.math.collision.BoundingBox;
+import gaiasky.util.TLV3D;
 
 import java.io.Serializable;
 import java.util.List;
@@ -36,7 +37,7 @@ import java.util.List;
 public class BoundingBoxd implements Serializable {
     private static final long serialVersionUID = -1286036817192127343L;
 
-    private final static Vector3d tmpVector = new Vector3d();
+    private final static TLV3D tmpVector = new TLV3D();
 
     public final Vector3d min = new Vector3d();
     public final Vector3d max = new Vector3d();
@@ -363,6 +364,7 @@ public class BoundingBoxd implements Serializable {
      * @return This bounding box for chaining.
      */
     public BoundingBoxd ext(BoundingBoxd bounds, Matrix4d transform) {
+        Vector3d tmpVector = BoundingBoxd.tmpVector.get();
         ext(tmpVector.set(bounds.min.x, bounds.min.y, bounds.min.z).mul(transform));
         ext(tmpVector.set(bounds.min.x, bounds.min.y, bounds.max.z).mul(transform));
         ext(tmpVector.set(bounds.min.x, bounds.max.y, bounds.min.z).mul(transform));
@@ -386,6 +388,7 @@ public class BoundingBoxd implements Serializable {
     public BoundingBoxd mul(Matrix4d transform) {
         final double x0 = min.x, y0 = min.y, z0 = min.z, x1 = max.x, y1 = max.y, z1 = max.z;
         inf();
+        Vector3d tmpVector = BoundingBoxd.tmpVector.get();
         ext(tmpVector.set(x0, y0, z0).mul(transform));
         ext(tmpVector.set(x0, y0, z1).mul(transform));
         ext(tmpVector.set(x0, y1, z0).mul(transform));
@@ -24,6 +24,7 @@ package gaiasky.util.math;
 import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.PerspectiveCamera;
+import gaiasky.util.TLV3D;
 import gaiasky.util.math.Planed.PlaneSide;
 
 /** A truncated rectangular pyramid. Used to define the viewable region and its projection onto the screen.
@@ -42,7 +43,7 @@ public class Frustumd {
         }
     }
 
-    private final static Vector3d tmpV = new Vector3d();
+    private final static TLV3D tmpV = new TLV3D();
 
     /** the six clipping planes, near, far, left, right, top, bottom **/
     public final Planed[] planes = new Planed[6];
@@ -163,6 +164,7 @@ public class Frustumd {
      * @param bounds The bounding box
      * @return Whether the bounding box is in the frustum */
     public boolean boundsInFrustum(BoundingBoxd bounds) {
+        Vector3d tmpV = Frustumd.tmpV.get();
         for (int i = 0, len2 = planes.length; i < len2; i++) {
             if (planes[i].testPoint(bounds.getCorner000(tmpV)) != PlaneSide.Back)
                 continue;
@@ -8,12 +8,13 @@ package gaiasky.util.math;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.math.collision.Ray;
 import com.badlogic.gdx.utils.Array;
+import gaiasky.util.TLV3D;
 
 public class Intersectord {
 
-    private static final Vector3d auxd1 = new Vector3d();
-    private static final Vector3d auxd2 = new Vector3d();
-    private static final Vector3d auxd3 = new Vector3d();
+    private static final TLV3D auxd1 = new TLV3D();
+    private static final TLV3D auxd2 = new TLV3D();
+    private static final TLV3D auxd3 = new TLV3D();
 
     /**
      * Quick check whether the given {@link Ray} and {@link BoundingBoxd}
@@ -111,14 +112,14 @@ public class Intersectord {
 
         double t1 = (-B - Math.sqrt(D)) / (2.0 * A);
 
-        Vector3d solution1 = auxd1.set(linePoint0.x * (1 - t1) + t1 * linePoint1.x, linePoint0.y * (1 - t1) + t1 * linePoint1.y, linePoint0.z * (1 - t1) + t1 * linePoint1.z);
+        Vector3d solution1 = auxd1.get().set(linePoint0.x * (1 - t1) + t1 * linePoint1.x, linePoint0.y * (1 - t1) + t1 * linePoint1.y, linePoint0.z * (1 - t1) + t1 * linePoint1.z);
         if (D == 0) {
             result.add(solution1);
             return result;
         }
 
         double t2 = (-B + Math.sqrt(D)) / (2.0 * A);
-        Vector3d solution2 = auxd2.set(linePoint0.x * (1 - t2) + t2 * linePoint1.x, linePoint0.y * (1 - t2) + t2 * linePoint1.y, linePoint0.z * (1 - t2) + t2 * linePoint1.z);
+        Vector3d solution2 = auxd2.get().set(linePoint0.x * (1 - t2) + t2 * linePoint1.x, linePoint0.y * (1 - t2) + t2 * linePoint1.y, linePoint0.z * (1 - t2) + t2 * linePoint1.z);
 
         // prefer a solution that's on the line segment itself
 
@@ -211,8 +212,8 @@ public class Intersectord {
      * @return The minimum distance between the line and the point
      */
     public synchronized static double distanceLinePoint(Vector3d x1, Vector3d x2, Vector3d x0) {
-        Vector3d crs = auxd1;
-        Vector3d aux1 = auxd2.set(x0).sub(x2);
+        Vector3d crs = auxd1.get();
+        Vector3d aux1 = auxd2.get().set(x0).sub(x2);
         double nominador = crs.set(x0).sub(x1).crs(aux1).len();
         double denominador = aux1.set(x2).sub(x1).len();
         return nominador / denominador;
@@ -230,15 +231,15 @@ public class Intersectord {
      * @return distance from v to line segment [a,b]
      */
     public synchronized static double distanceSegmentPoint(final Vector3d a, final Vector3d b, final Vector3d v) {
-        final Vector3d ab = auxd1.set(b).sub(a);
+        final Vector3d ab = auxd1.get().set(b).sub(a);
         double ablen = ab.len();
-        final Vector3d av = auxd2.set(v).sub(a);
+        final Vector3d av = auxd2.get().set(v).sub(a);
         double avlen = av.len();
 
         if (av.dot(ab) <= 0.0) // Point is lagging behind start of the segment, so perpendicular distance is not viable.
             return avlen; // Use distance to start of segment instead.
 
-        final Vector3d bv = auxd3.set(v).sub(b);
+        final Vector3d bv = auxd3.get().set(v).sub(b);
         double bvlen = bv.len();
 
         if (bv.dot(ab) >= 0.0) // Point is advanced past the end of the segment, so perpendicular distance is not viable.
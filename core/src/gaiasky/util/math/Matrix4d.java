@@ -24,6 +24,7 @@ package gaiasky.util.math;
 import com.badlogic.gdx.math.Matrix3;
 import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Vector3;
+import gaiasky.util.TLV3D;
 
 import java.io.Serializable;
 
@@ -134,7 +135,6 @@ public class Matrix4d implements Serializable {
      */
     public static final int M33 = 15;
 
-    public final static double[] stmp = new double[16];
     public final double[] tmp = new double[16];
     public final double[] val = new double[16];
 
@@ -526,7 +526,7 @@ public class Matrix4d implements Serializable {
      * @return This matrix for the purpose of chaining operations together.
      */
     public Matrix4d mulLeft(Matrix4d matrix) {
-        tmpMat.set(matrix);
+        Matrix4d tmpMat = Matrix4d.tmpMat.get().set(matrix);
         // mul(tmpMat.val, this.val);
         tmpMat.mul(this);
         return set(tmpMat);
@@ -874,7 +874,7 @@ public class Matrix4d implements Serializable {
         return this;
     }
 
-    static Quaterniond quat = new Quaterniond();
+    static final ThreadLocal<Quaterniond> quat = ThreadLocal.withInitial(Quaterniond::new);
 
     /**
      * Sets the matrix to a rotation matrix around the given axis.
@@ -890,7 +890,7 @@ public class Matrix4d implements Serializable {
             idt();
             return this;
         }
-        return set(quat.set(axis, degrees));
+        return set(quat.get().set(axis, degrees));
     }
 
     /**
@@ -907,7 +907,7 @@ public class Matrix4d implements Serializable {
             idt();
             return this;
         }
-        return set(quat.setFromAxisRad(axis, radians));
+        return set(quat.get().setFromAxisRad(axis, radians));
     }
 
     /**
@@ -928,7 +928,7 @@ public class Matrix4d implements Serializable {
             idt();
             return this;
         }
-        return set(quat.setFromAxis(axisX, axisY, axisZ, degrees));
+        return set(quat.get().setFromAxis(axisX, axisY, axisZ, degrees));
     }
 
     /**
@@ -949,7 +949,7 @@ public class Matrix4d implements Serializable {
             idt();
             return this;
         }
-        return set(quat.setFromAxisRad(axisX, axisY, axisZ, radians));
+        return set(quat.get().setFromAxisRad(axisX, axisY, axisZ, radians));
     }
 
     /**
@@ -962,7 +962,7 @@ public class Matrix4d implements Serializable {
      * @return This matrix for the purpose of chaining methods together
      */
     public Matrix4d setToRotation(final Vector3d v1, final Vector3d v2) {
-        return set(quat.setFromCross(v1, v2));
+        return set(quat.get().setFromCross(v1, v2));
     }
 
     /**
@@ -983,7 +983,7 @@ public class Matrix4d implements Serializable {
      * @return This matrix for the purpose of chaining methods together
      */
     public Matrix4d setToRotation(final double x1, final double y1, final double z1, final double x2, final double y2, final double z2) {
-        return set(quat.setFromCross(x1, y1, z1, x2, y2, z2));
+        return set(quat.get().setFromCross(x1, y1, z1, x2, y2, z2));
     }
 
     /**
@@ -998,8 +998,7 @@ public class Matrix4d implements Serializable {
      * @return This matrix
      */
     public Matrix4d setFromEulerAngles(double yaw, double pitch, double roll) {
-        quat.setEulerAngles(yaw, pitch, roll);
-        return set(quat);
+        return set(quat.get().setEulerAngles(yaw, pitch, roll));
     }
 
     /**
@@ -1036,9 +1035,9 @@ public class Matrix4d implements Serializable {
         return this;
     }
 
-    static final Vector3d l_vez = new Vector3d();
-    static final Vector3d l_vex = new Vector3d();
-    static final Vector3d l_vey = new Vector3d();
+    static final TLV3D l_vez = new TLV3D();
+    static final TLV3D l_vex = new TLV3D();
+    static final TLV3D l_vey = new TLV3D();
 
     /**
      * Sets the matrix to a look at matrix with a direction and an up vector.
@@ -1051,10 +1050,10 @@ public class Matrix4d implements Serializable {
      * @return This matrix for the purpose of chaining methods together.
      */
     public Matrix4d setToLookAt(Vector3d direction, Vector3d up) {
-        l_vez.set(direction).nor();
-        l_vex.set(direction).nor();
+        Vector3d l_vez = Matrix4d.l_vez.get().set(direction).nor();
+        Vector3d l_vex = Matrix4d.l_vex.get().set(direction).nor();
         l_vex.crs(up).nor();
-        l_vey.set(l_vex).crs(l_vez).nor();
+        Vector3d l_vey = Matrix4d.l_vey.get().set(l_vex).crs(l_vez).nor();
         idt();
         val[M00] = l_vex.x;
         val[M01] = l_vex.y;
@@ -1069,8 +1068,8 @@ public class Matrix4d implements Serializable {
         return this;
     }
 
-    static final Vector3d tmpVec = new Vector3d();
-    static final Matrix4d tmpMat = new Matrix4d();
+    static final TLV3D tmpVec = new TLV3D();
+    static final ThreadLocal<Matrix4d> tmpMat = ThreadLocal.withInitial(Matrix4d::new);
 
     /**
      * Sets this matrix to a look at matrix with the given position, target and
@@ -1085,21 +1084,20 @@ public class Matrix4d implements Serializable {
      * @return This matrix
      */
     public Matrix4d setToLookAt(Vector3d position, Vector3d target, Vector3d up) {
-        tmpVec.set(target).sub(position);
-        setToLookAt(tmpVec, up);
-        this.mul(tmpMat.setToTranslation(-position.x, -position.y, -position.z));
+        setToLookAt(tmpVec.get().set(target).sub(position), up);
+        this.mul(tmpMat.get().setToTranslation(-position.x, -position.y, -position.z));
 
         return this;
     }
 
-    static final Vector3d right = new Vector3d();
-    static final Vector3d tmpForward = new Vector3d();
-    static final Vector3d tmpUp = new Vector3d();
+    static final TLV3D right = new TLV3D();
+    static final TLV3D tmpForward = new TLV3D();
+    static final TLV3D tmpUp = new TLV3D();
 
     public Matrix4d setToWorld(Vector3d position, Vector3d forward, Vector3d up) {
-        tmpForward.set(forward).nor();
-        right.set(tmpForward).crs(up).nor();
-        tmpUp.set(right).crs(tmpForward).nor();
+        Vector3d tmpForward = Matrix4d.tmpForward.get().set(forward).nor();
+        Vector3d right = Matrix4d.right.get().set(tmpForward).crs(up).nor();
+        Vector3d tmpUp = Matrix4d.tmpUp.get().set(right).crs(tmpForward).nor();
 
         this.set(right, tmpUp, tmpForward, position);
         return this;
@@ -1297,23 +1295,24 @@ public class Matrix4d implements Serializable {
     }
 
     static void matrix4_mul(double[] mata, double[] matb) {
-        stmp[M00] = mata[M00] * matb[M00] + mata[M01] * matb[M10] + mata[M02] * matb[M20] + mata[M03] * matb[M30];
-        stmp[M01] = mata[M00] * matb[M01] + mata[M01] * matb[M11] + mata[M02] * matb[M21] + mata[M03] * matb[M31];
-        stmp[M02] = mata[M00] * matb[M02] + mata[M01] * matb[M12] + mata[M02] * matb[M22] + mata[M03] * matb[M32];
-        stmp[M03] = mata[M00] * matb[M03] + mata[M01] * matb[M13] + mata[M02] * matb[M23] + mata[M03] * matb[M33];
-        stmp[M10] = mata[M10] * matb[M00] + mata[M11] * matb[M10] + mata[M12] * matb[M20] + mata[M13] * matb[M30];
-        stmp[M11] = mata[M10] * matb[M01] + mata[M11] * matb[M11] + mata[M12] * matb[M21] + mata[M13] * matb[M31];
-        stmp[M12] = mata[M10] * matb[M02] + mata[M11] * matb[M12] + mata[M12] * matb[M22] + mata[M13] * matb[M32];
-        stmp[M13] = mata[M10] * matb[M03] + mata[M11] * matb[M13] + mata[M12] * matb[M23] + mata[M13] * matb[M33];
-        stmp[M20] = mata[M20] * matb[M00] + mata[M21] * matb[M10] + mata[M22] * matb[M20] + mata[M23] * matb[M30];
-        stmp[M21] = mata[M20] * matb[M01] + mata[M21] * matb[M11] + mata[M22] * matb[M21] + mata[M23] * matb[M31];
-        stmp[M22] = mata[M20] * matb[M02] + mata[M21] * matb[M12] + mata[M22] * matb[M22] + mata[M23] * matb[M32];
-        stmp[M23] = mata[M20] * matb[M03] + mata[M21] * matb[M13] + mata[M22] * matb[M23] + mata[M23] * matb[M33];
-        stmp[M30] = mata[M30] * matb[M00] + mata[M31] * matb[M10] + mata[M32] * matb[M20] + mata[M33] * matb[M30];
-        stmp[M31] = mata[M30] * matb[M01] + mata[M31] * matb[M11] + mata[M32] * matb[M21] + mata[M33] * matb[M31];
-        stmp[M32] = mata[M30] * matb[M02] + mata[M31] * matb[M12] + mata[M32] * matb[M22] + mata[M33] * matb[M32];
-        stmp[M33] = mata[M30] * matb[M03] + mata[M31] * matb[M13] + mata[M32] * matb[M23] + mata[M33] * matb[M33];
-        System.arraycopy(stmp, 0, mata, 0, 16);
+        double[] tmp = new double[16];
+        tmp[M00] = mata[M00] * matb[M00] + mata[M01] * matb[M10] + mata[M02] * matb[M20] + mata[M03] * matb[M30];
+        tmp[M01] = mata[M00] * matb[M01] + mata[M01] * matb[M11] + mata[M02] * matb[M21] + mata[M03] * matb[M31];
+        tmp[M02] = mata[M00] * matb[M02] + mata[M01] * matb[M12] + mata[M02] * matb[M22] + mata[M03] * matb[M32];
+        tmp[M03] = mata[M00] * matb[M03] + mata[M01] * matb[M13] + mata[M02] * matb[M23] + mata[M03] * matb[M33];
+        tmp[M10] = mata[M10] * matb[M00] + mata[M11] * matb[M10] + mata[M12] * matb[M20] + mata[M13] * matb[M30];
+        tmp[M11] = mata[M10] * matb[M01] + mata[M11] * matb[M11] + mata[M12] * matb[M21] + mata[M13] * matb[M31];
+        tmp[M12] = mata[M10] * matb[M02] + mata[M11] * matb[M12] + mata[M12] * matb[M22] + mata[M13] * matb[M32];
+        tmp[M13] = mata[M10] * matb[M03] + mata[M11] * matb[M13] + mata[M12] * matb[M23] + mata[M13] * matb[M33];
+        tmp[M20] = mata[M20] * matb[M00] + mata[M21] * matb[M10] + mata[M22] * matb[M20] + mata[M23] * matb[M30];
+        tmp[M21] = mata[M20] * matb[M01] + mata[M21] * matb[M11] + mata[M22] * matb[M21] + mata[M23] * matb[M31];
+        tmp[M22] = mata[M20] * matb[M02] + mata[M21] * matb[M12] + mata[M22] * matb[M22] + mata[M23] * matb[M32];
+        tmp[M23] = mata[M20] * matb[M03] + mata[M21] * matb[M13] + mata[M22] * matb[M23] + mata[M23] * matb[M33];
+        tmp[M30] = mata[M30] * matb[M00] + mata[M31] * matb[M10] + mata[M32] * matb[M20] + mata[M33] * matb[M30];
+        tmp[M31] = mata[M30] * matb[M01] + mata[M31] * matb[M11] + mata[M32] * matb[M21] + mata[M33] * matb[M31];
+        tmp[M32] = mata[M30] * matb[M02] + mata[M31] * matb[M12] + mata[M32] * matb[M22] + mata[M33] * matb[M32];
+        tmp[M33] = mata[M30] * matb[M03] + mata[M31] * matb[M13] + mata[M32] * matb[M23] + mata[M33] * matb[M33];
+        System.arraycopy(tmp, 0, mata, 0, 16);
     }
 
     static double matrix4_det(double[] val) {
@@ -1327,40 +1326,40 @@ public class Matrix4d implements Serializable {
         double l_det = matrix4_det(val);
         if (l_det == 0)
             return false;
-        stmp[M00] = val[M12] * val[M23] * val[M31] - val[M13] * val[M22] * val[M31] + val[M13] * val[M21] * val[M32] - val[M11] * val[M23] * val[M32] - val[M12] * val[M21] * val[M33] + val[M11] * val[M22] * val[M33];
-        stmp[M01] = val[M03] * val[M22] * val[M31] - val[M02] * val[M23] * val[M31] - val[M03] * val[M21] * val[M32] + val[M01] * val[M23] * val[M32] + val[M02] * val[M21] * val[M33] - val[M01] * val[M22] * val[M33];
-        stmp[M02] = val[M02] * val[M13] * val[M31] - val[M03] * val[M12] * val[M31] + val[M03] * val[M11] * val[M32] - val[M01] * val[M13] * val[M32] - val[M02] * val[M11] * val[M33] + val[M01] * val[M12] * val[M33];
-        stmp[M03] = val[M03] * val[M12] * val[M21] - val[M02] * val[M13] * val[M21] - val[M03] * val[M11] * val[M22] + val[M01] * val[M13] * val[M22] + val[M02] * val[M11] * val[M23] - val[M01] * val[M12] * val[M23];
-        stmp[M10] = val[M13] * val[M22] * val[M30] - val[M12] * val[M23] * val[M30] - val[M13] * val[M20] * val[M32] + val[M10] * val[M23] * val[M32] + val[M12] * val[M20] * val[M33] - val[M10] * val[M22] * val[M33];
-        stmp[M11] = val[M02] * val[M23] * val[M30] - val[M03] * val[M22] * val[M30] + val[M03] * val[M20] * val[M32] - val[M00] * val[M23] * val[M32] - val[M02] * val[M20] * val[M33] + val[M00] * val[M22] * val[M33];
-        stmp[M12] = val[M03] * val[M12] * val[M30] - val[M02] * val[M13] * val[M30] - val[M03] * val[M10] * val[M32] + val[M00] * val[M13] * val[M32] + val[M02] * val[M10] * val[M33] - val[M00] * val[M12] * val[M33];
-        stmp[M13] = val[M02] * val[M13] * val[M20] - val[M03] * val[M12] * val[M20] + val[M03] * val[M10] * val[M22] - val[M00] * val[M13] * val[M22] - val[M02] * val[M10] * val[M23] + val[M00] * val[M12] * val[M23];
-        stmp[M20] = val[M11] * val[M23] * val[M30] - val[M13] * val[M21] * val[M30] + val[M13] * val[M20] * val[M31] - val[M10] * val[M23] * val[M31] - val[M11] * val[M20] * val[M33] + val[M10] * val[M21] * val[M33];
-        stmp[M21] = val[M03] * val[M21] * val[M30] - val[M01] * val[M23] * val[M30] - val[M03] * val[M20] * val[M31] + val[M00] * val[M23] * val[M31] + val[M01] * val[M20] * val[M33] - val[M00] * val[M21] * val[M33];
-        stmp[M22] = val[M01] * val[M13] * val[M30] - val[M03] * val[M11] * val[M30] + val[M03] * val[M10] * val[M31] - val[M00] * val[M13] * val[M31] - val[M01] * val[M10] * val[M33] + val[M00] * val[M11] * val[M33];
-        stmp[M23] = val[M03] * val[M11] * val[M20] - val[M01] * val[M13] * val[M20] - val[M03] * val[M10] * val[M21] + val[M00] * val[M13] * val[M21] + val[M01] * val[M10] * val[M23] - val[M00] * val[M11] * val[M23];
-        stmp[M30] = val[M12] * val[M21] * val[M30] - val[M11] * val[M22] * val[M30] - val[M12] * val[M20] * val[M31] + val[M10] * val[M22] * val[M31] + val[M11] * val[M20] * val[M32] - val[M10] * val[M21] * val[M32];
-        stmp[M31] = val[M01] * val[M22] * val[M30] - val[M02] * val[M21] * val[M30] + val[M02] * val[M20] * val[M31] - val[M00] * val[M22] * val[M31] - val[M01] * val[M20] * val[M32] + val[M00] * val[M21] * val[M32];
-        stmp[M32] = val[M02] * val[M11] * val[M30] - val[M01] * val[M12] * val[M30] - val[M02] * val[M10] * val[M31] + val[M00] * val[M12] * val[M31] + val[M01] * val[M10] * val[M32] - val[M00] * val[M11] * val[M32];
-        stmp[M33] = val[M01] * val[M12] * val[M20] - val[M02] * val[M11] * val[M20] + val[M02] * val[M10] * val[M21] - val[M00] * val[M12] * val[M21] - val[M01] * val[M10] * val[M22] + val[M00] * val[M11] * val[M22];
+        tmp[M00] = val[M12] * val[M23] * val[M31] - val[M13] * val[M22] * val[M31] + val[M13] * val[M21] * val[M32] - val[M11] * val[M23] * val[M32] - val[M12] * val[M21] * val[M33] + val[M11] * val[M22] * val[M33];
+        tmp[M01] = val[M03] * val[M22] * val[M31] - val[M02] * val[M23] * val[M31] - val[M03] * val[M21] * val[M32] + val[M01] * val[M23] * val[M32] + val[M02] * val[M21] * val[M33] - val[M01] * val[M22] * val[M33];
+        tmp[M02] = val[M02] * val[M13] * val[M31] - val[M03] * val[M12] * val[M31] + val[M03] * val[M11] * val[M32] - val[M01] * val[M13] * val[M32] - val[M02] * val[M11] * val[M33] + val[M01] * val[M12] * val[M33];
+        tmp[M03] = val[M03] * val[M12] * val[M21] - val[M02] * val[M13] * val[M21] - val[M03] * val[M11] * val[M22] + val[M01] * val[M13] * val[M22] + val[M02] * val[M11] * val[M23] - val[M01] * val[M12] * val[M23];
+        tmp[M10] = val[M13] * val[M22] * val[M30] - val[M12] * val[M23] * val[M30] - val[M13] * val[M20] * val[M32] + val[M10] * val[M23] * val[M32] + val[M12] * val[M20] * val[M33] - val[M10] * val[M22] * val[M33];
+        tmp[M11] = val[M02] * val[M23] * val[M30] - val[M03] * val[M22] * val[M30] + val[M03] * val[M20] * val[M32] - val[M00] * val[M23] * val[M32] - val[M02] * val[M20] * val[M33] + val[M00] * val[M22] * val[M33];
+        tmp[M12] = val[M03] * val[M12] * val[M30] - val[M02] * val[M13] * val[M30] - val[M03] * val[M10] * val[M32] + val[M00] * val[M13] * val[M32] + val[M02] * val[M10] * val[M33] - val[M00] * val[M12] * val[M33];
+        tmp[M13] = val[M02] * val[M13] * val[M20] - val[M03] * val[M12] * val[M20] + val[M03] * val[M10] * val[M22] - val[M00] * val[M13] * val[M22] - val[M02] * val[M10] * val[M23] + val[M00] * val[M12] * val[M23];
+        tmp[M20] = val[M11] * val[M23] * val[M30] - val[M13] * val[M21] * val[M30] + val[M13] * val[M20] * val[M31] - val[M10] * val[M23] * val[M31] - val[M11] * val[M20] * val[M33] + val[M10] * val[M21] * val[M33];
+        tmp[M21] = val[M03] * val[M21] * val[M30] - val[M01] * val[M23] * val[M30] - val[M03] * val[M20] * val[M31] + val[M00] * val[M23] * val[M31] + val[M01] * val[M20] * val[M33] - val[M00] * val[M21] * val[M33];
+        tmp[M22] = val[M01] * val[M13] * val[M30] - val[M03] * val[M11] * val[M30] + val[M03] * val[M10] * val[M31] - val[M00] * val[M13] * val[M31] - val[M01] * val[M10] * val[M33] + val[M00] * val[M11] * val[M33];
+        tmp[M23] = val[M03] * val[M11] * val[M20] - val[M01] * val[M13] * val[M20] - val[M03] * val[M10] * val[M21] + val[M00] * val[M13] * val[M21] + val[M01] * val[M10] * val[M23] - val[M00] * val[M11] * val[M23];
+        tmp[M30] = val[M12] * val[M21] * val[M30] - val[M11] * val[M22] * val[M30] - val[M12] * val[M20] * val[M31] + val[M10] * val[M22] * val[M31] + val[M11] * val[M20] * val[M32] - val[M10] * val[M21] * val[M32];
+        tmp[M31] = val[M01] * val[M22] * val[M30] - val[M02] * val[M21] * val[M30] + val[M02] * val[M20] * val[M31] - val[M00] * val[M22] * val[M31] - val[M01] * val[M20] * val[M32] + val[M00] * val[M21] * val[M32];
+        tmp[M32] = val[M02] * val[M11] * val[M30] - val[M01] * val[M12] * val[M30] - val[M02] * val[M10] * val[M31] + val[M00] * val[M12] * val[M31] + val[M01] * val[M10] * val[M32] - val[M00] * val[M11] * val[M32];
+        tmp[M33] = val[M01] * val[M12] * val[M20] - val[M02] * val[M11] * val[M20] + val[M02] * val[M10] * val[M21] - val[M00] * val[M12] * val[M21] - val[M01] * val[M10] * val[M22] + val[M00] * val[M11] * val[M22];
 
         double inv_det = 1.0 / l_det;
-        val[M00] = stmp[M00] * inv_det;
-        val[M01] = stmp[M01] * inv_det;
-        val[M02] = stmp[M02] * inv_det;
-        val[M03] = stmp[M03] * inv_det;
-        val[M10] = stmp[M10] * inv_det;
-        val[M11] = stmp[M11] * inv_det;
-        val[M12] = stmp[M12] * inv_det;
-        val[M13] = stmp[M13] * inv_det;
-        val[M20] = stmp[M20] * inv_det;
-        val[M21] = stmp[M21] * inv_det;
-        val[M22] = stmp[M22] * inv_det;
-        val[M23] = stmp[M23] * inv_det;
-        val[M30] = stmp[M30] * inv_det;
-        val[M31] = stmp[M31] * inv_det;
-        val[M32] = stmp[M32] * inv_det;
-        val[M33] = stmp[M33] * inv_det;
+        val[M00] = tmp[M00] * inv_det;
+        val[M01] = tmp[M01] * inv_det;
+        val[M02] = tmp[M02] * inv_det;
+        val[M03] = tmp[M03] * inv_det;
+        val[M10] = tmp[M10] * inv_det;
+        val[M11] = tmp[M11] * inv_det;
+        val[M12] = tmp[M12] * inv_det;
+        val[M13] = tmp[M13] * inv_det;
+        val[M20] = tmp[M20] * inv_det;
+        val[M21] = tmp[M21] * inv_det;
+        val[M22] = tmp[M22] * inv_det;
+        val[M23] = tmp[M23] * inv_det;
+        val[M30] = tmp[M30] * inv_det;
+        val[M31] = tmp[M31] * inv_det;
+        val[M32] = tmp[M32] * inv_det;
+        val[M33] = tmp[M33] * inv_det;
         return true;
     }
 
@@ -1478,8 +1477,7 @@ public class Matrix4d implements Serializable {
     public Matrix4d rotate(Vector3d axis, double degrees) {
         if (degrees == 0)
             return this;
-        quat.set(axis, degrees);
-        return rotate(quat);
+        return rotate(quat.get().set(axis, degrees));
     }
 
     /**
@@ -1496,8 +1494,7 @@ public class Matrix4d implements Serializable {
     public Matrix4d rotateRad(Vector3d axis, double radians) {
         if (radians == 0)
             return this;
-        quat.setFromAxisRad(axis, radians);
-        return rotate(quat);
+        return rotate(quat.get().setFromAxisRad(axis, radians));
     }
 
     /**
@@ -1518,8 +1515,7 @@ public class Matrix4d implements Serializable {
     public Matrix4d rotate(double axisX, double axisY, double axisZ, double degrees) {
         if (degrees == 0)
             return this;
-        quat.setFromAxis(axisX, axisY, axisZ, degrees);
-        return rotate(quat);
+        return rotate(quat.get().setFromAxis(axisX, axisY, axisZ, degrees));
     }
 
     /**
@@ -1540,8 +1536,7 @@ public class Matrix4d implements Serializable {
     public Matrix4d rotateRad(double axisX, double axisY, double axisZ, double radians) {
         if (radians == 0)
             return this;
-        quat.setFromAxisRad(axisX, axisY, axisZ, radians);
-        return rotate(quat);
+        return rotate(quat.get().setFromAxisRad(axisX, axisY, axisZ, radians));
     }
 
     /**
@@ -1568,7 +1563,7 @@ public class Matrix4d implements Serializable {
      * @return This matrix for the purpose of chaining methods together
      */
     public Matrix4d rotate(final Vector3d v1, final Vector3d v2) {
-        return rotate(quat.setFromCross(v1, v2));
+        return rotate(quat.get().setFromCross(v1, v2));
     }
 
     /**
@@ -35,8 +35,8 @@ import java.io.Serializable;
 public class Quaterniond implements Serializable {
     private static final long serialVersionUID = -7661875440774897168L;
     private static final double NORMALIZATION_TOLERANCE = 0.00001;
-    private static final Quaterniond tmp1 = new Quaterniond(0, 0, 0, 0);
-    private static final Quaterniond tmp2 = new Quaterniond(0, 0, 0, 0);
+    private static final ThreadLocal<Quaterniond> tmp1 = ThreadLocal.withInitial(() -> new Quaterniond(0, 0, 0, 0));
+    private static final ThreadLocal<Quaterniond> tmp2 = ThreadLocal.withInitial(() -> new Quaterniond(0, 0, 0, 0));
 
     public double x;
     public double y;
@@ -254,9 +254,10 @@ public class Quaterniond implements Serializable {
      * 
      * @param v Vector to transform */
     public Vector3d transform(Vector3d v) {
+        Quaterniond tmp2 = Quaterniond.tmp2.get();
         tmp2.set(this);
         tmp2.conjugate();
-        tmp2.mulLeft(tmp1.set(v.x, v.y, v.z, 0)).mulLeft(this);
+        tmp2.mulLeft(tmp1.get().set(v.x, v.y, v.z, 0)).mulLeft(this);
 
         v.x = tmp2.x;
         v.y = tmp2.y;
@@ -5,6 +5,8 @@
 
 package gaiasky.util.math;
 
+import gaiasky.util.TLV3D;
+
 import java.io.Serializable;
 
 /** Encapsulates a Rayd having a starting position and a unit length direction.
@@ -46,13 +48,14 @@ public class Rayd implements Serializable {
         return out.set(direction).scl(distance).add(origin);
     }
 
-    static Vector3d tmp = new Vector3d();
+    private static final TLV3D tmp = new TLV3D();
 
     /** Multiplies the Rayd by the given matrix. Use this to transform a Rayd into another coordinate system.
      * 
      * @param matrix The matrix
      * @return This Rayd for chaining. */
     public Rayd mul(Matrix4d matrix) {
+        Vector3d tmp = Rayd.tmp.get();
         tmp.set(origin).add(direction);
         tmp.mul(matrix);
         origin.mul(matrix);
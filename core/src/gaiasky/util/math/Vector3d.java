@@ -33,7 +33,7 @@ public class Vector3d implements Serializable, Vectord<Vector3d> {
 	public final static Vector3d Z = new Vector3d(0, 0, 1);
 	public final static Vector3d Zero = new Vector3d(0, 0, 0);
 
-	private final static Matrix4d tmpMat = new Matrix4d();
+	private final static ThreadLocal<Matrix4d> tmpMat = ThreadLocal.withInitial(Matrix4d::new);
 
 	public static Vector3d getUnitX() {
 		return X.cpy();
@@ -599,7 +599,7 @@ public class Vector3d implements Serializable, Vectord<Vector3d> {
 	 * @return This vector for chaining
 	 */
 	public Vector3d rotate(double degrees, double axisX, double axisY, double axisZ) {
-		return this.mul(tmpMat.setToRotation(axisX, axisY, axisZ, degrees));
+		return this.mul(tmpMat.get().setToRotation(axisX, axisY, axisZ, degrees));
 	}
 
 	/**
@@ -612,7 +612,7 @@ public class Vector3d implements Serializable, Vectord<Vector3d> {
 	 * @return This vector for chaining
 	 */
 	public Vector3d rotateRad(double radians, double axisX, double axisY, double axisZ) {
-		return this.mul(tmpMat.setToRotationRad(axisX, axisY, axisZ, radians));
+		return this.mul(tmpMat.get().setToRotationRad(axisX, axisY, axisZ, radians));
 	}
 
 	/**
@@ -623,8 +623,7 @@ public class Vector3d implements Serializable, Vectord<Vector3d> {
 	 * @return This vector for chaining
 	 */
 	public Vector3d rotate(final Vector3d axis, double degrees) {
-		tmpMat.setToRotation(axis, degrees);
-		return this.mul(tmpMat);
+		return this.mul(tmpMat.get().setToRotation(axis, degrees));
 	}
 
 	/**
@@ -635,8 +634,7 @@ public class Vector3d implements Serializable, Vectord<Vector3d> {
 	 * @return This vector for chaining
 	 */
 	public Vector3d rotateRad(final Vector3d axis, double radians) {
-		tmpMat.setToRotationRad(axis, radians);
-		return this.mul(tmpMat);
+		return this.mul(tmpMat.get().setToRotationRad(axis, radians));
 	}
 
 	/**
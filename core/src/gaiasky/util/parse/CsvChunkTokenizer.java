@@ -0,0 +1,382 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.parse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Splits delimited text (CSV) into chunks of whole records and parses the chunks in parallel, without
+ * creating strings. Mapped files are cut into slices of the buffer with no copy. Streams, typically
+ * gunzipped files, are read into chunk buffers which are reused.
+ * <p>
+ * Each chunk is parsed by a task in the common fork-join pool, which iterates its {@link Record}s and
+ * returns a result, usually a per-task buffer. Results are handed to the merger in the order of the
+ * input, in the calling thread, so they need no synchronization. At most two chunks per worker are
+ * in flight, which bounds the memory used.
+ *
+ * @author tsagrista
+ */
+public class CsvChunkTokenizer {
+    /** Default chunk size, in bytes **/
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final byte separator;
+    private final int chunkSize;
+    private final boolean header;
+    private final boolean parallel;
+    private final long maxRecords;
+    private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+
+    /**
+     * Creates a tokenizer
+     *
+     * @param separator  The field separator, an ASCII character
+     * @param chunkSize  The approximate size of chunks, in bytes. Chunks grow to fit at least one record
+     * @param header     Whether the first line is a header and must be skipped
+     * @param parallel   Whether to parse chunks in parallel. Otherwise, they are parsed in the calling thread
+     * @param maxRecords Maximum number of records to parse, or negative for all
+     */
+    public CsvChunkTokenizer(char separator, int chunkSize, boolean header, boolean parallel, long maxRecords) {
+        if (separator > 127)
+            throw new IllegalArgumentException("Separator must be an ASCII character: " + separator);
+        this.separator = (byte) separator;
+        this.chunkSize = Math.max(1024, chunkSize);
+        this.header = header;
+        this.parallel = parallel;
+        this.maxRecords = maxRecords;
+    }
+
+    public CsvChunkTokenizer(char separator, boolean header, boolean parallel) {
+        this(separator, DEFAULT_CHUNK_SIZE, header, parallel, -1);
+    }
+
+    /**
+     * Parses the contents of the buffer, from its position to its limit, typically a mapped file.
+     * Chunks are slices of the buffer.
+     *
+     * @param data   The data
+     * @param parser Parses a chunk, may run in any thread
+     * @param merger Gets the results of the chunks, in order, in the calling thread
+     * @param <R>    The result type
+     */
+    public <R> void process(ByteBuffer data, Function<Chunk, R> parser, Consumer<R> merger) {
+        Pipeline<R> pipeline = new Pipeline<>(parser, merger);
+        int start = data.position(), end = data.limit();
+        if (header)
+            start = nextLine(data, start, end);
+        long records = 0;
+        while (start < end && (maxRecords < 0 || records < maxRecords)) {
+            int stop = nextLine(data, Math.min(end, start + chunkSize), end);
+            ByteBuffer slice = data.duplicate();
+            slice.position(start).limit(stop);
+            Chunk chunk = new Chunk(slice.slice(), null, separator);
+            if (maxRecords >= 0)
+                records += limit(chunk, records);
+            pipeline.submit(chunk);
+            start = stop;
+        }
+        pipeline.finish();
+    }
+
+    /**
+     * Parses the contents of the stream until its end. The stream is not closed.
+     *
+     * @param is     The stream
+     * @param parser Parses a chunk, may run in any thread
+     * @param merger Gets the results of the chunks, in order, in the calling thread
+     * @param <R>    The result type
+     * @throws IOException If the stream can't be read
+     */
+    public <R> void process(InputStream is, Function<Chunk, R> parser, Consumer<R> merger) throws IOException {
+        Pipeline<R> pipeline = new Pipeline<>(parser, merger);
+        byte[] buffer = obtain(chunkSize);
+        // Bytes of an incomplete record at the start of the buffer
+        int carry = 0;
+        boolean skip = header, eof = false;
+        long records = 0;
+        while (!eof && (maxRecords < 0 || records < maxRecords)) {
+            int n = is.readNBytes(buffer, carry, buffer.length - carry);
+            eof = carry + n < buffer.length;
+            int length = carry + n;
+            int start = 0;
+            if (skip) {
+                int nl = indexOf(buffer, (byte) '\n', 0, length);
+                if (nl < 0 && !eof) {
+                    // Header longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    carry = length;
+                    continue;
+                }
+                start = nl < 0 ? length : nl + 1;
+                skip = false;
+            }
+            // Cut after the last complete record, the rest goes to the next buffer
+            int stop = eof ? length : lastIndexOf(buffer, (byte) '\n', start, length) + 1;
+            if (stop <= start && !eof) {
+                // A single record longer than the buffer
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                carry = length;
+                continue;
+            }
+            byte[] next = obtain(Math.max(chunkSize, length - stop));
+            carry = length - stop;
+            System.arraycopy(buffer, stop, next, 0, carry);
+            if (stop > start) {
+                Chunk chunk = new Chunk(ByteBuffer.wrap(buffer, start, stop - start).slice(), buffer, separator);
+                if (maxRecords >= 0)
+                    records += limit(chunk, records);
+                pipeline.submit(chunk);
+            } else {
+                release(buffer);
+            }
+            buffer = next;
+        }
+        release(buffer);
+        pipeline.finish();
+    }
+
+    /**
+     * Counts the lines of the chunk and cuts it if it goes over the maximum number of records
+     *
+     * @return The number of records in the chunk
+     */
+    private int limit(Chunk chunk, long records) {
+        ByteBuffer data = chunk.data;
+        int n = 0, end = data.limit();
+        for (int i = 0; i < end; ) {
+            if (records + n >= maxRecords) {
+                data.limit(i);
+                break;
+            }
+            i = nextLine(data, i, end);
+            n++;
+        }
+        return n;
+    }
+
+    private static int nextLine(ByteBuffer data, int pos, int end) {
+        while (pos < end && data.get(pos) != '\n')
+            pos++;
+        return Math.min(end, pos + 1);
+    }
+
+    private static int indexOf(byte[] data, byte b, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (data[i] == b)
+                return i;
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] data, byte b, int from, int to) {
+        for (int i = to - 1; i >= from; i--)
+            if (data[i] == b)
+                return i;
+        return from - 1;
+    }
+
+    private byte[] obtain(int size) {
+        byte[] buffer = freeBuffers.poll();
+        return buffer != null && buffer.length >= size ? buffer : new byte[size];
+    }
+
+    private void release(byte[] buffer) {
+        if (buffer != null && buffer.length == chunkSize && freeBuffers.size() < 64)
+            freeBuffers.add(buffer);
+    }
+
+    /**
+     * Submits chunks and merges their results in order
+     */
+    private class Pipeline<R> {
+        private final Function<Chunk, R> parser;
+        private final Consumer<R> merger;
+        private final Deque<ForkJoinTask<R>> tasks = new ArrayDeque<>();
+        private final Deque<Chunk> chunks = new ArrayDeque<>();
+        private final ForkJoinPool pool = ForkJoinPool.commonPool();
+        private final int window = Math.max(2, pool.getParallelism() * 2);
+
+        Pipeline(Function<Chunk, R> parser, Consumer<R> merger) {
+            this.parser = parser;
+            this.merger = merger;
+        }
+
+        void submit(Chunk chunk) {
+            if (!parallel) {
+                merger.accept(parser.apply(chunk));
+                release(chunk.buffer);
+                return;
+            }
+            if (tasks.size() >= window)
+                mergeNext();
+            tasks.add(pool.submit(() -> parser.apply(chunk)));
+            chunks.add(chunk);
+        }
+
+        void finish() {
+            while (!tasks.isEmpty())
+                mergeNext();
+        }
+
+        private void mergeNext() {
+            R result = tasks.poll().join();
+            release(chunks.poll().buffer);
+            merger.accept(result);
+        }
+    }
+
+    /**
+     * A number of whole records
+     */
+    public static class Chunk {
+        private final ByteBuffer data;
+        private final byte[] buffer;
+        private final byte separator;
+        private int pos;
+
+        Chunk(ByteBuffer data, byte[] buffer, byte separator) {
+            this.data = data;
+            this.buffer = buffer;
+            this.separator = separator;
+        }
+
+        /**
+         * Number of bytes in the chunk
+         */
+        public int size() {
+            return data.limit();
+        }
+
+        /**
+         * Tokenizes the next non-empty record of the chunk into the given record
+         *
+         * @param record The record to reuse
+         * @return False if there are no more records
+         */
+        public boolean next(Record record) {
+            int end = data.limit();
+            while (pos < end) {
+                int start = pos;
+                int stop = start;
+                while (stop < end && data.get(stop) != '\n')
+                    stop++;
+                pos = stop + 1;
+                if (stop > start && data.get(stop - 1) == '\r')
+                    stop--;
+                if (stop > start) {
+                    record.set(data, start, stop, separator);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A record, with its fields located but not decoded. It is a {@link CharSequence} over the bytes
+     * of the chunk, so fields can also be passed to the range methods of {@link Parser}. Records are
+     * meant to be reused for all the records of a chunk, in a single thread.
+     */
+    public static class Record implements CharSequence {
+        private ByteBuffer data;
+        private int start, end;
+        // Field i spans [starts[i], ends[i])
+        private int[] starts = new int[32], ends = new int[32];
+        private int nFields;
+
+        void set(ByteBuffer data, int start, int end, byte separator) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            nFields = 0;
+            int from = start;
+            for (int i = start; i <= end; i++) {
+                if (i == end || data.get(i) == separator) {
+                    if (nFields == starts.length) {
+                        starts = Arrays.copyOf(starts, nFields * 2);
+                        ends = Arrays.copyOf(ends, nFields * 2);
+                    }
+                    starts[nFields] = from;
+                    ends[nFields] = i;
+                    nFields++;
+                    from = i + 1;
+                }
+            }
+        }
+
+        /**
+         * Number of fields, including empty ones
+         */
+        public int size() {
+            return nFields;
+        }
+
+        /**
+         * Whether the field is empty or does not exist
+         */
+        public boolean isEmpty(int field) {
+            return field < 0 || field >= nFields || starts[field] == ends[field];
+        }
+
+        public long getLong(int field) {
+            return isEmpty(field) ? 0 : Parser.parseLong(this, starts[field], ends[field]);
+        }
+
+        public double getDouble(int field) {
+            return isEmpty(field) ? Double.NaN : Parser.parseDouble(this, starts[field], ends[field]);
+        }
+
+        public float getFloat(int field) {
+            return (float) getDouble(field);
+        }
+
+        /**
+         * Decodes the field as UTF-8. This allocates a string.
+         */
+        public String getString(int field) {
+            if (isEmpty(field))
+                return "";
+            byte[] bytes = new byte[ends[field] - starts[field]];
+            data.get(starts[field], bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Characters are the bytes of the chunk, indexed from the start of the chunk, as Latin-1
+         */
+        @Override
+        public char charAt(int index) {
+            return (char) (data.get(index) & 0xff);
+        }
+
+        @Override
+        public int length() {
+            return end;
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            StringBuilder sb = new StringBuilder(to - from);
+            for (int i = from; i < to; i++)
+                sb.append(charAt(i));
+            return sb;
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(start, end).toString();
+        }
+    }
+}
@@ -34,12 +34,28 @@ public final class Parser {
      * @return Parsed long or 0 if the parsing fails
      */
     public static long parseLong(String input) {
+        return parseLong(input, 0, input.length());
+    }
+
+    /**
+     * Same as {@link Parser#parseLong(String)}, but parses only the characters
+     * in [from, to) of the input, so that tokens do not need to be copied out of a line.
+     *
+     * @param input
+     *            Characters to parse
+     * @param from
+     *            First character, inclusive
+     * @param to
+     *            Last character, exclusive
+     * @return Parsed long or 0 if the parsing fails
+     */
+    public static long parseLong(CharSequence input, int from, int to) {
         long result = 0;
-        int pos = 0;
-        int len = input.length();
-        if (len == 0)
+        int pos = from;
+        int len = to;
+        if (pos >= len)
             return 0;
-        char c = input.charAt(0);
+        char c = input.charAt(pos);
         long sign = 1;
 
         // skip any starting white space
@@ -160,12 +176,28 @@ public final class Parser {
      *         invalid input is necessary
      */
     public static double parseDouble(String input) {
+        return parseDouble(input, 0, input.length());
+    }
+
+    /**
+     * Same as {@link Parser#parseDouble(String)}, but parses only the characters
+     * in [from, to) of the input, so that tokens do not need to be copied out of a line.
+     *
+     * @param input
+     *            Characters to parse
+     * @param from
+     *            First character, inclusive
+     * @param to
+     *            Last character, exclusive
+     * @return Parsed double or Double.NaN if the parsing fails
+     */
+    public static double parseDouble(CharSequence input, int from, int to) {
         double result = 0;
-        int pos = 0;
-        int len = input.length();
-        if (len == 0)
+        int pos = from;
+        int len = to;
+        if (pos >= len)
             return Double.NaN;
-        char c = input.charAt(0);
+        char c = input.charAt(pos);
         double sign = 1;
 
         // skip any starting white space
@@ -0,0 +1,147 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.sync;
+
+import java.nio.ByteBuffer;
+
+/**
+ * State of a master frame, sent to the slaves by the binary frame sync channel. The binary
+ * layout, in network byte order, is:
+ * <ul>
+ * <li>32 bits (int) - magic number, 'GSFS'</li>
+ * <li>8 bits (byte) - protocol version</li>
+ * <li>8 bits (byte) - flags, reserved</li>
+ * <li>64 bits (long) - session id, random for every master run</li>
+ * <li>64 bits (long) - sequence number, increases with every packet sent in the session</li>
+ * <li>64 bits (long) - frame id of the master</li>
+ * <li>64 bits (long) - master nano time at send, only comparable on the same host</li>
+ * <li>64 bits (long) - simulation time, in ms since epoch</li>
+ * <li>64 bits * 9 (double) - camera position, direction and up</li>
+ * <li>16 bits (short) - number of visibility flags, n</li>
+ * <li>8 bits * ceil(n / 8) - visibility flags, as a bit set</li>
+ * </ul>
+ *
+ * @author tsagrista
+ */
+public class FrameState {
+    public static final int MAGIC = 0x47534653;
+    public static final byte VERSION = 2;
+    /** Size of the header and the fixed part of the payload, in bytes **/
+    public static final int FIXED_SIZE = 4 + 1 + 1 + 8 * 5 + 8 * 9 + 2;
+
+    public long session;
+    public long sequence;
+    public long frameId;
+    public long masterNanos;
+    public long time;
+    public final double[] pos = new double[3];
+    public final double[] dir = new double[3];
+    public final double[] up = new double[3];
+    public boolean[] visibility = new boolean[0];
+
+    /**
+     * Maximum size of an encoded state with the given number of visibility flags
+     *
+     * @param nVisibility The number of visibility flags
+     * @return The size in bytes
+     */
+    public static int size(int nVisibility) {
+        return FIXED_SIZE + (nVisibility + 7) / 8;
+    }
+
+    /**
+     * Writes this state to the buffer, at its current position
+     *
+     * @param buf The buffer
+     */
+    public void encode(ByteBuffer buf) {
+        buf.putInt(MAGIC);
+        buf.put(VERSION);
+        buf.put((byte) 0);
+        buf.putLong(session);
+        buf.putLong(sequence);
+        buf.putLong(frameId);
+        buf.putLong(masterNanos);
+        buf.putLong(time);
+        putVector(buf, pos);
+        putVector(buf, dir);
+        putVector(buf, up);
+        int n = visibility.length;
+        buf.putShort((short) n);
+        for (int i = 0; i < n; i += 8) {
+            int bits = 0;
+            for (int j = 0; j < 8 && i + j < n; j++) {
+                if (visibility[i + j])
+                    bits |= 1 << j;
+            }
+            buf.put((byte) bits);
+        }
+    }
+
+    /**
+     * Reads the state from the buffer, from its current position to its limit
+     *
+     * @param buf The buffer
+     * @return False if the buffer does not contain a valid state of this protocol version, in which case
+     * this state is undefined
+     */
+    public boolean decode(ByteBuffer buf) {
+        if (buf.remaining() < FIXED_SIZE || buf.getInt() != MAGIC || buf.get() != VERSION)
+            return false;
+        buf.get();
+        session = buf.getLong();
+        sequence = buf.getLong();
+        frameId = buf.getLong();
+        masterNanos = buf.getLong();
+        time = buf.getLong();
+        getVector(buf, pos);
+        getVector(buf, dir);
+        getVector(buf, up);
+        int n = buf.getShort() & 0xffff;
+        if (buf.remaining() < (n + 7) / 8)
+            return false;
+        if (visibility.length != n)
+            visibility = new boolean[n];
+        for (int i = 0; i < n; i += 8) {
+            int bits = buf.get();
+            for (int j = 0; j < 8 && i + j < n; j++) {
+                visibility[i + j] = (bits & (1 << j)) != 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the given state into this one
+     *
+     * @param other The state to copy
+     */
+    public void set(FrameState other) {
+        session = other.session;
+        sequence = other.sequence;
+        frameId = other.frameId;
+        masterNanos = other.masterNanos;
+        time = other.time;
+        System.arraycopy(other.pos, 0, pos, 0, 3);
+        System.arraycopy(other.dir, 0, dir, 0, 3);
+        System.arraycopy(other.up, 0, up, 0, 3);
+        if (visibility.length != other.visibility.length)
+            visibility = new boolean[other.visibility.length];
+        System.arraycopy(other.visibility, 0, visibility, 0, visibility.length);
+    }
+
+    private static void putVector(ByteBuffer buf, double[] v) {
+        buf.putDouble(v[0]);
+        buf.putDouble(v[1]);
+        buf.putDouble(v[2]);
+    }
+
+    private static void getVector(ByteBuffer buf, double[] v) {
+        v[0] = buf.getDouble();
+        v[1] = buf.getDouble();
+        v[2] = buf.getDouble();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Enumeration;
+import java.util.function.Consumer;
+
+/**
+ * Receives the master frame states in a daemon thread and keeps the latest one. Packets
+ * with a sequence number lower than or equal to the last received one are dropped, so
+ * that late datagrams never move a slave back in time. A packet with a new session id
+ * comes from a restarted master: the sequence and the presented frame start over, and the
+ * late packets of the previous session are dropped. The render thread picks the
+ * latest state with {@link #poll(FrameState)} once per frame, and presents each master
+ * frame id at most once.
+ *
+ * @author tsagrista
+ */
+public class FrameSyncReceiver extends Thread implements Closeable {
+
+    private final DatagramChannel channel;
+    private final ByteBuffer buffer;
+    private final FrameState received, latest;
+    private Consumer<FrameState> listener;
+
+    private volatile boolean running = true;
+    private long session, previousSession;
+    private long lastSequence = -1;
+    private long lastPresentedFrame = -1;
+
+    /** Counters **/
+    private volatile long nReceived, nLost, nStale, nInvalid, nRestarts;
+
+    /**
+     * Creates a receiver. Call {@link #start()} to start receiving.
+     *
+     * @param group The multicast group to join, or null to receive unicast datagrams
+     * @param port  The port
+     * @param ni    The network interface to join the group on, or null to use the default one
+     * @throws IOException If the socket can't be created or the group can't be joined
+     */
+    public FrameSyncReceiver(InetAddress group, int port, NetworkInterface ni) throws IOException {
+        super("gaiasky-worker-framesync");
+        this.setDaemon(true);
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        this.channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        this.channel.bind(new InetSocketAddress(port));
+        if (group != null && group.isMulticastAddress()) {
+            this.channel.join(group, ni != null ? ni : defaultInterface());
+        }
+        this.buffer = ByteBuffer.allocateDirect(FrameState.size(Short.MAX_VALUE));
+        this.received = new FrameState();
+        this.latest = new FrameState();
+    }
+
+    /**
+     * Sets a listener which is called in the receiver thread with every accepted state.
+     * The state must not be kept, it is reused.
+     *
+     * @param listener The listener
+     */
+    public void setListener(Consumer<FrameState> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+                buffer.flip();
+                if (!received.decode(buffer)) {
+                    nInvalid++;
+                    continue;
+                }
+                if (received.session != session) {
+                    if (lastSequence >= 0 && received.session == previousSession) {
+                        // Late packet of the previous master
+                        nStale++;
+                        continue;
+                    }
+                    if (lastSequence >= 0) {
+                        // The master has restarted
+                        nRestarts++;
+                        previousSession = session;
+                    }
+                    session = received.session;
+                    lastSequence = -1;
+                    synchronized (latest) {
+                        latest.sequence = 0;
+                        lastPresentedFrame = -1;
+                    }
+                }
+                if (received.sequence <= lastSequence) {
+                    // Duplicate or out of order
+                    nStale++;
+                    continue;
+                }
+                if (lastSequence >= 0)
+                    nLost += received.sequence - lastSequence - 1;
+                lastSequence = received.sequence;
+                nReceived++;
+                synchronized (latest) {
+                    latest.set(received);
+                }
+                if (listener != null)
+                    listener.accept(received);
+            } catch (ClosedChannelException e) {
+                running = false;
+            } catch (IOException e) {
+                // Keep receiving
+            }
+        }
+    }
+
+    /**
+     * Copies the latest received state into the given one, if its frame has not been presented yet
+     *
+     * @param out The state to copy into
+     * @return True if there is a new frame, false otherwise
+     */
+    public boolean poll(FrameState out) {
+        synchronized (latest) {
+            if (latest.sequence > 0 && latest.frameId != lastPresentedFrame) {
+                out.set(latest);
+                lastPresentedFrame = latest.frameId;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getNReceived() {
+        return nReceived;
+    }
+
+    public long getNLost() {
+        return nLost;
+    }
+
+    public long getNStale() {
+        return nStale;
+    }
+
+    public long getNInvalid() {
+        return nInvalid;
+    }
+
+    public long getNRestarts() {
+        return nRestarts;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        channel.close();
+    }
+
+    /**
+     * Gets the first interface which is up and supports multicast, preferring non-loopback ones
+     *
+     * @return The interface
+     * @throws SocketException If the interfaces can't be listed
+     */
+    public static NetworkInterface defaultInterface() throws SocketException {
+        NetworkInterface loopback = null;
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces.hasMoreElements()) {
+            NetworkInterface ni = interfaces.nextElement();
+            if (ni.isUp() && ni.supportsMulticast()) {
+                if (!ni.isLoopback())
+                    return ni;
+                else if (loopback == null)
+                    loopback = ni;
+            }
+        }
+        return loopback != null ? loopback : NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sends the master frame states over UDP. Usually there is a single target, a multicast
+ * group which all the slaves join, so that every slave gets the same datagram at once.
+ * Several unicast targets are also possible, for networks without multicast.
+ * Each sender has a random session id, so that the slaves can tell a restarted master
+ * from late datagrams.
+ *
+ * @author tsagrista
+ */
+public class FrameSyncSender implements Closeable {
+    /** Time to live of the multicast datagrams, enough for a local network **/
+    private static final int MULTICAST_TTL = 4;
+
+    private final DatagramChannel channel;
+    private final List<InetSocketAddress> targets;
+    private final ByteBuffer buffer;
+    private final long session = new Random().nextLong();
+    private long sequence = 0;
+
+    /**
+     * Creates a sender to the given targets
+     *
+     * @param targets The multicast groups or unicast addresses, with their ports
+     * @throws IOException If the socket can't be created
+     */
+    public FrameSyncSender(List<InetSocketAddress> targets) throws IOException {
+        this.targets = targets;
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        this.channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, MULTICAST_TTL);
+        this.channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        this.buffer = ByteBuffer.allocateDirect(FrameState.size(Short.MAX_VALUE));
+    }
+
+    /**
+     * Sends the given state to all targets. The session id, the sequence number
+     * and the master nano time of the state are set here.
+     *
+     * @param state The state
+     * @throws IOException If the state could not be sent
+     */
+    public synchronized void send(FrameState state) throws IOException {
+        state.session = session;
+        state.sequence = ++sequence;
+        state.masterNanos = System.nanoTime();
+        buffer.clear();
+        state.encode(buffer);
+        buffer.flip();
+        for (InetSocketAddress target : targets) {
+            buffer.rewind();
+            channel.send(buffer, target);
+        }
+    }
+
+    public long getSession() {
+        return session;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
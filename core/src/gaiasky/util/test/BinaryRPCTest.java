@@ -0,0 +1,267 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.script.BinaryRPCServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static gaiasky.script.BinaryRPCServer.*;
+
+/**
+ * Loopback benchmark of the {@link BinaryRPCServer}, with a mock scripting interface and a
+ * single thread playing the main loop. Measures the rate of calls waiting for each response,
+ * of pipelined calls, and of batched calls, and checks the results. Also checks that requests with
+ * array lengths out of the limits close their connection before anything is allocated.
+ * <p>
+ * Arguments (all optional): number of calls, batch size.
+ *
+ * @author tsagrista
+ */
+public class BinaryRPCTest {
+
+    public interface ITestInterface {
+        void setCameraPosition(double[] pos);
+
+        double[] getCameraPosition();
+
+        int add(int a, int b);
+
+        String echo(String s);
+
+        void fail();
+    }
+
+    public static class TestInterface implements ITestInterface {
+        private double[] pos = new double[3];
+
+        @Override
+        public void setCameraPosition(double[] pos) {
+            this.pos = pos;
+        }
+
+        @Override
+        public double[] getCameraPosition() {
+            return pos;
+        }
+
+        @Override
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        @Override
+        public String echo(String s) {
+            return s;
+        }
+
+        @Override
+        public void fail() {
+            throw new IllegalStateException("failed on purpose");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nCalls = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        ExecutorService mainLoop = Executors.newSingleThreadExecutor();
+        BinaryRPCServer server = new BinaryRPCServer(ITestInterface.class, new TestInterface(), mainLoop, 0, true);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readInt() != MAGIC || in.readByte() != VERSION)
+                throw new IOException("Bad handshake");
+
+            // Method table
+            out.writeInt(0);
+            out.writeByte(REQ_DESCRIBE);
+            out.flush();
+            in.readInt();
+            in.readByte();
+            int n = in.readUnsignedShort();
+            Map<String, Integer> ids = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                String name = in.readUTF();
+                String signature = in.readUTF();
+                ids.put(name, i);
+                System.out.println(i + ": " + signature);
+            }
+            System.out.println();
+            int set = ids.get("setCameraPosition"), get = ids.get("getCameraPosition"), add = ids.get("add"), echo = ids.get("echo"), fail = ids.get("fail");
+
+            int errors = 0;
+
+            // Checks
+            writeCall(out, 1, add, 2, 3);
+            out.writeInt(2);
+            out.writeByte(REQ_CALL);
+            out.writeShort(echo);
+            out.writeByte(1);
+            BinaryRPCServer.writeValue(out, "hello");
+            writeCall(out, 3, fail);
+            writeCall(out, 4, add, 1);
+            out.flush();
+            errors += check(in.readInt() == 1 && in.readByte() == ST_OK && in.readByte() == T_INT && in.readInt() == 5, "add");
+            errors += check(in.readInt() == 2 && in.readByte() == ST_OK && in.readByte() == T_STRING && in.readUTF().equals("hello"), "echo");
+            errors += check(in.readInt() == 3 && in.readByte() == ST_ERROR && in.readUTF().contains("failed on purpose"), "error");
+            errors += check(in.readInt() == 4 && in.readByte() == ST_ERROR && in.readUTF().contains("arguments"), "argument count");
+
+            // One call at a time
+            long start = System.nanoTime();
+            for (int i = 0; i < nCalls; i++) {
+                writeSet(out, i, set, i);
+                out.flush();
+                in.readInt();
+                in.readByte();
+                in.readByte();
+            }
+            long sequential = System.nanoTime() - start;
+
+            // Pipelined, read responses in a separate thread
+            start = System.nanoTime();
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; i < nCalls; i++) {
+                        in.readInt();
+                        in.readByte();
+                        in.readByte();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            reader.start();
+            for (int i = 0; i < nCalls; i++) {
+                writeSet(out, i, set, i);
+            }
+            out.flush();
+            reader.join();
+            long pipelined = System.nanoTime() - start;
+
+            // Batches, in the main loop
+            start = System.nanoTime();
+            int nBatches = nCalls / batchSize;
+            for (int b = 0; b < nBatches; b++) {
+                out.writeInt(b);
+                out.writeByte(REQ_BATCH);
+                out.writeShort(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    out.writeShort(set);
+                    out.writeByte(1);
+                    out.writeByte(T_DOUBLE_ARRAY);
+                    out.writeInt(3);
+                    out.writeDouble(b);
+                    out.writeDouble(i);
+                    out.writeDouble(0);
+                }
+                out.flush();
+                in.readInt();
+                in.readByte();
+                int m = in.readUnsignedShort();
+                for (int i = 0; i < m; i++) {
+                    in.readByte();
+                    in.readByte();
+                }
+            }
+            long batched = System.nanoTime() - start;
+
+            // Last position set
+            writeCall(out, 5, get);
+            out.flush();
+            in.readInt();
+            in.readByte();
+            boolean ok = in.readByte() == T_DOUBLE_ARRAY && in.readInt() == 3 && in.readDouble() == nBatches - 1 && in.readDouble() == batchSize - 1;
+            in.readDouble();
+            errors += check(ok, "batch result");
+
+            // Lengths out of the limits, in new connections
+            errors += check(rejected(server, set, -1), "negative length");
+            errors += check(rejected(server, set, MAX_ARRAY_LENGTH + 1), "length over the limit");
+            writeCall(out, 6, add, 2, 3);
+            out.flush();
+            errors += check(in.readInt() == 6 && in.readByte() == ST_OK && in.readByte() == T_INT && in.readInt() == 5, "server alive");
+
+            System.out.println("Binary RPC test");
+            System.out.println("---------------");
+            System.out.println();
+            System.out.println("Calls:       " + nCalls);
+            report("Sequential", nCalls, sequential);
+            report("Pipelined", nCalls, pipelined);
+            report("Batched (" + batchSize + ")", nBatches * batchSize, batched);
+            System.out.println("Errors:      " + errors);
+        } finally {
+            server.close();
+            mainLoop.shutdown();
+        }
+    }
+
+    private static void writeCall(DataOutputStream out, int requestId, int method, int... intArgs) throws IOException {
+        out.writeInt(requestId);
+        out.writeByte(REQ_CALL);
+        out.writeShort(method);
+        out.writeByte(intArgs.length);
+        for (int a : intArgs) {
+            out.writeByte(T_INT);
+            out.writeInt(a);
+        }
+    }
+
+    private static void writeSet(DataOutputStream out, int requestId, int method, double x) throws IOException {
+        out.writeInt(requestId);
+        out.writeByte(REQ_CALL);
+        out.writeShort(method);
+        out.writeByte(1);
+        out.writeByte(T_DOUBLE_ARRAY);
+        out.writeInt(3);
+        out.writeDouble(x);
+        out.writeDouble(1);
+        out.writeDouble(2);
+    }
+
+    /**
+     * Sends a call with a double array of the given length and no elements, and checks that
+     * the server closes the connection instead of waiting for the elements
+     */
+    private static boolean rejected(BinaryRPCServer server, int method, int length) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in.readInt();
+            in.readByte();
+            out.writeInt(0);
+            out.writeByte(REQ_CALL);
+            out.writeShort(method);
+            out.writeByte(1);
+            out.writeByte(T_DOUBLE_ARRAY);
+            out.writeInt(length);
+            out.flush();
+            return in.read() == -1;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    private static int check(boolean ok, String what) {
+        if (!ok)
+            System.out.println("Check failed: " + what);
+        return ok ? 0 : 1;
+    }
+
+    private static void report(String name, int n, long nanos) {
+        System.out.println(name + ": " + (long) (n / (nanos * 1e-9)) + " calls/s, " + (nanos * 1e-3 / n) + " us/call");
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.util.Nature;
+import gaiasky.util.coord.ChebyshevEphemeris;
+import gaiasky.util.coord.MoonAACoordinates;
+import gaiasky.util.coord.PlutoCoordinates;
+import gaiasky.util.coord.vsop87.*;
+import gaiasky.util.math.MathManager;
+
+import java.util.Random;
+
+/**
+ * Compares the {@link ChebyshevEphemeris} of the VSOP87 series, the Moon and Pluto with the
+ * series: the cost per call and the error in position, for consecutive frames at a few time
+ * warps, as in the scene graph update. Reports the largest error, which must be below the
+ * tolerance where the dates are covered, and the fraction of calls which are answered by
+ * the cache.
+ * <p>
+ * Arguments (all optional): tolerance in km, number of frames per time warp.
+ *
+ * @author tsagrista
+ */
+public class ChebyshevEphemerisTest {
+    /** Time warps, in days per frame: 1x, 1 hour/s, 1 day/s and 1 year/s at 60 fps **/
+    private static final double[] WARPS = { 1d / 86400 / 60, 1d / 24 / 60, 1d / 60, 365.25 / 60 };
+
+    public static void main(String[] args) {
+        double toleranceKm = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        MathManager.initialize(true);
+
+        Object[][] bodies = { { "Mercury", new MercuryVSOP87(), 16.0, Nature.AU_TO_KM }, { "Venus", new VenusVSOP87(), 16.0, Nature.AU_TO_KM }, { "Earth", new EarthVSOP87(), 16.0, Nature.AU_TO_KM }, { "Mars", new MarsVSOP87(), 16.0, Nature.AU_TO_KM }, { "Jupiter", new JupiterVSOP87(), 16.0, Nature.AU_TO_KM }, { "Saturn", new SaturnVSOP87(), 16.0, Nature.AU_TO_KM }, { "Uranus", new UranusVSOP87(), 16.0, Nature.AU_TO_KM }, { "Neptune", new NeptuneVSOP87(), 16.0, Nature.AU_TO_KM }, { "Moon", new MoonAACoordinates(), 2.0, 1.0 }, { "Pluto", new PlutoCoordinates(), 256.0, 1.0 } };
+
+        System.out.println("Chebyshev ephemeris test");
+        System.out.println("------------------------");
+        System.out.println();
+        System.out.println("Tolerance: " + toleranceKm + " km, frames per warp: " + frames);
+        System.out.println();
+        System.out.println(String.format("%-8s %10s %8s %12s %12s %8s %10s", "Body", "Warp[d/f]", "Seg[d]", "Series[us]", "Cached[us]", "Cached", "MaxErr[km]"));
+
+        Random rnd = new Random(31415l);
+        int errors = 0;
+        double[] exact = new double[3], cached = new double[3];
+        for (Object[] body : bodies) {
+            String name = (String) body[0];
+            ChebyshevEphemeris.Source series = (ChebyshevEphemeris.Source) body[1];
+            double segmentDays = (Double) body[2];
+            double unitsToKm = (Double) body[3];
+
+            for (double warp : WARPS) {
+                ChebyshevEphemeris ephemeris = new ChebyshevEphemeris(series, segmentDays, toleranceKm / unitsToKm);
+                // Around the present, within a few centuries
+                double start = 2451545.0 + (rnd.nextDouble() - 0.5) * 365.25 * 400;
+
+                // Cached, the series where not covered
+                long t0 = System.nanoTime();
+                int hits = 0;
+                double hash = 0;
+                for (int f = 0; f < frames; f++) {
+                    double jd = start + f * warp;
+                    if (ephemeris.get(jd, cached))
+                        hits++;
+                    else
+                        series.eval(jd, cached);
+                    hash += cached[2];
+                }
+                long cachedNs = System.nanoTime() - t0;
+
+                // Series
+                t0 = System.nanoTime();
+                for (int f = 0; f < frames; f++) {
+                    series.eval(start + f * warp, exact);
+                    hash += exact[2];
+                }
+                long seriesNs = System.nanoTime() - t0;
+
+                // Errors, at the same dates
+                double maxError = 0;
+                for (int f = 0; f < frames; f++) {
+                    double jd = start + f * warp;
+                    series.eval(jd, exact);
+                    if (ephemeris.get(jd, cached))
+                        maxError = Math.max(maxError, distance(exact, cached) * unitsToKm);
+                }
+                if (maxError > toleranceKm) {
+                    errors++;
+                }
+                if (hash == 42)
+                    System.out.println();
+                System.out.println(String.format("%-8s %10.3g %8.3f %12.3f %12.3f %7.1f%% %10.4f", name, warp, ephemeris.getSegmentDays(), seriesNs / 1e3 / frames, cachedNs / 1e3 / frames, 100.0 * hits / frames, maxError));
+            }
+        }
+        System.out.println();
+        System.out.println("Errors:  " + errors);
+    }
+
+    /**
+     * Distance between two points in spherical coordinates
+     */
+    private static double distance(double[] a, double[] b) {
+        double ax = a[2] * Math.cos(a[1]) * Math.cos(a[0]), ay = a[2] * Math.cos(a[1]) * Math.sin(a[0]), az = a[2] * Math.sin(a[1]);
+        double bx = b[2] * Math.cos(b[1]) * Math.cos(b[0]), by = b[2] * Math.cos(b[1]) * Math.sin(b[0]), bz = b[2] * Math.sin(b[1]);
+        return Math.sqrt((ax - bx) * (ax - bx) + (ay - by) * (ay - by) + (az - bz) * (az - bz));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.util.parse.CsvChunkTokenizer;
+import gaiasky.util.parse.Parser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates a synthetic catalog in CSV, with a header, empty fields and mixed line endings, and
+ * parses it with {@link CsvChunkTokenizer} from a buffer and from a gzipped stream, with several chunk
+ * sizes, in parallel and sequentially. Checks the number of records and a checksum of the parsed
+ * values against line by line parsing with {@link String#split(String)}, and reports the times.
+ * <p>
+ * Arguments (all optional): number of records.
+ *
+ * @author tsagrista
+ */
+public class CsvChunkTokenizerTest {
+    private static final int NCOLS = 12;
+
+    /** Per-chunk result **/
+    private static class Sum {
+        long records;
+        // Sum of the bits of the values, exact in any order
+        long sum;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        // Generate
+        Random rnd = new Random(4242l);
+        StringBuilder sb = new StringBuilder();
+        sb.append("sourceid,ra,dec,pllx,pllx_err,pmra,pmdec,radvel,gmag,bpmag,rpmag,ruwe\n");
+        for (int i = 0; i < n; i++) {
+            sb.append(rnd.nextLong() & 0x7fffffffffffffffL);
+            for (int j = 1; j < NCOLS; j++) {
+                sb.append(',');
+                if (rnd.nextInt(10) > 0)
+                    sb.append(rnd.nextGaussian() * 100);
+            }
+            sb.append(i % 7 == 0 ? "\r\n" : "\n");
+        }
+        byte[] csv = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        sb = null;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(bos)) {
+            gz.write(csv);
+        }
+        byte[] gzipped = bos.toByteArray();
+
+        // Reference
+        long start = System.nanoTime();
+        Sum ref = new Sum();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(gzipped))))) {
+            br.readLine();
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] tokens = line.split(",");
+                ref.records++;
+                ref.sum += Parser.parseLong(tokens[0]);
+                for (int j = 1; j < tokens.length; j++) {
+                    double d = Parser.parseDouble(tokens[j]);
+                    if (!Double.isNaN(d))
+                        ref.sum += Double.doubleToLongBits(d);
+                }
+            }
+        }
+        long refTime = System.nanoTime() - start;
+
+        System.out.println("CSV chunk tokenizer test");
+        System.out.println("------------------------");
+        System.out.println();
+        System.out.println("Records: " + n + ", " + csv.length / (1024 * 1024) + " MB, " + gzipped.length / (1024 * 1024) + " MB gzipped");
+        System.out.println("split, gzipped:         " + refTime / 1e6 + " ms");
+
+        int errors = 0;
+        for (int chunkSize : new int[] { 1024, 64 * 1024, CsvChunkTokenizer.DEFAULT_CHUNK_SIZE }) {
+            for (boolean parallel : new boolean[] { false, true }) {
+                String name = (parallel ? "parallel" : "sequential") + ", chunk " + chunkSize;
+
+                Sum buf = new Sum();
+                start = System.nanoTime();
+                new CsvChunkTokenizer(',', chunkSize, true, parallel, -1).process(ByteBuffer.wrap(csv), CsvChunkTokenizerTest::parse, (s) -> add(buf, s));
+                long bufTime = System.nanoTime() - start;
+                errors += check(ref, buf, name + ", buffer");
+
+                Sum gz = new Sum();
+                start = System.nanoTime();
+                try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(gzipped), 65536)) {
+                    new CsvChunkTokenizer(',', chunkSize, true, parallel, -1).process(is, CsvChunkTokenizerTest::parse, (s) -> add(gz, s));
+                }
+                long gzTime = System.nanoTime() - start;
+                errors += check(ref, gz, name + ", gzipped");
+
+                System.out.println(name + ": buffer " + bufTime / 1e6 + " ms, gzipped " + gzTime / 1e6 + " ms");
+            }
+        }
+
+        // Maximum number of records
+        Sum capped = new Sum();
+        new CsvChunkTokenizer(',', 1024, true, true, 1000).process(ByteBuffer.wrap(csv), CsvChunkTokenizerTest::parse, (s) -> add(capped, s));
+        if (capped.records != Math.min(1000, n)) {
+            System.out.println("WRONG CAP: " + capped.records);
+            errors++;
+        }
+        System.out.println("Errors: " + errors);
+    }
+
+    private static Sum parse(CsvChunkTokenizer.Chunk chunk) {
+        Sum s = new Sum();
+        CsvChunkTokenizer.Record r = new CsvChunkTokenizer.Record();
+        while (chunk.next(r)) {
+            s.records++;
+            s.sum += r.getLong(0);
+            for (int j = 1; j < r.size(); j++) {
+                double d = r.getDouble(j);
+                if (!Double.isNaN(d))
+                    s.sum += Double.doubleToLongBits(d);
+            }
+        }
+        return s;
+    }
+
+    private static void add(Sum total, Sum s) {
+        total.records += s.records;
+        total.sum += s.sum;
+    }
+
+    private static int check(Sum ref, Sum s, String name) {
+        if (ref.records != s.records || ref.sum != s.sum) {
+            System.out.println("WRONG RESULT (" + name + "): " + s.records + " records, sum " + s.sum + ", expected " + ref.records + ", " + ref.sum);
+            return 1;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.util.sync.FrameState;
+import gaiasky.util.sync.FrameSyncReceiver;
+import gaiasky.util.sync.FrameSyncSender;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loopback harness of the binary frame sync protocol. A sender plays the master at
+ * a fixed frame rate, and several receivers in this same process play the slaves. For each
+ * frame, the skew is the difference between the first and the last receiver to get
+ * it, and the latency is the time from send to receive. Uses the multicast group if possible, and
+ * one unicast port per receiver otherwise.
+ * <p>
+ * Then the master restarts: a new sender sends a few frames, with the sequence and the frame ids
+ * starting over. Checks that every receiver takes the new session and presents its last frame.
+ * <p>
+ * Arguments (all optional): number of receivers, number of frames, frames per second, group, port.
+ *
+ * @author tsagrista
+ */
+public class FrameSyncTest {
+
+    public static void main(String[] args) throws Exception {
+        int nReceivers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int nFrames = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        int fps = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        String group = args.length > 3 ? args[3] : "239.255.13.99";
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : 13990;
+
+        long[][] receiveNanos = new long[nReceivers][nFrames];
+        long[][] latencyNanos = new long[nReceivers][nFrames];
+        for (long[] r : receiveNanos)
+            Arrays.fill(r, -1);
+
+        List<FrameSyncReceiver> receivers = new ArrayList<>(nReceivers);
+        List<InetSocketAddress> targets = new ArrayList<>();
+        boolean multicast = true;
+        try {
+            InetAddress groupAddress = InetAddress.getByName(group);
+            for (int i = 0; i < nReceivers; i++)
+                receivers.add(new FrameSyncReceiver(groupAddress, port, null));
+            targets.add(new InetSocketAddress(groupAddress, port));
+        } catch (Exception e) {
+            System.out.println("Multicast not available (" + e.getMessage() + "), using unicast");
+            for (FrameSyncReceiver r : receivers)
+                r.close();
+            receivers.clear();
+            multicast = false;
+            for (int i = 0; i < nReceivers; i++) {
+                receivers.add(new FrameSyncReceiver(null, port + i, null));
+                targets.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port + i));
+            }
+        }
+        for (int i = 0; i < nReceivers; i++) {
+            final int idx = i;
+            FrameSyncReceiver r = receivers.get(i);
+            r.setListener(state -> {
+                long now = System.nanoTime();
+                int frame = (int) state.frameId;
+                if (frame >= 0 && frame < nFrames) {
+                    receiveNanos[idx][frame] = now;
+                    latencyNanos[idx][frame] = now - state.masterNanos;
+                }
+            });
+            r.start();
+        }
+
+        FrameSyncSender sender = new FrameSyncSender(targets);
+        FrameState state = new FrameState();
+        state.visibility = new boolean[33];
+        long frameNanos = 1000000000L / fps;
+        long start = System.nanoTime();
+        for (int f = 0; f < nFrames; f++) {
+            state.frameId = f;
+            state.time = System.currentTimeMillis();
+            state.pos[0] = f * 1e3;
+            state.dir[2] = 1;
+            state.up[1] = 1;
+            state.visibility[f % state.visibility.length] = !state.visibility[f % state.visibility.length];
+            sender.send(state);
+            long next = start + (f + 1) * frameNanos;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0)
+                Thread.sleep(sleep / 1000000L, (int) (sleep % 1000000L));
+        }
+        Thread.sleep(200);
+        sender.close();
+
+        // Per-frame skew over the frames every receiver got
+        long[] skews = new long[nFrames];
+        long[] latencies = new long[nFrames * nReceivers];
+        int nComplete = 0, nLatencies = 0;
+        for (int f = 0; f < nFrames; f++) {
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            boolean complete = true;
+            for (int i = 0; i < nReceivers; i++) {
+                long t = receiveNanos[i][f];
+                if (t < 0) {
+                    complete = false;
+                    continue;
+                }
+                min = Math.min(min, t);
+                max = Math.max(max, t);
+                latencies[nLatencies++] = latencyNanos[i][f];
+            }
+            if (complete)
+                skews[nComplete++] = max - min;
+        }
+
+        // Master restart, the last frame of the first session has been presented
+        FrameState presented = new FrameState();
+        for (FrameSyncReceiver r : receivers)
+            r.poll(presented);
+        int nRestartFrames = Math.min(nFrames / 2, fps);
+        FrameSyncSender restarted = new FrameSyncSender(targets);
+        for (int f = 0; f < nRestartFrames; f++) {
+            state.frameId = f;
+            state.time = System.currentTimeMillis();
+            restarted.send(state);
+            Thread.sleep(1000 / fps);
+        }
+        Thread.sleep(200);
+        restarted.close();
+        int errors = 0;
+        for (int i = 0; i < nReceivers; i++) {
+            FrameSyncReceiver r = receivers.get(i);
+            if (!r.poll(presented) || presented.session != restarted.getSession() || presented.frameId != nRestartFrames - 1 || r.getNRestarts() != 1) {
+                System.out.println("RESTART NOT DETECTED: receiver " + i + ", " + r.getNRestarts() + " restarts, frame " + presented.frameId);
+                errors++;
+            }
+        }
+
+        System.out.println("Frame sync loopback test");
+        System.out.println("------------------------");
+        System.out.println();
+        System.out.println("Mode:        " + (multicast ? "multicast " + group : "unicast") + ":" + port);
+        System.out.println("Receivers:   " + nReceivers);
+        System.out.println("Frames:      " + nFrames + " at " + fps + " fps");
+        System.out.println("Packet size: " + FrameState.size(state.visibility.length) + " bytes");
+        System.out.println();
+        report("Skew", skews, nComplete);
+        report("Latency", latencies, nLatencies);
+        long lost = 0, stale = 0, invalid = 0;
+        for (FrameSyncReceiver r : receivers) {
+            lost += r.getNLost();
+            stale += r.getNStale();
+            invalid += r.getNInvalid();
+            r.close();
+        }
+        System.out.println("Complete frames: " + nComplete + "/" + nFrames);
+        System.out.println("Lost packets:    " + lost);
+        System.out.println("Stale packets:   " + stale);
+        System.out.println("Invalid packets: " + invalid);
+        System.out.println("Restart:         " + nRestartFrames + " frames after the restart, " + (nReceivers - errors) + "/" + nReceivers + " receivers followed");
+        System.out.println("Errors:          " + errors);
+    }
+
+    private static void report(String name, long[] values, int n) {
+        if (n == 0) {
+            System.out.println(name + ": no data");
+            System.out.println();
+            return;
+        }
+        long[] v = Arrays.copyOf(values, n);
+        Arrays.sort(v);
+        double sum = 0;
+        for (long x : v)
+            sum += x;
+        System.out.println(name + " (microseconds)");
+        System.out.println("Mean: " + (sum / n) / 1e3);
+        System.out.println("P50:  " + v[n / 2] / 1e3);
+        System.out.println("P99:  " + v[Math.min(n - 1, (int) (n * 0.99))] / 1e3);
+        System.out.println("Max:  " + v[n - 1] / 1e3);
+        System.out.println();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.util.IndexSorter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the boxed index sort with a comparator, used by particle groups
+ * up to now, with the primitive {@link IndexSorter}, serial and parallel, full and
+ * incremental. The incremental sort runs after slightly perturbing the values, to
+ * simulate a small camera motion between two sorts.
+ *
+ * @author tsagrista
+ */
+public class IndexSortTest {
+    private static final int N_SORTS = 5;
+    private static final int N_ITEMS = 2000000;
+    /** Relative perturbation of the values between two incremental sorts **/
+    private static final double PERTURBATION = 1e-7;
+
+    public static void main(String[] args) {
+        Random rnd = new Random(5522l);
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+
+        double[] values = new double[N_ITEMS];
+        Integer[] boxed = new Integer[N_ITEMS];
+        int[] serial = new int[N_ITEMS];
+        int[] parallel = new int[N_ITEMS];
+        int[] incremental = new int[N_ITEMS];
+
+        IndexSorter serialSorter = new IndexSorter(1);
+        IndexSorter parallelSorter = new IndexSorter(parallelism);
+        IndexSorter incrementalSorter = new IndexSorter(parallelism);
+        Comparator<Integer> comp = (i1, i2) -> Double.compare(values[i1], values[i2]);
+
+        long totalBoxed = 0;
+        long totalSerial = 0;
+        long totalParallel = 0;
+        long totalIncremental = 0;
+        long start, end;
+
+        // Initial order for the incremental sort
+        newRandomValues(rnd, values);
+        naturalOrder(incremental);
+        incrementalSorter.sort(values, incremental, N_ITEMS);
+
+        for (int i = 0; i < N_SORTS; i++) {
+            perturb(rnd, values);
+            for (int j = 0; j < N_ITEMS; j++) {
+                boxed[j] = j;
+            }
+            naturalOrder(serial);
+            naturalOrder(parallel);
+
+            /** Boxed indices, comparator **/
+            start = System.nanoTime();
+            Arrays.sort(boxed, comp);
+            end = System.nanoTime();
+            long boxedTime = end - start;
+            totalBoxed += boxedTime;
+
+            /** Radix sort, serial **/
+            start = System.nanoTime();
+            serialSorter.sort(values, serial, N_ITEMS);
+            end = System.nanoTime();
+            long serialTime = end - start;
+            totalSerial += serialTime;
+
+            /** Radix sort, parallel **/
+            start = System.nanoTime();
+            parallelSorter.sort(values, parallel, N_ITEMS);
+            end = System.nanoTime();
+            long parallelTime = end - start;
+            totalParallel += parallelTime;
+
+            /** Incremental, from the previous order **/
+            start = System.nanoTime();
+            boolean inc = incrementalSorter.sortIncremental(values, incremental, N_ITEMS);
+            end = System.nanoTime();
+            long incrementalTime = end - start;
+            totalIncremental += incrementalTime;
+
+            /** Report **/
+            System.out.println("Run " + (i + 1));
+            System.out.println("Boxed comparator:   " + (double) boxedTime / 1e9d + " seconds");
+            System.out.println("Radix serial:       " + (double) serialTime / 1e9d + " seconds" + check(values, serial));
+            System.out.println("Radix parallel:     " + (double) parallelTime / 1e9d + " seconds" + check(values, parallel));
+            System.out.println("Incremental:        " + (double) incrementalTime / 1e9d + " seconds" + check(values, incremental) + (inc ? "" : " (fell back to radix)"));
+            System.out.println();
+        }
+
+        System.out.println("Aggregated results");
+        System.out.println("------------------");
+        System.out.println();
+        System.out.println("N items:     " + N_ITEMS);
+        System.out.println("N sorts:     " + N_SORTS);
+        System.out.println("Parallelism: " + parallelism);
+        System.out.println();
+        report("Boxed comparator", totalBoxed);
+        report("Radix serial", totalSerial);
+        report("Radix parallel", totalParallel);
+        report("Incremental", totalIncremental);
+    }
+
+    private static void report(String name, long total) {
+        System.out.println(name);
+        System.out.println("Total time: " + (double) total / 1e9d);
+        System.out.println("Avg time:   " + (double) total / N_SORTS / 1e9d);
+        System.out.println();
+    }
+
+    private static void newRandomValues(Random rnd, double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            // Mix of signs, like star group metadata
+            values[i] = (rnd.nextDouble() - 0.1) * 1e6;
+        }
+    }
+
+    private static void perturb(Random rnd, double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] *= 1 + (rnd.nextDouble() - 0.5) * PERTURBATION;
+        }
+    }
+
+    private static void naturalOrder(int[] indices) {
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+    }
+
+    /** Checks the order with float precision, which is the precision of the sorter **/
+    private static String check(double[] values, int[] indices) {
+        for (int i = 1; i < indices.length; i++) {
+            if ((float) values[indices[i - 1]] > (float) values[indices[i]])
+                return " - WRONG ORDER at " + i;
+        }
+        return "";
+    }
+
+}
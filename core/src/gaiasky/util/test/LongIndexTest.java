@@ -0,0 +1,93 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.util.ds.LongIndex;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Fills a {@link LongIndex} and a {@link TreeMap} with random source-id-like keys, checks
+ * that both give the same rows for present and absent keys, and compares the insertion and
+ * lookup times and the heap used.
+ * <p>
+ * Arguments (all optional): number of keys.
+ *
+ * @author tsagrista
+ */
+public class LongIndexTest {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        long[] keys = new long[n];
+        Random rnd = new Random(1985l);
+        for (int i = 0; i < n; i++) {
+            keys[i] = rnd.nextLong() & 0x7fffffffffffffffL;
+        }
+        // Same as the marker of empty slots
+        keys[0] = Long.MIN_VALUE;
+
+        Runtime rt = Runtime.getRuntime();
+
+        System.gc();
+        long mem = rt.totalMemory() - rt.freeMemory();
+        long start = System.nanoTime();
+        LongIndex index = new LongIndex(n / 4);
+        for (int i = 0; i < n; i++)
+            index.put(keys[i], i);
+        long indexPut = System.nanoTime() - start;
+        System.gc();
+        long indexMem = rt.totalMemory() - rt.freeMemory() - mem;
+
+        mem = rt.totalMemory() - rt.freeMemory();
+        start = System.nanoTime();
+        TreeMap<Long, double[]> tree = new TreeMap<>();
+        for (int i = 0; i < n; i++)
+            tree.put(keys[i], new double[] { i });
+        long treePut = System.nanoTime() - start;
+        System.gc();
+        long treeMem = rt.totalMemory() - rt.freeMemory() - mem;
+
+        int errors = 0;
+        start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += index.get(keys[i]);
+        long indexGet = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long treeSum = 0;
+        for (int i = 0; i < n; i++)
+            treeSum += (long) tree.get(keys[i])[0];
+        long treeGet = System.nanoTime() - start;
+
+        if (sum != treeSum || index.size() != tree.size()) {
+            System.out.println("WRONG CONTENTS: " + index.size() + " != " + tree.size());
+            errors++;
+        }
+        for (int i = 0; i < n; i++) {
+            long key = rnd.nextLong();
+            if (index.containsKey(key) != tree.containsKey(key)) {
+                System.out.println("WRONG MISS: " + key);
+                errors++;
+            }
+            int row = index.get(keys[i]);
+            if (row != (int) tree.get(keys[i])[0]) {
+                System.out.println("WRONG ROW: " + keys[i] + " -> " + row);
+                errors++;
+            }
+        }
+
+        System.out.println("Long index test");
+        System.out.println("---------------");
+        System.out.println();
+        System.out.println("Keys:      " + n);
+        System.out.println("LongIndex: put " + indexPut / 1e6 + " ms, get " + indexGet / 1e6 + " ms, ~" + indexMem / (1024 * 1024) + " MB");
+        System.out.println("TreeMap:   put " + treePut / 1e6 + " ms, get " + treeGet / 1e6 + " ms, ~" + treeMem / (1024 * 1024) + " MB");
+        System.out.println("Errors:    " + errors);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.data.OctantLoadQueue;
+import gaiasky.data.OctantPrefetcher;
+import gaiasky.util.tree.LoadStatus;
+import gaiasky.util.tree.OctreeNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills an {@link OctantPrefetcher} over its budget, then makes some of the queued octants
+ * visible, as the octree update does, and checks that they are moved to the regular load
+ * queue and served right away, in the order of the loader thread (regular queue first), while
+ * the rest of the prefetched octants still wait for the budget. Also checks that octants which
+ * are not in the prefetch queue are not moved, so that the load queue gets no duplicates.
+ * <p>
+ * Arguments (all optional): number of prefetched octants, budget in octants per second.
+ *
+ * @author tsagrista
+ */
+public class OctantPrefetcherTest {
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int budget = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        Random rnd = new Random(1123l);
+        int errors = 0;
+
+        OctreeNode root = new OctreeNode(0, 0, 0, 0, 1, 1, 1, 0);
+        OctantPrefetcher prefetcher = new OctantPrefetcher(root, 5, budget);
+        OctantLoadQueue loadQueue = new OctantLoadQueue(100);
+
+        List<OctreeNode> octants = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            OctreeNode octant = new OctreeNode(i + 1, rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble(), 0.1, 0.1, 0.1, 3);
+            octant.numObjects = 100;
+            octants.add(octant);
+            prefetcher.queue(octant, rnd.nextDouble(), Long.MAX_VALUE);
+        }
+
+        // Use up the budget, as the loader thread does when the load queue is empty
+        List<OctreeNode> served = new ArrayList<>();
+        OctreeNode next;
+        while ((next = prefetcher.next()) != null)
+            served.add(next);
+        if (served.size() != budget) {
+            System.out.println("WRONG BUDGET: served " + served.size() + " != " + budget);
+            errors++;
+        }
+
+        // Some queued octants become visible
+        List<OctreeNode> visible = new ArrayList<>();
+        for (OctreeNode octant : octants) {
+            if (!served.contains(octant) && visible.size() < n / 4)
+                visible.add(octant);
+        }
+        for (OctreeNode octant : visible) {
+            if (!prefetcher.promote(octant, loadQueue)) {
+                System.out.println("NOT PROMOTED: " + octant.pageId);
+                errors++;
+            }
+        }
+        // Not in the prefetch queue anymore: served, or already promoted
+        for (OctreeNode octant : served) {
+            if (prefetcher.promote(octant, loadQueue)) {
+                System.out.println("PROMOTED SERVED OCTANT: " + octant.pageId);
+                errors++;
+            }
+        }
+        if (prefetcher.promote(visible.get(0), loadQueue)) {
+            System.out.println("PROMOTED TWICE: " + visible.get(0).pageId);
+            errors++;
+        }
+        if (loadQueue.size() != visible.size() || prefetcher.queueSize() != n - served.size() - visible.size()) {
+            System.out.println("WRONG SIZES: load queue " + loadQueue.size() + ", prefetch queue " + prefetcher.queueSize());
+            errors++;
+        }
+
+        // The loader thread: regular queue first, then the prefetcher within its budget
+        long start = System.nanoTime();
+        List<OctreeNode> loaded = new ArrayList<>();
+        while (true) {
+            OctreeNode octant = loadQueue.poll(0, TimeUnit.MILLISECONDS);
+            if (octant == null)
+                octant = prefetcher.next();
+            if (octant == null)
+                break;
+            if (octant.getStatus() != LoadStatus.QUEUED) {
+                System.out.println("WRONG STATUS: " + octant.pageId + " is " + octant.getStatus());
+                errors++;
+            }
+            loaded.add(octant);
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        if (loaded.size() != visible.size() || !loaded.containsAll(visible)) {
+            System.out.println("VISIBLE OCTANTS NOT SERVED: " + loaded.size() + " of " + visible.size());
+            errors++;
+        }
+
+        System.out.println("Octant prefetcher test");
+        System.out.println("----------------------");
+        System.out.println();
+        System.out.println("Prefetched: " + n + ", budget " + budget + "/s, served " + served.size());
+        System.out.println("Visible:    " + visible.size() + ", promoted " + prefetcher.getNPromoted() + ", served in " + elapsedMs + " ms");
+        System.out.println("Waiting:    " + prefetcher.queueSize() + ", would take " + (visible.size() / budget) + " s within the budget");
+        System.out.println("Errors:     " + errors);
+    }
+}
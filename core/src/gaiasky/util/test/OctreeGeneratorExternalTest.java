@@ -0,0 +1,133 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.data.group.BinaryDataProvider;
+import gaiasky.data.octreegen.StarBrightnessComparator;
+import gaiasky.data.octreegen.generator.OctreeGeneratorExternal;
+import gaiasky.data.octreegen.generator.OctreeGeneratorMag;
+import gaiasky.data.octreegen.generator.OctreeGeneratorParams;
+import gaiasky.scenegraph.StarGroup;
+import gaiasky.scenegraph.particle.IParticleRecord;
+import gaiasky.scenegraph.particle.ParticleRecord;
+import gaiasky.util.tree.OctreeNode;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Generates an octree from a random clustered catalog in memory with {@link OctreeGeneratorMag}, and with
+ * {@link OctreeGeneratorExternal} and a memory budget of a fraction of the catalog, added in batches.
+ * Checks that both octrees have the same octants, with the same stars in the same order.
+ * <p>
+ * Arguments (all optional): number of stars, maximum stars per octant, memory budget in MB.
+ *
+ * @author tsagrista
+ */
+public class OctreeGeneratorExternalTest {
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int maxPart = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        long budgetMb = args.length > 2 ? Long.parseLong(args[2]) : 16;
+
+        Random rnd = new Random(1234l);
+        List<IParticleRecord> catalog = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            double[] d = new double[ParticleRecord.STAR_SIZE_D];
+            float[] f = new float[ParticleRecord.STAR_SIZE_F];
+            // Some clusters, some background
+            double s = i % 3 == 0 ? 1e3 : 1e5;
+            d[0] = rnd.nextGaussian() * s;
+            d[1] = rnd.nextGaussian() * s;
+            d[2] = rnd.nextGaussian() * s;
+            // Rounded magnitudes, so that there are many ties
+            f[ParticleRecord.I_FABSMAG] = Math.round(rnd.nextFloat() * 200f) / 10f;
+            f[ParticleRecord.I_FAPPMAG] = f[ParticleRecord.I_FABSMAG];
+            catalog.add(new ParticleRecord(d, f, (long) i));
+        }
+
+        // In memory
+        long start = System.nanoTime();
+        List<IParticleRecord> sorted = new ArrayList<>(catalog);
+        sorted.sort(new StarBrightnessComparator());
+        OctreeNode memRoot = new OctreeGeneratorMag(new OctreeGeneratorParams(maxPart, false, 100, 1000)).generateOctree(sorted);
+        long memTime = System.nanoTime() - start;
+        Map<Long, long[]> memPages = new HashMap<>();
+        collect(memRoot, memPages);
+
+        // External, in batches
+        Path tmp = Files.createTempDirectory("gaiasky-octreegen-tmp-");
+        Path pages = Files.createTempDirectory("gaiasky-octreegen-pages-");
+        start = System.nanoTime();
+        OctreeGeneratorExternal og = new OctreeGeneratorExternal(new OctreeGeneratorParams(maxPart, false, 100, 1000), budgetMb * 1024 * 1024, tmp, pages, BinaryDataProvider.DEFAULT_OUTPUT_VERSION);
+        int batch = n / 10;
+        for (int i = 0; i < n; i += batch) {
+            og.add(new ArrayList<>(catalog.subList(i, Math.min(n, i + batch))), false);
+        }
+        OctreeNode extRoot = og.generate();
+        long extTime = System.nanoTime() - start;
+
+        int errors = 0;
+        Map<Long, long[]> extPages = new HashMap<>();
+        try (Stream<Path> files = Files.list(pages)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                long pageId = Long.parseLong(name.substring(name.indexOf('_') + 1, name.indexOf('.')));
+                List<IParticleRecord> data = new BinaryDataProvider().readData(new FileInputStream(p.toFile()), 1d);
+                extPages.put(pageId, data.stream().mapToLong(IParticleRecord::id).toArray());
+                Files.delete(p);
+            }
+        }
+        Files.delete(pages);
+        try (Stream<Path> files = Files.list(tmp)) {
+            if (files.count() > 0) {
+                System.out.println("TEMPORARY FILES LEFT");
+                errors++;
+            }
+        }
+        Files.delete(tmp);
+
+        if (!memPages.keySet().equals(extPages.keySet())) {
+            System.out.println("DIFFERENT OCTANTS: " + memPages.size() + " vs " + extPages.size());
+            errors++;
+        }
+        for (Long id : memPages.keySet()) {
+            if (extPages.containsKey(id) && !Arrays.equals(memPages.get(id), extPages.get(id))) {
+                System.out.println("DIFFERENT PAGE: " + id);
+                errors++;
+            }
+        }
+        if (memRoot.numNodesRec() != extRoot.numNodesRec() || memRoot.numObjectsRec != extRoot.numObjectsRec) {
+            System.out.println("DIFFERENT COUNTS: " + memRoot.numNodesRec() + "/" + memRoot.numObjectsRec + " vs " + extRoot.numNodesRec() + "/" + extRoot.numObjectsRec);
+            errors++;
+        }
+
+        System.out.println("External octree generation test");
+        System.out.println("-------------------------------");
+        System.out.println();
+        System.out.println("Stars:     " + n + ", max part " + maxPart + ", budget " + budgetMb + " MB");
+        System.out.println("Octants:   " + memPages.size());
+        System.out.println("In memory: " + memTime / 1e6 + " ms (without writing)");
+        System.out.println("External:  " + extTime / 1e6 + " ms (with writing)");
+        System.out.println("Errors:    " + errors);
+    }
+
+    private static void collect(OctreeNode node, Map<Long, long[]> pages) {
+        if (node.objects != null && !node.objects.isEmpty()) {
+            StarGroup sg = (StarGroup) node.objects.get(0);
+            pages.put(node.pageId, sg.data().stream().mapToLong(IParticleRecord::id).toArray());
+        }
+        for (OctreeNode child : node.children) {
+            if (child != null)
+                collect(child, pages);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.data.octreegen.MetadataBinaryIO;
+import gaiasky.util.math.Vector3d;
+import gaiasky.util.tree.LoadStatus;
+import gaiasky.util.tree.OctreeNode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes the metadata of a random octree with {@link MetadataBinaryIO} and reads it back a few
+ * times. Reports the time per read, the bytes allocated per read and node, the heap retained
+ * by the read octree per node, and the time of a traversal which reads the centre, radius and
+ * status of every node, as the octree update does. Checks that the read octree has the same
+ * structure, geometry and status as the written one.
+ * <p>
+ * Arguments (all optional): number of nodes, number of reads.
+ *
+ * @author tsagrista
+ */
+public class OctreeMetadataTest {
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        Random rnd = new Random(8008l);
+
+        // Random octree, breadth first
+        List<OctreeNode> nodes = new ArrayList<>(n);
+        OctreeNode root = new OctreeNode(0, 0, 0, 0, 1, 1, 1, 0);
+        nodes.add(root);
+        for (int i = 0; nodes.size() < n; i++) {
+            OctreeNode parent = nodes.get(i % nodes.size());
+            for (int c = 0; c < 8 && nodes.size() < n; c++) {
+                if (parent.children[c] == null && rnd.nextFloat() < 0.4f) {
+                    double hs = parent.getHalfSizeX() / 2;
+                    OctreeNode child = new OctreeNode(nodes.size(), parent.getCentreX() + ((c & 1) == 0 ? -hs : hs), parent.getCentreY() + ((c & 2) == 0 ? -hs : hs), parent.getCentreZ() + ((c & 4) == 0 ? -hs : hs), hs, hs, hs, parent.depth + 1);
+                    child.numObjects = rnd.nextInt(2000);
+                    child.numObjectsRec = child.numObjects + rnd.nextInt(100000);
+                    child.parent = parent;
+                    parent.children[c] = child;
+                    parent.numChildren++;
+                    nodes.add(child);
+                }
+            }
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new MetadataBinaryIO().writeMetadata(root, bos);
+        byte[] metadata = bos.toByteArray();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        Runtime runtime = Runtime.getRuntime();
+
+        // Warm up, then time and count the allocations
+        for (int i = 0; i < 3; i++)
+            new MetadataBinaryIO().readMetadata(new ByteArrayInputStream(metadata), LoadStatus.NOT_LOADED);
+        long bestNs = Long.MAX_VALUE, allocated = 0;
+        for (int i = 0; i < reads; i++) {
+            long a0 = threads.getThreadAllocatedBytes(tid);
+            long t0 = System.nanoTime();
+            new MetadataBinaryIO().readMetadata(new ByteArrayInputStream(metadata), LoadStatus.NOT_LOADED);
+            bestNs = Math.min(bestNs, System.nanoTime() - t0);
+            allocated += threads.getThreadAllocatedBytes(tid) - a0;
+        }
+
+        // Retained
+        gc();
+        long used0 = runtime.totalMemory() - runtime.freeMemory();
+        OctreeNode read = new MetadataBinaryIO().readMetadata(new ByteArrayInputStream(metadata), LoadStatus.NOT_LOADED);
+        gc();
+        long used1 = runtime.totalMemory() - runtime.freeMemory();
+
+        int errors = compare(root, read);
+
+        // Traversal
+        Vector3d aux = new Vector3d();
+        long bestTraverseNs = Long.MAX_VALUE;
+        double hash = 0;
+        for (int i = 0; i < reads + 3; i++) {
+            long t0 = System.nanoTime();
+            hash += traverse(read, aux);
+            bestTraverseNs = Math.min(bestTraverseNs, System.nanoTime() - t0);
+        }
+        if (hash == 42)
+            System.out.println();
+
+        System.out.println("Octree metadata test");
+        System.out.println("--------------------");
+        System.out.println();
+        System.out.println("Nodes:     " + n + ", metadata " + (metadata.length >> 10) + " KB");
+        System.out.println("Read:      " + String.format("%.2f", bestNs / 1e6) + " ms (best of " + reads + ")");
+        System.out.println("Allocated: " + (allocated / reads / n) + " bytes per node and read");
+        System.out.println("Retained:  " + ((used1 - used0) / n) + " bytes per node");
+        System.out.println("Traverse:  " + String.format("%.2f", bestTraverseNs / 1e6) + " ms (best of " + (reads + 3) + ")");
+        System.out.println("Errors:    " + errors);
+    }
+
+    private static int compare(OctreeNode expected, OctreeNode actual) {
+        if (actual == null) {
+            System.out.println("MISSING NODE: " + expected.pageId);
+            return 1;
+        }
+        int errors = 0;
+        Vector3d centre = actual.getCentre(new Vector3d());
+        if (expected.pageId != actual.pageId || expected.depth != actual.depth || expected.numObjects != actual.numObjects || expected.numObjectsRec != actual.numObjectsRec || expected.numChildren != actual.numChildren || actual.getStatus() != LoadStatus.NOT_LOADED) {
+            System.out.println("WRONG NODE: " + actual.pageId);
+            errors++;
+        } else if (centre.x != (float) expected.getCentreX() || centre.y != (float) expected.getCentreY() || centre.z != (float) expected.getCentreZ() || Math.abs(actual.getRadius() - expected.getRadius()) > 1e-6 * expected.getRadius()) {
+            System.out.println("WRONG GEOMETRY: " + actual.pageId);
+            errors++;
+        } else {
+            actual.setStatus(LoadStatus.LOADED);
+            if (actual.getStatus() != LoadStatus.LOADED) {
+                System.out.println("WRONG STATUS: " + actual.pageId);
+                errors++;
+            }
+            actual.setStatus(LoadStatus.NOT_LOADED);
+        }
+        for (int i = 0; i < 8; i++) {
+            if (expected.children[i] != null) {
+                if (actual.children[i] != null && actual.children[i].parent != actual) {
+                    System.out.println("WRONG PARENT: " + actual.children[i].pageId);
+                    errors++;
+                }
+                errors += compare(expected.children[i], actual.children[i]);
+            } else if (actual.children[i] != null) {
+                System.out.println("EXTRA NODE: " + actual.children[i].pageId);
+                errors++;
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Depth-first traversal which reads the centre, the radius and the status of every node
+     */
+    private static double traverse(OctreeNode node, Vector3d aux) {
+        double sum = node.getCentre(aux).len() + node.getRadius();
+        if (node.getStatus() == LoadStatus.LOADED)
+            sum++;
+        for (int i = 0; i < 8; i++) {
+            if (node.children[i] != null)
+                sum += traverse(node.children[i], aux);
+        }
+        return sum;
+    }
+
+    private static void gc() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.util.tree.OctreeNameIndex;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Writes an {@link OctreeNameIndex} with star-like names and source identifiers spread over
+ * pages, maps it and compares its lookups with a map of the same names, for names in the index,
+ * names in other cases, and names and identifiers which are not in it. Also times the lookups.
+ * <p>
+ * Arguments (all optional): number of stars, number of lookups.
+ *
+ * @author tsagrista
+ */
+public class OctreeNameIndexTest {
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        Random rnd = new Random(1618l);
+
+        Map<String, Long> expected = new HashMap<>();
+        Map<Long, Long> expectedIds = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        OctreeNameIndex.Writer writer = new OctreeNameIndex.Writer();
+        long start = System.nanoTime();
+        int pageId = 0, index = 0;
+        for (int i = 0; i < n; i++) {
+            if (index >= 1000 + pageId % 50) {
+                pageId++;
+                index = 0;
+            }
+            long loc = ((long) pageId << 32) | index;
+            long id = rnd.nextLong() & 0x7fffffffffffffffL;
+            writer.addId(id, pageId, index);
+            expectedIds.putIfAbsent(id, loc);
+            ids.add(id);
+            if (i % 20 == 0) {
+                String name = i % 40 == 0 ? "HIP " + (i / 40 + 1) : "Star " + Integer.toString(i, 36) + (i % 3 == 0 ? " \u00e9" : "");
+                writer.addName(name, pageId, index);
+                expected.putIfAbsent(name.toLowerCase().strip(), loc);
+                names.add(name);
+            }
+            index++;
+        }
+        Path file = Files.createTempFile("names", ".bin");
+        writer.write(file);
+        long writeTime = System.nanoTime() - start;
+
+        OctreeNameIndex nameIndex = new OctreeNameIndex(file);
+        int errors = 0;
+        if (nameIndex.nNames() != expected.size() || nameIndex.nIds() != expectedIds.size()) {
+            System.out.println("WRONG SIZE: " + nameIndex.nNames() + ", " + nameIndex.nIds());
+            errors++;
+        }
+
+        start = System.nanoTime();
+        for (int q = 0; q < lookups; q++) {
+            String query;
+            Long exp;
+            switch (q % 4) {
+            case 0:
+                query = names.get(rnd.nextInt(names.size()));
+                exp = expected.get(query.toLowerCase().strip());
+                break;
+            case 1:
+                query = " " + names.get(rnd.nextInt(names.size())).toUpperCase() + " ";
+                exp = expected.get(query.toLowerCase().strip());
+                break;
+            case 2:
+                long id = ids.get(rnd.nextInt(ids.size()));
+                query = Long.toString(id);
+                exp = expectedIds.get(id);
+                break;
+            default:
+                query = rnd.nextBoolean() ? "Star " + Integer.toString(n + rnd.nextInt(n), 36) : Long.toString(rnd.nextLong() & 0x7fffffffffffffffL);
+                exp = expected.get(query.toLowerCase());
+                if (exp == null && Character.isDigit(query.charAt(0)))
+                    exp = expectedIds.get(Long.parseLong(query));
+            }
+            long loc = nameIndex.find(query);
+            long want = exp != null ? exp : OctreeNameIndex.NONE;
+            if (loc != want) {
+                System.out.println("WRONG LOCATION for '" + query + "': " + loc + " != " + want);
+                errors++;
+            }
+        }
+        long lookupTime = System.nanoTime() - start;
+        Files.delete(file);
+
+        System.out.println("Octree name index test");
+        System.out.println("----------------------");
+        System.out.println();
+        System.out.println("Stars:   " + n + ", " + expected.size() + " names, " + (pageId + 1) + " pages");
+        System.out.println("Write:   " + writeTime / 1e6 + " ms");
+        System.out.println("Lookups: " + lookups + ", " + lookupTime / 1e3 / lookups + " us/lookup");
+        System.out.println("Errors:  " + errors);
+    }
+}
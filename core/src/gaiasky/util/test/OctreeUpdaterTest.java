@@ -0,0 +1,235 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.data.group.BinaryDataProvider;
+import gaiasky.data.octreegen.MetadataBinaryIO;
+import gaiasky.data.octreegen.StarBrightnessComparator;
+import gaiasky.data.octreegen.generator.OctreeGeneratorMag;
+import gaiasky.data.octreegen.generator.OctreeGeneratorParams;
+import gaiasky.data.octreegen.generator.OctreeUpdater;
+import gaiasky.scenegraph.StarGroup;
+import gaiasky.scenegraph.particle.IParticleRecord;
+import gaiasky.scenegraph.particle.ParticleRecord;
+import gaiasky.util.tree.OctreeNode;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Generates an octree from a random catalog with {@link OctreeGeneratorMag} and writes it, then inserts
+ * a delta catalog with {@link OctreeUpdater}. Part of the delta catalog are new versions of existing stars,
+ * with the same source identifier or the same HIP number. Checks that all stars are in the pages once,
+ * that the existing versions have been replaced, that no octant goes over the maximum, that the pages
+ * are sorted by magnitude, that no star is fainter than the stars below it on its path, and that only
+ * the pages reported as written have changed.
+ * <p>
+ * Arguments (all optional): number of stars, number of new stars, number of replaced stars, maximum stars per octant.
+ *
+ * @author tsagrista
+ */
+public class OctreeUpdaterTest {
+    private static final StarBrightnessComparator comparator = new StarBrightnessComparator();
+    /** Source identifier of the first star **/
+    private static final long ID0 = 1L << 40;
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int nDelta = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int nReplaced = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int maxPart = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+
+        Random rnd = new Random(2020l);
+        List<IParticleRecord> base = new ArrayList<>(n);
+        List<IParticleRecord> delta = new ArrayList<>(nDelta);
+        for (int i = 0; i < n + nDelta; i++) {
+            double[] d = new double[ParticleRecord.STAR_SIZE_D];
+            float[] f = new float[ParticleRecord.STAR_SIZE_F];
+            double s = i % 3 == 0 ? 1e4 : 1e5;
+            d[0] = rnd.nextGaussian() * s;
+            d[1] = rnd.nextGaussian() * s;
+            d[2] = rnd.nextGaussian() * s;
+            f[ParticleRecord.I_FABSMAG] = Math.round(rnd.nextFloat() * 200f) / 10f;
+            f[ParticleRecord.I_FAPPMAG] = f[ParticleRecord.I_FABSMAG];
+            // Every tenth star is a HIP star
+            if (i % 10 == 0)
+                f[ParticleRecord.I_FHIP] = i / 10 + 1;
+            (i < n ? base : delta).add(new ParticleRecord(d, f, ID0 + i));
+        }
+        // New versions of existing stars, moved and with a new magnitude. Half keep the source
+        // identifier, and half are HIP stars which get a new one, as after a new cross-match
+        Map<Long, Float> replacedIds = new HashMap<>();
+        Set<Long> replacedHipIds = new HashSet<>();
+        for (int i = 0; i < nReplaced; i++) {
+            int j = i % 2 == 0 ? rnd.nextInt(n) : rnd.nextInt(n / 10) * 10;
+            IParticleRecord old = base.get(j);
+            double[] d = new double[ParticleRecord.STAR_SIZE_D];
+            float[] f = new float[ParticleRecord.STAR_SIZE_F];
+            d[0] = old.x() + rnd.nextGaussian();
+            d[1] = old.y() + rnd.nextGaussian();
+            d[2] = old.z() + rnd.nextGaussian();
+            f[ParticleRecord.I_FABSMAG] = Math.round(rnd.nextFloat() * 200f) / 10f;
+            f[ParticleRecord.I_FAPPMAG] = f[ParticleRecord.I_FABSMAG];
+            f[ParticleRecord.I_FHIP] = old.hip();
+            long id = i % 2 == 0 ? old.id() : ID0 + n + nDelta + i;
+            if (replacedIds.containsKey(id) || replacedHipIds.contains(old.id()) || replacedIds.containsKey(old.id()))
+                continue;
+            if (i % 2 == 0)
+                replacedIds.put(id, f[ParticleRecord.I_FAPPMAG]);
+            else
+                replacedHipIds.add(old.id());
+            delta.add(new ParticleRecord(d, f, id));
+        }
+        int nNew = delta.size();
+        int nOld = replacedIds.size() + replacedHipIds.size();
+
+        // Generate and write
+        base.sort(comparator);
+        OctreeNode generated = new OctreeGeneratorMag(new OctreeGeneratorParams(maxPart, false, 100, 1000)).generateOctree(base);
+        Path dir = Files.createTempDirectory("gaiasky-octreeupdate-");
+        Path pages = dir.resolve("particles");
+        Files.createDirectories(pages);
+        writePages(generated, pages);
+        File metadata = dir.resolve("metadata.bin").toFile();
+        new MetadataBinaryIO().writeMetadata(generated, new FileOutputStream(metadata));
+        Map<String, byte[]> before = readFiles(pages);
+
+        // Update
+        OctreeNode root;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(metadata))) {
+            root = new MetadataBinaryIO().readMetadata(in);
+        }
+        delta.sort(comparator);
+        long start = System.nanoTime();
+        OctreeUpdater updater = new OctreeUpdater(new OctreeGeneratorParams(maxPart, false, 100, 1000), pages, BinaryDataProvider.DEFAULT_OUTPUT_VERSION);
+        int written = updater.update(root, delta);
+        long updateTime = System.nanoTime() - start;
+        Map<String, byte[]> after = readFiles(pages);
+
+        int errors = 0;
+        int changed = 0;
+        for (String name : after.keySet()) {
+            if (!before.containsKey(name) || !Arrays.equals(before.get(name), after.get(name)))
+                changed++;
+        }
+        if (changed != written || !after.keySet().containsAll(before.keySet())) {
+            System.out.println("WRONG PAGES: " + changed + " changed, " + written + " written");
+            errors++;
+        }
+
+        Map<OctreeNode, List<IParticleRecord>> data = new HashMap<>();
+        readPages(root, pages, data);
+        Set<Long> ids = new HashSet<>();
+        long records = 0;
+        for (List<IParticleRecord> page : data.values()) {
+            if (page.size() > maxPart) {
+                System.out.println("OCTANT OVER THE MAXIMUM: " + page.size());
+                errors++;
+            }
+            for (int i = 0; i < page.size(); i++) {
+                IParticleRecord sb = page.get(i);
+                ids.add(sb.id());
+                if (i > 0 && comparator.compare(page.get(i - 1), sb) > 0) {
+                    System.out.println("PAGE NOT SORTED: " + sb.id());
+                    errors++;
+                }
+                if (replacedHipIds.contains(sb.id()) || (replacedIds.containsKey(sb.id()) && replacedIds.get(sb.id()) != sb.appmag())) {
+                    System.out.println("STAR NOT REPLACED: " + sb.id());
+                    errors++;
+                }
+            }
+            records += page.size();
+        }
+        long expected = n - nOld + nNew - updater.getDiscarded();
+        if (updater.getReplaced() != nOld) {
+            System.out.println("WRONG REPLACED COUNT: " + updater.getReplaced() + ", expected " + nOld);
+            errors++;
+        }
+        if (records != ids.size()) {
+            System.out.println("DUPLICATE STARS: " + (records - ids.size()));
+            errors++;
+        }
+        if (ids.size() != expected || root.numObjectsRec != ids.size()) {
+            System.out.println("WRONG COUNT: " + ids.size() + " stars, " + root.numObjectsRec + " in metadata, expected " + expected);
+            errors++;
+        }
+        for (OctreeNode node : data.keySet()) {
+            for (IParticleRecord sb : data.get(node)) {
+                if (!checkPath(node, sb, data)) {
+                    System.out.println("STAR FAINTER THAN STARS BELOW: " + sb.id() + " in " + node.pageId);
+                    errors++;
+                    break;
+                }
+            }
+        }
+
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+
+        System.out.println("Octree update test");
+        System.out.println("------------------");
+        System.out.println();
+        System.out.println("Stars:    " + n + " + " + nDelta + ", " + nOld + " replaced, max part " + maxPart);
+        System.out.println("Pages:    " + written + " of " + after.size() + " written, " + before.size() + " before");
+        System.out.println("Update:   " + updateTime / 1e6 + " ms");
+        System.out.println("Errors:   " + errors);
+    }
+
+    /**
+     * Checks that no star below the given star on its path is brighter
+     */
+    private static boolean checkPath(OctreeNode node, IParticleRecord star, Map<OctreeNode, List<IParticleRecord>> data) {
+        OctreeNode child = node;
+        while (true) {
+            int idx = (star.x() <= child.getCentreX() ? 0 : 4) + (star.y() <= child.getCentreY() ? 0 : 2) + (star.z() <= child.getCentreZ() ? 0 : 1);
+            child = child.children[idx];
+            if (child == null)
+                return true;
+            for (IParticleRecord sb : data.getOrDefault(child, Collections.emptyList())) {
+                if (comparator.compare(sb, star) < 0)
+                    return false;
+            }
+        }
+    }
+
+    private static void writePages(OctreeNode node, Path pages) throws IOException {
+        if (node.objects != null && !node.objects.isEmpty()) {
+            StarGroup sg = (StarGroup) node.objects.get(0);
+            File file = pages.resolve("particles_" + String.format("%06d", node.pageId) + ".bin").toFile();
+            new BinaryDataProvider().writeData(sg.data(), new FileOutputStream(file), BinaryDataProvider.DEFAULT_OUTPUT_VERSION);
+        }
+        for (OctreeNode child : node.children) {
+            if (child != null)
+                writePages(child, pages);
+        }
+    }
+
+    private static void readPages(OctreeNode node, Path pages, Map<OctreeNode, List<IParticleRecord>> data) throws IOException {
+        File file = pages.resolve("particles_" + String.format("%06d", node.pageId) + ".bin").toFile();
+        if (node.numObjects > 0) {
+            try (InputStream in = new FileInputStream(file)) {
+                data.put(node, new BinaryDataProvider().readData(in, 1d));
+            }
+        }
+        for (OctreeNode child : node.children) {
+            if (child != null)
+                readPages(child, pages, data);
+        }
+    }
+
+    private static Map<String, byte[]> readFiles(Path dir) throws IOException {
+        Map<String, byte[]> files = new HashMap<>();
+        try (Stream<Path> list = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) list::iterator)
+                files.put(p.getFileName().toString(), Files.readAllBytes(p));
+        }
+        return files;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.util.tree.ParticleKdTree;
+
+import java.util.Random;
+
+/**
+ * Compares the cone and line queries of {@link ParticleKdTree} with the brute force tests of
+ * the picking of particle groups, on random clustered particles with proper motions. The screen
+ * test projects the particles with a perspective camera, as in the mouse picking, and the line
+ * test is the one of the controller picking. Checks that every particle which passes a test is
+ * reported by the tree, and that the best hit is the same.
+ * <p>
+ * Arguments (all optional): number of particles, number of queries.
+ *
+ * @author tsagrista
+ */
+public class ParticleKdTreeTest {
+
+    // Particles
+    private static double[] x, y, z, pmx, pmy, pmz, size;
+    private static int n;
+
+    public static void main(String[] args) {
+        n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Random rnd = new Random(543l);
+        x = new double[n];
+        y = new double[n];
+        z = new double[n];
+        pmx = new double[n];
+        pmy = new double[n];
+        pmz = new double[n];
+        size = new double[n];
+        for (int i = 0; i < n; i++) {
+            double s = i % 4 == 0 ? 10 : 1000;
+            double c = i % 4 == 0 ? 300 : 0;
+            x[i] = c + rnd.nextGaussian() * s;
+            y[i] = rnd.nextGaussian() * s;
+            z[i] = rnd.nextGaussian() * s;
+            pmx[i] = rnd.nextGaussian() * 1e-3;
+            pmy[i] = rnd.nextGaussian() * 1e-3;
+            pmz[i] = rnd.nextGaussian() * 1e-3;
+            size[i] = 0.01 + rnd.nextDouble() * 0.5;
+        }
+
+        long start = System.nanoTime();
+        ParticleKdTree tree = new ParticleKdTree(n, new ParticleKdTree.Source() {
+            public double x(int i) {
+                return x[i];
+            }
+
+            public double y(int i) {
+                return y[i];
+            }
+
+            public double z(int i) {
+                return z[i];
+            }
+
+            public boolean hasProperMotions() {
+                return true;
+            }
+
+            public double pmx(int i) {
+                return pmx[i];
+            }
+
+            public double pmy(int i) {
+                return pmy[i];
+            }
+
+            public double pmz(int i) {
+                return pmz[i];
+            }
+
+            public double size(int i) {
+                return size[i];
+            }
+        });
+        long buildTime = System.nanoTime() - start;
+
+        int errors = 0, hits = 0;
+        long bruteTime = 0, treeTime = 0, candidates = 0;
+        double radiusScale = 1.3;
+        for (int q = 0; q < queries; q++) {
+            double dt = (rnd.nextDouble() - 0.5) * 2e4;
+            Camera cam = new Camera(rnd, 30 + rnd.nextDouble() * 60, 1280, 720);
+            // Click on a particle half of the times, randomly otherwise
+            double sx, sy;
+            double[] p = new double[2];
+            int target = rnd.nextInt(n);
+            if (q % 2 == 0 && cam.project(x[target] + pmx[target] * dt, y[target] + pmy[target] * dt, z[target] + pmz[target] * dt, p)) {
+                sx = p[0] + rnd.nextDouble() * 2;
+                sy = p[1];
+            } else {
+                sx = rnd.nextDouble() * cam.vw;
+                sy = rnd.nextDouble() * cam.vh;
+            }
+            int pxdist = 5;
+
+            // Screen test, brute force
+            start = System.nanoTime();
+            boolean[] bruteHits = new boolean[n];
+            int bruteBest = -1;
+            double bruteAngle = 0;
+            for (int i = 0; i < n; i++) {
+                double angle = screenTest(cam, i, dt, radiusScale, sx, sy, pxdist, p);
+                if (angle >= 0) {
+                    bruteHits[i] = true;
+                    if (bruteBest < 0 || angle > bruteAngle) {
+                        bruteBest = i;
+                        bruteAngle = angle;
+                    }
+                }
+            }
+            bruteTime += System.nanoTime() - start;
+
+            // Screen test, tree
+            start = System.nanoTime();
+            double[] ray = cam.ray(sx, sy);
+            double f = cam.vh / (2 * Math.tan(Math.toRadians(cam.fov) / 2));
+            double radiusPixels = Math.toDegrees(1) * (40 / cam.fov) * cam.vh / cam.fov / 2;
+            boolean[] treeHits = new boolean[n];
+            int[] best = { -1 };
+            double[] bestAngle = { 0 };
+            long[] count = { 0 };
+            double fsx = sx, fsy = sy;
+            tree.cone(cam.ox, cam.oy, cam.oz, ray[0], ray[1], ray[2], pxdist / f, radiusPixels / f, radiusScale, dt, i -> {
+                count[0]++;
+                double angle = screenTest(cam, i, dt, radiusScale, fsx, fsy, pxdist, new double[2]);
+                if (angle >= 0) {
+                    treeHits[i] = true;
+                    if (best[0] < 0 || angle > bestAngle[0] || (angle == bestAngle[0] && i < best[0])) {
+                        best[0] = i;
+                        bestAngle[0] = angle;
+                    }
+                }
+            });
+            treeTime += System.nanoTime() - start;
+            candidates += count[0];
+
+            for (int i = 0; i < n; i++) {
+                if (bruteHits[i] != treeHits[i]) {
+                    System.out.println("SCREEN HIT MISSING: query " + q + ", particle " + i);
+                    errors++;
+                    break;
+                }
+            }
+            if (best[0] != bruteBest) {
+                System.out.println("DIFFERENT SCREEN BEST: " + best[0] + " vs " + bruteBest);
+                errors++;
+            }
+            if (bruteBest >= 0)
+                hits++;
+
+            // Line test
+            double[] a = { rnd.nextGaussian(), rnd.nextGaussian(), rnd.nextGaussian() };
+            double[] b = { target < n ? x[target] + pmx[target] * dt - cam.ox : 0, y[target] + pmy[target] * dt - cam.oy, z[target] + pmz[target] * dt - cam.oz };
+            int lineBrute = 0;
+            for (int i = 0; i < n; i++) {
+                if (lineTest(cam, i, dt, a, b))
+                    lineBrute++;
+            }
+            int[] lineTree = { 0 };
+            tree.line(cam.ox, cam.oy, cam.oz, a[0], a[1], a[2], b[0], b[1], b[2], 0.01, dt, i -> {
+                if (lineTest(cam, i, dt, a, b))
+                    lineTree[0]++;
+            });
+            if (lineBrute != lineTree[0]) {
+                System.out.println("LINE HITS MISSING: " + lineTree[0] + " vs " + lineBrute);
+                errors++;
+            }
+        }
+
+        System.out.println("Particle k-d tree test");
+        System.out.println("----------------------");
+        System.out.println();
+        System.out.println("Particles:   " + n + ", queries " + queries + " (" + hits + " with hits)");
+        System.out.println("Build:       " + buildTime / 1e6 + " ms");
+        System.out.println("Brute force: " + bruteTime / 1e6 / queries + " ms/query");
+        System.out.println("Tree:        " + treeTime / 1e6 / queries + " ms/query, " + candidates / queries + " candidates/query");
+        System.out.println("Errors:      " + errors);
+    }
+
+    /**
+     * Screen test of the mouse picking
+     *
+     * @return The angle of the particle if it is a hit, negative otherwise
+     */
+    private static double screenTest(Camera cam, int i, double dt, double radiusScale, double sx, double sy, int pxdist, double[] p) {
+        double px = x[i] + pmx[i] * dt - cam.ox, py = y[i] + pmy[i] * dt - cam.oy, pz = z[i] + pmz[i] * dt - cam.oz;
+        if (px * cam.dir[0] + py * cam.dir[1] + pz * cam.dir[2] <= 0)
+            return -1;
+        double dist = Math.sqrt(px * px + py * py + pz * pz);
+        double angle = Math.toDegrees(size[i] * radiusScale / dist) * (40 / cam.fov);
+        double pixelSize = Math.max(pxdist, ((angle * cam.vh) / cam.fov) / 2);
+        cam.project(px + cam.ox, py + cam.oy, pz + cam.oz, p);
+        return Math.hypot(p[0] - sx, p[1] - sy) <= pixelSize ? angle : -1;
+    }
+
+    /**
+     * Line test of the controller picking
+     */
+    private static boolean lineTest(Camera cam, int i, double dt, double[] a, double[] b) {
+        double px = x[i] + pmx[i] * dt - cam.ox, py = y[i] + pmy[i] * dt - cam.oy, pz = z[i] + pmz[i] * dt - cam.oz;
+        if (px * cam.dir[0] + py * cam.dir[1] + pz * cam.dir[2] <= 0)
+            return false;
+        double dist = Math.sqrt(px * px + py * py + pz * pz);
+        // Distance from the point to the line a-b
+        double ux = px - a[0], uy = py - a[1], uz = pz - a[2];
+        double vx = px - b[0], vy = py - b[1], vz = pz - b[2];
+        double cx = uy * vz - uz * vy, cy = uz * vx - ux * vz, cz = ux * vy - uy * vx;
+        double wx = b[0] - a[0], wy = b[1] - a[1], wz = b[2] - a[2];
+        double distToLine = Math.sqrt(cx * cx + cy * cy + cz * cz) / Math.sqrt(wx * wx + wy * wy + wz * wz);
+        return distToLine / dist < 0.01;
+    }
+
+    /**
+     * Perspective camera with the projection of the viewport of the picking
+     */
+    private static class Camera {
+        final double ox, oy, oz, fov, vw, vh, tan, aspect;
+        final double[] dir, up, right;
+
+        Camera(Random rnd, double fov, double vw, double vh) {
+            this.ox = rnd.nextGaussian() * 500;
+            this.oy = rnd.nextGaussian() * 500;
+            this.oz = rnd.nextGaussian() * 500;
+            this.fov = fov;
+            this.vw = vw;
+            this.vh = vh;
+            this.tan = Math.tan(Math.toRadians(fov) / 2);
+            this.aspect = vw / vh;
+            // Look at the origin, or at the cluster
+            double tx = rnd.nextBoolean() ? 0 : 300;
+            dir = nor(new double[] { tx - ox, -oy, -oz });
+            right = nor(crs(dir, new double[] { 0, 1, 0 }));
+            up = crs(right, dir);
+        }
+
+        boolean project(double px, double py, double pz, double[] out) {
+            px -= ox;
+            py -= oy;
+            pz -= oz;
+            double zc = px * dir[0] + py * dir[1] + pz * dir[2];
+            if (zc <= 0)
+                return false;
+            out[0] = vw / 2 * (1 + (px * right[0] + py * right[1] + pz * right[2]) / (zc * tan * aspect));
+            out[1] = vh / 2 * (1 + (px * up[0] + py * up[1] + pz * up[2]) / (zc * tan));
+            return true;
+        }
+
+        double[] ray(double sx, double sy) {
+            double rx = (2 * sx / vw - 1) * tan * aspect, ry = (2 * sy / vh - 1) * tan;
+            return new double[] { dir[0] + right[0] * rx + up[0] * ry, dir[1] + right[1] * rx + up[1] * ry, dir[2] + right[2] * rx + up[2] * ry };
+        }
+
+        static double[] crs(double[] a, double[] b) {
+            return new double[] { a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0] };
+        }
+
+        static double[] nor(double[] a) {
+            double l = Math.sqrt(a[0] * a[0] + a[1] * a[1] + a[2] * a[2]);
+            return new double[] { a[0] / l, a[1] / l, a[2] / l };
+        }
+    }
+}
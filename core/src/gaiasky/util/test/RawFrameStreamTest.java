@@ -0,0 +1,101 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.screenshot.RawFrameStream;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Streams synthetic RGBA frames, with the rows bottom to top as read from OpenGL, to a
+ * local file through {@link RawFrameStream}. Then reads the file back and checks
+ * the size and the CRC32 of every RGB frame against the ones computed by the stream and
+ * against the expected conversion of the source frames. Reports the throughput.
+ * <p>
+ * Arguments (all optional): width, height, number of frames.
+ *
+ * @author tsagrista
+ */
+public class RawFrameStreamTest {
+
+    public static void main(String[] args) throws Exception {
+        int w = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+        int h = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+        int nFrames = args.length > 2 ? Integer.parseInt(args[2]) : 120;
+
+        Path file = Files.createTempFile("gaiasky-rawstream-", ".rgb");
+        Files.delete(file);
+        Random rnd = new Random(2811l);
+        long[] expected = new long[nFrames];
+        byte[] row = new byte[w * 4];
+        byte[] rgb = new byte[w * 3];
+
+        long start = System.nanoTime();
+        RawFrameStream stream = new RawFrameStream(file.toString(), w, h, 60, 4, true);
+        int maxDepth = 0;
+        for (int f = 0; f < nFrames; f++) {
+            ByteBuffer buffer = stream.obtain();
+            CRC32 crc = new CRC32();
+            // Rows are bottom to top in the source, top to bottom in the output
+            for (int y = 0; y < h; y++) {
+                rnd.nextBytes(row);
+                buffer.position((h - y - 1) * w * 4);
+                buffer.put(row);
+                for (int i = 0, j = 0; i < rgb.length; i += 3, j += 4) {
+                    rgb[i] = row[j];
+                    rgb[i + 1] = row[j + 1];
+                    rgb[i + 2] = row[j + 2];
+                }
+                crc.update(rgb);
+            }
+            expected[f] = crc.getValue();
+            buffer.clear();
+            stream.submit(buffer);
+            maxDepth = Math.max(maxDepth, stream.getQueueDepth());
+        }
+        stream.close();
+        long elapsed = System.nanoTime() - start;
+
+        int errors = 0;
+        long frameBytes = (long) w * h * 3;
+        if (Files.size(file) != frameBytes * nFrames) {
+            System.out.println("WRONG SIZE: " + Files.size(file) + " != " + frameBytes * nFrames);
+            errors++;
+        }
+        byte[] frame = new byte[(int) frameBytes];
+        try (InputStream is = Files.newInputStream(file)) {
+            for (int f = 0; f < nFrames; f++) {
+                if (is.readNBytes(frame, 0, frame.length) != frame.length) {
+                    System.out.println("Frame " + f + ": TRUNCATED");
+                    errors++;
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(frame);
+                Long streamed = stream.pollChecksum();
+                if (crc.getValue() != expected[f] || streamed == null || streamed != expected[f]) {
+                    System.out.println("Frame " + f + ": WRONG CHECKSUM");
+                    errors++;
+                }
+            }
+        }
+        Files.delete(file);
+
+        System.out.println("Raw frame stream test");
+        System.out.println("---------------------");
+        System.out.println();
+        System.out.println("Frames:          " + nFrames + " of " + w + "x" + h);
+        System.out.println("Time:            " + elapsed / 1e9 + " seconds (includes frame generation)");
+        System.out.println("Throughput:      " + nFrames / (elapsed / 1e9) + " fps, " + (frameBytes * nFrames / 1e6) / (elapsed / 1e9) + " MB/s");
+        System.out.println("Max queue depth: " + maxDepth);
+        System.out.println("Checksum errors: " + errors);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.test;
+
+import gaiasky.util.ds.SearchIndex;
+
+import java.util.*;
+
+/**
+ * Fills a {@link SearchIndex} with star-like names, and compares its results with a
+ * ranked search over all the names, for the prefixes typed in the search box and for some
+ * substrings. Then removes and adds names and compares again. Also times the search against
+ * the scan of all the names of the map, as the scene graph did before.
+ * <p>
+ * Arguments (all optional): number of names, number of queries.
+ *
+ * @author tsagrista
+ */
+public class SearchIndexTest {
+    private static final String[] SYLLABLES = { "al", "be", "ca", "de", "el", "ga", "ir", "ka", "lo", "ma", "ne", "or", "pi", "ri", "si", "tau", "us", "ve", "xi", "zu" };
+
+    private static final Map<String, Integer> values = new HashMap<>();
+    private static final Map<String, Float> ranks = new HashMap<>();
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 300000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int max = 10;
+        Random rnd = new Random(2718l);
+
+        SearchIndex<Integer> index = new SearchIndex<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            String name = name(rnd, i);
+            float rank = i % 10 == 0 ? -30f : (float) (rnd.nextDouble() * 20 - 2);
+            values.put(name, i);
+            ranks.put(name, rank);
+            index.put(name, i, rank);
+        }
+        long putTime = System.nanoTime() - start;
+
+        List<String> all = new ArrayList<>(values.keySet());
+        List<String> texts = new ArrayList<>();
+        while (texts.size() < queries) {
+            String name = all.get(rnd.nextInt(all.size()));
+            if (rnd.nextInt(4) == 0) {
+                // Substring
+                int from = rnd.nextInt(name.length());
+                texts.add(name.substring(from, Math.min(name.length(), from + 2 + rnd.nextInt(5))));
+            } else {
+                // Typed, one character at a time
+                for (int l = 1; l <= name.length(); l++)
+                    texts.add(name.substring(0, l));
+            }
+        }
+
+        int errors = check(index, texts, max);
+        long[] times = time(index, texts, max);
+
+        // Unload and load names, as octants come and go
+        for (String name : all) {
+            if (rnd.nextInt(10) < 7) {
+                index.remove(name);
+                values.remove(name);
+                ranks.remove(name);
+            }
+        }
+        for (int i = 0; i < n / 10; i++) {
+            String name = all.get(rnd.nextInt(all.size()));
+            float rank = (float) (rnd.nextDouble() * 20 - 2);
+            values.put(name, i);
+            ranks.put(name, rank);
+            index.put(name, i, rank);
+        }
+        if (index.size() != values.size()) {
+            System.out.println("WRONG SIZE: " + index.size() + " != " + values.size());
+            errors++;
+        }
+        errors += check(index, texts, max);
+
+        System.out.println("Search index test");
+        System.out.println("-----------------");
+        System.out.println();
+        System.out.println("Names:   " + n + ", put " + putTime / 1e6 + " ms");
+        System.out.println("Queries: " + texts.size());
+        System.out.println("Scan:    " + times[0] / 1e3 / texts.size() + " us/query");
+        System.out.println("Index:   " + times[1] / 1e3 / texts.size() + " us/query");
+        System.out.println("Errors:  " + errors);
+    }
+
+    private static String name(Random rnd, int i) {
+        switch (i % 4) {
+        case 0:
+            return "hip " + (i + 1);
+        case 1:
+            return "tyc " + rnd.nextInt(10000) + "-" + rnd.nextInt(2000) + "-1";
+        case 2:
+            return "gaia dr2 " + (rnd.nextLong() & 0xfffffffffffffL);
+        default:
+            StringBuilder sb = new StringBuilder();
+            int syllables = 2 + rnd.nextInt(3);
+            for (int s = 0; s < syllables; s++)
+                sb.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+            return sb.append(' ').append(i).toString();
+        }
+    }
+
+    private static boolean filter(Integer value) {
+        return value % 7 != 0;
+    }
+
+    private static int check(SearchIndex<Integer> index, List<String> texts, int max) {
+        int errors = 0;
+        for (String text : texts) {
+            List<String> expected = ranked(text, max);
+            List<String> results = index.search(text, max, SearchIndexTest::filter);
+            if (!expected.equals(results)) {
+                System.out.println("WRONG RESULTS for '" + text + "': " + results + " != " + expected);
+                errors++;
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Ranked search over all the names
+     */
+    private static List<String> ranked(String text, int max) {
+        List<String> starts = new ArrayList<>(), contains = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : values.entrySet()) {
+            String name = entry.getKey();
+            if (!filter(entry.getValue()))
+                continue;
+            if (name.startsWith(text))
+                starts.add(name);
+            else if (name.contains(text))
+                contains.add(name);
+        }
+        Comparator<String> order = Comparator.comparingInt((String name) -> bucket(ranks.get(name))).thenComparing(Comparator.naturalOrder());
+        starts.sort(order);
+        contains.sort(order);
+        starts.addAll(contains);
+        return starts.subList(0, Math.min(max, starts.size()));
+    }
+
+    private static int bucket(float rank) {
+        return rank < -5 ? 0 : rank >= 25 ? 31 : (int) Math.floor(rank) + 6;
+    }
+
+    /**
+     * Times the scan of all the names and the index
+     */
+    private static long[] time(SearchIndex<Integer> index, List<String> texts, int max) {
+        long[] times = new long[2];
+        long hash = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (String text : texts) {
+                List<String> results = new ArrayList<>();
+                scan(text, results, max);
+                hash += results.size();
+            }
+            times[0] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String text : texts) {
+                hash += index.search(text, max, SearchIndexTest::filter).size();
+            }
+            times[1] = System.nanoTime() - start;
+        }
+        if (hash == 42)
+            System.out.println();
+        return times;
+    }
+
+    /**
+     * The search of the scene graph before the index: starts with, then contains, over all the names
+     */
+    private static void scan(String name, List<String> results, int maxResults) {
+        int i = 0;
+        for (String key : values.keySet()) {
+            Integer value = values.get(key);
+            if (filter(value) && key.startsWith(name)) {
+                results.add(key);
+                i++;
+            }
+            if (i >= maxResults)
+                return;
+        }
+        for (String key : values.keySet()) {
+            Integer value = values.get(key);
+            if (filter(value) && key.contains(name)) {
+                results.add(key);
+                i++;
+            }
+            if (i >= maxResults)
+                return;
+        }
+    }
+}
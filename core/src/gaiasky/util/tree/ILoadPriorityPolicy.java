@@ -0,0 +1,29 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.tree;
+
+import gaiasky.scenegraph.camera.ICamera;
+
+/**
+ * Computes the load priority of octants. The priority is refreshed by {@link OctreeNode#update}
+ * every frame for octants which are observed and not loaded yet, and the load queue always serves
+ * the octant with the highest priority first.
+ *
+ * @author tsagrista
+ */
+public interface ILoadPriorityPolicy {
+
+    /**
+     * Computes the load priority of the given octant. Higher values are loaded first.
+     * The view angle and distance to camera of the octant are up to date when this is called.
+     *
+     * @param octant The octant
+     * @param camera The camera
+     * @return The priority
+     */
+    double priority(OctreeNode octant, ICamera camera);
+
+}
@@ -0,0 +1,343 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.tree;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Index of the names and source identifiers of all the stars of an octree, with the
+ * octant (page) and the position in the page of each star. It is written next to the metadata by
+ * the octree generator, and memory-mapped at runtime, so that stars can be found before
+ * their octants are loaded. Names are looked up in lower case and without surrounding spaces,
+ * as in the scene graph.
+ * <p>
+ * The format is as follows:
+ * <ul>
+ * <li>32 bits (int) - version</li>
+ * <li>32 bits (int) - nNames - number of names</li>
+ * <li>32 bits (int) - nBytes - size of the name table</li>
+ * <li>nNames times: 32 bits (int) name offset in the name table, 32 bits (int) page id and 32 bits (int) index in the page</li>
+ * <li>nBytes - name table, UTF-8 names one after the other, sorted by their bytes</li>
+ * <li>32 bits (int) - nIds - number of source identifiers</li>
+ * <li>nIds times: 64 bits (long) source id, 32 bits (int) page id and 32 bits (int) index in the page, sorted by source id</li>
+ * </ul>
+ *
+ * @author tsagrista
+ */
+public class OctreeNameIndex {
+    public static final String FILE_NAME = "names.bin";
+    /** Location of names which are not in the index **/
+    public static final long NONE = -1;
+
+    private static final int VERSION = 1;
+    private static final int NAME_BYTES = 3 * Integer.BYTES;
+    private static final int ID_BYTES = Long.BYTES + 2 * Integer.BYTES;
+    /** Source identifiers per mapped chunk, a mapped buffer can't go over 2 GB **/
+    private static final int IDS_PER_CHUNK = 1 << 26;
+
+    private final int nNames, nIds;
+    private final ByteBuffer names, nameTable;
+    private final ByteBuffer[] ids;
+
+    /**
+     * Maps the index in the given file
+     *
+     * @param file The file
+     * @throws IOException If the file can't be read, or is not an index
+     */
+    public OctreeNameIndex(Path file) throws IOException {
+        try (FileChannel fc = new RandomAccessFile(file.toFile(), "r").getChannel()) {
+            MappedByteBuffer header = fc.map(FileChannel.MapMode.READ_ONLY, 0, 3 * Integer.BYTES);
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported name index version " + version + ": " + file);
+            nNames = header.getInt();
+            int nBytes = header.getInt();
+            long pos = 3 * Integer.BYTES;
+            names = fc.map(FileChannel.MapMode.READ_ONLY, pos, (long) nNames * NAME_BYTES);
+            pos += (long) nNames * NAME_BYTES;
+            nameTable = fc.map(FileChannel.MapMode.READ_ONLY, pos, nBytes);
+            pos += nBytes;
+
+            nIds = fc.map(FileChannel.MapMode.READ_ONLY, pos, Integer.BYTES).getInt();
+            pos += Integer.BYTES;
+            int nChunks = (nIds + IDS_PER_CHUNK - 1) / IDS_PER_CHUNK;
+            ids = new ByteBuffer[nChunks];
+            for (int c = 0; c < nChunks; c++) {
+                int count = Math.min(IDS_PER_CHUNK, nIds - c * IDS_PER_CHUNK);
+                ids[c] = fc.map(FileChannel.MapMode.READ_ONLY, pos, (long) count * ID_BYTES);
+                pos += (long) count * ID_BYTES;
+            }
+            if (pos != fc.size())
+                throw new IOException("Wrong size of name index, expected " + pos + " bytes: " + file);
+        }
+    }
+
+    /**
+     * Number of names
+     */
+    public int nNames() {
+        return nNames;
+    }
+
+    /**
+     * Number of source identifiers
+     */
+    public int nIds() {
+        return nIds;
+    }
+
+    /**
+     * Finds a star by name or, if there is no star with the name and the name is a number,
+     * by source identifier.
+     *
+     * @param name The name
+     * @return The location of the star, see {@link #pageId(long)} and {@link #index(long)}, or {@link #NONE}
+     */
+    public long find(String name) {
+        String key = key(name);
+        long loc = findName(key.getBytes(StandardCharsets.UTF_8));
+        if (loc == NONE && isId(key))
+            loc = findId(Long.parseLong(key));
+        return loc;
+    }
+
+    /**
+     * Finds a star by source identifier
+     *
+     * @param id The source identifier
+     * @return The location of the star, see {@link #pageId(long)} and {@link #index(long)}, or {@link #NONE}
+     */
+    public long find(long id) {
+        return findId(id);
+    }
+
+    private long findName(byte[] key) {
+        int lo = 0, hi = nNames - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareName(mid, key);
+            if (c < 0)
+                lo = mid + 1;
+            else if (c > 0)
+                hi = mid - 1;
+            else
+                return location(names.getInt(mid * NAME_BYTES + 4), names.getInt(mid * NAME_BYTES + 8));
+        }
+        return NONE;
+    }
+
+    /**
+     * Compares the name i with the key, as unsigned bytes
+     */
+    private int compareName(int i, byte[] key) {
+        int start = names.getInt(i * NAME_BYTES);
+        int end = i + 1 < nNames ? names.getInt((i + 1) * NAME_BYTES) : nameTable.capacity();
+        int len = end - start;
+        int n = Math.min(len, key.length);
+        for (int j = 0; j < n; j++) {
+            int c = Integer.compare(nameTable.get(start + j) & 0xff, key[j] & 0xff);
+            if (c != 0)
+                return c;
+        }
+        return Integer.compare(len, key.length);
+    }
+
+    private long findId(long id) {
+        int lo = 0, hi = nIds - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            ByteBuffer chunk = ids[mid / IDS_PER_CHUNK];
+            int off = (mid % IDS_PER_CHUNK) * ID_BYTES;
+            long v = chunk.getLong(off);
+            if (v < id)
+                lo = mid + 1;
+            else if (v > id)
+                hi = mid - 1;
+            else
+                return location(chunk.getInt(off + 8), chunk.getInt(off + 12));
+        }
+        return NONE;
+    }
+
+    /**
+     * Page id of a location
+     */
+    public static int pageId(long location) {
+        return (int) (location >>> 32);
+    }
+
+    /**
+     * Index in the page of a location
+     */
+    public static int index(long location) {
+        return (int) location;
+    }
+
+    private static long location(int pageId, int index) {
+        return ((long) pageId << 32) | (index & 0xffffffffL);
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase().strip();
+    }
+
+    private static boolean isId(String key) {
+        if (key.isEmpty() || key.length() > 19)
+            return false;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return key.length() < 19 || key.compareTo(Long.toString(Long.MAX_VALUE)) <= 0;
+    }
+
+    /**
+     * Collects the names and source identifiers of the stars, and writes the index. If a name
+     * is added more than once, the first star keeps it.
+     */
+    public static class Writer {
+        private final Map<String, Long> names = new HashMap<>();
+        private long[] ids = new long[1024], locations = new long[1024];
+        private int nIds = 0;
+
+        public void addName(String name, int pageId, int index) {
+            String key = key(name);
+            if (!key.isEmpty())
+                names.putIfAbsent(key, location(pageId, index));
+        }
+
+        public void addId(long id, int pageId, int index) {
+            if (nIds == ids.length) {
+                if (nIds == Integer.MAX_VALUE - 8)
+                    throw new IllegalStateException("Too many source identifiers in the name index: " + nIds);
+                int capacity = (int) Math.min(Integer.MAX_VALUE - 8, nIds * 2L);
+                ids = Arrays.copyOf(ids, capacity);
+                locations = Arrays.copyOf(locations, capacity);
+            }
+            ids[nIds] = id;
+            locations[nIds++] = location(pageId, index);
+        }
+
+        public int nNames() {
+            return names.size();
+        }
+
+        public int nIds() {
+            return nIds;
+        }
+
+        /**
+         * Writes the index to the given file
+         *
+         * @param file The file
+         * @throws IOException If the file can't be written
+         */
+        public void write(Path file) throws IOException {
+            byte[][] keys = new byte[names.size()][];
+            long[] keyLocations = new long[keys.length];
+            List<String> sorted = new ArrayList<>(names.keySet());
+            List<byte[]> bytes = new ArrayList<>(sorted.size());
+            for (String name : sorted)
+                bytes.add(name.getBytes(StandardCharsets.UTF_8));
+            Integer[] order = new Integer[keys.length];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(bytes.get(a), bytes.get(b)));
+            long nBytes = 0;
+            for (int i = 0; i < order.length; i++) {
+                keys[i] = bytes.get(order[i]);
+                keyLocations[i] = names.get(sorted.get(order[i]));
+                nBytes += keys[i].length;
+            }
+            if (nBytes > Integer.MAX_VALUE)
+                throw new IOException("Name table too large: " + nBytes + " bytes");
+
+            sort(ids, locations, 0, nIds - 1);
+            // Drop repeated source identifiers
+            int n = 0;
+            for (int i = 0; i < nIds; i++) {
+                if (n == 0 || ids[i] != ids[n - 1]) {
+                    ids[n] = ids[i];
+                    locations[n++] = locations[i];
+                }
+            }
+            nIds = n;
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile()), 1 << 16))) {
+                out.writeInt(VERSION);
+                out.writeInt(keys.length);
+                out.writeInt((int) nBytes);
+                int offset = 0;
+                for (int i = 0; i < keys.length; i++) {
+                    out.writeInt(offset);
+                    out.writeInt(pageId(keyLocations[i]));
+                    out.writeInt(index(keyLocations[i]));
+                    offset += keys[i].length;
+                }
+                for (byte[] key : keys)
+                    out.write(key);
+                out.writeInt(nIds);
+                for (int i = 0; i < nIds; i++) {
+                    out.writeLong(ids[i]);
+                    out.writeInt(pageId(locations[i]));
+                    out.writeInt(index(locations[i]));
+                }
+            }
+        }
+
+        /**
+         * Sorts the identifiers, with their locations
+         */
+        private static void sort(long[] keys, long[] values, int lo, int hi) {
+            while (hi - lo > 16) {
+                long pivot = median(keys[lo], keys[(lo + hi) >>> 1], keys[hi]);
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (keys[i] < pivot)
+                        i++;
+                    while (keys[j] > pivot)
+                        j--;
+                    if (i <= j) {
+                        swap(keys, values, i++, j--);
+                    }
+                }
+                // Recurse into the smaller part
+                if (j - lo < hi - i) {
+                    sort(keys, values, lo, j);
+                    lo = i;
+                } else {
+                    sort(keys, values, i, hi);
+                    hi = j;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int j = i; j > lo && keys[j - 1] > keys[j]; j--)
+                    swap(keys, values, j, j - 1);
+            }
+        }
+
+        private static long median(long a, long b, long c) {
+            return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+        }
+
+        private static void swap(long[] keys, long[] values, int i, int j) {
+            long k = keys[i];
+            keys[i] = keys[j];
+            keys[j] = k;
+            long v = values[i];
+            values[i] = values[j];
+            values[j] = v;
+        }
+    }
+}
@@ -8,6 +8,7 @@ package gaiasky.util.tree;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.TimeUtils;
 import gaiasky.data.StreamingOctreeLoader;
 import gaiasky.render.ComponentTypes;
 import gaiasky.render.ComponentTypes.ComponentType;
@@ -18,7 +19,6 @@ import gaiasky.scenegraph.ParticleGroup;
 import gaiasky.scenegraph.SceneGraphNode;
 import gaiasky.scenegraph.camera.ICamera;
 import gaiasky.util.GlobalConf;
-import gaiasky.util.Pair;
 import gaiasky.util.color.ColorUtils;
 import gaiasky.util.math.MathUtilsd;
 import gaiasky.util.math.Vector3d;
@@ -26,6 +26,9 @@ import gaiasky.util.parse.Parser;
 import net.jafama.FastMath;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Octree node implementation which contains a list of {@link IPosition} objects
@@ -34,33 +37,37 @@ import java.util.*;
  * @author Toni Sagrista
  */
 public class OctreeNode implements ILineRenderable {
+    /**
+     * Observed octants and objects of all the octrees in the last frame, summed in the main
+     * thread from the {@link UpdateState} of each octree after the scene graph update
+     **/
     public static int nOctantsObserved = 0;
     public static int nObjectsObserved = 0;
     /** Max depth of the structure this node belongs to **/
     public static int maxDepth;
     /** Is dynamic loading active? **/
     public static boolean LOAD_ACTIVE;
+    /** Computes the load priority of the octants **/
+    public static ILoadPriorityPolicy LOAD_PRIORITY_POLICY = new ViewLoadPriorityPolicy();
 
     /**
-     * Since OctreeNode is not to be parallelized, these can be static.
+     * Only used in rendering, which happens in the main thread. The update
+     * uses the scratch vectors of its {@link UpdateState}.
      **/
-    private static final Vector3d auxD1 = new Vector3d();
-    private static final Vector3d auxD2 = new Vector3d();
-    private static final Vector3d auxD3 = new Vector3d();
-    private static final Vector3d auxD4 = new Vector3d();
+    private static final Vector3d auxD4 = new Vector3d(), auxD5 = new Vector3d();
 
-    /** The load status of this node **/
+    /** The load status of this node, if it is not in a skeleton **/
     private LoadStatus status;
+    /** The skeleton with the geometry and status of this node, if it was read from metadata **/
+    private final OctreeSkeleton skeleton;
+    /** The id of this node in the skeleton **/
+    private final int nodeId;
     /** The unique page identifier **/
     public long pageId;
-    /** Contains the bottom-left-front position of the octant **/
-    public final Vector3d min;
-    /** Contains the top-right-back position of the octant **/
-    public final Vector3d max;
-    /** The centre of this octant **/
-    public final Vector3d centre;
-    /** Octant size in x, y and z **/
-    public final Vector3d size;
+    /** The centre of this octant, if it is not in a skeleton **/
+    private final Vector3d centre;
+    /** The half size of this octant in x, y and z, if it is not in a skeleton **/
+    private final Vector3d halfSize;
     /** Contains the depth level **/
     public final int depth;
     /** Number of objects contained in this node and its descendants **/
@@ -83,8 +90,16 @@ public class OctreeNode implements ILineRenderable {
     public double distToCamera;
     /** Is this octant observed in this frame? **/
     public boolean observed;
+    /** Last time, in ms, this octant was observed. Used by the loader to cancel stale requests **/
+    public volatile long lastObservedMs;
+    /** Load priority, refreshed every frame while observed and not loaded. See {@link ILoadPriorityPolicy} **/
+    public volatile double loadPriority;
+    /** The prefetcher expects this octant to be observed until this time, in ms **/
+    public volatile long prefetchUntilMs;
     /** The opacity of this node **/
     public float opacity;
+    /** State of the parallel update task rooted at this node, if any, reused every frame **/
+    private UpdateState updateState;
 
     /**
      * Constructs an octree node
@@ -98,10 +113,10 @@ public class OctreeNode implements ILineRenderable {
      * @param depth
      */
     private OctreeNode(double x, double y, double z, double hsx, double hsy, double hsz, int depth) {
-        this.min = new Vector3d(x - hsx, y - hsy, z - hsz);
-        this.max = new Vector3d(x + hsx, y + hsy, z + hsz);
+        this.skeleton = null;
+        this.nodeId = OctreeSkeleton.NO_NODE;
         this.centre = new Vector3d(x, y, z);
-        this.size = new Vector3d(hsx * 2, hsy * 2, hsz * 2);
+        this.halfSize = new Vector3d(hsx, hsy, hsz);
         this.depth = depth;
         this.observed = false;
         this.status = LoadStatus.NOT_LOADED;
@@ -121,15 +136,33 @@ public class OctreeNode implements ILineRenderable {
      * @param depth
      */
     public OctreeNode(long pageId, double x, double y, double z, double hsx, double hsy, double hsz, int depth) {
+        this(x, y, z, hsx, hsy, hsz, depth);
         this.pageId = pageId;
-        this.min = new Vector3d(x - hsx, y - hsy, z - hsz);
-        this.max = new Vector3d(x + hsx, y + hsy, z + hsz);
-        this.centre = new Vector3d(x, y, z);
-        this.size = new Vector3d(hsx * 2, hsy * 2, hsz * 2);
+    }
+
+    /**
+     * Constructs an octree node whose geometry and status are held by the given skeleton
+     *
+     * @param skeleton      The skeleton
+     * @param nodeId        The id of this node in the skeleton
+     * @param pageId        The octant id
+     * @param childrenCount Number of children nodes
+     * @param nObjects      Number of objects contained in this node and its descendants
+     * @param ownObjects    Number of objects contained in this node
+     * @param depth         The depth
+     */
+    OctreeNode(OctreeSkeleton skeleton, int nodeId, long pageId, int childrenCount, int nObjects, int ownObjects, int depth) {
+        this.skeleton = skeleton;
+        this.nodeId = nodeId;
+        this.pageId = pageId;
+        this.centre = null;
+        this.halfSize = null;
+        this.radius = 0;
         this.depth = depth;
         this.observed = false;
-        this.status = LoadStatus.NOT_LOADED;
-        this.radius = Math.sqrt(hsx * hsx + hsy * hsy + hsz * hsz);
+        this.numChildren = childrenCount;
+        this.numObjectsRec = nObjects;
+        this.numObjects = ownObjects;
     }
 
     /**
@@ -239,41 +272,6 @@ public class OctreeNode implements ILineRenderable {
         return has;
     }
 
-    /**
-     * Resolves and adds the children of this node using the map. It runs
-     * recursively once the children have been added.
-     *
-     * @param map
-     */
-    public void resolveChildren(Map<Long, Pair<OctreeNode, long[]>> map) {
-        Pair<OctreeNode, long[]> me = map.get(pageId);
-        if (me == null) {
-            throw new RuntimeException("OctreeNode with page ID " + pageId + " not found in map");
-        }
-
-        long[] childrenIds = me.getSecond();
-        int i = 0;
-        for (long childId : childrenIds) {
-            if (childId != -1) {
-                // Child exists
-                OctreeNode child = map.get(childId).getFirst();
-                children[i] = child;
-                child.parent = this;
-            } else {
-                // No node in this position
-            }
-            i++;
-        }
-
-        // Recursive running
-        for (int j = 0; j < children.length; j++) {
-            OctreeNode child = children[j];
-            if (child != null) {
-                child.resolveChildren(map);
-            }
-        }
-    }
-
     public float getOpacity() {
         return opacity;
     }
@@ -301,11 +299,11 @@ public class OctreeNode implements ILineRenderable {
 
     public boolean insert(SceneGraphNode e, int level) {
         int node = 0;
-        if (e.getPosition().y > min.y + ((max.y - min.y) / 2))
+        if (e.getPosition().y > getCentreY())
             node += 4;
-        if (e.getPosition().z > min.z + ((max.z - min.z) / 2))
+        if (e.getPosition().z > getCentreZ())
             node += 2;
-        if (e.getPosition().x > min.x + ((max.x - min.x) / 2))
+        if (e.getPosition().x > getCentreX())
             node += 1;
         if (level == this.depth + 1) {
             return children[node].add(e);
@@ -460,7 +458,7 @@ public class OctreeNode implements ILineRenderable {
         return numNodes;
     }
 
-    ComponentTypes ct = new ComponentTypes(ComponentType.Others);
+    private static final ComponentTypes ct = new ComponentTypes(ComponentType.Others);
 
     @Override
     public ComponentTypes getComponentType() {
@@ -473,11 +471,13 @@ public class OctreeNode implements ILineRenderable {
     }
 
     public boolean contains(double x, double y, double z) {
-        return min.x <= x && max.x >= x && min.y <= y && max.y >= y && min.z <= z && max.z >= z;
+        double cx = getCentreX(), cy = getCentreY(), cz = getCentreZ();
+        double hsx = getHalfSizeX(), hsy = getHalfSizeY(), hsz = getHalfSizeZ();
+        return cx - hsx <= x && cx + hsx >= x && cy - hsy <= y && cy + hsy >= y && cz - hsz <= z && cz + hsz >= z;
     }
 
     public boolean contains(Vector3d v) {
-        return min.x <= v.x && max.x >= v.x && min.y <= v.y && max.y >= v.y && min.z <= v.z && max.z >= v.z;
+        return contains(v.x, v.y, v.z);
     }
 
     /**
@@ -529,19 +529,39 @@ public class OctreeNode implements ILineRenderable {
 
     /**
      * Computes the observed value and the transform of each observed node.
+     * If multithreading is on and the split depth ({@link gaiasky.util.GlobalConf.PerformanceConf#OCTREE_SPLIT_DEPTH})
+     * is positive, the subtrees below the split depth are traversed in parallel
+     * in the fork-join common pool. Each subtree collects its objects, octants
+     * to load and octants to touch separately, and the results are merged in
+     * child order, so that the output is the same as in the serial traversal.
+     * Octants are queued and touched in the calling thread, after the traversal.
+     * Octrees may be updated at the same time, so each one has its own state.
      *
      * @param parentTransform The parent transform.
      * @param cam             The current camera.
      * @param roulette        List where the nodes to be processed are to be added.
      * @param opacity         The opacity to set.
+     * @param state           The update state of this octree, with the observed counts afterwards.
      */
-    public void update(Vector3d parentTransform, ICamera cam, List<SceneGraphNode> roulette, float opacity) {
+    public void update(Vector3d parentTransform, ICamera cam, List<SceneGraphNode> roulette, float opacity, UpdateState state) {
+        int splitDepth = GlobalConf.performance.MULTITHREADING ? GlobalConf.performance.OCTREE_SPLIT_DEPTH : 0;
+        state.reset(roulette, splitDepth);
+        if (splitDepth > 0 && depth < splitDepth) {
+            ForkJoinPool.commonPool().invoke(new UpdateTask(this, cam, opacity, state));
+        } else {
+            update(cam, opacity, state);
+        }
+        state.flush();
+    }
+
+    private void update(ICamera cam, float opacity, UpdateState state) {
         this.opacity = opacity;
         this.observed = false;
 
         // Compute distance and view angle
-        distToCamera = auxD1.set(centre).add(cam.getInversePos()).len();
+        distToCamera = getCentre(state.aux1).add(cam.getInversePos()).len();
         // View angle is normalized to 40 degrees when the octant is exactly the size of the screen height, regardless of the camera fov
+        double radius = getRadius();
         viewAngle = Math.atan(radius / distToCamera) * 2;
 
         float cf = MathUtilsd.clamp(cam.getFovFactor() * 2.5f, 0.15f, 1f);
@@ -551,24 +571,30 @@ public class OctreeNode implements ILineRenderable {
         if (viewAngle < th0) {
             // Not observed
             setChildrenObserved(false);
-        } else if (this.observed = computeObserved(cam)) {
-            nOctantsObserved++;
+        } else if (this.observed = computeObserved(cam, state)) {
+            state.nOctants++;
+            lastObservedMs = TimeUtils.millis();
             //int L_DEPTH = 5;
             /**
              * Load lists of pages
              */
+            LoadStatus status = getStatus();
             if (status == LoadStatus.NOT_LOADED && LOAD_ACTIVE /*&& depth == L_DEPTH*/) {
                 // Add to load and go on
-                StreamingOctreeLoader.queue(this);
+                loadPriority = LOAD_PRIORITY_POLICY.priority(this, cam);
+                state.toLoad.add(this);
             } else if (status == LoadStatus.LOADED) {
                 // Visited last!
-                StreamingOctreeLoader.touch(this);
+                state.toTouch.add(this);
 
                 // Add objects
                 //if (depth == L_DEPTH)
-                addObjectsTo(roulette);
+                addObjectsTo(state);
             } else if (status == LoadStatus.QUEUED) {
-                // What do? Move first in queue?
+                // Refresh priority, the queue picks it up in place
+                loadPriority = LOAD_PRIORITY_POLICY.priority(this, cam);
+                // If it is only prefetched, it must not wait for the prefetch budget
+                state.toPromote.add(this);
             }
             double alpha = 1;
             if (GlobalConf.scene.OCTREE_PARTICLE_FADE && viewAngle < th1) {
@@ -578,21 +604,40 @@ public class OctreeNode implements ILineRenderable {
             this.opacity *= alpha;
 
             // Update children
-            for (int i = 0; i < 8; i++) {
-                OctreeNode child = children[i];
-                if (child != null /*&& child.depth <= L_DEPTH*/) {
-                    child.update(parentTransform, cam, roulette, this.opacity);
+            if (depth + 1 == state.splitDepth) {
+                // Fork one task per child and merge in order
+                UpdateTask[] tasks = new UpdateTask[8];
+                int n = 0;
+                for (int i = 0; i < 8; i++) {
+                    OctreeNode child = children[i];
+                    if (child != null) {
+                        if (child.updateState == null)
+                            child.updateState = new UpdateState(new ArrayList<>());
+                        child.updateState.reset(child.updateState.roulette, 0);
+                        tasks[n++] = new UpdateTask(child, cam, this.opacity, child.updateState);
+                    }
+                }
+                ForkJoinTask.invokeAll(Arrays.copyOf(tasks, n));
+                for (int i = 0; i < n; i++) {
+                    state.merge(tasks[i].state);
+                }
+            } else {
+                for (int i = 0; i < 8; i++) {
+                    OctreeNode child = children[i];
+                    if (child != null /*&& child.depth <= L_DEPTH*/) {
+                        child.update(cam, this.opacity, state);
+                    }
                 }
             }
 
         }
     }
 
-    private void addObjectsTo(List<SceneGraphNode> roulette) {
+    private void addObjectsTo(UpdateState state) {
         if (objects != null) {
-            roulette.addAll(objects);
+            state.roulette.addAll(objects);
             for (SceneGraphNode obj : objects) {
-                nObjectsObserved += obj.getStarCount();
+                state.nObjects += obj.getStarCount();
             }
         }
     }
@@ -616,24 +661,26 @@ public class OctreeNode implements ILineRenderable {
      * @param cam The camera
      * @return Whether the octant is observed
      */
-    private boolean computeObserved(ICamera cam) {
-        return cam.getMode().isGaiaFov() || computeObservedFast(cam);
+    private boolean computeObserved(ICamera cam, UpdateState state) {
+        return cam.getMode().isGaiaFov() || computeObservedFast(cam, state);
     }
 
     /**
      * Simplification to compute octant visibility. Angle between camera direction and octant centre
      * must be smaller than fov/2 plus a correction (approximates octants to spheres)
      *
-     * @param cam The camera
+     * @param cam   The camera
+     * @param state The update state, with the scratch vectors
      * @return Whether the octant is observed
      */
-    private boolean computeObservedFast(ICamera cam) {
+    private boolean computeObservedFast(ICamera cam, UpdateState state) {
         // vector from camera to center of box
-        Vector3d cpospos = auxD1.set(centre).sub(cam.getPos());
-        // auxD2 rotation axis
-        Vector3d axis = auxD2.set(cam.getDirection()).crs(centre);
-        Vector3d edge = auxD3.set(cam.getDirection()).rotate(axis, cam.getCamera().fieldOfView / 2d);
+        Vector3d cpospos = getCentre(state.aux1).sub(cam.getPos());
+        // aux2 rotation axis
+        Vector3d axis = state.aux2.set(cam.getDirection()).crs(getCentre(state.aux4)).nor();
+        Vector3d edge = state.rotate(cam.getDirection(), axis, cam.getCamera().fieldOfView / 2d);
         // get angle at edge (when far side is radius)
+        double radius = getRadius();
         double angle1 = FastMath.toDegrees(FastMath.atan(radius / cpospos.len()));
         // get actual angle
         double angle2 = edge.angle(cpospos);
@@ -641,13 +688,61 @@ public class OctreeNode implements ILineRenderable {
         return distToCamera <= radius || angle2 < angle1;
     }
 
+    /**
+     * Gets the radius of the sphere containing this octant
+     *
+     * @return The radius
+     */
+    public double getRadius() {
+        return skeleton != null ? skeleton.getRadius(nodeId) : radius;
+    }
+
+    /**
+     * Gets the centre of this octant
+     *
+     * @param out The vector to put the centre in
+     * @return The out vector
+     */
+    public Vector3d getCentre(Vector3d out) {
+        if (skeleton != null)
+            return out.set(skeleton.getCentreX(nodeId), skeleton.getCentreY(nodeId), skeleton.getCentreZ(nodeId));
+        return out.set(centre);
+    }
+
+    public double getCentreX() {
+        return skeleton != null ? skeleton.getCentreX(nodeId) : centre.x;
+    }
+
+    public double getCentreY() {
+        return skeleton != null ? skeleton.getCentreY(nodeId) : centre.y;
+    }
+
+    public double getCentreZ() {
+        return skeleton != null ? skeleton.getCentreZ(nodeId) : centre.z;
+    }
+
+    public double getHalfSizeX() {
+        return skeleton != null ? skeleton.getHalfSizeX(nodeId) : halfSize.x;
+    }
+
+    public double getHalfSizeY() {
+        return skeleton != null ? skeleton.getHalfSizeY(nodeId) : halfSize.y;
+    }
+
+    public double getHalfSizeZ() {
+        return skeleton != null ? skeleton.getHalfSizeZ(nodeId) : halfSize.z;
+    }
+
     public LoadStatus getStatus() {
-        return status;
+        return skeleton != null ? skeleton.getStatus(nodeId) : status;
     }
 
     public void setStatus(LoadStatus status) {
         synchronized (status) {
-            this.status = status;
+            if (skeleton != null)
+                skeleton.setStatus(nodeId, status);
+            else
+                this.status = status;
         }
     }
 
@@ -676,6 +771,7 @@ public class OctreeNode implements ILineRenderable {
      * @param n The number of stars loaded or unloaded.
      **/
     public synchronized void touch(int n) {
+        LoadStatus status = getStatus();
         if (status == LoadStatus.NOT_LOADED) {
             // We unloaded n stars
             this.numObjects = 0;
@@ -792,7 +888,9 @@ public class OctreeNode implements ILineRenderable {
         if (this.col.a > 0) {
             // Camera correction
             Vector3d loc = auxD4;
-            loc.set(this.min).add(camera.getInversePos());
+            double hsx = getHalfSizeX(), hsy = getHalfSizeY(), hsz = getHalfSizeZ();
+            getCentre(loc).sub(hsx, hsy, hsz).add(camera.getInversePos());
+            Vector3d size = auxD5.set(hsx * 2, hsy * 2, hsz * 2);
 
             /*
              * .·------· .' | .'| +---+--·' | | | | | | ,+--+---· |.' | .'
@@ -883,4 +981,108 @@ public class OctreeNode implements ILineRenderable {
     public int getGlPrimitive() {
         return GL20.GL_LINE_STRIP;
     }
+
+    /**
+     * Results and scratch state of the update of a (sub)tree. Each octree and each
+     * parallel task has its own, so that no state is shared between threads.
+     */
+    public static class UpdateState {
+        private final Vector3d aux1 = new Vector3d(), aux2 = new Vector3d(), aux3 = new Vector3d(), aux4 = new Vector3d();
+        /** Observed octants which need to be loaded, in traversal order **/
+        private final List<OctreeNode> toLoad = new ArrayList<>();
+        /** Observed octants which are loaded, in traversal order **/
+        private final List<OctreeNode> toTouch = new ArrayList<>();
+        /** Observed octants which are queued, in traversal order **/
+        private final List<OctreeNode> toPromote = new ArrayList<>();
+        private List<SceneGraphNode> roulette;
+        private int splitDepth;
+        private int nOctants, nObjects;
+
+        public UpdateState() {
+            this(null);
+        }
+
+        UpdateState(List<SceneGraphNode> roulette) {
+            this.roulette = roulette;
+        }
+
+        /** Number of observed octants in the last update **/
+        public int getNOctants() {
+            return nOctants;
+        }
+
+        /** Number of observed objects in the last update **/
+        public int getNObjects() {
+            return nObjects;
+        }
+
+        void reset(List<SceneGraphNode> roulette, int splitDepth) {
+            this.roulette = roulette;
+            this.splitDepth = splitDepth;
+            this.roulette.clear();
+            this.toLoad.clear();
+            this.toTouch.clear();
+            this.toPromote.clear();
+            this.nOctants = 0;
+            this.nObjects = 0;
+        }
+
+        /**
+         * Rotates the vector around the unit axis with Rodrigues' formula, without the shared
+         * scratch matrices of {@link Vector3d#rotate(Vector3d, double)}
+         *
+         * @return The rotated vector, in aux3
+         */
+        Vector3d rotate(Vector3d v, Vector3d axis, double degrees) {
+            double rad = Math.toRadians(degrees);
+            double cos = Math.cos(rad), sin = Math.sin(rad);
+            double dot = axis.dot(v);
+            return aux3.set(v).scl(cos).add(aux4.set(axis).crs(v).scl(sin)).add(axis.x * dot * (1 - cos), axis.y * dot * (1 - cos), axis.z * dot * (1 - cos));
+        }
+
+        /** Appends the results of a subtree traversed after the ones already in **/
+        void merge(UpdateState other) {
+            roulette.addAll(other.roulette);
+            toLoad.addAll(other.toLoad);
+            toTouch.addAll(other.toTouch);
+            toPromote.addAll(other.toPromote);
+            nOctants += other.nOctants;
+            nObjects += other.nObjects;
+        }
+
+        /** Queues and touches the octants, in the calling thread **/
+        void flush() {
+            for (OctreeNode octant : toLoad)
+                StreamingOctreeLoader.queue(octant);
+            for (OctreeNode octant : toTouch)
+                StreamingOctreeLoader.touch(octant);
+            for (OctreeNode octant : toPromote)
+                StreamingOctreeLoader.promote(octant);
+            toLoad.clear();
+            toTouch.clear();
+            toPromote.clear();
+        }
+    }
+
+    /**
+     * Updates a subtree in the fork-join pool
+     */
+    private static class UpdateTask extends RecursiveAction {
+        private final OctreeNode octant;
+        private final ICamera cam;
+        private final float opacity;
+        private final UpdateState state;
+
+        UpdateTask(OctreeNode octant, ICamera cam, float opacity, UpdateState state) {
+            this.octant = octant;
+            this.cam = cam;
+            this.opacity = opacity;
+            this.state = state;
+        }
+
+        @Override
+        protected void compute() {
+            octant.update(cam, opacity, state);
+        }
+    }
 }
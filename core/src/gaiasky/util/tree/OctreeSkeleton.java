@@ -0,0 +1,229 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.tree;
+
+import com.badlogic.gdx.utils.IntIntMap;
+
+/**
+ * Flat representation of the octree metadata. The octants are indexed by a dense node id,
+ * in the order in which they were added, and their data is stored in parallel primitive arrays.
+ * <p>
+ * The skeleton is filled in a single pass over the metadata file and resolved with a
+ * primitive page id index, so that reading needs no per-node allocations other than
+ * the {@link OctreeNode} objects created by {@link #toOctree(LoadStatus)}. Once the octree is
+ * built, only the geometry and the load status are retained. The nodes are views of these,
+ * so that they hold no vectors of their own and the traversal reads them from contiguous
+ * arrays. The counts and the children are only kept while reading.
+ *
+ * @author tsagrista
+ */
+public class OctreeSkeleton {
+    /** Id of an empty child position **/
+    public static final int NO_NODE = -1;
+    private static final LoadStatus[] STATUSES = LoadStatus.values();
+
+    /** Number of nodes **/
+    private int n;
+    private int root = NO_NODE;
+    private int maxDepth;
+
+    /** Centres, 3 per node, as in the metadata **/
+    private final float[] centre;
+    /** Half sizes, 3 per node **/
+    private final float[] halfSize;
+    /** Radii of the bounding spheres **/
+    private final double[] radius;
+    /** Load status ordinals **/
+    private final byte[] status;
+
+    /** Read buffers, dropped once the octree is built **/
+    private long[] pageId;
+    private int[] depth;
+    /** Number of objects in the node and its descendants **/
+    private int[] numObjectsRec;
+    /** Number of objects in the node **/
+    private int[] numObjects;
+    private int[] numChildren;
+    /** Children ids, 8 per node **/
+    private int[] children;
+    /** Page id to node id **/
+    private IntIntMap index;
+    private boolean resolved = false;
+
+    /**
+     * Creates an empty skeleton for the given number of nodes
+     *
+     * @param capacity The number of nodes
+     */
+    public OctreeSkeleton(int capacity) {
+        centre = new float[capacity * 3];
+        halfSize = new float[capacity * 3];
+        radius = new double[capacity];
+        status = new byte[capacity];
+        pageId = new long[capacity];
+        depth = new int[capacity];
+        numObjectsRec = new int[capacity];
+        numObjects = new int[capacity];
+        numChildren = new int[capacity];
+        children = new int[capacity * 8];
+        index = new IntIntMap(capacity);
+    }
+
+    /**
+     * Adds a node. The children are given as page ids, and are resolved to node ids
+     * in {@link #resolve()}, once all nodes have been added.
+     *
+     * @param pageId        The page id
+     * @param x             The x coordinate of the centre
+     * @param y             The y coordinate of the centre
+     * @param z             The z coordinate of the centre
+     * @param hsx           The half-size in x
+     * @param hsy           The half-size in y
+     * @param hsz           The half-size in z
+     * @param childrenIds   The page ids of the 8 children, negative if there is no child in the position
+     * @param depth         The depth
+     * @param nObjects      Number of objects in the node and its descendants
+     * @param ownObjects    Number of objects in the node
+     * @param childrenCount Number of children
+     * @return The id of the new node
+     */
+    public int add(long pageId, float x, float y, float z, float hsx, float hsy, float hsz, int[] childrenIds, int depth, int nObjects, int ownObjects, int childrenCount) {
+        if (resolved)
+            throw new IllegalStateException("Can't add nodes to a resolved octree skeleton");
+        int id = n++;
+        this.centre[id * 3] = x;
+        this.centre[id * 3 + 1] = y;
+        this.centre[id * 3 + 2] = z;
+        this.halfSize[id * 3] = hsx;
+        this.halfSize[id * 3 + 1] = hsy;
+        this.halfSize[id * 3 + 2] = hsz;
+        this.radius[id] = Math.sqrt((double) hsx * hsx + (double) hsy * hsy + (double) hsz * hsz);
+        this.pageId[id] = pageId;
+        System.arraycopy(childrenIds, 0, children, id * 8, 8);
+        this.depth[id] = depth;
+        this.numObjectsRec[id] = nObjects;
+        this.numObjects[id] = ownObjects;
+        this.numChildren[id] = childrenCount;
+        index.put((int) pageId, id);
+
+        maxDepth = Math.max(maxDepth, depth);
+        if (depth == 0)
+            root = id;
+        return id;
+    }
+
+    /**
+     * Translates the children page ids to node ids.
+     */
+    public void resolve() {
+        for (int id = 0; id < n; id++) {
+            int base = id * 8;
+            for (int i = 0; i < 8; i++) {
+                int childPageId = children[base + i];
+                if (childPageId >= 0) {
+                    int child = index.get(childPageId, NO_NODE);
+                    if (child == NO_NODE) {
+                        throw new RuntimeException("OctreeNode with page ID " + childPageId + " not found in metadata");
+                    }
+                    children[base + i] = child;
+                } else {
+                    children[base + i] = NO_NODE;
+                }
+            }
+        }
+        resolved = true;
+    }
+
+    /**
+     * Creates the {@link OctreeNode} objects of all nodes as views of this skeleton, links them,
+     * and drops the read buffers. Can only be called once.
+     *
+     * @param status The load status of the nodes, or null
+     * @return The root node, or null if there is no root
+     */
+    public OctreeNode toOctree(LoadStatus status) {
+        if (children == null)
+            throw new IllegalStateException("The octree of this skeleton has already been built");
+        if (!resolved)
+            resolve();
+        OctreeNode[] nodes = new OctreeNode[n];
+        for (int id = 0; id < n; id++) {
+            this.status[id] = (byte) (status != null ? status : LoadStatus.NOT_LOADED).ordinal();
+            nodes[id] = new OctreeNode(this, id, pageId[id], numChildren[id], numObjectsRec[id], numObjects[id], depth[id]);
+        }
+        for (int id = 0; id < n; id++) {
+            OctreeNode node = nodes[id];
+            int base = id * 8;
+            for (int i = 0; i < 8; i++) {
+                int child = children[base + i];
+                if (child != NO_NODE) {
+                    node.children[i] = nodes[child];
+                    nodes[child].parent = node;
+                }
+            }
+        }
+        pageId = null;
+        depth = numObjectsRec = numObjects = numChildren = children = null;
+        index = null;
+        return root != NO_NODE ? nodes[root] : null;
+    }
+
+    /**
+     * Gets the node id of the given page id, only while reading
+     *
+     * @param pageId The page id
+     * @return The node id, or {@link #NO_NODE} if it does not exist
+     */
+    public int indexOf(long pageId) {
+        if (index == null || pageId < Integer.MIN_VALUE || pageId > Integer.MAX_VALUE)
+            return NO_NODE;
+        return index.get((int) pageId, NO_NODE);
+    }
+
+    public double getCentreX(int id) {
+        return centre[id * 3];
+    }
+
+    public double getCentreY(int id) {
+        return centre[id * 3 + 1];
+    }
+
+    public double getCentreZ(int id) {
+        return centre[id * 3 + 2];
+    }
+
+    public double getHalfSizeX(int id) {
+        return halfSize[id * 3];
+    }
+
+    public double getHalfSizeY(int id) {
+        return halfSize[id * 3 + 1];
+    }
+
+    public double getHalfSizeZ(int id) {
+        return halfSize[id * 3 + 2];
+    }
+
+    public double getRadius(int id) {
+        return radius[id];
+    }
+
+    public LoadStatus getStatus(int id) {
+        return STATUSES[status[id]];
+    }
+
+    public void setStatus(int id, LoadStatus status) {
+        this.status[id] = (byte) status.ordinal();
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+}
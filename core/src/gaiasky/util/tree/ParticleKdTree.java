@@ -0,0 +1,345 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.tree;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Static k-d tree over the particles of a group, to find the candidates of cone and
+ * line queries without visiting all the particles. The tree only stores a permutation of
+ * the particle indices and the bounds of its nodes, and the particles are read from a
+ * {@link Source} only while building.
+ * <p>
+ * Nodes are split at the median of the widest axis of their positions, so the tree is
+ * balanced and stored implicitly: the children of node k are 2k+1 and 2k+2. Each node
+ * keeps the bounds of the positions at the epoch, the bounds of the proper motions and the
+ * largest size of its particles, so that queries at any time are answered with the bounds
+ * moved by the proper motions.
+ * <p>
+ * Queries are conservative: they report all the particles which may pass the test, and
+ * some which do not, in no particular order. The exact test must be done by the caller.
+ *
+ * @author tsagrista
+ */
+public class ParticleKdTree {
+    /** Maximum number of particles in a leaf **/
+    private static final int LEAF_SIZE = 32;
+    /** Relative slack of the tolerances, to cover the rounding of the exact tests **/
+    private static final double SLACK = 1.01;
+
+    /**
+     * Data of the particles, read while building
+     */
+    public interface Source {
+        double x(int i);
+
+        double y(int i);
+
+        double z(int i);
+
+        /** Whether the particles have proper motions, otherwise they are not read **/
+        default boolean hasProperMotions() {
+            return false;
+        }
+
+        /** Proper motion in x, in internal units per year **/
+        default double pmx(int i) {
+            return 0;
+        }
+
+        default double pmy(int i) {
+            return 0;
+        }
+
+        default double pmz(int i) {
+            return 0;
+        }
+
+        /** Size of the particle, the radius is this times the radius scale of the queries **/
+        default double size(int i) {
+            return 1;
+        }
+    }
+
+    private final int n;
+    private final int[] perm;
+    /** Index range of each node in the permutation **/
+    private final int[] start, end;
+    /** Position bounds of each node, min x, y, z and max x, y, z **/
+    private final double[] pos;
+    /** Proper motion bounds of each node, as the positions, null if there are no proper motions **/
+    private final double[] pm;
+    /** Largest size of each node **/
+    private final double[] size;
+
+    /**
+     * Builds the tree
+     *
+     * @param n      The number of particles
+     * @param source The data of the particles
+     */
+    public ParticleKdTree(int n, Source source) {
+        this.n = n;
+        this.perm = new int[n];
+        for (int i = 0; i < n; i++)
+            perm[i] = i;
+
+        int depth = 0;
+        while ((n >> depth) > LEAF_SIZE)
+            depth++;
+        int nodes = (1 << (depth + 1)) - 1;
+        this.start = new int[nodes];
+        this.end = new int[nodes];
+        this.pos = new double[nodes * 6];
+        this.pm = source.hasProperMotions() ? new double[nodes * 6] : null;
+        this.size = new double[nodes];
+
+        double[][] xyz = new double[3][n];
+        for (int i = 0; i < n; i++) {
+            xyz[0][i] = source.x(i);
+            xyz[1][i] = source.y(i);
+            xyz[2][i] = source.z(i);
+        }
+        for (int k = 0; k < nodes; k++)
+            start[k] = -1;
+        split(0, 0, n, xyz);
+        bounds(0, source);
+    }
+
+    private void split(int node, int from, int to, double[][] xyz) {
+        start[node] = from;
+        end[node] = to;
+        if (to - from <= LEAF_SIZE || 2 * node + 2 >= start.length)
+            return;
+        // Widest axis
+        int axis = 0;
+        double widest = -1;
+        for (int a = 0; a < 3; a++) {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int j = from; j < to; j++) {
+                double v = xyz[a][perm[j]];
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                axis = a;
+            }
+        }
+        int mid = (from + to) >>> 1;
+        select(xyz[axis], from, to - 1, mid);
+        split(2 * node + 1, from, mid, xyz);
+        split(2 * node + 2, mid, to, xyz);
+    }
+
+    /**
+     * Moves the k-th smallest key of the range to position k, with smaller or equal keys before it
+     */
+    private void select(double[] key, int lo, int hi, int k) {
+        while (hi > lo) {
+            double pivot = key[perm[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (key[perm[i]] < pivot)
+                    i++;
+                while (key[perm[j]] > pivot)
+                    j--;
+                if (i <= j) {
+                    int t = perm[i];
+                    perm[i++] = perm[j];
+                    perm[j--] = t;
+                }
+            }
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    private void bounds(int node, Source source) {
+        int l = 2 * node + 1;
+        if (l < start.length && start[l] >= 0) {
+            bounds(l, source);
+            bounds(l + 1, source);
+            union(pos, node, l, l + 1);
+            if (pm != null)
+                union(pm, node, l, l + 1);
+            size[node] = Math.max(size[l], size[l + 1]);
+        } else {
+            init(pos, node);
+            if (pm != null)
+                init(pm, node);
+            double s = 0;
+            for (int j = start[node]; j < end[node]; j++) {
+                int i = perm[j];
+                ext(pos, node, source.x(i), source.y(i), source.z(i));
+                if (pm != null)
+                    ext(pm, node, source.pmx(i), source.pmy(i), source.pmz(i));
+                s = Math.max(s, source.size(i));
+            }
+            size[node] = s;
+        }
+    }
+
+    private static void init(double[] b, int node) {
+        int o = node * 6;
+        for (int a = 0; a < 3; a++) {
+            b[o + a] = Double.POSITIVE_INFINITY;
+            b[o + 3 + a] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void ext(double[] b, int node, double x, double y, double z) {
+        int o = node * 6;
+        b[o] = Math.min(b[o], x);
+        b[o + 1] = Math.min(b[o + 1], y);
+        b[o + 2] = Math.min(b[o + 2], z);
+        b[o + 3] = Math.max(b[o + 3], x);
+        b[o + 4] = Math.max(b[o + 4], y);
+        b[o + 5] = Math.max(b[o + 5], z);
+    }
+
+    private static void union(double[] b, int node, int l, int r) {
+        int o = node * 6, ol = l * 6, or = r * 6;
+        for (int a = 0; a < 3; a++) {
+            b[o + a] = Math.min(b[ol + a], b[or + a]);
+            b[o + 3 + a] = Math.max(b[ol + 3 + a], b[or + 3 + a]);
+        }
+    }
+
+    /**
+     * Number of particles of the tree
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Reports the particles which may be within the given angle of a ray, that is, with
+     * angle(p - o, d) &le; max(angle, radiusAngle * radius / |p - o|), where p is the position
+     * of the particle after the given years of proper motion and radius is its size times
+     * the radius scale.
+     *
+     * @param ox          Origin of the ray
+     * @param dx          Direction of the ray, not necessarily normalized
+     * @param angle       The angle tolerance, in radians
+     * @param radiusAngle The factor of the apparent radius of the particles in the angle tolerance
+     * @param radiusScale The factor from sizes to radii
+     * @param deltaYears  The years of proper motion
+     * @param consumer    Gets the indices of the candidates
+     */
+    public void cone(double ox, double oy, double oz, double dx, double dy, double dz, double angle, double radiusAngle, double radiusScale, double deltaYears, IntConsumer consumer) {
+        double dlen = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (n == 0 || dlen == 0 || !Double.isFinite(dlen))
+            return;
+        dx /= dlen;
+        dy /= dlen;
+        dz /= dlen;
+        double[] origin = { ox, oy, oz };
+        double[] s = new double[4];
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            sphere(node, origin, deltaYears, s);
+            double cl = Math.sqrt(s[0] * s[0] + s[1] * s[1] + s[2] * s[2]);
+            double r = s[3];
+            if (cl > r) {
+                // Lower bound of the angle between the ray and the node
+                double cx = s[1] * dz - s[2] * dy, cy = s[2] * dx - s[0] * dz, cz = s[0] * dy - s[1] * dx;
+                double alpha = Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), s[0] * dx + s[1] * dy + s[2] * dz);
+                double beta = Math.asin(r / cl);
+                double tolerance = Math.max(angle, radiusAngle * radiusScale * size[node] / (cl - r)) * SLACK;
+                if (alpha - beta > tolerance)
+                    continue;
+            }
+            if (!visitLeaf(node, consumer)) {
+                stack[top++] = 2 * node + 1;
+                stack[top++] = 2 * node + 2;
+            }
+        }
+    }
+
+    /**
+     * Reports the particles which may be close to a line, that is, with
+     * distance(p - o, line) &lt; ratio * |p - o|, where p is the position of the particle after
+     * the given years of proper motion, o is the origin and the line goes through a and b,
+     * relative to the origin.
+     *
+     * @param ox         The origin
+     * @param ax         A point of the line, relative to the origin
+     * @param bx         Another point of the line, relative to the origin
+     * @param ratio      The largest distance to the line relative to the distance to the origin
+     * @param deltaYears The years of proper motion
+     * @param consumer   Gets the indices of the candidates
+     */
+    public void line(double ox, double oy, double oz, double ax, double ay, double az, double bx, double by, double bz, double ratio, double deltaYears, IntConsumer consumer) {
+        double dx = bx - ax, dy = by - ay, dz = bz - az;
+        double dlen = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (n == 0 || dlen == 0 || !Double.isFinite(dlen))
+            return;
+        dx /= dlen;
+        dy /= dlen;
+        dz /= dlen;
+        double[] origin = { ox, oy, oz };
+        double[] s = new double[4];
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            sphere(node, origin, deltaYears, s);
+            double cl = Math.sqrt(s[0] * s[0] + s[1] * s[1] + s[2] * s[2]);
+            double r = s[3];
+            // Distance from the centre to the line
+            double px = s[0] - ax, py = s[1] - ay, pz = s[2] - az;
+            double cx = py * dz - pz * dy, cy = pz * dx - px * dz, cz = px * dy - py * dx;
+            double dist = Math.sqrt(cx * cx + cy * cy + cz * cz);
+            if (dist - r > ratio * (cl + r) * SLACK)
+                continue;
+            if (!visitLeaf(node, consumer)) {
+                stack[top++] = 2 * node + 1;
+                stack[top++] = 2 * node + 2;
+            }
+        }
+    }
+
+    private boolean visitLeaf(int node, IntConsumer consumer) {
+        int l = 2 * node + 1;
+        if (l < start.length && start[l] >= 0)
+            return false;
+        for (int j = start[node]; j < end[node]; j++)
+            consumer.accept(perm[j]);
+        return true;
+    }
+
+    /**
+     * Bounding sphere of the node after the given years of proper motion, relative to the origin
+     *
+     * @param out Centre and radius
+     */
+    private void sphere(int node, double[] origin, double deltaYears, double[] out) {
+        int o = node * 6;
+        double r2 = 0;
+        for (int a = 0; a < 3; a++) {
+            double lo = pos[o + a], hi = pos[o + 3 + a];
+            if (pm != null) {
+                double m0 = pm[o + a] * deltaYears, m1 = pm[o + 3 + a] * deltaYears;
+                lo += Math.min(m0, m1);
+                hi += Math.max(m0, m1);
+            }
+            out[a] = (lo + hi) / 2 - origin[a];
+            r2 += (hi - lo) * (hi - lo) / 4;
+        }
+        // Grown a bit, so that the rounding of the positions of the particles never leaves them out
+        out[3] = Math.sqrt(r2) * SLACK + Math.ulp(Math.abs(out[0]) + Math.abs(out[1]) + Math.abs(out[2])) * 8;
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * This file is part of Gaia Sky, which is released under the Mozilla Public License 2.0.
+ * See the file LICENSE.md in the project root for full license details.
+ */
+
+package gaiasky.util.tree;
+
+import gaiasky.scenegraph.camera.ICamera;
+import gaiasky.util.TLV3D;
+import gaiasky.util.math.MathUtilsd;
+import gaiasky.util.math.Vector3d;
+
+/**
+ * Default load priority policy. Octants which cover a larger part of the view come first,
+ * so the octants filling the screen are loaded before small or distant ones, regardless
+ * of their depth. When the camera moves, octants in the direction of motion are boosted and
+ * octants behind are penalised, proportionally to how soon the camera reaches them.
+ *
+ * @author tsagrista
+ */
+public class ViewLoadPriorityPolicy implements ILoadPriorityPolicy {
+    private static final TLV3D aux3d = new TLV3D();
+
+    /** Time, in seconds, used to weigh the camera velocity **/
+    private final double lookaheadS;
+
+    public ViewLoadPriorityPolicy() {
+        this(2.0);
+    }
+
+    public ViewLoadPriorityPolicy(double lookaheadS) {
+        this.lookaheadS = lookaheadS;
+    }
+
+    @Override
+    public double priority(OctreeNode octant, ICamera camera) {
+        double priority = octant.viewAngle;
+        Vector3d vel = camera.getVelocity();
+        if (vel != null && octant.distToCamera > 0) {
+            double speed = vel.len();
+            if (speed > 0) {
+                Vector3d dir = octant.getCentre(aux3d.get()).sub(camera.getPos());
+                double len = dir.len();
+                double cos = len > 0 ? dir.dot(vel) / (len * speed) : 1;
+                // Fraction of the distance covered within the lookahead time
+                double weight = MathUtilsd.clamp(speed * lookaheadS / octant.distToCamera, 0, 1);
+                priority *= 1 + weight * cos;
+            }
+        }
+        return priority;
+    }
+}